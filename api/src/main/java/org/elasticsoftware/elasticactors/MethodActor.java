@@ -25,7 +25,9 @@ import org.elasticsoftware.elasticactors.state.PersistenceConfig;
 import org.elasticsoftware.elasticactors.state.PersistenceConfigHelper;
 
 import javax.annotation.Nullable;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.*;
@@ -38,20 +40,24 @@ import static java.lang.String.format;
 public abstract class MethodActor extends TypedActor<Object> implements PersistenceAdvisor {
     private static final Logger logger = LogManager.getLogger(MethodActor.class);
     private static final MessageHandlerOrderComparator ORDER_COMPARATOR = new MessageHandlerOrderComparator();
-    private final Map<Class<?>,List<HandlerMethodDefinition>> handlerCache = new HashMap<>();
+    // all handler methods are adapted to this type, the parameters they don't declare are dropped
+    private static final MethodType INVOKER_TYPE =
+            MethodType.methodType(void.class, ActorRef.class, Object.class, ActorState.class, ActorSystem.class);
+    private final Map<Class<?>,MessageHandlerDefinitions> handlerCache = new HashMap<>();
     @Nullable private final Class<? extends ActorState> stateClass;
 
     protected MethodActor() {
         this.stateClass = resolveActorStateClass();
+        final Map<Class<?>,List<HandlerMethodDefinition>> handlerDefinitions = new HashMap<>();
         // initialize the handler cache
-        updateHandlerCache(getClass(),this);
+        updateHandlerCache(handlerDefinitions,getClass(),this);
         // also see if there are any other classes that have MessageHandler definitions
         MessageHandlers otherHandlers = getClass().getAnnotation(MessageHandlers.class);
         if(otherHandlers != null) {
             for (Class<?> aClass : otherHandlers.value()) {
                 // avoid adding self again
                 if(getClass() != aClass) {
-                    updateHandlerCache(aClass,null);
+                    updateHandlerCache(handlerDefinitions,aClass,null);
                 }
             }
             // see if we have a MessageHandlersRegistry
@@ -64,7 +70,7 @@ public abstract class MethodActor extends TypedActor<Object> implements Persiste
                     List<Class<?>> messageHandlers = registry.getMessageHandlers(getClass());
                     if(messageHandlers != null) {
                         for (Class<?> messageHandler : messageHandlers) {
-                            updateHandlerCache(messageHandler,null);
+                            updateHandlerCache(handlerDefinitions,messageHandler,null);
                         }
                     }
                 } catch(Exception e) {
@@ -72,36 +78,48 @@ public abstract class MethodActor extends TypedActor<Object> implements Persiste
                 }
             }
         }
-        // order the MessageHandlers
-        orderHandlerCache();
+        // order the MessageHandlers and resolve the persistence config for every message class
+        for (Map.Entry<Class<?>,List<HandlerMethodDefinition>> entry : handlerDefinitions.entrySet()) {
+            List<HandlerMethodDefinition> definitions = entry.getValue();
+            definitions.sort(ORDER_COMPARATOR);
+            handlerCache.put(entry.getKey(), new MessageHandlerDefinitions(
+                    definitions.toArray(new HandlerMethodDefinition[definitions.size()]),
+                    resolveShouldUpdateState(entry.getKey(), definitions)));
+        }
     }
 
     @Override
     public final boolean shouldUpdateState(Object message) {
-        // need to take into account the loaded handlers here
-        final List<HandlerMethodDefinition> definitions = handlerCache.get(message.getClass());
+        final MessageHandlerDefinitions definitions = handlerCache.get(message.getClass());
         if(definitions != null) {
-            boolean configFound = false;
-            for (HandlerMethodDefinition definition : definitions) {
-                // see if we have a @PersistenceConfig on the declaring class
-                PersistenceConfig persistenceConfig = definition.handlerMethod.getDeclaringClass().getAnnotation(PersistenceConfig.class);
-                // if we need to persist, return
-                if(persistenceConfig != null) {
-                    configFound = true;
-                    if(PersistenceConfigHelper.shouldUpdateState(persistenceConfig,message)) {
-                        return true;
-                    }
+            return definitions.shouldUpdateState;
+        }
+        // no handlers for this message, look at the MethodActor itself
+        return PersistenceConfigHelper.shouldUpdateState(getClass().getAnnotation(PersistenceConfig.class),message);
+    }
+
+    private boolean resolveShouldUpdateState(Class<?> messageClass, List<HandlerMethodDefinition> definitions) {
+        // need to take into account the loaded handlers here
+        boolean configFound = false;
+        for (HandlerMethodDefinition definition : definitions) {
+            // see if we have a @PersistenceConfig on the declaring class
+            PersistenceConfig persistenceConfig = definition.handlerMethod.getDeclaringClass().getAnnotation(PersistenceConfig.class);
+            // if we need to persist, return
+            if(persistenceConfig != null) {
+                configFound = true;
+                if(PersistenceConfigHelper.shouldUpdateState(persistenceConfig,messageClass)) {
+                    return true;
                 }
-                // else search further
-            }
-            // if we are here, and we have a config found, then return false
-            if(configFound) {
-                return false;
             }
+            // else search further
+        }
+        // if we are here, and we have a config found, then return false
+        if(configFound) {
+            return false;
         }
         // if we are here, we might be dealing with a MessageHandlers class that is not annotated, so look the
         // MethodActor itself
-        return PersistenceConfigHelper.shouldUpdateState(getClass().getAnnotation(PersistenceConfig.class),message);
+        return PersistenceConfigHelper.shouldUpdateState(getClass().getAnnotation(PersistenceConfig.class),messageClass);
     }
 
     @Override
@@ -112,13 +130,8 @@ public abstract class MethodActor extends TypedActor<Object> implements Persiste
         return PersistenceConfigHelper.shouldUpdateState(persistenceConfig,lifecycleStep);
     }
 
-    private void orderHandlerCache() {
-        for (List<HandlerMethodDefinition> definitions : handlerCache.values()) {
-            Collections.sort(definitions,ORDER_COMPARATOR);
-        }
-    }
-
-    private void updateHandlerCache(Class<?> clazz,@Nullable Object instance) {
+    private void updateHandlerCache(Map<Class<?>,List<HandlerMethodDefinition>> handlerDefinitions,
+                                    Class<?> clazz,@Nullable Object instance) {
         final Method[] methods = clazz.getMethods();
         for (Method method : methods) {
             MessageHandler messageHandlerAnnotation = method.getAnnotation(MessageHandler.class);
@@ -138,7 +151,7 @@ public abstract class MethodActor extends TypedActor<Object> implements Persiste
                     definition = new HandlerMethodDefinition(instance, method, messageHandlerAnnotation.order());
 
                 }
-                List<HandlerMethodDefinition> definitions = handlerCache.computeIfAbsent(definition.messageClass, k -> new LinkedList<>());
+                List<HandlerMethodDefinition> definitions = handlerDefinitions.computeIfAbsent(definition.messageClass, k -> new ArrayList<>());
                 definitions.add(definition);
             }
         }
@@ -159,21 +172,19 @@ public abstract class MethodActor extends TypedActor<Object> implements Persiste
 
     @Override
     public void onReceive(ActorRef sender, Object message) throws Exception {
-        List<HandlerMethodDefinition> definitions = handlerCache.get(message.getClass());
+        final MessageHandlerDefinitions definitions = handlerCache.get(message.getClass());
         if(definitions != null) {
-            for (HandlerMethodDefinition definition : definitions) {
+            for (HandlerMethodDefinition definition : definitions.definitions) {
                 try {
-                    definition.handlerMethod.invoke(definition.targetInstance,definition.prepareParameters(sender,message));
-                } catch (InvocationTargetException e) {
-                    final Throwable cause = e.getCause();
-                    if(Exception.class.isAssignableFrom(cause.getClass())) {
-                        // throw (Exception) cause;
-                        logger.error(format("Unexpected Exception in handlerMethod: %s",definition.handlerMethod.toString()), cause);
-                    } else {
-                        // this is some system error, don't swallow it but just rethrow the Invocation Target Exception
-                        // throw e;
-                        logger.error(format("Unexpected InvocationTargetException in handlerMethod: %s",definition.handlerMethod.toString()), e);
-                    }
+                    // only look up the state and actor system when the handler method needs them
+                    final ActorState state = definition.needsState ? getState(stateClass) : null;
+                    final ActorSystem actorSystem = definition.needsActorSystem ? getSystem() : null;
+                    definition.invoker.invokeExact(sender, message, state, actorSystem);
+                } catch (Exception e) {
+                    logger.error(format("Unexpected Exception in handlerMethod: %s",definition.handlerMethod.toString()), e);
+                } catch (Throwable e) {
+                    // this is some system error
+                    logger.error(format("Unexpected Error in handlerMethod: %s",definition.handlerMethod.toString()), e);
                 }
             }
         } else {
@@ -185,22 +196,25 @@ public abstract class MethodActor extends TypedActor<Object> implements Persiste
 
     }
 
-    private static enum ParameterType {
-        MESSAGE,
-        SENDER_REF,
-        STATE,
-        ACTOR_SYSTEM,
+    private static final class MessageHandlerDefinitions {
+        private final HandlerMethodDefinition[] definitions;
+        private final boolean shouldUpdateState;
+
+        private MessageHandlerDefinitions(HandlerMethodDefinition[] definitions, boolean shouldUpdateState) {
+            this.definitions = definitions;
+            this.shouldUpdateState = shouldUpdateState;
+        }
     }
 
-    private final class HandlerMethodDefinition {
-        private final @Nullable Object targetInstance;
+    private static final class HandlerMethodDefinition {
         private final Method handlerMethod;
-        private final ParameterType[] parameterTypeOrdering;
+        private final MethodHandle invoker;
+        private final boolean needsState;
+        private final boolean needsActorSystem;
         private final Class<?> messageClass;
         private final int order;
 
         private HandlerMethodDefinition(@Nullable Object targetInstance, Method handlerMethod, int order) throws IllegalArgumentException, IllegalStateException {
-            this.targetInstance = targetInstance;
             this.handlerMethod = handlerMethod;
             this.order = order;
             Class<?>[] parameterTypes = handlerMethod.getParameterTypes();
@@ -209,16 +223,26 @@ public abstract class MethodActor extends TypedActor<Object> implements Persiste
                 throw new IllegalArgumentException(format("Handler Method %s should have at least one parameter (message)",handlerMethod.toString()));
             }
             Class<?> messageParameterClass = null;
-            this.parameterTypeOrdering = new ParameterType[parameterTypes.length];
+            boolean needsState = false;
+            boolean needsActorSystem = false;
+            // the parameter ordering is baked into the invoker, every parameter maps to one of the INVOKER_TYPE parameters
+            final Class<?>[] invokerParameterTypes = new Class<?>[parameterTypes.length];
+            final int[] reorder = new int[parameterTypes.length];
             for (int i = 0; i < parameterTypes.length; i++) {
                 if(parameterTypes[i].equals(ActorRef.class)) {
-                    parameterTypeOrdering[i] = ParameterType.SENDER_REF;
+                    invokerParameterTypes[i] = ActorRef.class;
+                    reorder[i] = 0;
                 } else if(parameterTypes[i].equals(ActorSystem.class)) {
-                    parameterTypeOrdering[i] = ParameterType.ACTOR_SYSTEM;
+                    invokerParameterTypes[i] = ActorSystem.class;
+                    reorder[i] = 3;
+                    needsActorSystem = true;
                 } else if(ActorState.class.isAssignableFrom(parameterTypes[i])) {
-                    parameterTypeOrdering[i] = ParameterType.STATE;
+                    invokerParameterTypes[i] = ActorState.class;
+                    reorder[i] = 2;
+                    needsState = true;
                 } else if(parameterTypes[i].isAnnotationPresent(Message.class)) {
-                    parameterTypeOrdering[i] = ParameterType.MESSAGE;
+                    invokerParameterTypes[i] = Object.class;
+                    reorder[i] = 1;
                     messageParameterClass = parameterTypes[i];
                 } else {
                     throw new IllegalStateException(format("Unexpected Parameter Type %s",parameterTypes[i].getName()));
@@ -228,32 +252,26 @@ public abstract class MethodActor extends TypedActor<Object> implements Persiste
                 throw new IllegalArgumentException(format("Handler Method %s should have at least one parameter annotated with @Message",handlerMethod.toString()));
             }
             this.messageClass = messageParameterClass;
+            this.needsState = needsState;
+            this.needsActorSystem = needsActorSystem;
+            this.invoker = createInvoker(targetInstance, handlerMethod, invokerParameterTypes, reorder);
         }
 
-        private Object[] prepareParameters(ActorRef sender,Object message) {
-            Object[] arguments = new Object[parameterTypeOrdering.length];
-            for (int i = 0; i < parameterTypeOrdering.length; i++) {
-                ParameterType parameterType = parameterTypeOrdering[i];
-                switch(parameterType) {
-                    case MESSAGE:
-                        arguments[i] = message;
-                        continue;
-                    case SENDER_REF:
-                        arguments[i] = sender;
-                        continue;
-                    case STATE:
-                        arguments[i] = getState(MethodActor.this.stateClass);
-                        continue;
-                    case ACTOR_SYSTEM:
-                        arguments[i] = getSystem();
-                        continue;
-                    default:
-                        throw new IllegalStateException(format("ParameterType %s not handled!",parameterType.toString()));
-
+        private static MethodHandle createInvoker(@Nullable Object targetInstance, Method handlerMethod,
+                                                  Class<?>[] invokerParameterTypes, int[] reorder) {
+            try {
+                // the declaring class of the (public) handler method is not necessarily public
+                handlerMethod.setAccessible(true);
+                MethodHandle methodHandle = MethodHandles.lookup().unreflect(handlerMethod);
+                if(targetInstance != null) {
+                    methodHandle = methodHandle.bindTo(targetInstance);
                 }
-
+                // cast the arguments and drop the return value
+                methodHandle = methodHandle.asType(MethodType.methodType(void.class, invokerParameterTypes));
+                return MethodHandles.permuteArguments(methodHandle, INVOKER_TYPE, reorder);
+            } catch(IllegalAccessException | SecurityException e) {
+                throw new IllegalStateException(format("Cannot access Handler Method %s",handlerMethod.toString()),e);
             }
-            return arguments;
         }
     }
 
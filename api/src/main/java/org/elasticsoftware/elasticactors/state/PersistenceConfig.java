@@ -72,4 +72,15 @@ public @interface PersistenceConfig {
      * @return
      */
     ActorLifecycleStep[] persistOn() default {CREATE,ACTIVATE};
+
+    /**
+     * When set to true, messages for this actor that are already queued on the actor thread are handled back to back
+     * and the state is serialized and persisted only once, after the last message. The messages are acknowledged
+     * together once the state has been written. This reduces the serialization and write load for actors that
+     * receive a lot of messages, at the cost of redelivering the whole batch when the node crashes before the state
+     * was written. Batching needs to be enabled on the node as well, with ea.actorExecutor.batchMessages=true.
+     *
+     * @return
+     */
+    boolean batchMessages() default false;
 }
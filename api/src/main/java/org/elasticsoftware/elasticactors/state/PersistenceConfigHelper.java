@@ -25,13 +25,17 @@ public final class PersistenceConfigHelper {
     private PersistenceConfigHelper() {}
 
     public static boolean shouldUpdateState(PersistenceConfig persistenceConfig, Object message) {
+        return shouldUpdateState(persistenceConfig, message.getClass());
+    }
+
+    public static boolean shouldUpdateState(PersistenceConfig persistenceConfig, Class<?> messageClass) {
         if (persistenceConfig != null) {
             // look for not excluded when persist all is on
             if(persistenceConfig.persistOnMessages()) {
-                return !Arrays.asList(persistenceConfig.excluded()).contains(message.getClass());
+                return !Arrays.asList(persistenceConfig.excluded()).contains(messageClass);
             } else {
                 // look for included otherwise
-                return Arrays.asList(persistenceConfig.included()).contains(message.getClass());
+                return Arrays.asList(persistenceConfig.included()).contains(messageClass);
             }
         } else {
             return true;
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Measures the cost of dispatching a message to a {@link MethodActor} handler that takes the message, sender, state
+ * and actor system. The reflective benchmark replays the old dispatch path ({@link Method#invoke(Object, Object...)}
+ * with a freshly allocated parameter array, found through a {@link LinkedList} of handlers) to compare against. Run
+ * the main method to get the gc profiler output (gc.alloc.rate.norm, in bytes per message).
+ *
+ * @author Joost van de Wijgerd
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@org.openjdk.jmh.annotations.Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MethodActorDispatchBenchmark {
+    private TestPersistentMethodActor actor;
+    private TestActorState state;
+    private ActorRef sender;
+    private TestMessage message;
+    private final Map<Class<?>, List<Method>> reflectiveHandlers = new HashMap<>();
+
+    @Setup
+    public void setUp() throws Exception {
+        state = new TestActorState();
+        // the handler doesn't call the sender or actor system
+        final ActorSystem actorSystem = mock(ActorSystem.class);
+        TestActorContextHolder.setContext(new BenchmarkActorContext(state, actorSystem));
+        actor = new TestPersistentMethodActor();
+        sender = mock(ActorRef.class);
+        message = new TestMessage("benchmark");
+        List<Method> methods = new LinkedList<>();
+        methods.add(TestPersistentMethodActor.class.getMethod("handle",
+                TestMessage.class, ActorRef.class, TestActorState.class, ActorSystem.class));
+        reflectiveHandlers.put(TestMessage.class, methods);
+    }
+
+    @TearDown
+    public void tearDown() {
+        TestActorContextHolder.getAndClearContext();
+    }
+
+    @Benchmark
+    public Object methodHandle() throws Exception {
+        actor.onReceive(sender, message);
+        return state.getMessage();
+    }
+
+    @Benchmark
+    public Object reflective() throws Exception {
+        final List<Method> methods = reflectiveHandlers.get(message.getClass());
+        for (Method method : methods) {
+            method.invoke(actor, new Object[] { message, sender,
+                    ActorContextHolder.getState(TestActorState.class), ActorContextHolder.getSystem() });
+        }
+        return state.getMessage();
+    }
+
+    @Benchmark
+    public boolean shouldUpdateState() {
+        return actor.shouldUpdateState(message);
+    }
+
+    private static final class BenchmarkActorContext implements ActorContext {
+        private final ActorState state;
+        private final ActorSystem actorSystem;
+
+        private BenchmarkActorContext(ActorState state, ActorSystem actorSystem) {
+            this.state = state;
+            this.actorSystem = actorSystem;
+        }
+
+        @Override
+        public ActorRef getSelf() {
+            return null;
+        }
+
+        @Override
+        public <T extends ActorState> T getState(Class<T> stateClass) {
+            return stateClass.cast(state);
+        }
+
+        @Override
+        public void setState(ActorState state) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ActorSystem getActorSystem() {
+            return actorSystem;
+        }
+
+        @Override
+        public Collection<PersistentSubscription> getSubscriptions() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Map<String, Set<ActorRef>> getSubscribers() {
+            return Collections.emptyMap();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(MethodActorDispatchBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -18,6 +18,10 @@ package org.elasticsoftware.elasticactors;
 
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
@@ -66,4 +70,41 @@ public class MethodActorTest {
 
         assertNotNull(state.getSender());
     }
+
+    @Test
+    public void testHandlerOrderAndParameterOrdering() throws Exception {
+        ActorContext context = mock(ActorContext.class);
+        ActorSystem actorSystem = mock(ActorSystem.class);
+        TestActorContextHolder.setContext(context);
+        TestActorState state = new TestActorState();
+        when(context.getState(TestActorState.class)).thenReturn(state);
+        when(context.getActorSystem()).thenReturn(actorSystem);
+
+        OrderedHandlersActor actor = new OrderedHandlersActor();
+        TestMessage message = new TestMessage("hello world!");
+        // the exception thrown by the first handler should not stop the second one
+        actor.onReceive(null, message);
+
+        assertEquals(actor.calls, asList("first", "second"));
+        assertEquals(state.getActorSystem(), actorSystem);
+        assertEquals(state.getMessage(), message);
+    }
+
+    @Actor(stateClass = TestActorState.class,serializationFramework = TestSerializationFramework.class)
+    public static final class OrderedHandlersActor extends MethodActor {
+        private final List<String> calls = new ArrayList<>();
+
+        @MessageHandler(order = 2)
+        public void second(TestActorState state, TestMessage message) {
+            calls.add("second");
+            state.setMessage(message);
+        }
+
+        @MessageHandler(order = 1)
+        public String first(ActorSystem actorSystem, TestMessage message, TestActorState state) {
+            calls.add("first");
+            state.setActorSystem(actorSystem);
+            throw new IllegalStateException("first handler failed");
+        }
+    }
 }
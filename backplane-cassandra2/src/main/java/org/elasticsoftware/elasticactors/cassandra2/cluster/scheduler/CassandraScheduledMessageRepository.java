@@ -27,9 +27,13 @@ import org.elasticsoftware.elasticactors.cassandra2.util.ExecutionUtils;
 import org.elasticsoftware.elasticactors.cluster.scheduler.ScheduledMessage;
 import org.elasticsoftware.elasticactors.cluster.scheduler.ScheduledMessageKey;
 import org.elasticsoftware.elasticactors.cluster.scheduler.ScheduledMessageRepository;
+import org.elasticsoftware.elasticactors.messaging.InternalMessage;
+import org.elasticsoftware.elasticactors.messaging.MessageHandlerEventListener;
 import org.elasticsoftware.elasticactors.serialization.internal.ScheduledMessageDeserializer;
 import org.elasticsoftware.elasticactors.serialization.internal.ScheduledMessageSerializer;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundExecutor;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.LinkedList;
@@ -43,20 +47,41 @@ import static org.elasticsoftware.elasticactors.cassandra2.util.ExecutionUtils.e
  */
 public final class CassandraScheduledMessageRepository implements ScheduledMessageRepository {
     private static final Logger logger = LogManager.getLogger(CassandraScheduledMessageRepository.class);
+    public static final int DEFAULT_FETCH_SIZE = 1000;
     private final String clusterName;
     private final Session cassandraSession;
     private final PreparedStatement insertStatement;
     private final PreparedStatement deleteStatement;
     private final PreparedStatement selectStatement;
+    private final PreparedStatement selectRangeStatement;
     private final ScheduledMessageDeserializer scheduledMessageDeserializer;
+    private final ThreadBoundExecutor asyncWriteExecutor;
+    private final int fetchSize;
 
     public CassandraScheduledMessageRepository(String clusterName, Session cassandraSession, ScheduledMessageDeserializer scheduledMessageDeserializer) {
+        this(clusterName, cassandraSession, scheduledMessageDeserializer, null);
+    }
+
+    public CassandraScheduledMessageRepository(String clusterName, Session cassandraSession, ScheduledMessageDeserializer scheduledMessageDeserializer, @Nullable ThreadBoundExecutor asyncWriteExecutor) {
+        this(clusterName, cassandraSession, scheduledMessageDeserializer, asyncWriteExecutor, DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * @param asyncWriteExecutor    executes the {@link ScheduledMessageWriteEvent}s of {@link #createAsync} and
+     *                              {@link #deleteAsync}, should use a {@link ScheduledMessageWriteEventProcessor}. When
+     *                              null these methods write synchronously
+     * @param fetchSize             the number of rows {@link #getAll(ShardKey)} fetches per page
+     */
+    public CassandraScheduledMessageRepository(String clusterName, Session cassandraSession, ScheduledMessageDeserializer scheduledMessageDeserializer, @Nullable ThreadBoundExecutor asyncWriteExecutor, int fetchSize) {
         this.clusterName = clusterName;
+        this.fetchSize = fetchSize;
         this.cassandraSession = cassandraSession;
         this.scheduledMessageDeserializer = scheduledMessageDeserializer;
-        this.insertStatement = cassandraSession.prepare("INSERT INTO \"ScheduledMessages\" (key, key2, column1, column2, value) VALUES (?, ?, ?, ?, ?)");
-        this.deleteStatement = cassandraSession.prepare("DELETE FROM \"ScheduledMessages\" WHERE key = ? AND key2 = ? AND column1 = ? AND column2 = ?");
+        this.asyncWriteExecutor = asyncWriteExecutor;
+        this.insertStatement = cassandraSession.prepare(ScheduledMessageWriteEventProcessor.INSERT_QUERY);
+        this.deleteStatement = cassandraSession.prepare(ScheduledMessageWriteEventProcessor.DELETE_QUERY);
         this.selectStatement = cassandraSession.prepare("SELECT value from \"ScheduledMessages\" WHERE key = ? AND key2 = ?");
+        this.selectRangeStatement = cassandraSession.prepare("SELECT value from \"ScheduledMessages\" WHERE key = ? AND key2 = ? AND column1 >= ? AND column1 < ?");
     }
 
     @Override
@@ -69,9 +94,49 @@ public final class CassandraScheduledMessageRepository implements ScheduledMessa
         executeWithRetry(cassandraSession, deleteStatement.bind(clusterName, shardKey.toString(), scheduledMessageKey.getFireTime(), scheduledMessageKey.getId()), logger);
     }
 
+    @Override
+    public void createAsync(ShardKey shardKey, ScheduledMessage scheduledMessage, @Nullable InternalMessage message, @Nullable MessageHandlerEventListener messageHandlerEventListener) {
+        if (asyncWriteExecutor == null) {
+            ScheduledMessageRepository.super.createAsync(shardKey, scheduledMessage, message, messageHandlerEventListener);
+        } else {
+            asyncWriteExecutor.execute(new ScheduledMessageWriteEvent(shardKey, scheduledMessage.getKey(),
+                    ByteBuffer.wrap(ScheduledMessageSerializer.get().serialize(scheduledMessage)), message, messageHandlerEventListener));
+        }
+    }
+
+    @Override
+    public void deleteAsync(ShardKey shardKey, ScheduledMessageKey scheduledMessageKey, @Nullable MessageHandlerEventListener messageHandlerEventListener) {
+        if (asyncWriteExecutor == null) {
+            ScheduledMessageRepository.super.deleteAsync(shardKey, scheduledMessageKey, messageHandlerEventListener);
+        } else {
+            asyncWriteExecutor.execute(new ScheduledMessageWriteEvent(shardKey, scheduledMessageKey, null, null, messageHandlerEventListener));
+        }
+    }
+
+    /**
+     * Shuts down the async write executor (if any), pending writes are completed first
+     */
+    public void shutdown() {
+        if (asyncWriteExecutor != null) {
+            asyncWriteExecutor.shutdown();
+        }
+    }
+
     @Override
     public List<ScheduledMessage> getAll(ShardKey shardKey) {
-        ResultSet resultSet = executeWithRetry(cassandraSession, selectStatement.bind(clusterName, shardKey.toString()).setFetchSize(Integer.MAX_VALUE), logger);
+        // the driver fetches the next page when we iterate past the current one
+        ResultSet resultSet = executeWithRetry(cassandraSession, selectStatement.bind(clusterName, shardKey.toString()).setFetchSize(fetchSize), logger);
+        return deserialize(resultSet);
+    }
+
+    @Override
+    public List<ScheduledMessage> getRange(ShardKey shardKey, long fromMillis, long toMillis, int pageSize) {
+        // column1 is the fire time, the driver fetches the next page when we iterate past the current one
+        ResultSet resultSet = executeWithRetry(cassandraSession, selectRangeStatement.bind(clusterName, shardKey.toString(), fromMillis, toMillis).setFetchSize(pageSize), logger);
+        return deserialize(resultSet);
+    }
+
+    private List<ScheduledMessage> deserialize(ResultSet resultSet) {
         List<ScheduledMessage> resultList = new LinkedList<>();
         for (Row resultRow : resultSet) {
             for (int i = 0; i < resultRow.getColumnDefinitions().size(); i++) {
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsoftware.elasticactors.cassandra2.cluster.scheduler;
+
+import org.elasticsoftware.elasticactors.ShardKey;
+import org.elasticsoftware.elasticactors.cluster.scheduler.ScheduledMessageKey;
+import org.elasticsoftware.elasticactors.messaging.InternalMessage;
+import org.elasticsoftware.elasticactors.messaging.MessageHandlerEventListener;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundEvent;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+
+/**
+ * @author Joost van de Wijgerd
+ */
+public final class ScheduledMessageWriteEvent implements ThreadBoundEvent<Integer> {
+    private final String shardKey;
+    private final int shardId;
+    private final ScheduledMessageKey scheduledMessageKey;
+    private final ByteBuffer scheduledMessageBytes;
+    private final InternalMessage message;
+    private final MessageHandlerEventListener eventListener;
+
+    /**
+     * @param scheduledMessageBytes the serialized scheduled message to create, or null to delete it
+     */
+    public ScheduledMessageWriteEvent(ShardKey shardKey,
+                                      ScheduledMessageKey scheduledMessageKey,
+                                      @Nullable ByteBuffer scheduledMessageBytes,
+                                      @Nullable InternalMessage message,
+                                      @Nullable MessageHandlerEventListener eventListener) {
+        this.shardKey = shardKey.toString();
+        this.shardId = shardKey.getShardId();
+        this.scheduledMessageKey = scheduledMessageKey;
+        this.scheduledMessageBytes = scheduledMessageBytes;
+        this.message = message;
+        this.eventListener = eventListener;
+    }
+
+    @Override
+    public Integer getKey() {
+        return shardId;
+    }
+
+    public String getShardKey() {
+        return shardKey;
+    }
+
+    public ScheduledMessageKey getScheduledMessageKey() {
+        return scheduledMessageKey;
+    }
+
+    public ByteBuffer getScheduledMessageBytes() {
+        return scheduledMessageBytes;
+    }
+
+    public boolean isDelete() {
+        return scheduledMessageBytes == null;
+    }
+
+    public InternalMessage getMessage() {
+        return message;
+    }
+
+    public MessageHandlerEventListener getEventListener() {
+        return eventListener;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsoftware.elasticactors.cassandra2.cluster.scheduler;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.Session;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsoftware.elasticactors.cluster.scheduler.ScheduledMessageKey;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundEventProcessor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.datastax.driver.core.BatchStatement.Type.UNLOGGED;
+import static java.lang.String.format;
+import static java.lang.System.currentTimeMillis;
+import static org.elasticsoftware.elasticactors.cassandra2.util.ExecutionUtils.executeWithRetry;
+
+/**
+ * Writes the creates and deletes of scheduled messages in batches. All the writes for a shard go to the same
+ * partition and are written with a single (unlogged) batch statement. A create and a delete of the same scheduled
+ * message in one batch (a message that is cancelled or fired right after it was scheduled) cancel each other out and
+ * are not written at all.
+ *
+ * @author Joost van de Wijgerd
+ */
+public final class ScheduledMessageWriteEventProcessor implements ThreadBoundEventProcessor<ScheduledMessageWriteEvent> {
+    private static final Logger logger = LogManager.getLogger(ScheduledMessageWriteEventProcessor.class);
+    public static final String INSERT_QUERY = "INSERT INTO \"ScheduledMessages\" (key, key2, column1, column2, value) VALUES (?, ?, ?, ?, ?)";
+    public static final String DELETE_QUERY = "DELETE FROM \"ScheduledMessages\" WHERE key = ? AND key2 = ? AND column1 = ? AND column2 = ?";
+    private final String clusterName;
+    private final Session cassandraSession;
+    private final PreparedStatement insertStatement;
+    private final PreparedStatement deleteStatement;
+
+    public ScheduledMessageWriteEventProcessor(String clusterName, Session cassandraSession) {
+        this.clusterName = clusterName;
+        this.cassandraSession = cassandraSession;
+        this.insertStatement = cassandraSession.prepare(INSERT_QUERY);
+        this.deleteStatement = cassandraSession.prepare(DELETE_QUERY);
+    }
+
+    @Override
+    public void process(ScheduledMessageWriteEvent... events) {
+        process(Arrays.asList(events));
+    }
+
+    @Override
+    public void process(List<ScheduledMessageWriteEvent> events) {
+        final long startTime = currentTimeMillis();
+        final Map<String,Map<ScheduledMessageKey,ScheduledMessageWriteEvent>> writes = coalesce(events);
+        final Map<String,Exception> failedShards = new HashMap<>();
+        int statements = 0;
+        try {
+            for (Map.Entry<String, Map<ScheduledMessageKey, ScheduledMessageWriteEvent>> shardWrites : writes.entrySet()) {
+                if (!shardWrites.getValue().isEmpty()) {
+                    try {
+                        statements += execute(shardWrites.getValue().values());
+                    } catch (Exception e) {
+                        logger.error(format("Exception while writing ScheduledMessages for shard %s", shardWrites.getKey()), e);
+                        failedShards.put(shardWrites.getKey(), e);
+                    }
+                }
+            }
+        } finally {
+            for (ScheduledMessageWriteEvent event : events) {
+                if (event.getEventListener() != null) {
+                    final Exception executionException = failedShards.get(event.getShardKey());
+                    if (executionException == null) {
+                        event.getEventListener().onDone(event.getMessage());
+                    } else {
+                        event.getEventListener().onError(event.getMessage(), executionException);
+                    }
+                }
+            }
+            // add some trace info
+            if (logger.isTraceEnabled()) {
+                final long endTime = currentTimeMillis();
+                logger.trace(format("Writing %d ScheduledMessage change(s) (%d coalesced) took %d msecs", events.size(), events.size() - statements, endTime - startTime));
+            }
+        }
+    }
+
+    /**
+     * Reduce the batch to the last write per scheduled message, grouped by shard. A delete of a message that is
+     * created in the same batch removes both.
+     */
+    private Map<String,Map<ScheduledMessageKey,ScheduledMessageWriteEvent>> coalesce(List<ScheduledMessageWriteEvent> events) {
+        final Map<String,Map<ScheduledMessageKey,ScheduledMessageWriteEvent>> writes = new LinkedHashMap<>();
+        for (ScheduledMessageWriteEvent event : events) {
+            final Map<ScheduledMessageKey,ScheduledMessageWriteEvent> shardWrites =
+                    writes.computeIfAbsent(event.getShardKey(), shardKey -> new LinkedHashMap<>());
+            final ScheduledMessageWriteEvent previous = shardWrites.remove(event.getScheduledMessageKey());
+            if (!(event.isDelete() && previous != null && !previous.isDelete())) {
+                shardWrites.put(event.getScheduledMessageKey(), event);
+            }
+        }
+        return writes;
+    }
+
+    private int execute(Iterable<ScheduledMessageWriteEvent> shardWrites) {
+        final List<BoundStatement> boundStatements = new ArrayList<>();
+        for (ScheduledMessageWriteEvent event : shardWrites) {
+            final ScheduledMessageKey key = event.getScheduledMessageKey();
+            if (event.isDelete()) {
+                boundStatements.add(deleteStatement.bind(clusterName, event.getShardKey(), key.getFireTime(), key.getId()));
+            } else {
+                boundStatements.add(insertStatement.bind(clusterName, event.getShardKey(), key.getFireTime(), key.getId(), event.getScheduledMessageBytes()));
+            }
+        }
+        if (boundStatements.size() == 1) {
+            executeWithRetry(cassandraSession, boundStatements.get(0), logger);
+        } else {
+            // check the protocol to see if BatchStatements are supported
+            ProtocolVersion protocolVersion = cassandraSession.getCluster().getConfiguration().getProtocolOptions().getProtocolVersion();
+            if (ProtocolVersion.V1.equals(protocolVersion)) {
+                for (BoundStatement boundStatement : boundStatements) {
+                    executeWithRetry(cassandraSession, boundStatement, logger);
+                }
+            } else {
+                BatchStatement batchStatement = new BatchStatement(UNLOGGED);
+                batchStatement.addAll(boundStatements);
+                executeWithRetry(cassandraSession, batchStatement, logger);
+            }
+        }
+        return boundStatements.size();
+    }
+}
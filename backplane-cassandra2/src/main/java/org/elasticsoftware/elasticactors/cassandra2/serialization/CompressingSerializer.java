@@ -16,43 +16,47 @@
 
 package org.elasticsoftware.elasticactors.cassandra2.serialization;
 
-import com.google.common.io.ByteArrayDataOutput;
-import com.google.common.io.ByteStreams;
-import net.jpountz.lz4.LZ4Compressor;
-import net.jpountz.lz4.LZ4Factory;
 import org.elasticsoftware.elasticactors.serialization.Serializer;
+import org.elasticsoftware.elasticactors.serialization.compression.CompressionCodec;
+import org.elasticsoftware.elasticactors.serialization.compression.Lz4CompressionCodec;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.function.Function;
 
 /**
  * @author Joost van de Wijgerd
  */
 public final class CompressingSerializer<I> implements Serializer<I,ByteBuffer> {
-    private static final LZ4Compressor lz4Compressor = LZ4Factory.fastestJavaInstance().fastCompressor();
-    private static final byte[] MAGIC_HEADER = {0x18,0x4D,0x22,0x04};
     private final Serializer<I,byte[]> delegate;
     private final int compressionThreshold;
+    private final CompressionCodec codec;
+    private final Function<? super I, Class<?>> typeResolver;
 
     public CompressingSerializer(Serializer<I, byte[]> delegate) {
         this(delegate,2048);
     }
 
     public CompressingSerializer(Serializer<I, byte[]> delegate, int compressionThreshold) {
+        this(delegate, compressionThreshold, new Lz4CompressionCodec(), object -> null);
+    }
+
+    /**
+     * @param typeResolver  determines the type of the object that is passed to the codec (to select a dictionary)
+     */
+    public CompressingSerializer(Serializer<I, byte[]> delegate, int compressionThreshold, CompressionCodec codec,
+                                 Function<? super I, Class<?>> typeResolver) {
         this.delegate = delegate;
         this.compressionThreshold = compressionThreshold;
+        this.codec = codec;
+        this.typeResolver = typeResolver;
     }
 
     @Override
     public ByteBuffer serialize(I object) throws IOException {
         byte[] serializedObject = delegate.serialize(object);
         if(serializedObject.length > compressionThreshold) {
-            byte[] compressedBytes =  lz4Compressor.compress(serializedObject);
-            ByteArrayDataOutput dataOutput = ByteStreams.newDataOutput(compressedBytes.length+8);
-            dataOutput.write(MAGIC_HEADER);
-            dataOutput.writeInt(serializedObject.length);
-            dataOutput.write(compressedBytes);
-            return ByteBuffer.wrap(dataOutput.toByteArray());
+            return ByteBuffer.wrap(codec.compress(serializedObject, typeResolver.apply(object)));
         } else {
             return ByteBuffer.wrap(serializedObject);
         }
@@ -23,17 +23,24 @@ import com.datastax.driver.core.Session;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.elasticsoftware.elasticactors.ShardKey;
+import org.elasticsoftware.elasticactors.cassandra2.serialization.CompressingSerializer;
+import org.elasticsoftware.elasticactors.cassandra2.serialization.DecompressingDeserializer;
 import org.elasticsoftware.elasticactors.cassandra2.util.ExecutionUtils;
 import org.elasticsoftware.elasticactors.messaging.InternalMessage;
 import org.elasticsoftware.elasticactors.messaging.MessageHandlerEventListener;
 import org.elasticsoftware.elasticactors.serialization.Deserializer;
 import org.elasticsoftware.elasticactors.serialization.Serializer;
+import org.elasticsoftware.elasticactors.serialization.compression.CompressionCodec;
 import org.elasticsoftware.elasticactors.state.PersistentActor;
 import org.elasticsoftware.elasticactors.state.PersistentActorRepository;
+import org.elasticsoftware.elasticactors.util.BinaryDelta;
 import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundExecutor;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
 
 import static java.lang.String.format;
 import static java.lang.System.currentTimeMillis;
@@ -41,10 +48,20 @@ import static org.elasticsoftware.elasticactors.cassandra2.util.ExecutionUtils.e
 
 
 /**
+ * Stores the serialized {@link PersistentActor}s in the PersistentActors table, one row per actor.
+ *
+ * <p/>
+ * Optionally the repository writes state deltas: instead of rewriting the full (possibly very large) record after
+ * every update only the {@link BinaryDelta} against the previously written record is stored, in a separate row in
+ * the same partition. After {@code maxStateDeltas} deltas a full snapshot is written again and the delta rows are
+ * removed. When the actor is loaded the deltas are applied to the snapshot in order. This requires range deletes and
+ * thus cassandra 3.0 or higher.
+ *
  * @author Joost van de Wijgerd
  */
 public final class CassandraPersistentActorRepository implements PersistentActorRepository {
     private static final Logger logger = LogManager.getLogger(CassandraPersistentActorRepository.class);
+    private static final char DELTA_SEPARATOR = '\u0000';
     private final String clusterName;
     private final ThreadBoundExecutor asyncUpdateExecutor;
     private final long readExecutionThresholdMillis;
@@ -52,6 +69,15 @@ public final class CassandraPersistentActorRepository implements PersistentActor
     private final PreparedStatement selectStatement;
     private final Deserializer<ByteBuffer,PersistentActor> deserializer;
     private final Serializer<PersistentActor,ByteBuffer> serializer;
+    // the following are only set when state deltas are enabled
+    private final PreparedStatement selectWithDeltasStatement;
+    private final Serializer<PersistentActor,byte[]> recordSerializer;
+    private final Deserializer<byte[],PersistentActor> recordDeserializer;
+    private final CompressionCodec codec;
+    private final int compressionThreshold;
+    private final Deserializer<ByteBuffer,byte[]> decompressor;
+    private final int maxStateDeltas;
+    private final int stateDeltaThreshold;
 
     public CassandraPersistentActorRepository(Session cassandraSession, String clusterName, ThreadBoundExecutor asyncUpdateExecutor, Serializer serializer, Deserializer deserializer) {
         this(cassandraSession, clusterName,asyncUpdateExecutor,serializer, deserializer, 200);
@@ -65,6 +91,39 @@ public final class CassandraPersistentActorRepository implements PersistentActor
         this.readExecutionThresholdMillis = readExecutionThresholdMillis;
         this.serializer = serializer;
         this.deserializer = deserializer;
+        this.selectWithDeltasStatement = null;
+        this.recordSerializer = null;
+        this.recordDeserializer = null;
+        this.codec = null;
+        this.compressionThreshold = Integer.MAX_VALUE;
+        this.decompressor = null;
+        this.maxStateDeltas = 0;
+        this.stateDeltaThreshold = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Creates a repository that writes state deltas for records of at least {@code stateDeltaThreshold} bytes
+     */
+    public CassandraPersistentActorRepository(Session cassandraSession, String clusterName, ThreadBoundExecutor asyncUpdateExecutor,
+                                              Serializer recordSerializer, Deserializer recordDeserializer,
+                                              int compressionThreshold, CompressionCodec codec,
+                                              List<CompressionCodec> decompressionCodecs,
+                                              int maxStateDeltas, int stateDeltaThreshold) {
+        this.cassandraSession = cassandraSession;
+        this.selectStatement = cassandraSession.prepare("select value from \"PersistentActors\" where key = ? and key2 = ? AND column1 = ?");
+        this.selectWithDeltasStatement = cassandraSession.prepare("select column1, value from \"PersistentActors\" where key = ? and key2 = ? AND column1 >= ? AND column1 < ?");
+        this.clusterName = clusterName;
+        this.asyncUpdateExecutor = asyncUpdateExecutor;
+        this.readExecutionThresholdMillis = 200;
+        this.serializer = new CompressingSerializer<PersistentActor>(recordSerializer, compressionThreshold, codec, PersistentActor::getActorClass);
+        this.deserializer = new DecompressingDeserializer<>(recordDeserializer, decompressionCodecs);
+        this.recordSerializer = recordSerializer;
+        this.recordDeserializer = recordDeserializer;
+        this.codec = codec;
+        this.compressionThreshold = compressionThreshold;
+        this.decompressor = new DecompressingDeserializer<byte[]>(record -> record, decompressionCodecs);
+        this.maxStateDeltas = maxStateDeltas;
+        this.stateDeltaThreshold = stateDeltaThreshold;
     }
 
     @Override
@@ -74,15 +133,15 @@ public final class CassandraPersistentActorRepository implements PersistentActor
 
     @Override
     public void update(final ShardKey shard,final PersistentActor persistentActor) throws IOException {
-        // serialize the data on the calling thread (to avoid thread visibility issues)
-        final ByteBuffer serializedActorBytes = serializer.serialize(persistentActor);
-        asyncUpdateExecutor.execute(new PersistentActorUpdateEvent(createKey(shard), shard,
-                                                                    persistentActor.getSelf().getActorId(),
-                                                                    serializedActorBytes, null, null));
+        updateAsync(shard, persistentActor, null, null);
     }
 
     @Override
     public void updateAsync(ShardKey shard, PersistentActor persistentActor, InternalMessage message, MessageHandlerEventListener messageHandlerEventListener) throws IOException {
+        if(maxStateDeltas > 0) {
+            updateWithDeltas(shard, persistentActor, message, messageHandlerEventListener);
+            return;
+        }
         // serialize the data on the calling thread (to avoid thread visibility issues)
         final ByteBuffer serializedActorBytes = serializer.serialize(persistentActor);
         asyncUpdateExecutor.execute(new PersistentActorUpdateEvent(createKey(shard),shard,
@@ -91,13 +150,50 @@ public final class CassandraPersistentActorRepository implements PersistentActor
                                                                    messageHandlerEventListener));
     }
 
+    private void updateWithDeltas(ShardKey shard, PersistentActor<?> persistentActor, InternalMessage message, MessageHandlerEventListener messageHandlerEventListener) throws IOException {
+        final String actorId = persistentActor.getSelf().getActorId();
+        final byte[] record = recordSerializer.serialize(persistentActor);
+        // a failed write resets the persisted record from the update thread
+        synchronized (persistentActor) {
+            final byte[] previousRecord = persistentActor.getPersistedRecord();
+            final long snapshotSequence = persistentActor.getSnapshotSequence();
+            final long deltaSequence = persistentActor.getDeltaSequence();
+            if(previousRecord != null && deltaSequence - snapshotSequence < maxStateDeltas) {
+                final byte[] delta = BinaryDelta.create(previousRecord, record);
+                // a delta that is not substantially smaller than the record is not worth the replay
+                if(delta.length < record.length / 2) {
+                    persistentActor.setPersistedRecord(record, snapshotSequence, deltaSequence + 1);
+                    asyncUpdateExecutor.execute(new PersistentActorUpdateEvent(createKey(shard), shard,
+                                                                               createDeltaColumn(actorId, deltaSequence + 1),
+                                                                               compress(delta, null), message,
+                                                                               new StateDeltaWriteListener(persistentActor, deltaSequence + 1, messageHandlerEventListener)));
+                    return;
+                }
+            }
+            // write a full snapshot and remove the deltas it replaces
+            persistentActor.setPersistedRecord(record.length >= stateDeltaThreshold ? record : null, deltaSequence, deltaSequence);
+            asyncUpdateExecutor.execute(new PersistentActorUpdateEvent(createKey(shard), shard, actorId,
+                                                                       compress(record, persistentActor.getActorClass()), message,
+                                                                       new StateDeltaWriteListener(persistentActor, deltaSequence, messageHandlerEventListener),
+                                                                       deltaSequence > snapshotSequence ? createDeltaColumn(actorId, deltaSequence + 1) : null));
+        }
+    }
+
+    private ByteBuffer compress(byte[] bytes, @Nullable Class<?> type) throws IOException {
+        return ByteBuffer.wrap(bytes.length > compressionThreshold ? codec.compress(bytes, type) : bytes);
+    }
+
     @Override
     public void delete(final ShardKey shard,final String actorId) {
-        asyncUpdateExecutor.execute(new PersistentActorUpdateEvent(createKey(shard), shard, actorId, null, null, null));
+        asyncUpdateExecutor.execute(new PersistentActorUpdateEvent(createKey(shard), shard, actorId, null, null, null,
+                                                                   maxStateDeltas > 0 ? createDeltasEnd(actorId) : null));
     }
 
     @Override
     public PersistentActor<ShardKey> get(final ShardKey shard,final String actorId) throws IOException {
+        if(maxStateDeltas > 0) {
+            return getWithDeltas(shard, actorId);
+        }
         Row resultRow = internalGet(shard, actorId);
         if (resultRow == null || resultRow.getColumnDefinitions().size() == 0) {
             return null;
@@ -107,6 +203,54 @@ public final class CassandraPersistentActorRepository implements PersistentActor
         }
     }
 
+    private PersistentActor<ShardKey> getWithDeltas(final ShardKey shard,final String actorId) throws IOException {
+        final long startTime = currentTimeMillis();
+        final Iterator<Row> rows;
+        try {
+            rows = executeWithRetry(cassandraSession, selectWithDeltasStatement.bind(clusterName, shard.toString(),
+                    actorId, createDeltasEnd(actorId)), logger).iterator();
+        } finally {
+            final long endTime = currentTimeMillis();
+            if((endTime - startTime) > readExecutionThresholdMillis) {
+                logger.warn(format("Cassandra read operation took %d msecs for actorId [%s] on shard [%s]",(endTime - startTime), actorId, shard.toString()));
+            }
+        }
+        // the snapshot sorts before its deltas, without a snapshot the deltas are left overs of a deleted actor
+        Row snapshotRow = rows.hasNext() ? rows.next() : null;
+        if(snapshotRow == null || !actorId.equals(snapshotRow.getString(0))) {
+            return null;
+        }
+        byte[] record = decompressor.deserialize(snapshotRow.getBytes(1));
+        long snapshotSequence = 0;
+        long deltaSequence = 0;
+        boolean replayed = true;
+        while (rows.hasNext()) {
+            Row deltaRow = rows.next();
+            final long sequence = parseDeltaSequence(actorId, deltaRow.getString(0));
+            if(replayed) {
+                byte[] nextRecord = BinaryDelta.apply(record, decompressor.deserialize(deltaRow.getBytes(1)));
+                if(nextRecord != null) {
+                    if(deltaSequence == 0) {
+                        snapshotSequence = sequence - 1;
+                    }
+                    record = nextRecord;
+                } else {
+                    logger.warn(format("State delta %d of actorId [%s] on shard [%s] does not match the persisted state, ignoring it and all following deltas", sequence, actorId, shard.toString()));
+                    replayed = false;
+                }
+            }
+            deltaSequence = sequence;
+        }
+        PersistentActor<ShardKey> persistentActor = recordDeserializer.deserialize(record);
+        if(replayed && record.length >= stateDeltaThreshold) {
+            persistentActor.setPersistedRecord(record, snapshotSequence, deltaSequence);
+        } else {
+            // next update will write a full snapshot and remove all the deltas
+            persistentActor.setPersistedRecord(null, snapshotSequence, deltaSequence);
+        }
+        return persistentActor;
+    }
+
     private Row internalGet(final ShardKey shard,final String actorId) {
         // log a warning when we exceed the readExecutionThreshold
         final long startTime = currentTimeMillis();
@@ -121,6 +265,59 @@ public final class CassandraPersistentActorRepository implements PersistentActor
         }
     }
 
+    /**
+     * The deltas are stored in the same partition as the snapshot, the sequence number is zero padded so the deltas
+     * sort directly after the snapshot in the order they were written
+     */
+    private static String createDeltaColumn(String actorId, long sequence) {
+        String sequenceString = Long.toString(sequence);
+        StringBuilder column = new StringBuilder(actorId.length() + 20).append(actorId).append(DELTA_SEPARATOR);
+        for (int i = sequenceString.length(); i < 19; i++) {
+            column.append('0');
+        }
+        return column.append(sequenceString).toString();
+    }
+
+    private static String createDeltasEnd(String actorId) {
+        return actorId + (char) (DELTA_SEPARATOR + 1);
+    }
+
+    private static long parseDeltaSequence(String actorId, String column) {
+        return Long.parseLong(column.substring(actorId.length() + 1));
+    }
+
+    /**
+     * When a write fails it is unknown what has been persisted, so the next update needs to write a full snapshot
+     * (and remove all the deltas) instead of a delta against a record that might not have been written
+     */
+    private static final class StateDeltaWriteListener implements MessageHandlerEventListener {
+        private final PersistentActor<?> persistentActor;
+        private final long deltaSequence;
+        @Nullable
+        private final MessageHandlerEventListener delegate;
+
+        private StateDeltaWriteListener(PersistentActor<?> persistentActor, long deltaSequence, @Nullable MessageHandlerEventListener delegate) {
+            this.persistentActor = persistentActor;
+            this.deltaSequence = deltaSequence;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onError(InternalMessage message, Throwable exception) {
+            persistentActor.resetPersistedRecord(deltaSequence);
+            if(delegate != null) {
+                delegate.onError(message, exception);
+            }
+        }
+
+        @Override
+        public void onDone(InternalMessage message) {
+            if(delegate != null) {
+                delegate.onDone(message);
+            }
+        }
+    }
+
     private String[] createKey(ShardKey shardKey) {
         String[] composite = new String[2];
         composite[0] = clusterName;
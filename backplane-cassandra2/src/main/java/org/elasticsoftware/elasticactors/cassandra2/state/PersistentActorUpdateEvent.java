@@ -34,6 +34,7 @@ public final class PersistentActorUpdateEvent implements ThreadBoundEvent<Intege
     private final ByteBuffer persistentActorBytes;
     private final InternalMessage message;
     private final MessageHandlerEventListener eventListener;
+    private final String obsoleteDeltasEnd;
 
     public PersistentActorUpdateEvent(String[] rowKey,
                                       ShardKey shardKey,
@@ -41,12 +42,27 @@ public final class PersistentActorUpdateEvent implements ThreadBoundEvent<Intege
                                       @Nullable ByteBuffer persistentActorBytes,
                                       @Nullable InternalMessage message,
                                       @Nullable MessageHandlerEventListener eventListener) {
+        this(rowKey, shardKey, persistentActorId, persistentActorBytes, message, eventListener, null);
+    }
+
+    /**
+     * @param obsoleteDeltasEnd when set, the state deltas of the actor with a column key lower than this (exclusive)
+     *                          bound are deleted together with this update
+     */
+    public PersistentActorUpdateEvent(String[] rowKey,
+                                      ShardKey shardKey,
+                                      String persistentActorId,
+                                      @Nullable ByteBuffer persistentActorBytes,
+                                      @Nullable InternalMessage message,
+                                      @Nullable MessageHandlerEventListener eventListener,
+                                      @Nullable String obsoleteDeltasEnd) {
         this.rowKey = rowKey;
         this.shardKey = shardKey;
         this.persistentActorId = persistentActorId;
         this.persistentActorBytes = persistentActorBytes;
         this.message = message;
         this.eventListener = eventListener;
+        this.obsoleteDeltasEnd = obsoleteDeltasEnd;
     }
 
     @Override
@@ -80,4 +96,9 @@ public final class PersistentActorUpdateEvent implements ThreadBoundEvent<Intege
     public MessageHandlerEventListener getEventListener() {
         return eventListener;
     }
+
+    @Nullable
+    public String getObsoleteDeltasEnd() {
+        return obsoleteDeltasEnd;
+    }
 }
@@ -19,8 +19,11 @@ package org.elasticsoftware.elasticactors.cassandra2.state;
 import com.datastax.driver.core.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.elasticsoftware.elasticactors.ShardKey;
 import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundEventProcessor;
 
+import javax.annotation.Nullable;
+
 import java.util.*;
 
 import static com.datastax.driver.core.BatchStatement.Type.UNLOGGED;
@@ -35,18 +38,27 @@ public final class PersistentActorUpdateEventProcessor implements ThreadBoundEve
     private static final Logger logger = LogManager.getLogger(PersistentActorUpdateEventProcessor.class);
     public static final String INSERT_QUERY = "INSERT INTO \"PersistentActors\" (key, key2, column1, value) VALUES (?, ?, ?, ?)";
     public static final String DELETE_QUERY = "DELETE FROM \"PersistentActors\" where key = ? AND key2 = ? AND column1 = ?";
+    // range deletes need cassandra 3.0 or higher, this is only used when state deltas are enabled
+    public static final String DELETE_DELTAS_QUERY = "DELETE FROM \"PersistentActors\" where key = ? AND key2 = ? AND column1 > ? AND column1 < ?";
     private final Session cassandraSession;
     private final PreparedStatement insertStatement;
     private final PreparedStatement deleteStatement;
+    private volatile PreparedStatement deleteDeltasStatement;
     private final Map<Integer,PreparedStatement> batchStatements = new HashMap<>();
     private final boolean optimizedV1Batches;
+    private final boolean coalesceUpdates;
 
     public PersistentActorUpdateEventProcessor(Session cassandraSession, int maxBatchSize) {
         this(cassandraSession, maxBatchSize, true);
     }
 
     public PersistentActorUpdateEventProcessor(Session cassandraSession, int maxBatchSize, boolean optimizedV1Batches) {
+        this(cassandraSession, maxBatchSize, optimizedV1Batches, false);
+    }
+
+    public PersistentActorUpdateEventProcessor(Session cassandraSession, int maxBatchSize, boolean optimizedV1Batches, boolean coalesceUpdates) {
         this.cassandraSession = cassandraSession;
+        this.coalesceUpdates = coalesceUpdates;
         this.insertStatement = cassandraSession.prepare(INSERT_QUERY);
         this.deleteStatement = cassandraSession.prepare(DELETE_QUERY);
         if(optimizedV1Batches) {
@@ -85,10 +97,12 @@ public final class PersistentActorUpdateEventProcessor implements ThreadBoundEve
     public void process(List<PersistentActorUpdateEvent> events) {
         Exception executionException = null;
         final long startTime = currentTimeMillis();
+        // only the last update per actor needs to be written, but all events need to be acked
+        final List<PersistentActorUpdateEvent> updates = (coalesceUpdates && events.size() > 1) ? coalesce(events) : events;
         try {
             // optimized to use the prepared statement
-            if(events.size() == 1) {
-                PersistentActorUpdateEvent event = events.get(0);
+            if(updates.size() == 1 && updates.get(0).getObsoleteDeltasEnd() == null) {
+                PersistentActorUpdateEvent event = updates.get(0);
                 BoundStatement boundStatement;
                 if(event.getPersistentActorBytes() != null) {
                     boundStatement = insertStatement.bind(event.getRowKey()[0], event.getRowKey()[1], event.getPersistentActorId(), event.getPersistentActorBytes());
@@ -103,12 +117,12 @@ public final class PersistentActorUpdateEventProcessor implements ThreadBoundEve
                 ProtocolVersion protocolVersion = cassandraSession.getCluster().getConfiguration().getProtocolOptions().getProtocolVersion();
                 if(ProtocolVersion.V1.equals(protocolVersion)) {
                     if(this.optimizedV1Batches) {
-                        executeBatchV1Optimized(events);
+                        executeBatchV1Optimized(updates);
                     } else {
-                        executeBatchV1(events);
+                        executeBatchV1(updates);
                     }
                 } else {
-                    executeBatchV2AndUp(events);
+                    executeBatchV2AndUp(updates);
                 }
             }
         } catch(Exception e) {
@@ -126,11 +140,56 @@ public final class PersistentActorUpdateEventProcessor implements ThreadBoundEve
             // add some trace info
             if(logger.isTraceEnabled()) {
                 final long endTime = currentTimeMillis();
-                logger.trace(format("Updating %d Actor state entrie(s) took %d msecs",events.size(),endTime-startTime));
+                logger.trace(format("Updating %d Actor state entrie(s) (%d coalesced) took %d msecs",updates.size(),events.size()-updates.size(),endTime-startTime));
             }
         }
     }
 
+    /**
+     * Reduce the batch to the last event per (shard, actorId). Events for the same shard are always handled by the
+     * same thread in order, so the last event in the batch reflects the latest state (or a delete when the actor
+     * was destroyed). This also avoids writing the same cell more than once with the same timestamp in one batch.
+     * The state deltas that an overwritten event would have deleted still need to be deleted, so the (largest)
+     * obsolete deltas range is carried over to the last event.
+     *
+     * @param events
+     * @return
+     */
+    private List<PersistentActorUpdateEvent> coalesce(List<PersistentActorUpdateEvent> events) {
+        Map<ShardKey,Map<String,PersistentActorUpdateEvent>> latestEvents = new HashMap<>();
+        int coalesced = 0;
+        for (PersistentActorUpdateEvent event : events) {
+            Map<String,PersistentActorUpdateEvent> shardEvents =
+                    latestEvents.computeIfAbsent(event.getShardKey(), shardKey -> new LinkedHashMap<>());
+            // remove first to keep the order of the last write
+            PersistentActorUpdateEvent previousEvent = shardEvents.remove(event.getPersistentActorId());
+            if(previousEvent != null) {
+                coalesced += 1;
+                event = withObsoleteDeltasEnd(event, previousEvent.getObsoleteDeltasEnd());
+            }
+            shardEvents.put(event.getPersistentActorId(), event);
+        }
+        if(coalesced == 0) {
+            return events;
+        }
+        List<PersistentActorUpdateEvent> updates = new ArrayList<>(events.size() - coalesced);
+        for (Map<String, PersistentActorUpdateEvent> shardEvents : latestEvents.values()) {
+            updates.addAll(shardEvents.values());
+        }
+        return updates;
+    }
+
+    private static PersistentActorUpdateEvent withObsoleteDeltasEnd(PersistentActorUpdateEvent event, @Nullable String obsoleteDeltasEnd) {
+        // the deltas end is the column after the last obsolete delta, the columns sort in order of the sequence
+        if(obsoleteDeltasEnd == null
+                || (event.getObsoleteDeltasEnd() != null && event.getObsoleteDeltasEnd().compareTo(obsoleteDeltasEnd) >= 0)) {
+            return event;
+        }
+        return new PersistentActorUpdateEvent(event.getRowKey(), event.getShardKey(), event.getPersistentActorId(),
+                                              event.getPersistentActorBytes(), event.getMessage(),
+                                              event.getEventListener(), obsoleteDeltasEnd);
+    }
+
     private void executeBatchV1(List<PersistentActorUpdateEvent> events) {
         List<Object> arguments = new LinkedList<>();
         StringBuilder batchBuilder = new StringBuilder("BEGIN UNLOGGED BATCH ");
@@ -153,6 +212,13 @@ public final class PersistentActorUpdateEventProcessor implements ThreadBoundEve
                 arguments.add(event.getPersistentActorId());
             }
             batchBuilder.append("; ");
+            if(event.getObsoleteDeltasEnd() != null) {
+                batchBuilder.append("   ").append(DELETE_DELTAS_QUERY).append("; ");
+                arguments.add(event.getRowKey()[0]);
+                arguments.add(event.getRowKey()[1]);
+                arguments.add(event.getPersistentActorId());
+                arguments.add(event.getObsoleteDeltasEnd());
+            }
         }
         batchBuilder.append("APPLY BATCH");
         // @todo: this causes a warning, but doing it without seems to fail with binary values!
@@ -165,7 +231,7 @@ public final class PersistentActorUpdateEventProcessor implements ThreadBoundEve
         List<Object> arguments = new LinkedList<>();
         int batchSize = 0;
         for (PersistentActorUpdateEvent event : events) {
-            if(event.getPersistentActorBytes() != null) {
+            if(event.getPersistentActorBytes() != null && event.getObsoleteDeltasEnd() == null) {
                 // add the 4 arguments in order
                 arguments.add(event.getRowKey()[0]);
                 arguments.add(event.getRowKey()[1]);
@@ -198,10 +264,18 @@ public final class PersistentActorUpdateEventProcessor implements ThreadBoundEve
                 // it's a delete
                 batchStatement.add(deleteStatement.bind(event.getRowKey()[0], event.getRowKey()[1], event.getPersistentActorId()));
             }
+            if (event.getObsoleteDeltasEnd() != null) {
+                batchStatement.add(getDeleteDeltasStatement().bind(event.getRowKey()[0], event.getRowKey()[1], event.getPersistentActorId(), event.getObsoleteDeltasEnd()));
+            }
         }
         executeWithRetry(cassandraSession, batchStatement, logger);
     }
 
-
-
+    private PreparedStatement getDeleteDeltasStatement() {
+        // prepared lazily to keep working with older cassandra versions when state deltas are not used
+        if(deleteDeltasStatement == null) {
+            deleteDeltasStatement = cassandraSession.prepare(DELETE_DELTAS_QUERY);
+        }
+        return deleteDeltasStatement;
+    }
 }
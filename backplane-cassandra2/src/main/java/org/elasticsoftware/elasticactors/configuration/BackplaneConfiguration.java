@@ -23,6 +23,7 @@ import com.datastax.driver.core.policies.LoggingRetryPolicy;
 import com.datastax.driver.core.policies.RoundRobinPolicy;
 import org.elasticsoftware.elasticactors.cassandra2.cluster.CassandraActorSystemEventListenerRepository;
 import org.elasticsoftware.elasticactors.cassandra2.cluster.scheduler.CassandraScheduledMessageRepository;
+import org.elasticsoftware.elasticactors.cassandra2.cluster.scheduler.ScheduledMessageWriteEventProcessor;
 import org.elasticsoftware.elasticactors.cassandra2.health.CassandraHealthCheck;
 import org.elasticsoftware.elasticactors.cassandra2.serialization.CompressingSerializer;
 import org.elasticsoftware.elasticactors.cassandra2.serialization.DecompressingDeserializer;
@@ -34,10 +35,13 @@ import org.elasticsoftware.elasticactors.cluster.InternalActorSystems;
 import org.elasticsoftware.elasticactors.cluster.scheduler.ScheduledMessageRepository;
 import org.elasticsoftware.elasticactors.serialization.Deserializer;
 import org.elasticsoftware.elasticactors.serialization.Serializer;
+import org.elasticsoftware.elasticactors.serialization.compression.CompressionCodec;
+import org.elasticsoftware.elasticactors.serialization.compression.CompressionCodecs;
 import org.elasticsoftware.elasticactors.serialization.internal.ActorRefDeserializer;
 import org.elasticsoftware.elasticactors.serialization.internal.PersistentActorDeserializer;
 import org.elasticsoftware.elasticactors.serialization.internal.PersistentActorSerializer;
 import org.elasticsoftware.elasticactors.serialization.internal.ScheduledMessageDeserializer;
+import org.elasticsoftware.elasticactors.state.PersistentActor;
 import org.elasticsoftware.elasticactors.state.PersistentActorRepository;
 import org.elasticsoftware.elasticactors.util.concurrent.DaemonThreadFactory;
 import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundExecutor;
@@ -50,6 +54,9 @@ import org.springframework.util.StringUtils;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -116,20 +123,40 @@ public class BackplaneConfiguration {
         final int workers = env.getProperty("ea.asyncUpdateExecutor.workerCount",Integer.class,Runtime.getRuntime().availableProcessors() * 3);
         final int batchSize = env.getProperty("ea.asyncUpdateExecutor.batchSize",Integer.class,20);
         final boolean optimizedV1Batches = env.getProperty("ea.asyncUpdateExecutor.optimizedV1Batches", Boolean.TYPE, true);
-        return new ThreadBoundExecutorImpl(new PersistentActorUpdateEventProcessor(cassandraSession, batchSize, optimizedV1Batches),batchSize,new DaemonThreadFactory("UPDATE-EXECUTOR-WORKER"),workers);
+        final boolean coalesceUpdates = env.getProperty("ea.asyncUpdateExecutor.coalesceUpdates", Boolean.TYPE, false);
+        return new ThreadBoundExecutorImpl(new PersistentActorUpdateEventProcessor(cassandraSession, batchSize, optimizedV1Batches, coalesceUpdates),batchSize,new DaemonThreadFactory("UPDATE-EXECUTOR-WORKER"),workers);
     }
 
     @Bean(name = {"persistentActorRepository"})
-    public PersistentActorRepository getPersistentActorRepository(@Qualifier("asyncUpdateExecutor") ThreadBoundExecutor asyncUpdateExecutor) {
+    public PersistentActorRepository getPersistentActorRepository(@Qualifier("asyncUpdateExecutor") ThreadBoundExecutor asyncUpdateExecutor) throws IOException {
         final Integer compressionThreshold = env.getProperty("ea.persistentActorRepository.compressionThreshold",Integer.class, 512);
-        Serializer serializer = new CompressingSerializer<>(new PersistentActorSerializer(cluster),compressionThreshold);
-        Deserializer deserializer = new DecompressingDeserializer<>(new PersistentActorDeserializer(actorRefFactory,cluster));
+        final String compressionCodec = env.getProperty("ea.persistentActorRepository.compressionCodec", CompressionCodecs.LZ4);
+        final Integer compressionLevel = env.getProperty("ea.persistentActorRepository.compressionLevel",Integer.class, 3);
+        final Map<String, byte[]> dictionaries = CompressionCodecs.loadDictionaries(env.getProperty("ea.persistentActorRepository.compressionDictionaries"));
+        final CompressionCodec codec = CompressionCodecs.create(compressionCodec, compressionLevel, dictionaries);
+        final List<CompressionCodec> decompressionCodecs = CompressionCodecs.createDecompressionCodecs(dictionaries);
+        final Integer maxStateDeltas = env.getProperty("ea.persistentActorRepository.maxStateDeltas",Integer.class, 0);
+        if(maxStateDeltas > 0) {
+            final Integer stateDeltaThreshold = env.getProperty("ea.persistentActorRepository.stateDeltaThreshold",Integer.class, 4096);
+            return new CassandraPersistentActorRepository(cassandraSession, cluster.getClusterName(), asyncUpdateExecutor,
+                    new PersistentActorSerializer(cluster), new PersistentActorDeserializer(actorRefFactory,cluster),
+                    compressionThreshold, codec, decompressionCodecs, maxStateDeltas, stateDeltaThreshold);
+        }
+        Serializer serializer = new CompressingSerializer<>(new PersistentActorSerializer(cluster),compressionThreshold,codec,PersistentActor::getActorClass);
+        Deserializer deserializer = new DecompressingDeserializer<>(new PersistentActorDeserializer(actorRefFactory,cluster),decompressionCodecs);
         return new CassandraPersistentActorRepository(cassandraSession, cluster.getClusterName(), asyncUpdateExecutor, serializer, deserializer);
     }
 
-    @Bean(name = {"scheduledMessageRepository"})
+    @Bean(name = {"scheduledMessageRepository"}, destroyMethod = "shutdown")
     public ScheduledMessageRepository getScheduledMessageRepository() {
-        return new CassandraScheduledMessageRepository(cluster.getClusterName(), cassandraSession, new ScheduledMessageDeserializer(new ActorRefDeserializer(actorRefFactory)));
+        ThreadBoundExecutor asyncWriteExecutor = null;
+        if(env.getProperty("ea.scheduledMessageRepository.asyncWrites", Boolean.TYPE, false)) {
+            final int workers = env.getProperty("ea.asyncScheduledMessageExecutor.workerCount",Integer.class,Runtime.getRuntime().availableProcessors());
+            final int batchSize = env.getProperty("ea.asyncScheduledMessageExecutor.batchSize",Integer.class,20);
+            asyncWriteExecutor = new ThreadBoundExecutorImpl(new ScheduledMessageWriteEventProcessor(cluster.getClusterName(), cassandraSession),batchSize,new DaemonThreadFactory("SCHEDULED-MESSAGE-WRITER"),workers);
+        }
+        final int fetchSize = env.getProperty("ea.scheduler.loadPageSize",Integer.class,CassandraScheduledMessageRepository.DEFAULT_FETCH_SIZE);
+        return new CassandraScheduledMessageRepository(cluster.getClusterName(), cassandraSession, new ScheduledMessageDeserializer(new ActorRefDeserializer(actorRefFactory)), asyncWriteExecutor, fetchSize);
     }
 
     @Bean(name = {"actorSystemEventListenerRepository"})
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsoftware.elasticactors.cassandra2.cluster.scheduler;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import org.elasticsoftware.elasticactors.ShardKey;
+import org.elasticsoftware.elasticactors.cluster.scheduler.ScheduledMessageKey;
+import org.elasticsoftware.elasticactors.messaging.InternalMessage;
+import org.elasticsoftware.elasticactors.messaging.MessageHandlerEventListener;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.elasticsoftware.elasticactors.cassandra2.cluster.scheduler.ScheduledMessageWriteEventProcessor.DELETE_QUERY;
+import static org.elasticsoftware.elasticactors.cassandra2.cluster.scheduler.ScheduledMessageWriteEventProcessor.INSERT_QUERY;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author Joost van de Wijgerd
+ */
+public class ScheduledMessageWriteEventProcessorTest {
+    private static final ShardKey SHARD = new ShardKey("test", 0);
+    private Session session;
+    private PreparedStatement insertStatement;
+    private PreparedStatement deleteStatement;
+    private ScheduledMessageWriteEventProcessor processor;
+
+    @BeforeMethod
+    public void setUp() {
+        session = mock(Session.class);
+        insertStatement = mock(PreparedStatement.class);
+        deleteStatement = mock(PreparedStatement.class);
+        when(session.prepare(INSERT_QUERY)).thenReturn(insertStatement);
+        when(session.prepare(DELETE_QUERY)).thenReturn(deleteStatement);
+        when(insertStatement.bind((Object[]) anyVararg())).thenReturn(mock(BoundStatement.class));
+        when(deleteStatement.bind((Object[]) anyVararg())).thenReturn(mock(BoundStatement.class));
+        processor = new ScheduledMessageWriteEventProcessor("cluster", session);
+    }
+
+    @Test
+    public void testCreateAndDeleteInOneBatchAreNotWritten() {
+        ScheduledMessageKey key = new ScheduledMessageKey(UUID.randomUUID(), System.currentTimeMillis());
+        InternalMessage createMessage = mock(InternalMessage.class);
+        InternalMessage deleteMessage = mock(InternalMessage.class);
+        MessageHandlerEventListener createListener = mock(MessageHandlerEventListener.class);
+        MessageHandlerEventListener deleteListener = mock(MessageHandlerEventListener.class);
+
+        processor.process(Arrays.asList(
+                new ScheduledMessageWriteEvent(SHARD, key, ByteBuffer.wrap(new byte[10]), createMessage, createListener),
+                new ScheduledMessageWriteEvent(SHARD, key, null, deleteMessage, deleteListener)));
+
+        verify(session, never()).execute(any(Statement.class));
+        verify(insertStatement, never()).bind((Object[]) anyVararg());
+        verify(deleteStatement, never()).bind((Object[]) anyVararg());
+        // both writes are still acknowledged
+        verify(createListener).onDone(createMessage);
+        verify(deleteListener).onDone(deleteMessage);
+    }
+
+    @Test
+    public void testDeleteOfExistingMessageIsWritten() {
+        ScheduledMessageKey key = new ScheduledMessageKey(UUID.randomUUID(), System.currentTimeMillis());
+        MessageHandlerEventListener listener = mock(MessageHandlerEventListener.class);
+
+        processor.process(new ScheduledMessageWriteEvent(SHARD, key, null, null, listener));
+
+        verify(deleteStatement).bind("cluster", SHARD.toString(), key.getFireTime(), key.getId());
+        verify(session).execute(any(Statement.class));
+        verify(listener).onDone(null);
+    }
+
+    @Test
+    public void testFailedWriteIsReported() {
+        ScheduledMessageKey key = new ScheduledMessageKey(UUID.randomUUID(), System.currentTimeMillis());
+        InternalMessage message = mock(InternalMessage.class);
+        MessageHandlerEventListener listener = mock(MessageHandlerEventListener.class);
+        IllegalStateException exception = new IllegalStateException("write failed");
+        when(session.execute(any(Statement.class))).thenThrow(exception);
+
+        processor.process(new ScheduledMessageWriteEvent(SHARD, key, ByteBuffer.wrap(new byte[10]), message, listener));
+
+        verify(listener).onError(message, exception);
+        verify(listener, never()).onDone(any(InternalMessage.class));
+    }
+}
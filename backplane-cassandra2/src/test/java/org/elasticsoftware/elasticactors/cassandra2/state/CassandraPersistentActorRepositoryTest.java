@@ -0,0 +1,316 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsoftware.elasticactors.cassandra2.state;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import org.elasticsoftware.elasticactors.ActorRef;
+import org.elasticsoftware.elasticactors.ShardKey;
+import org.elasticsoftware.elasticactors.messaging.InternalMessage;
+import org.elasticsoftware.elasticactors.messaging.MessageHandlerEventListener;
+import org.elasticsoftware.elasticactors.serialization.Deserializer;
+import org.elasticsoftware.elasticactors.serialization.Serializer;
+import org.elasticsoftware.elasticactors.state.PersistentActor;
+import org.elasticsoftware.elasticactors.util.BinaryDelta;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundExecutor;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+/**
+ * @author Joost van de Wijgerd
+ */
+public class CassandraPersistentActorRepositoryTest {
+    private static final ShardKey SHARD = new ShardKey("test", 0);
+    private static final String ACTOR_ID = "actor";
+    private Session session;
+    private ThreadBoundExecutor asyncUpdateExecutor;
+    private CassandraPersistentActorRepository repository;
+    private ActorRef actorRef;
+    private byte[] record;
+
+    @BeforeMethod
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        session = mock(Session.class);
+        PreparedStatement preparedStatement = mock(PreparedStatement.class);
+        when(session.prepare(anyString())).thenReturn(preparedStatement);
+        when(preparedStatement.bind((Object[]) anyVararg())).thenReturn(mock(BoundStatement.class));
+        asyncUpdateExecutor = mock(ThreadBoundExecutor.class);
+        actorRef = mock(ActorRef.class);
+        when(actorRef.getActorId()).thenReturn(ACTOR_ID);
+        // the record is whatever the test sets, the deserializer wraps the (replayed) record in a PersistentActor
+        Serializer<PersistentActor, byte[]> recordSerializer = persistentActor -> record;
+        Deserializer<byte[], PersistentActor> recordDeserializer = this::persistentActor;
+        repository = new CassandraPersistentActorRepository(session, "cluster", asyncUpdateExecutor,
+                recordSerializer, recordDeserializer, Integer.MAX_VALUE, null, Collections.emptyList(), 3, 0);
+        record = new byte[1000];
+    }
+
+    @Test
+    public void testDeltasAreWrittenAfterSnapshot() throws Exception {
+        PersistentActor<ShardKey> persistentActor = persistentActor(null);
+
+        repository.update(SHARD, persistentActor);
+        PersistentActorUpdateEvent snapshot = lastEvent(1);
+        assertEquals(snapshot.getPersistentActorId(), ACTOR_ID);
+        assertNull(snapshot.getObsoleteDeltasEnd());
+
+        byte[] previousRecord = record;
+        record = update(record, 1);
+        repository.update(SHARD, persistentActor);
+        PersistentActorUpdateEvent delta = lastEvent(2);
+        assertTrue(delta.getPersistentActorId().startsWith(ACTOR_ID + '\u0000'));
+        assertTrue(delta.getPersistentActorId().endsWith("1"));
+        assertEquals(BinaryDelta.apply(previousRecord, bytes(delta.getPersistentActorBytes())), record);
+        assertEquals(persistentActor.getDeltaSequence(), 1);
+
+        // after maxStateDeltas a full snapshot replaces the deltas
+        record = update(record, 2);
+        repository.update(SHARD, persistentActor);
+        record = update(record, 3);
+        repository.update(SHARD, persistentActor);
+        record = update(record, 4);
+        repository.update(SHARD, persistentActor);
+        PersistentActorUpdateEvent nextSnapshot = lastEvent(5);
+        assertEquals(nextSnapshot.getPersistentActorId(), ACTOR_ID);
+        assertNotNull(nextSnapshot.getObsoleteDeltasEnd());
+        assertEquals(bytes(nextSnapshot.getPersistentActorBytes()), record);
+    }
+
+    @Test
+    public void testFailedWriteForcesSnapshot() throws Exception {
+        PersistentActor<ShardKey> persistentActor = persistentActor(null);
+        MessageHandlerEventListener listener = mock(MessageHandlerEventListener.class);
+        InternalMessage message = mock(InternalMessage.class);
+        repository.update(SHARD, persistentActor);
+        record = update(record, 1);
+        repository.updateAsync(SHARD, persistentActor, message, listener);
+        PersistentActorUpdateEvent delta = lastEvent(2);
+        assertNotEquals(delta.getPersistentActorId(), ACTOR_ID);
+
+        IOException failure = new IOException("write failed");
+        delta.getEventListener().onError(message, failure);
+        verify(listener).onError(message, failure);
+        assertNull(persistentActor.getPersistedRecord());
+
+        // the next update should not be a delta on top of the failed write
+        record = update(record, 2);
+        repository.update(SHARD, persistentActor);
+        PersistentActorUpdateEvent snapshot = lastEvent(3);
+        assertEquals(snapshot.getPersistentActorId(), ACTOR_ID);
+        assertEquals(bytes(snapshot.getPersistentActorBytes()), record);
+        // the failed delta (which might have been written) is removed
+        assertTrue(snapshot.getObsoleteDeltasEnd().compareTo(delta.getPersistentActorId()) > 0);
+    }
+
+    @Test
+    public void testSuccessfulWriteIsPassedOn() throws Exception {
+        PersistentActor<ShardKey> persistentActor = persistentActor(null);
+        MessageHandlerEventListener listener = mock(MessageHandlerEventListener.class);
+        InternalMessage message = mock(InternalMessage.class);
+        repository.updateAsync(SHARD, persistentActor, message, listener);
+        lastEvent(1).getEventListener().onDone(message);
+        verify(listener).onDone(message);
+        assertEquals(persistentActor.getPersistedRecord(), record);
+    }
+
+    @Test
+    public void testDeltasAreReplayed() throws Exception {
+        byte[] snapshot = record;
+        byte[] first = update(snapshot, 1);
+        byte[] second = update(first, 2);
+        List<Row> rows = Arrays.asList(row(ACTOR_ID, snapshot),
+                                       row(ACTOR_ID + "\u00000000000000000000001", BinaryDelta.create(snapshot, first)),
+                                       row(ACTOR_ID + "\u00000000000000000000002", BinaryDelta.create(first, second)));
+        ResultSet resultSet = mock(ResultSet.class);
+        when(resultSet.iterator()).thenReturn(rows.iterator());
+        when(session.execute(any(Statement.class))).thenReturn(resultSet);
+
+        PersistentActor<ShardKey> persistentActor = repository.get(SHARD, ACTOR_ID);
+
+        assertEquals(persistentActor.getSerializedState(), second);
+        assertEquals(persistentActor.getPersistedRecord(), second);
+        assertEquals(persistentActor.getSnapshotSequence(), 0);
+        assertEquals(persistentActor.getDeltaSequence(), 2);
+    }
+
+    @Test
+    public void testMismatchingDeltaIsIgnored() throws Exception {
+        byte[] snapshot = record;
+        byte[] other = update(snapshot, 5);
+        List<Row> rows = Arrays.asList(row(ACTOR_ID, snapshot),
+                                       row(ACTOR_ID + "\u00000000000000000000001", BinaryDelta.create(other, update(other, 1))));
+        ResultSet resultSet = mock(ResultSet.class);
+        when(resultSet.iterator()).thenReturn(rows.iterator());
+        when(session.execute(any(Statement.class))).thenReturn(resultSet);
+
+        PersistentActor<ShardKey> persistentActor = repository.get(SHARD, ACTOR_ID);
+
+        assertEquals(persistentActor.getSerializedState(), snapshot);
+        // the next update writes a full snapshot
+        assertNull(persistentActor.getPersistedRecord());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testLatestStateIsReadAfterCoalescedWrites() throws Exception {
+        // write through the (coalescing) update processor to an in memory PersistentActors table
+        final NavigableMap<String, ByteBuffer> table = new TreeMap<>();
+        Session session = persistentActorsTable(table);
+        List<PersistentActorUpdateEvent> events = new ArrayList<>();
+        ThreadBoundExecutor<PersistentActorUpdateEvent> executor = mock(ThreadBoundExecutor.class);
+        doAnswer(invocation -> events.add((PersistentActorUpdateEvent) invocation.getArguments()[0]))
+                .when(executor).execute(any(PersistentActorUpdateEvent.class));
+        PersistentActorUpdateEventProcessor processor = new PersistentActorUpdateEventProcessor(session, 20, false, true);
+        repository = new CassandraPersistentActorRepository(session, "cluster", executor,
+                (Serializer<PersistentActor, byte[]>) persistentActor -> record, (Deserializer<byte[], PersistentActor>) this::persistentActor,
+                Integer.MAX_VALUE, null, Collections.emptyList(), 3, 0);
+        PersistentActor<ShardKey> persistentActor = persistentActor(null);
+
+        // a snapshot and the maximum number of deltas
+        for (int i = 1; i <= 4; i++) {
+            record = update(record, i);
+            repository.update(SHARD, persistentActor);
+        }
+        processor.process(events);
+        events.clear();
+        assertEquals(table.size(), 4);
+
+        // a snapshot that replaces the deltas, a snapshot of a completely different record and a delta on top of that
+        record = update(record, 5);
+        repository.update(SHARD, persistentActor);
+        record = new byte[record.length];
+        new Random(42).nextBytes(record);
+        repository.update(SHARD, persistentActor);
+        record = update(record, 6);
+        repository.update(SHARD, persistentActor);
+        assertEquals(events.size(), 3);
+        assertNotNull(events.get(0).getObsoleteDeltasEnd());
+        assertEquals(events.get(1).getPersistentActorId(), ACTOR_ID);
+        assertNotEquals(events.get(2).getPersistentActorId(), ACTOR_ID);
+        processor.process(events);
+
+        assertEquals(table.size(), 2);
+        assertEquals(repository.get(SHARD, ACTOR_ID).getSerializedState(), record);
+    }
+
+    private PersistentActorUpdateEvent lastEvent(int expectedEvents) {
+        ArgumentCaptor<PersistentActorUpdateEvent> captor = ArgumentCaptor.forClass(PersistentActorUpdateEvent.class);
+        verify(asyncUpdateExecutor, times(expectedEvents)).execute(captor.capture());
+        return captor.getValue();
+    }
+
+    private PersistentActor<ShardKey> persistentActor(byte[] serializedState) {
+        return new PersistentActor<>(SHARD, null, "1.0", "1.0", actorRef, null, serializedState, null, null);
+    }
+
+    /**
+     * A session that keeps the PersistentActors rows of a single shard in the given map. All the writes in a batch
+     * get the same timestamp, so like cassandra the deletes in a batch win from the inserts of the same column
+     */
+    private static Session persistentActorsTable(NavigableMap<String, ByteBuffer> table) {
+        Session session = mock(Session.class, RETURNS_DEEP_STUBS);
+        when(session.getCluster().getConfiguration().getProtocolOptions().getProtocolVersion()).thenReturn(ProtocolVersion.V3);
+        Map<Statement, Object[]> boundValues = new HashMap<>();
+        Map<Statement, String> boundQueries = new HashMap<>();
+        doAnswer(prepareInvocation -> {
+            String query = (String) prepareInvocation.getArguments()[0];
+            PreparedStatement preparedStatement = mock(PreparedStatement.class);
+            when(preparedStatement.bind((Object[]) anyVararg())).thenAnswer(bindInvocation -> {
+                BoundStatement boundStatement = mock(BoundStatement.class);
+                boundValues.put(boundStatement, bindInvocation.getArguments());
+                boundQueries.put(boundStatement, query);
+                return boundStatement;
+            });
+            return preparedStatement;
+        }).when(session).prepare(anyString());
+        when(session.execute(any(Statement.class))).thenAnswer(executeInvocation -> {
+            Statement statement = (Statement) executeInvocation.getArguments()[0];
+            List<Statement> statements = statement instanceof BatchStatement
+                    ? new ArrayList<>(((BatchStatement) statement).getStatements()) : Collections.singletonList(statement);
+            List<Row> rows = new ArrayList<>();
+            for (Statement write : statements) {
+                Object[] values = boundValues.get(write);
+                if(PersistentActorUpdateEventProcessor.INSERT_QUERY.equals(boundQueries.get(write))) {
+                    table.put((String) values[2], (ByteBuffer) values[3]);
+                } else if(boundQueries.get(write).startsWith("select")) {
+                    String from = (String) values[2];
+                    String to = values.length > 3 ? (String) values[3] : from + '\u0000';
+                    table.subMap(from, true, to, false).forEach((column, value) -> rows.add(row(column, bytes(value))));
+                }
+            }
+            for (Statement write : statements) {
+                Object[] values = boundValues.get(write);
+                if(PersistentActorUpdateEventProcessor.DELETE_QUERY.equals(boundQueries.get(write))) {
+                    table.remove((String) values[2]);
+                } else if(PersistentActorUpdateEventProcessor.DELETE_DELTAS_QUERY.equals(boundQueries.get(write))) {
+                    table.subMap((String) values[2], false, (String) values[3], false).clear();
+                }
+            }
+            ResultSet resultSet = mock(ResultSet.class);
+            when(resultSet.iterator()).thenReturn(rows.iterator());
+            when(resultSet.one()).thenReturn(rows.isEmpty() ? null : rows.get(0));
+            return resultSet;
+        });
+        return session;
+    }
+
+    private static Row row(String column, byte[] value) {
+        Row row = mock(Row.class);
+        when(row.getString(0)).thenReturn(column);
+        when(row.getBytes(1)).thenReturn(ByteBuffer.wrap(value));
+        return row;
+    }
+
+    private static byte[] update(byte[] record, int position) {
+        byte[] updated = Arrays.copyOf(record, record.length);
+        updated[position] += 1;
+        return updated;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
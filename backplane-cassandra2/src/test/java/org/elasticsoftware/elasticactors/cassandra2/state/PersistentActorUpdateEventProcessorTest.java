@@ -0,0 +1,145 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.cassandra2.state;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import org.elasticsoftware.elasticactors.ShardKey;
+import org.elasticsoftware.elasticactors.messaging.InternalMessage;
+import org.elasticsoftware.elasticactors.messaging.MessageHandlerEventListener;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.elasticsoftware.elasticactors.cassandra2.state.PersistentActorUpdateEventProcessor.DELETE_DELTAS_QUERY;
+import static org.elasticsoftware.elasticactors.cassandra2.state.PersistentActorUpdateEventProcessor.DELETE_QUERY;
+import static org.elasticsoftware.elasticactors.cassandra2.state.PersistentActorUpdateEventProcessor.INSERT_QUERY;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.assertEquals;
+
+/**
+ * @author Joost van de Wijgerd
+ */
+public class PersistentActorUpdateEventProcessorTest {
+    private static final ShardKey SHARD = new ShardKey("test", 0);
+    private static final String[] ROW_KEY = { "cluster", SHARD.toString() };
+    private Session session;
+    private PreparedStatement insertStatement;
+    private PreparedStatement deleteStatement;
+    private PreparedStatement deleteDeltasStatement;
+    private PersistentActorUpdateEventProcessor processor;
+
+    @BeforeMethod
+    public void setUp() {
+        session = mock(Session.class, RETURNS_DEEP_STUBS);
+        when(session.getCluster().getConfiguration().getProtocolOptions().getProtocolVersion()).thenReturn(ProtocolVersion.V3);
+        insertStatement = preparedStatement(INSERT_QUERY);
+        deleteStatement = preparedStatement(DELETE_QUERY);
+        deleteDeltasStatement = preparedStatement(DELETE_DELTAS_QUERY);
+        processor = new PersistentActorUpdateEventProcessor(session, 20, false, true);
+    }
+
+    @Test
+    public void testOnlyTheLastUpdatePerActorIsWritten() {
+        MessageHandlerEventListener listener = mock(MessageHandlerEventListener.class);
+        InternalMessage first = mock(InternalMessage.class);
+        InternalMessage second = mock(InternalMessage.class);
+        InternalMessage other = mock(InternalMessage.class);
+
+        processor.process(Arrays.asList(
+                new PersistentActorUpdateEvent(ROW_KEY, SHARD, "a", bytes(1), first, listener),
+                new PersistentActorUpdateEvent(ROW_KEY, SHARD, "b", bytes(2), other, listener),
+                new PersistentActorUpdateEvent(ROW_KEY, SHARD, "a", bytes(3), second, listener)));
+
+        verify(insertStatement).bind("cluster", SHARD.toString(), "a", bytes(3));
+        verify(insertStatement).bind("cluster", SHARD.toString(), "b", bytes(2));
+        verify(insertStatement, times(2)).bind((Object[]) anyVararg());
+        assertEquals(executedBatch().size(), 2);
+        // all the updates are acknowledged
+        verify(listener).onDone(first);
+        verify(listener).onDone(second);
+        verify(listener).onDone(other);
+    }
+
+    @Test
+    public void testObsoleteDeltasAreStillDeletedWhenCoalesced() {
+        // a snapshot that replaces the deltas, followed by a snapshot that doesn't
+        processor.process(Arrays.asList(
+                new PersistentActorUpdateEvent(ROW_KEY, SHARD, "a", bytes(1), null, null, "a\u00000000000000000000004"),
+                new PersistentActorUpdateEvent(ROW_KEY, SHARD, "a", bytes(2), null, null)));
+
+        verify(insertStatement).bind("cluster", SHARD.toString(), "a", bytes(2));
+        verify(deleteDeltasStatement).bind("cluster", SHARD.toString(), "a", "a\u00000000000000000000004");
+        assertEquals(executedBatch().size(), 2);
+    }
+
+    @Test
+    public void testLargestObsoleteDeltasRangeIsDeleted() {
+        // the actor was deleted (removing all deltas) and created again
+        processor.process(Arrays.asList(
+                new PersistentActorUpdateEvent(ROW_KEY, SHARD, "a", null, null, null, "a\u0001"),
+                new PersistentActorUpdateEvent(ROW_KEY, SHARD, "a", bytes(1), null, null, "a\u00000000000000000000002")));
+
+        verify(insertStatement).bind("cluster", SHARD.toString(), "a", bytes(1));
+        verify(deleteStatement, never()).bind((Object[]) anyVararg());
+        verify(deleteDeltasStatement).bind("cluster", SHARD.toString(), "a", "a\u0001");
+        verify(deleteDeltasStatement, times(1)).bind((Object[]) anyVararg());
+    }
+
+    @Test
+    public void testFailedWriteIsReportedForAllEvents() {
+        MessageHandlerEventListener listener = mock(MessageHandlerEventListener.class);
+        InternalMessage first = mock(InternalMessage.class);
+        InternalMessage second = mock(InternalMessage.class);
+        IllegalStateException exception = new IllegalStateException("write failed");
+        when(session.execute(any(Statement.class))).thenThrow(exception);
+
+        processor.process(Arrays.asList(
+                new PersistentActorUpdateEvent(ROW_KEY, SHARD, "a", bytes(1), first, listener),
+                new PersistentActorUpdateEvent(ROW_KEY, SHARD, "a", bytes(2), second, listener)));
+
+        verify(listener).onError(first, exception);
+        verify(listener).onError(second, exception);
+        verify(listener, never()).onDone(any(InternalMessage.class));
+    }
+
+    private PreparedStatement preparedStatement(String query) {
+        PreparedStatement preparedStatement = mock(PreparedStatement.class);
+        when(session.prepare(query)).thenReturn(preparedStatement);
+        when(preparedStatement.bind((Object[]) anyVararg())).thenReturn(mock(BoundStatement.class));
+        return preparedStatement;
+    }
+
+    private BatchStatement executedBatch() {
+        ArgumentCaptor<Statement> statement = ArgumentCaptor.forClass(Statement.class);
+        verify(session).execute(statement.capture());
+        return (BatchStatement) statement.getValue();
+    }
+
+    private static ByteBuffer bytes(int value) {
+        return ByteBuffer.wrap(new byte[] { (byte) value });
+    }
+}
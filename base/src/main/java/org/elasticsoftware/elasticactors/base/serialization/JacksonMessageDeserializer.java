@@ -37,6 +37,13 @@ public final class JacksonMessageDeserializer<T> implements MessageDeserializer<
 
     @Override
     public T deserialize(ByteBuffer serializedObject) throws IOException {
+        if(serializedObject.hasArray()) {
+            // read straight from the backing array, no need to copy the payload
+            T message = objectMapper.readValue(serializedObject.array(),
+                    serializedObject.arrayOffset() + serializedObject.position(), serializedObject.remaining(), objectClass);
+            serializedObject.position(serializedObject.limit());
+            return message;
+        }
         byte[] buf = new byte[serializedObject.remaining()];
         serializedObject.get(buf);
         return objectMapper.readValue(buf, objectClass);
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.google.common.cache.AbstractCache;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+/**
+ * {@link CacheManager} backed by a single Caffeine (W-TinyLFU) cache that enforces the global size bound for all
+ * segments.
+ *
+ * <p/>
+ * The bound is either a maximum number of entries or a maximum weight.
+ *
+ * <p/>
+ * Unlike the {@link GuavaCacheManager} the entries are stored under their own key (no composite key is allocated
+ * on lookup) and every segment keeps track of its own keys, so there is no global lock. This requires the keys to be
+ * unique over all the segments, which is the case for {@link org.elasticsoftware.elasticactors.ActorRef}s as they
+ * contain the shard (or node) of the actor. Statistics are kept per segment.
+ *
+ * @author Joost van de Wijgerd
+ */
+public final class CaffeineCacheManager<K,V> extends CacheManager<K,V> {
+    private final com.github.benmanes.caffeine.cache.Cache<Object,Entry> backingCache;
+
+    public CaffeineCacheManager(int maximumSize) {
+        this(Caffeine.newBuilder().maximumSize(maximumSize));
+    }
+
+    public CaffeineCacheManager(long maximumWeight, ToIntFunction<V> weigher) {
+        this(Caffeine.newBuilder().maximumWeight(maximumWeight)
+                                  .weigher((Object key, Object entry) -> weigher.applyAsInt(((Entry) entry).value)));
+    }
+
+    private CaffeineCacheManager(Caffeine<Object,Object> builder) {
+        // run the removal listener on the calling thread, same as the Guava implementation
+        this.backingCache = builder.executor(Runnable::run)
+                                   .<Object,Entry>removalListener(this::onRemoval).build();
+    }
+
+    @Override
+    public Cache<K,V> create(Object cacheKey, EvictionListener<V> evictionListener) {
+        return new SegmentedCache(cacheKey, evictionListener);
+    }
+
+    @Override
+    public void destroy(Cache<K,V> cache) {
+        if(SegmentedCache.class.isInstance(cache)) {
+            SegmentedCache segmentedCache = (SegmentedCache) cache;
+            segmentedCache.destroyed = true;
+            segmentedCache.invalidateAll();
+        }
+    }
+
+    private void onRemoval(Object key, Entry entry, RemovalCause cause) {
+        // only notify when it was not removed explicitly (when an entry was deleted)
+        // otherwise the prePassivate will run
+        if(key != null && entry != null && cause.wasEvicted()) {
+            entry.segment.onEvicted(key, entry.value);
+        }
+    }
+
+    private final class Entry {
+        private final SegmentedCache segment;
+        private final V value;
+
+        private Entry(SegmentedCache segment, V value) {
+            this.segment = segment;
+            this.value = value;
+        }
+    }
+
+    private final class SegmentedCache extends AbstractCache<K,V> {
+        private final Object segmentKey;
+        private final EvictionListener<V> evictionListener;
+        private final Set<Object> keys = ConcurrentHashMap.newKeySet();
+        private final ConcurrentMap<Object,CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+        private final LongAdder hitCount = new LongAdder();
+        private final LongAdder missCount = new LongAdder();
+        private final LongAdder loadSuccessCount = new LongAdder();
+        private final LongAdder loadExceptionCount = new LongAdder();
+        private final LongAdder totalLoadTime = new LongAdder();
+        private final LongAdder evictionCount = new LongAdder();
+        private volatile boolean destroyed = false;
+
+        private SegmentedCache(Object segmentKey, EvictionListener<V> evictionListener) {
+            this.segmentKey = segmentKey;
+            this.evictionListener = evictionListener;
+        }
+
+        @Override
+        public V getIfPresent(Object key) {
+            Entry entry = backingCache.getIfPresent(key);
+            if(entry != null && entry.segment == this) {
+                hitCount.increment();
+                return entry.value;
+            } else {
+                missCount.increment();
+                return null;
+            }
+        }
+
+        @Override
+        public V get(K key, Callable<? extends V> valueLoader) throws ExecutionException {
+            // fast path, doesn't allocate
+            V value = getIfPresent(key);
+            if(value != null) {
+                return value;
+            }
+            // the loader is (potentially) blocking I/O so it cannot run inside a compute on the backing map, that
+            // would hold the lock on the bin (and block resizes). Concurrent loads of the same key wait for the
+            // first one instead
+            CompletableFuture<V> loadingFuture = new CompletableFuture<>();
+            CompletableFuture<V> inFlight = loading.putIfAbsent(key, loadingFuture);
+            if(inFlight != null) {
+                return awaitLoad(inFlight);
+            }
+            final long startTime = System.nanoTime();
+            try {
+                final V loadedValue = valueLoader.call();
+                if(loadedValue == null) {
+                    throw new CacheLoader.InvalidCacheLoadException("CacheLoader returned null for key " + key + ".");
+                }
+                Entry entry = backingCache.asMap().compute(key, (k, current) -> {
+                    // put concurrently, that value wins
+                    return (current != null && current.segment == this) ? current : new Entry(this, loadedValue);
+                });
+                keys.add(key);
+                loadSuccessCount.increment();
+                loadingFuture.complete(entry.value);
+                return entry.value;
+            } catch (RuntimeException e) {
+                throw loadFailed(loadingFuture, new UncheckedExecutionException(e));
+            } catch (Exception e) {
+                throw loadFailed(loadingFuture, new ExecutionException(e));
+            } catch (Error e) {
+                throw loadFailed(loadingFuture, new ExecutionError(e));
+            } finally {
+                loading.remove(key, loadingFuture);
+                totalLoadTime.add(System.nanoTime() - startTime);
+            }
+        }
+
+        private <T extends Throwable> T loadFailed(CompletableFuture<V> loadingFuture, T exception) {
+            loadExceptionCount.increment();
+            loadingFuture.completeExceptionally(exception);
+            return exception;
+        }
+
+        private V awaitLoad(CompletableFuture<V> inFlight) throws ExecutionException {
+            try {
+                return inFlight.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ExecutionException(e);
+            } catch (ExecutionException e) {
+                // rethrow the exception the loading thread got
+                if(e.getCause() instanceof ExecutionException) {
+                    throw (ExecutionException) e.getCause();
+                } else if(e.getCause() instanceof UncheckedExecutionException) {
+                    throw (UncheckedExecutionException) e.getCause();
+                } else if(e.getCause() instanceof ExecutionError) {
+                    throw (ExecutionError) e.getCause();
+                } else {
+                    throw e;
+                }
+            }
+        }
+
+        @Override
+        public void put(K key, V value) {
+            backingCache.put(key, new Entry(this, value));
+            keys.add(key);
+        }
+
+        @Override
+        public void invalidate(Object key) {
+            keys.remove(key);
+            backingCache.asMap().computeIfPresent(key, (k, current) -> current.segment == this ? null : current);
+        }
+
+        @Override
+        public void invalidateAll() {
+            for (Object key : keys) {
+                invalidate(key);
+            }
+        }
+
+        @Override
+        public void cleanUp() {
+            backingCache.cleanUp();
+        }
+
+        @Override
+        public long size() {
+            return keys.size();
+        }
+
+        @Override
+        public CacheStats stats() {
+            return new CacheStats(hitCount.sum(),
+                                  missCount.sum(),
+                                  loadSuccessCount.sum(),
+                                  loadExceptionCount.sum(),
+                                  totalLoadTime.sum(),
+                                  evictionCount.sum());
+        }
+
+        private void onEvicted(Object key, V value) {
+            keys.remove(key);
+            // the key could have been added again concurrently
+            if(backingCache.asMap().containsKey(key)) {
+                keys.add(key);
+            }
+            evictionCount.increment();
+            if(evictionListener != null && !destroyed) {
+                evictionListener.onEvicted(value);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return segmentKey.toString();
+        }
+    }
+}
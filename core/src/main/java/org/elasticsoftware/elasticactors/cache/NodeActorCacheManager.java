@@ -16,6 +16,7 @@
 
 package org.elasticsoftware.elasticactors.cache;
 
+import com.google.common.cache.Cache;
 import org.elasticsoftware.elasticactors.ActorRef;
 import org.elasticsoftware.elasticactors.NodeKey;
 import org.elasticsoftware.elasticactors.state.PersistentActor;
@@ -24,7 +25,23 @@ import org.elasticsoftware.elasticactors.state.PersistentActor;
  * @author Joost van de Wijgerd
  */
 public final class NodeActorCacheManager extends CacheManager<ActorRef,PersistentActor<NodeKey>> {
+    private final CacheManager<ActorRef,PersistentActor<NodeKey>> delegate;
+
     public NodeActorCacheManager(int maximumSize) {
-        super(maximumSize);
+        this(new GuavaCacheManager<>(maximumSize));
+    }
+
+    public NodeActorCacheManager(CacheManager<ActorRef,PersistentActor<NodeKey>> delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Cache<ActorRef, PersistentActor<NodeKey>> create(Object cacheKey, EvictionListener<PersistentActor<NodeKey>> evictionListener) {
+        return delegate.create(cacheKey, evictionListener);
+    }
+
+    @Override
+    public void destroy(Cache<ActorRef, PersistentActor<NodeKey>> cache) {
+        delegate.destroy(cache);
     }
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.cache;
+
+import org.elasticsoftware.elasticactors.state.PersistentActor;
+
+import java.util.function.ToIntFunction;
+
+/**
+ * Weighs a {@link PersistentActor} by the size of its last serialized state (as computed by
+ * {@link PersistentActor#serializeState()} or loaded from the repository) plus a fixed overhead per entry. Actors of
+ * which the state was never serialized get the default state size.
+ *
+ * <p/>
+ * The weight is determined when the actor is put in the cache (i.e. when it is loaded or created). When the
+ * serialized state size changes afterwards the actor needs to be put in the cache again to update its weight, see
+ * {@link #isWeightOutdated(PersistentActor)}
+ *
+ * @author Joost van de Wijgerd
+ */
+public final class PersistentActorWeigher<K> implements ToIntFunction<PersistentActor<K>> {
+    public static final int ENTRY_OVERHEAD = 256;
+    private final int defaultStateSize;
+
+    public PersistentActorWeigher(int defaultStateSize) {
+        this.defaultStateSize = defaultStateSize;
+    }
+
+    @Override
+    public int applyAsInt(PersistentActor<K> persistentActor) {
+        final int serializedStateSize = persistentActor.getSerializedStateSize();
+        persistentActor.setWeighedStateSize(serializedStateSize);
+        return ENTRY_OVERHEAD + ((serializedStateSize > 0) ? serializedStateSize : defaultStateSize);
+    }
+
+    /**
+     * @param persistentActor
+     * @return true if the actor was weighed and its serialized state size changed since
+     */
+    public static boolean isWeightOutdated(PersistentActor<?> persistentActor) {
+        final int weighedStateSize = persistentActor.getWeighedStateSize();
+        return weighedStateSize != -1 && weighedStateSize != persistentActor.getSerializedStateSize();
+    }
+}
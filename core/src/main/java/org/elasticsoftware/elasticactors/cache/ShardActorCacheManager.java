@@ -16,6 +16,7 @@
 
 package org.elasticsoftware.elasticactors.cache;
 
+import com.google.common.cache.Cache;
 import org.elasticsoftware.elasticactors.ActorRef;
 import org.elasticsoftware.elasticactors.ShardKey;
 import org.elasticsoftware.elasticactors.state.PersistentActor;
@@ -24,7 +25,23 @@ import org.elasticsoftware.elasticactors.state.PersistentActor;
  * @author Joost van de Wijgerd
  */
 public final class ShardActorCacheManager extends CacheManager<ActorRef,PersistentActor<ShardKey>> {
+    private final CacheManager<ActorRef,PersistentActor<ShardKey>> delegate;
+
     public ShardActorCacheManager(int maximumSize) {
-        super(maximumSize);
+        this(new GuavaCacheManager<>(maximumSize));
+    }
+
+    public ShardActorCacheManager(CacheManager<ActorRef,PersistentActor<ShardKey>> delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Cache<ActorRef, PersistentActor<ShardKey>> create(Object cacheKey, EvictionListener<PersistentActor<ShardKey>> evictionListener) {
+        return delegate.create(cacheKey, evictionListener);
+    }
+
+    @Override
+    public void destroy(Cache<ActorRef, PersistentActor<ShardKey>> cache) {
+        delegate.destroy(cache);
     }
 }
@@ -55,12 +55,22 @@ public abstract class BaseActorRef implements ActorRef {
     @Override
     public <T> CompletableFuture<T> ask(Object message, Class<T> responseType, Boolean persistOnResponse) {
         final CompletableFuture<T> future = new CompletableFuture<>();
+        ActorRef replyRef = null;
         try {
             ActorRef callerRef = Boolean.TRUE.equals(persistOnResponse) ? ActorContextHolder.getSelf() : null;
-            ActorRef replyRef = actorSystem.tempActorOf(ReplyActor.class,
-                                                        new CompletableFutureDelegate<>(future, responseType, callerRef));
+            CompletableFutureDelegate<T> delegate = new CompletableFutureDelegate<>(future, responseType, callerRef);
+            // use the pooled reply endpoint when the actor system has one
+            replyRef = (actorSystem instanceof LocalActorSystemInstance)
+                    ? ((LocalActorSystemInstance) actorSystem).replyRefFor(delegate) : null;
+            if (replyRef == null) {
+                replyRef = actorSystem.tempActorOf(ReplyActor.class, delegate);
+            }
             this.tell(message, replyRef);
         } catch (Exception e) {
+            // the request was not sent, so there will be no response for it
+            if (replyRef != null && actorSystem instanceof LocalActorSystemInstance) {
+                ((LocalActorSystemInstance) actorSystem).releaseReplyRef(replyRef);
+            }
             future.completeExceptionally(e);
         }
         return future;
@@ -24,6 +24,7 @@ import org.elasticsoftware.elasticactors.*;
 import org.elasticsoftware.elasticactors.cache.EvictionListener;
 import org.elasticsoftware.elasticactors.cache.NodeActorCacheManager;
 import org.elasticsoftware.elasticactors.cluster.tasks.*;
+import org.elasticsoftware.elasticactors.core.actors.CompletableFutureDelegate;
 import org.elasticsoftware.elasticactors.messaging.*;
 import org.elasticsoftware.elasticactors.messaging.internal.ActivateActorMessage;
 import org.elasticsoftware.elasticactors.messaging.internal.ActorType;
@@ -38,6 +39,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Configurable;
 import org.springframework.beans.factory.annotation.Qualifier;
 
+import javax.annotation.Nullable;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -55,6 +57,7 @@ public final class LocalActorNode extends AbstractActorContainer implements Acto
     private final NodeKey nodeKey;
     private ThreadBoundExecutor actorExecutor;
     private final NodeActorCacheManager actorCacheManager;
+    private final ReplyEndpoint replyEndpoint;
     private Cache<ActorRef,PersistentActor<NodeKey>> actorCache;
     private final Set<ElasticActor> initializedActors = new HashSet<>();
 
@@ -63,9 +66,19 @@ public final class LocalActorNode extends AbstractActorContainer implements Acto
                           ActorRef myRef,
                           MessageQueueFactory messageQueueFactory,
                           NodeActorCacheManager actorCacheManager) {
+        this(node, actorSystem, myRef, messageQueueFactory, actorCacheManager, null);
+    }
+
+    public LocalActorNode(PhysicalNode node,
+                          InternalActorSystem actorSystem,
+                          ActorRef myRef,
+                          MessageQueueFactory messageQueueFactory,
+                          NodeActorCacheManager actorCacheManager,
+                          @Nullable ReplyEndpoint replyEndpoint) {
         super(messageQueueFactory, myRef, node);
         this.actorSystem = actorSystem;
         this.actorCacheManager = actorCacheManager;
+        this.replyEndpoint = replyEndpoint;
         this.nodeKey = new NodeKey(actorSystem.getName(), node.getId());
     }
 
@@ -139,13 +152,18 @@ public final class LocalActorNode extends AbstractActorContainer implements Acto
         // we only need to copy if there are more than one receivers
         boolean needsCopy = false;
         MessageHandlerEventListener messageHandlerEventListener = mhel;
-        if(im.getReceivers().size() > 1) {
+        final List<ActorRef> receivers = im.getReceivers();
+        if(receivers.size() > 1) {
             needsCopy = true;
-            messageHandlerEventListener = new MultiMessageHandlerEventListener(mhel, im.getReceivers().size());
+            messageHandlerEventListener = new MultiMessageHandlerEventListener(mhel, receivers.size());
         }
-        for (ActorRef receiverRef : im.getReceivers()) {
+        // use an indexed loop, the iterator of the (mostly singleton) receivers list is garbage on the hot path
+        for (int i = 0; i < receivers.size(); i++) {
+            final ActorRef receiverRef = receivers.get(i);
             InternalMessage internalMessage = (needsCopy) ? im.copyOf() : im;
-            if(receiverRef.getActorId() != null) {
+            if(replyEndpoint != null && replyEndpoint.isReplyRef(receiverRef)) {
+                handleReply(internalMessage, receiverRef, messageHandlerEventListener);
+            } else if(receiverRef.getActorId() != null) {
                 try {
                     // load persistent actor from cache or persistent store
                     PersistentActor<NodeKey> actor = actorCache.getIfPresent(receiverRef);
@@ -258,6 +276,19 @@ public final class LocalActorNode extends AbstractActorContainer implements Acto
         }
     }
 
+    private void handleReply(InternalMessage internalMessage, ActorRef replyRef,
+                             MessageHandlerEventListener messageHandlerEventListener) {
+        CompletableFutureDelegate<?> delegate = replyEndpoint.complete(replyRef);
+        if(delegate != null) {
+            actorExecutor.execute(new HandleReplyTask(actorSystem, replyRef, delegate, internalMessage, messageHandlerEventListener));
+        } else {
+            // the request timed out or this is not the first response
+            logger.warn(String.format("No pending request for reply [%s]; senderRef [%s], messageType [%s]",
+                    replyRef, internalMessage.getSender(), internalMessage.getPayloadClass()));
+            messageHandlerEventListener.onDone(internalMessage);
+        }
+    }
+
     private boolean actorExists(String actorId) {
         return actorCache.getIfPresent(actorId) != null;
     }
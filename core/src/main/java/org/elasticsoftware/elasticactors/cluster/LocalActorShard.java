@@ -23,6 +23,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.elasticsoftware.elasticactors.*;
 import org.elasticsoftware.elasticactors.cache.EvictionListener;
+import org.elasticsoftware.elasticactors.cache.PersistentActorWeigher;
 import org.elasticsoftware.elasticactors.cache.ShardActorCacheManager;
 import org.elasticsoftware.elasticactors.cluster.scheduler.ScheduledMessageKey;
 import org.elasticsoftware.elasticactors.cluster.tasks.*;
@@ -43,8 +44,11 @@ import org.springframework.core.env.Environment;
 import org.springframework.dao.EmptyResultDataAccessException;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Callable;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 import static org.elasticsoftware.elasticactors.cluster.tasks.ProtocolFactoryFactory.getProtocolFactory;
 import static org.elasticsoftware.elasticactors.util.SerializationTools.deserializeMessage;
@@ -66,8 +70,12 @@ public final class LocalActorShard extends AbstractActorContainer implements Act
     private final ShardActorCacheManager actorCacheManager;
     // the cacheloader instance that is reused to avoid garbage being created on each call
     private final CacheLoader cacheLoader = new CacheLoader();
+    // actors that are being loaded asynchronously, with the messages that arrived in the meantime
+    private final ConcurrentMap<ActorRef,PendingActivation> pendingActivations = new ConcurrentHashMap<>();
+    private ExecutorService actorActivationExecutor;
 
     private Long serializationWarnThreshold;
+    private boolean asyncActivation = false;
 
     public LocalActorShard(PhysicalNode node,
                            InternalActorSystem actorSystem,
@@ -84,12 +92,17 @@ public final class LocalActorShard extends AbstractActorContainer implements Act
     @Autowired
     public void setEnvironment(Environment environment) {
         this.serializationWarnThreshold = environment.getProperty("ea.serialization.warn.threshold", Long.class);
+        this.asyncActivation = environment.getProperty("ea.actorShard.asyncActivation", Boolean.class, Boolean.FALSE);
     }
 
     @Override
     public void init() throws Exception {
         // create cache
         this.actorCache = actorCacheManager.create(shardKey,this);
+        if(asyncActivation && actorActivationExecutor == null) {
+            logger.warn(String.format("No actorActivationExecutor configured, falling back to synchronous actor activation for Shard [%s]", shardKey.toString()));
+            asyncActivation = false;
+        }
         // initialize queue
         super.init();
     }
@@ -163,51 +176,26 @@ public final class LocalActorShard extends AbstractActorContainer implements Act
         // we only need to copy if there are more than one receivers
         boolean needsCopy = false;
         MessageHandlerEventListener messageHandlerEventListener = mhel;
-        if(im.getReceivers().size() > 1) {
+        final List<ActorRef> receivers = im.getReceivers();
+        if(receivers.size() > 1) {
             needsCopy = true;
-            messageHandlerEventListener = new MultiMessageHandlerEventListener(mhel, im.getReceivers().size());
+            messageHandlerEventListener = new MultiMessageHandlerEventListener(mhel, receivers.size());
         }
-        for (ActorRef receiverRef : im.getReceivers()) {
+        // use an indexed loop, the iterator of the (mostly singleton) receivers list is garbage on the hot path
+        for (int i = 0; i < receivers.size(); i++) {
+            final ActorRef receiverRef = receivers.get(i);
             InternalMessage internalMessage = (needsCopy) ? im.copyOf() : im;
             if (receiverRef.getActorId() != null) {
+                if (asyncActivation) {
+                    handleActorMessageAsync(internalMessage, receiverRef, messageHandlerEventListener);
+                    continue;
+                }
                 // make sure we load the right value from the cache
                 cacheLoader.initialize(receiverRef);
                 try {
                     // load persistent actor from cache or persistent store
                     PersistentActor<ShardKey> actor = actorCache.get(receiverRef, cacheLoader);
-                    // see if we don't have a recently destroyed actor
-                    if (TOMBSTONE == actor) {
-                        try {
-                            handleUndeliverable(internalMessage, receiverRef, messageHandlerEventListener);
-                        } catch (Exception ex) {
-                            logger.error("Exception while sending message undeliverable", ex);
-                        }
-                    } else {
-                        // find actor class behind receiver ActorRef
-                        ElasticActor actorInstance = actorSystem.getActorInstance(receiverRef, actor.getActorClass());
-                        // execute on it's own thread
-                        if (internalMessage.isUndeliverable()) {
-                            actorExecutor.execute(getProtocolFactory(internalMessage.getPayloadClass())
-                                    .createHandleUndeliverableMessageTask(actorSystem,
-                                                                          actorInstance,
-                                                                          receiverRef,
-                                                                          internalMessage,
-                                                                          actor,
-                                                                          persistentActorRepository,
-                                                                          messageHandlerEventListener));
-                        } else {
-                            actorExecutor.execute(getProtocolFactory(internalMessage.getPayloadClass())
-                                    .createHandleMessageTask(actorSystem,
-                                                             actorInstance,
-                                                             receiverRef,
-                                                             internalMessage,
-                                                             actor,
-                                                             persistentActorRepository,
-                                                             actorStateUpdateProcessor,
-                                                             messageHandlerEventListener,
-                                                             serializationWarnThreshold));
-                        }
-                    }
+                    deliverMessage(internalMessage, receiverRef, actor, messageHandlerEventListener);
                 } catch (UncheckedExecutionException e) {
                     if (e.getCause() instanceof EmptyResultDataAccessException) {
                         try {
@@ -234,25 +222,21 @@ public final class LocalActorShard extends AbstractActorContainer implements Act
                 // or forwarding a reply for a Temp- or ServiceActor from a remote system
                 // or a request to persist the state of an actor
                 try {
+                    if (internalMessage instanceof TransientInternalMessage
+                            && internalMessage.getPayload(null) instanceof PendingActivation) {
+                        // an asynchronous load has completed, the parked messages are handled here on the shard thread
+                        ((PendingActivation) internalMessage.getPayload(null)).complete();
+                        messageHandlerEventListener.onDone(internalMessage);
+                        continue;
+                    }
                     Object message = deserializeMessage(actorSystem, internalMessage);
-                    // check if the actor exists
-                    if (message instanceof CreateActorMessage) {
-                        CreateActorMessage createActorMessage = (CreateActorMessage) message;
-                        if (!actorExists(actorSystem.actorFor(createActorMessage.getActorId()))) {
-                            createActor(createActorMessage, internalMessage, messageHandlerEventListener);
-                        } else {
-                            // we need to activate the actor since we need to run the postActivate logic
-                            activateActor(actorSystem.actorFor(createActorMessage.getActorId()));
-                            // ack message anyway
-                            messageHandlerEventListener.onDone(internalMessage);
-                        }
-                    } else if (message instanceof DestroyActorMessage) {
-                        DestroyActorMessage destroyActorMessage = (DestroyActorMessage) message;
-                        if (actorExists(destroyActorMessage.getActorRef())) {
-                            destroyActor(destroyActorMessage, internalMessage, messageHandlerEventListener);
-                        } else {
-                            // ack message anyway
-                            messageHandlerEventListener.onDone(internalMessage);
+                    final ActorRef actorRef = getTargetActorRef(message);
+                    if (actorRef != null) {
+                        // a shard message about an actor that is still being loaded is handled after the load
+                        // has completed, in order with the messages that are parked for that actor
+                        PendingActivation pendingActivation = pendingActivations.get(actorRef);
+                        if (pendingActivation == null || !pendingActivation.park(message, internalMessage, messageHandlerEventListener)) {
+                            handleActorShardMessage(message, actorRef, internalMessage, messageHandlerEventListener, cacheLoader);
                         }
                     } else if (message instanceof CancelScheduledMessageMessage) {
                         CancelScheduledMessageMessage cancelMessage = (CancelScheduledMessageMessage) message;
@@ -285,9 +269,6 @@ public final class LocalActorShard extends AbstractActorContainer implements Act
                         }
                         // ack
                         messageHandlerEventListener.onDone(internalMessage);
-                    } else if(message instanceof PersistActorMessage) {
-                        PersistActorMessage persistMessage = (PersistActorMessage) message;
-                        persistActor(persistMessage, internalMessage, messageHandlerEventListener);
                     } else {
                         // unknown internal message, just ack it (should not happen)
                         messageHandlerEventListener.onDone(internalMessage);
@@ -302,6 +283,125 @@ public final class LocalActorShard extends AbstractActorContainer implements Act
         }
     }
 
+    private void deliverMessage(InternalMessage internalMessage,
+                                ActorRef receiverRef,
+                                PersistentActor<ShardKey> actor,
+                                MessageHandlerEventListener messageHandlerEventListener) throws Exception {
+        // see if we don't have a recently destroyed actor
+        if (TOMBSTONE == actor) {
+            try {
+                handleUndeliverable(internalMessage, receiverRef, messageHandlerEventListener);
+            } catch (Exception ex) {
+                logger.error("Exception while sending message undeliverable", ex);
+            }
+        } else {
+            // the state size changed since the actor was weighed (i.e. it was persisted), update the weight
+            if (PersistentActorWeigher.isWeightOutdated(actor)) {
+                actorCache.put(receiverRef, actor);
+            }
+            // find actor class behind receiver ActorRef
+            ElasticActor actorInstance = actorSystem.getActorInstance(receiverRef, actor.getActorClass());
+            // execute on it's own thread
+            if (internalMessage.isUndeliverable()) {
+                actorExecutor.execute(getProtocolFactory(internalMessage.getPayloadClass())
+                        .createHandleUndeliverableMessageTask(actorSystem,
+                                                              actorInstance,
+                                                              receiverRef,
+                                                              internalMessage,
+                                                              actor,
+                                                              persistentActorRepository,
+                                                              messageHandlerEventListener));
+            } else {
+                actorExecutor.execute(getProtocolFactory(internalMessage.getPayloadClass())
+                        .createHandleMessageTask(actorSystem,
+                                                 actorInstance,
+                                                 receiverRef,
+                                                 internalMessage,
+                                                 actor,
+                                                 persistentActorRepository,
+                                                 actorStateUpdateProcessor,
+                                                 messageHandlerEventListener,
+                                                 serializationWarnThreshold));
+            }
+        }
+    }
+
+    /**
+     * Non-blocking variant of the actor message path. When the actor is not in the cache the load from the
+     * {@link PersistentActorRepository} is started on the activation executor and the message is parked until the
+     * load completes, so that the shard can continue to serve the other actors in the meantime.
+     *
+     * @param internalMessage
+     * @param receiverRef
+     * @param messageHandlerEventListener
+     */
+    private void handleActorMessageAsync(InternalMessage internalMessage,
+                                         ActorRef receiverRef,
+                                         MessageHandlerEventListener messageHandlerEventListener) {
+        try {
+            // the pending activation needs to be checked first, it is only removed after all parked messages are handed off
+            PendingActivation pendingActivation = pendingActivations.get(receiverRef);
+            if (pendingActivation != null && pendingActivation.park(internalMessage, messageHandlerEventListener)) {
+                return;
+            }
+            PersistentActor<ShardKey> actor = actorCache.getIfPresent(receiverRef);
+            if (actor != null) {
+                deliverMessage(internalMessage, receiverRef, actor, messageHandlerEventListener);
+            } else {
+                pendingActivation = new PendingActivation(receiverRef);
+                pendingActivation.park(internalMessage, messageHandlerEventListener);
+                pendingActivations.put(receiverRef, pendingActivation);
+                pendingActivation.start();
+            }
+        } catch (Exception e) {
+            messageHandlerEventListener.onError(internalMessage, e);
+            logger.error(String.format("Exception while handling InternalMessage for Actor [%s]; senderRef [%s], messageType [%s]", receiverRef.getActorId(), internalMessage.getSender(), internalMessage.getPayloadClass()), e);
+        }
+    }
+
+    /**
+     * @param message
+     * @return the {@link ActorRef} of the actor the shard message operates on, or null if it is not about an actor
+     */
+    private ActorRef getTargetActorRef(Object message) {
+        if (message instanceof CreateActorMessage) {
+            return actorSystem.actorFor(((CreateActorMessage) message).getActorId());
+        } else if (message instanceof DestroyActorMessage) {
+            return ((DestroyActorMessage) message).getActorRef();
+        } else if (message instanceof PersistActorMessage) {
+            return ((PersistActorMessage) message).getActorRef();
+        } else {
+            return null;
+        }
+    }
+
+    private void handleActorShardMessage(Object message,
+                                         ActorRef actorRef,
+                                         InternalMessage internalMessage,
+                                         MessageHandlerEventListener messageHandlerEventListener,
+                                         CacheLoader cacheLoader) throws Exception {
+        // check if the actor exists
+        if (message instanceof CreateActorMessage) {
+            if (!actorExists(actorRef)) {
+                createActor((CreateActorMessage) message, internalMessage, messageHandlerEventListener);
+            } else {
+                // we need to activate the actor since we need to run the postActivate logic
+                activateActor(actorRef, cacheLoader);
+                // ack message anyway
+                messageHandlerEventListener.onDone(internalMessage);
+            }
+        } else if (message instanceof DestroyActorMessage) {
+            if (actorExists(actorRef)) {
+                destroyActor((DestroyActorMessage) message, internalMessage, messageHandlerEventListener, cacheLoader);
+            } else {
+                // ack message anyway
+                messageHandlerEventListener.onDone(internalMessage);
+            }
+        } else {
+            persistActor((PersistActorMessage) message, internalMessage, messageHandlerEventListener, cacheLoader);
+        }
+    }
+
     private boolean actorExists(ActorRef actorRef) {
         PersistentActor<ShardKey> persistentActor = actorCache.getIfPresent(actorRef);
         if(persistentActor != null) {
@@ -335,19 +435,19 @@ public final class LocalActorShard extends AbstractActorContainer implements Act
                                                   messageHandlerEventListener));
     }
 
-    private void activateActor(final ActorRef actorRef) throws Exception {
+    private void activateActor(final ActorRef actorRef, CacheLoader cacheLoader) throws Exception {
         // prepare the cache loader
-        this.cacheLoader.initialize(actorRef);
+        cacheLoader.initialize(actorRef);
         try {
             actorCache.get(actorRef,cacheLoader);
         } finally{
-            this.cacheLoader.reset();
+            cacheLoader.reset();
         }
     }
 
-    private void destroyActor(DestroyActorMessage destroyMessage,InternalMessage internalMessage, MessageHandlerEventListener messageHandlerEventListener) throws Exception {
+    private void destroyActor(DestroyActorMessage destroyMessage,InternalMessage internalMessage, MessageHandlerEventListener messageHandlerEventListener, CacheLoader cacheLoader) throws Exception {
         final ActorRef actorRef = destroyMessage.getActorRef();
-        this.cacheLoader.initialize(actorRef);
+        cacheLoader.initialize(actorRef);
         try {
             // need to load it here to know the ActorClass!
             PersistentActor<ShardKey> persistentActor = actorCache.get(actorRef,cacheLoader);
@@ -372,13 +472,13 @@ public final class LocalActorShard extends AbstractActorContainer implements Act
                                                         internalMessage,
                                                         messageHandlerEventListener));
         } finally {
-            this.cacheLoader.reset();
+            cacheLoader.reset();
         }
     }
 
-    private void persistActor(PersistActorMessage persistMessage, InternalMessage internalMessage, MessageHandlerEventListener messageHandlerEventListener) throws Exception {
+    private void persistActor(PersistActorMessage persistMessage, InternalMessage internalMessage, MessageHandlerEventListener messageHandlerEventListener, CacheLoader cacheLoader) throws Exception {
         final ActorRef actorRef = persistMessage.getActorRef();
-        this.cacheLoader.initialize(actorRef);
+        cacheLoader.initialize(actorRef);
         try {
             // need to load it here to know the ActorClass!
             PersistentActor<ShardKey> persistentActor = actorCache.get(actorRef,cacheLoader);
@@ -394,7 +494,7 @@ public final class LocalActorShard extends AbstractActorContainer implements Act
                                                         internalMessage,
                                                         messageHandlerEventListener));
         } finally {
-            this.cacheLoader.reset();
+            cacheLoader.reset();
         }
     }
 
@@ -403,6 +503,11 @@ public final class LocalActorShard extends AbstractActorContainer implements Act
         this.actorExecutor = actorExecutor;
     }
 
+    @Autowired(required = false)
+    public void setActorActivationExecutor(@Qualifier("actorActivationExecutor") ExecutorService actorActivationExecutor) {
+        this.actorActivationExecutor = actorActivationExecutor;
+    }
+
     @Autowired
     public void setPersistentActorRepository(PersistentActorRepository persistentActorRepository) {
         this.persistentActorRepository = persistentActorRepository;
@@ -451,5 +556,188 @@ public final class LocalActorShard extends AbstractActorContainer implements Act
             }
         }
     }
-}
+    /**
+     * Asynchronous load of a {@link PersistentActor} from the {@link PersistentActorRepository}. Messages that arrive
+     * for the actor while it is being loaded are parked here. When the load has completed this instance is sent to the
+     * shard as a {@link TransientInternalMessage} so that the parked messages are handed off (in order) on the shard
+     * thread. Since the actorExecutor is keyed on the actor the {@link ActivateActorTask} will always run before the
+     * parked messages. Shard messages about the actor (create, destroy and persist) are parked in the same order.
+     */
+    private final class PendingActivation implements Supplier<PersistentActor<ShardKey>>,
+                                                     BiConsumer<PersistentActor<ShardKey>, Throwable> {
+        private final ActorRef actorRef;
+        // null for messages that are addressed to the actor itself
+        private final List<Object> parkedShardMessages = new ArrayList<>();
+        private final List<InternalMessage> parkedMessages = new ArrayList<>();
+        private final List<MessageHandlerEventListener> parkedListeners = new ArrayList<>();
+        private boolean completed = false;
+        private volatile PersistentActor<ShardKey> loadedActor;
+        private volatile Throwable throwable;
+
+        private PendingActivation(ActorRef actorRef) {
+            this.actorRef = actorRef;
+        }
 
+        private void start() {
+            CompletableFuture.supplyAsync(this, actorActivationExecutor).whenComplete(this);
+        }
+
+        private boolean park(InternalMessage internalMessage, MessageHandlerEventListener messageHandlerEventListener) {
+            return park(null, internalMessage, messageHandlerEventListener);
+        }
+
+        /**
+         * Park the message until the actor has been loaded
+         *
+         * @return false if the activation already completed, in that case the message needs to be delivered normally
+         */
+        private synchronized boolean park(Object shardMessage, InternalMessage internalMessage, MessageHandlerEventListener messageHandlerEventListener) {
+            if(completed) {
+                return false;
+            }
+            parkedShardMessages.add(shardMessage);
+            parkedMessages.add(internalMessage);
+            parkedListeners.add(messageHandlerEventListener);
+            return true;
+        }
+
+        /**
+         * Take the parked messages, after this no more messages will be parked
+         */
+        private synchronized void drain(List<Object> shardMessages, List<InternalMessage> messages, List<MessageHandlerEventListener> listeners) {
+            completed = true;
+            shardMessages.addAll(parkedShardMessages);
+            messages.addAll(parkedMessages);
+            listeners.addAll(parkedListeners);
+            parkedShardMessages.clear();
+            parkedMessages.clear();
+            parkedListeners.clear();
+        }
+
+        @Override
+        public PersistentActor<ShardKey> get() {
+            final PersistentActor<ShardKey> loadedActor;
+            try {
+                loadedActor = persistentActorRepository.get(shardKey, actorRef.getActorId());
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+            if(loadedActor == null) {
+                throw new EmptyResultDataAccessException(String.format("Actor [%s] not found in Shard [%s]", actorRef.getActorId(), shardKey.toString()),1);
+            }
+            return loadedActor;
+        }
+
+        @Override
+        public void accept(PersistentActor<ShardKey> loadedActor, Throwable throwable) {
+            this.loadedActor = loadedActor;
+            this.throwable = throwable;
+            try {
+                // hand the parked messages back to the shard thread
+                messageQueue.offer(new TransientInternalMessage(getActorRef(), getActorRef(), this));
+            } catch (Exception e) {
+                logger.error(String.format("Exception while completing activation of Actor [%s] in Shard [%s], failing parked messages", actorRef.getActorId(), shardKey.toString()), e);
+                List<Object> shardMessages = new ArrayList<>();
+                List<InternalMessage> messages = new ArrayList<>();
+                List<MessageHandlerEventListener> listeners = new ArrayList<>();
+                try {
+                    drain(shardMessages, messages, listeners);
+                } finally {
+                    pendingActivations.remove(actorRef, this);
+                }
+                for (int i = 0; i < messages.size(); i++) {
+                    listeners.get(i).onError(messages.get(i), e);
+                }
+            }
+        }
+
+        /**
+         * Activate the loaded actor and hand off the parked messages, runs on the shard thread
+         */
+        private void complete() {
+            List<Object> shardMessages = new ArrayList<>();
+            List<InternalMessage> messages = new ArrayList<>();
+            List<MessageHandlerEventListener> listeners = new ArrayList<>();
+            try {
+                drain(shardMessages, messages, listeners);
+            } finally {
+                pendingActivations.remove(actorRef, this);
+            }
+            PersistentActor<ShardKey> actor = null;
+            Throwable cause = null;
+            if (throwable == null) {
+                try {
+                    actor = activate(loadedActor);
+                } catch (Exception e) {
+                    cause = e;
+                }
+            } else {
+                cause = (throwable instanceof CompletionException && throwable.getCause() != null) ? throwable.getCause() : throwable;
+            }
+            for (int i = 0; i < messages.size(); i++) {
+                Object shardMessage = shardMessages.get(i);
+                InternalMessage internalMessage = messages.get(i);
+                MessageHandlerEventListener messageHandlerEventListener = listeners.get(i);
+                if (shardMessage != null) {
+                    handleShardMessage(shardMessage, internalMessage, messageHandlerEventListener);
+                    // the actor might have been created or destroyed, the next messages need to see that
+                    PersistentActor<ShardKey> current = actorCache.getIfPresent(actorRef);
+                    if (current != null) {
+                        actor = current;
+                        cause = null;
+                    }
+                } else if (actor != null) {
+                    deliver(actor, internalMessage, messageHandlerEventListener);
+                } else {
+                    fail(cause, internalMessage, messageHandlerEventListener);
+                }
+            }
+        }
+
+        private PersistentActor<ShardKey> activate(PersistentActor<ShardKey> loadedActor) throws Exception {
+            // the actor might have been loaded synchronously in the meantime, in that case that instance wins
+            PersistentActor<ShardKey> actor = actorCache.get(actorRef, () -> loadedActor);
+            if(actor == loadedActor) {
+                ElasticActor actorInstance = actorSystem.getActorInstance(actorRef, loadedActor.getActorClass());
+                actorExecutor.execute(new ActivateActorTask(actorStateUpdateProcessor,
+                                                            persistentActorRepository,
+                                                            loadedActor,
+                                                            actorSystem,
+                                                            actorInstance,
+                                                            actorRef));
+            }
+            return actor;
+        }
+
+        private void handleShardMessage(Object shardMessage, InternalMessage internalMessage, MessageHandlerEventListener messageHandlerEventListener) {
+            try {
+                handleActorShardMessage(shardMessage, actorRef, internalMessage, messageHandlerEventListener, cacheLoader);
+            } catch (Exception e) {
+                messageHandlerEventListener.onError(internalMessage, e);
+                logger.error(String.format("Exception while handling InternalMessage for Shard [%s]; senderRef [%s], messageType [%s]", shardKey.toString(), internalMessage.getSender(), internalMessage.getPayloadClass()), e);
+            }
+        }
+
+        private void deliver(PersistentActor<ShardKey> actor, InternalMessage internalMessage, MessageHandlerEventListener messageHandlerEventListener) {
+            try {
+                deliverMessage(internalMessage, actorRef, actor, messageHandlerEventListener);
+            } catch (Exception e) {
+                messageHandlerEventListener.onError(internalMessage, e);
+                logger.error(String.format("Exception while handling InternalMessage for Actor [%s]; senderRef [%s], messageType [%s]", actorRef.getActorId(), internalMessage.getSender(), internalMessage.getPayloadClass()), e);
+            }
+        }
+
+        private void fail(Throwable cause, InternalMessage internalMessage, MessageHandlerEventListener messageHandlerEventListener) {
+            if (cause instanceof EmptyResultDataAccessException) {
+                try {
+                    handleUndeliverable(internalMessage, actorRef, messageHandlerEventListener);
+                } catch (Exception ex) {
+                    logger.error("Exception while sending message undeliverable", ex);
+                }
+            } else {
+                messageHandlerEventListener.onError(internalMessage, cause);
+                logger.error(String.format("Exception while handling InternalMessage for Actor [%s]; senderRef [%s], messageType [%s]", actorRef.getActorId(), internalMessage.getSender(), internalMessage.getPayloadClass()), cause);
+            }
+        }
+    }
+}
@@ -27,6 +27,7 @@ import org.elasticsoftware.elasticactors.cache.NodeActorCacheManager;
 import org.elasticsoftware.elasticactors.cache.ShardActorCacheManager;
 import org.elasticsoftware.elasticactors.cluster.scheduler.InternalScheduler;
 import org.elasticsoftware.elasticactors.cluster.scheduler.SchedulerService;
+import org.elasticsoftware.elasticactors.core.actors.CompletableFutureDelegate;
 import org.elasticsoftware.elasticactors.messaging.InternalMessage;
 import org.elasticsoftware.elasticactors.messaging.MessageQueueFactory;
 import org.elasticsoftware.elasticactors.messaging.internal.ActivateActorMessage;
@@ -80,11 +81,21 @@ public final class LocalActorSystemInstance implements InternalActorSystem, Shar
     private final ConcurrentMap<String, ActorNode> activeNodes = new ConcurrentHashMap<>();
     private final ConcurrentMap<String, ActorNodeAdapter> activeNodeAdapters = new ConcurrentHashMap<>();
     private final ActorNodeAdapter localNodeAdapter;
+    private final ReplyEndpoint replyEndpoint;
     private final HashFunction hashFunction = Hashing.murmur3_32();
     private final AtomicBoolean stable = new AtomicBoolean(false);
 
     public LocalActorSystemInstance(PhysicalNode localNode, InternalActorSystems cluster, InternalActorSystemConfiguration configuration, NodeSelectorFactory nodeSelectorFactory) {
+        this(localNode, cluster, configuration, nodeSelectorFactory, null);
+    }
+
+    /**
+     * When a {@link ReplyEndpoint} is given the responses to {@link ActorRef#ask(Object, Class)} requests are handled
+     * by the endpoint, otherwise a temp actor is created for every request
+     */
+    public LocalActorSystemInstance(PhysicalNode localNode, InternalActorSystems cluster, InternalActorSystemConfiguration configuration, NodeSelectorFactory nodeSelectorFactory, @Nullable ReplyEndpoint replyEndpoint) {
         this.configuration = configuration;
+        this.replyEndpoint = replyEndpoint;
         this.nodeSelectorFactory = nodeSelectorFactory;
         this.cluster = cluster;
         this.shards = new ActorShard[configuration.getNumberOfShards()];
@@ -113,6 +124,9 @@ public final class LocalActorSystemInstance implements InternalActorSystem, Shar
     }
 
     public void shutdown() {
+        if (replyEndpoint != null) {
+            replyEndpoint.shutdown();
+        }
         // The Messaging subsystem is closed before this instance
         // Need to sort out the order
         /*
@@ -154,7 +168,8 @@ public final class LocalActorSystemInstance implements InternalActorSystem, Shar
                                                 this,
                                                 localNodeAdapter.myRef,
                                                 localMessageQueueFactory,
-                                                nodeActorCacheManager);
+                                                nodeActorCacheManager,
+                                                replyEndpoint);
                     activeNodes.put(node.getId(), localActorNode);
                     activeNodeAdapters.put(node.getId(),localNodeAdapter);
                     localActorNode.init();
@@ -479,6 +494,28 @@ public final class LocalActorSystemInstance implements InternalActorSystem, Shar
         return cluster.createTempActorRef(localNodeAdapter, actorId);
     }
 
+    /**
+     * Returns the ref that should be used as the sender of an ask request, or null when there is no
+     * {@link ReplyEndpoint} and a temp actor needs to be created
+     */
+    @Nullable
+    public ActorRef replyRefFor(CompletableFutureDelegate<?> delegate) {
+        if (replyEndpoint == null) {
+            return null;
+        }
+        return cluster.createTempActorRef(localNodeAdapter, replyEndpoint.register(delegate));
+    }
+
+    /**
+     * Removes the pending request of a reply ref that was returned by {@link #replyRefFor(CompletableFutureDelegate)}
+     * but could not be used, refs that don't belong to the {@link ReplyEndpoint} are ignored
+     */
+    public void releaseReplyRef(ActorRef replyRef) {
+        if (replyEndpoint != null && replyEndpoint.isReplyRef(replyRef)) {
+            replyEndpoint.complete(replyRef);
+        }
+    }
+
     private ActorShard shardFor(String actorId) {
         return shardAdapters[Math.abs(hashFunction.hashString(actorId, Charsets.UTF_8).asInt()) % shards.length];
     }
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.cluster;
+
+import org.elasticsoftware.elasticactors.ActorRef;
+import org.elasticsoftware.elasticactors.core.actors.CompletableFutureDelegate;
+import org.elasticsoftware.elasticactors.util.concurrent.TimeoutWheel;
+
+import javax.annotation.Nullable;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the pending {@link ActorRef#ask(Object, Class)} requests of the local node without creating a temp
+ * actor for every request. The reply ref of a request is a temp actor ref of the local node that has a correlation id
+ * as actor id, the {@link LocalActorNode} hands the messages for these refs to the endpoint. Requests that don't get
+ * a response within the timeout are completed with a {@link TimeoutException}.
+ *
+ * @author Joost van de Wijgerd
+ */
+public final class ReplyEndpoint {
+    private static final long TICK_MILLIS = 10L;
+    private final String correlationIdPrefix;
+    private final AtomicLong lastCorrelationId = new AtomicLong();
+    private final ConcurrentMap<String, PendingReply> pendingReplies = new ConcurrentHashMap<>();
+    private final long timeoutMillis;
+    private final TimeoutWheel timeoutWheel;
+
+    public ReplyEndpoint(long timeoutMillis) {
+        // a response for a request of a previous incarnation of this node should never match a new request
+        this.correlationIdPrefix = "reply-" + UUID.randomUUID().toString() + "-";
+        this.timeoutMillis = timeoutMillis;
+        this.timeoutWheel = new TimeoutWheel("REPLY-TIMEOUTS", TICK_MILLIS);
+    }
+
+    /**
+     * @return the correlation id that should be used as actor id of the reply ref
+     */
+    public String register(CompletableFutureDelegate<?> delegate) {
+        final String correlationId = correlationIdPrefix + lastCorrelationId.incrementAndGet();
+        final PendingReply pendingReply = new PendingReply(correlationId, delegate);
+        pendingReplies.put(correlationId, pendingReply);
+        pendingReply.timeout = timeoutWheel.schedule(timeoutMillis, pendingReply);
+        return correlationId;
+    }
+
+    public boolean isReplyRef(ActorRef actorRef) {
+        final String actorId = actorRef.getActorId();
+        return actorId != null && actorId.startsWith(correlationIdPrefix);
+    }
+
+    /**
+     * @return the delegate of the pending request, or null when it already got a response or timed out
+     */
+    @Nullable
+    public CompletableFutureDelegate<?> complete(ActorRef replyRef) {
+        final PendingReply pendingReply = pendingReplies.remove(replyRef.getActorId());
+        if (pendingReply == null) {
+            return null;
+        }
+        final TimeoutWheel.Timeout timeout = pendingReply.timeout;
+        // can be null when the response was (very) fast, the timeout will not find the request anymore
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        return pendingReply.delegate;
+    }
+
+    public int getPendingReplies() {
+        return pendingReplies.size();
+    }
+
+    public void shutdown() {
+        timeoutWheel.shutdown();
+    }
+
+    private final class PendingReply implements Runnable {
+        private final String correlationId;
+        private final CompletableFutureDelegate<?> delegate;
+        private volatile TimeoutWheel.Timeout timeout;
+
+        private PendingReply(String correlationId, CompletableFutureDelegate<?> delegate) {
+            this.correlationId = correlationId;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void run() {
+            if (pendingReplies.remove(correlationId, this)) {
+                delegate.onTimeout(timeoutMillis);
+            }
+        }
+    }
+}
@@ -22,11 +22,16 @@ import org.apache.logging.log4j.Logger;
 import org.elasticsoftware.elasticactors.*;
 import org.elasticsoftware.elasticactors.cluster.InternalActorSystem;
 import org.elasticsoftware.elasticactors.cluster.InternalActorSystems;
+import org.elasticsoftware.elasticactors.cluster.tasks.PendingWrites;
+import org.elasticsoftware.elasticactors.messaging.InternalMessage;
+import org.elasticsoftware.elasticactors.messaging.MessageHandlerEventListener;
 import org.elasticsoftware.elasticactors.scheduler.ScheduledMessageRef;
 import org.elasticsoftware.elasticactors.serialization.MessageDeserializer;
 import org.elasticsoftware.elasticactors.serialization.MessageSerializer;
 import org.elasticsoftware.elasticactors.util.concurrent.DaemonThreadFactory;
+import org.elasticsoftware.elasticactors.util.concurrent.ScheduledWorkManager;
 import org.elasticsoftware.elasticactors.util.concurrent.ShardedScheduledWorkManager;
+import org.elasticsoftware.elasticactors.util.concurrent.TimingWheelScheduledWorkManager;
 import org.elasticsoftware.elasticactors.util.concurrent.WorkExecutor;
 import org.elasticsoftware.elasticactors.util.concurrent.WorkExecutorFactory;
 
@@ -35,33 +40,87 @@ import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static java.lang.String.format;
 
 /**
+ * When a load window is configured only the scheduled messages that fire within the window are loaded from the
+ * {@link ScheduledMessageRepository} when a shard is registered. Halfway through the window the next window is loaded
+ * in the background. Messages that are scheduled beyond the current window are only persisted, they will be picked up
+ * when their window is loaded.
+ *
+ * <p/>
+ * Scheduled messages are created and deleted with the asynchronous methods of the {@link ScheduledMessageRepository}.
+ * A message that is scheduled by an actor is registered with {@link PendingWrites}, so the message the actor is
+ * handling is only acknowledged when the scheduled message has been written.
+ *
  * @author Joost van de Wijgerd
  */
 public final class ShardedScheduler implements SchedulerService,WorkExecutorFactory,ScheduledMessageRefFactory {
     private static final Logger logger = LogManager.getLogger(ShardedScheduler.class);
-    private ShardedScheduledWorkManager<ShardKey,ScheduledMessage> workManager;
+    private static final long PREFETCH_RETRY_MILLIS = 1000L;
+    private final boolean useTimingWheel;
+    private final long loadWindowMillis;
+    private final int loadPageSize;
+    private final ConcurrentMap<ShardKey,ShardWindow> shardWindows = new ConcurrentHashMap<>();
+    private ScheduledWorkManager<ShardKey,ScheduledMessage> workManager;
+    private ScheduledExecutorService prefetchExecutor;
     private ScheduledMessageRepository scheduledMessageRepository;
     private InternalActorSystem actorSystem;
 
+    public ShardedScheduler() {
+        this(false);
+    }
+
+    public ShardedScheduler(boolean useTimingWheel) {
+        this(useTimingWheel, 0L, 1000);
+    }
+
+    /**
+     * @param useTimingWheel    keep the scheduled messages in a {@link TimingWheelScheduledWorkManager} instead of
+     *                          the DelayQueue based {@link ShardedScheduledWorkManager}
+     * @param loadWindowMillis  only keep the messages that fire within this window in memory, 0 loads all messages
+     * @param loadPageSize      the page size used to read a window from the {@link ScheduledMessageRepository}
+     */
+    public ShardedScheduler(boolean useTimingWheel, long loadWindowMillis, int loadPageSize) {
+        this.useTimingWheel = useTimingWheel;
+        this.loadWindowMillis = Math.max(0L, loadWindowMillis);
+        this.loadPageSize = loadPageSize;
+    }
 
     @PostConstruct
     public void init() {
         ExecutorService executorService = Executors.newCachedThreadPool(new DaemonThreadFactory("SCHEDULER"));
-        workManager = new ShardedScheduledWorkManager<>(executorService,this,Runtime.getRuntime().availableProcessors());
+        if (useTimingWheel) {
+            workManager = new TimingWheelScheduledWorkManager<>(executorService,this,Runtime.getRuntime().availableProcessors());
+        } else {
+            workManager = new ShardedScheduledWorkManager<>(executorService,this,Runtime.getRuntime().availableProcessors());
+        }
         workManager.init();
+        if (loadWindowMillis > 0) {
+            prefetchExecutor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("SCHEDULER-PREFETCH"));
+        }
     }
 
     @PreDestroy
     public void destroy() {
+        if (prefetchExecutor != null) {
+            prefetchExecutor.shutdownNow();
+        }
         workManager.destroy();
     }
 
@@ -79,14 +138,29 @@ public final class ShardedScheduler implements SchedulerService,WorkExecutorFact
     public void registerShard(ShardKey shardKey) {
         // obtain the scheduler shard
         workManager.registerShard(shardKey);
-        // fetch block from repository
-        // @todo: for now we'll fetch all, this obviously has memory issues
-        List<ScheduledMessage> scheduledMessages = scheduledMessageRepository.getAll(shardKey);
-        workManager.schedule(shardKey,scheduledMessages.toArray(new ScheduledMessage[scheduledMessages.size()]));
+        if (loadWindowMillis > 0) {
+            // only load the first window (including the messages that are overdue), the rest is prefetched
+            ShardWindow shardWindow = new ShardWindow(shardKey);
+            ShardWindow previousWindow = shardWindows.put(shardKey, shardWindow);
+            if (previousWindow != null) {
+                previousWindow.cancel();
+            }
+            shardWindow.load(0L, System.currentTimeMillis() + loadWindowMillis);
+            shardWindow.schedulePrefetch(shardWindow.nextPrefetchDelay());
+        } else {
+            // fetch block from repository
+            // @todo: for now we'll fetch all, this obviously has memory issues
+            List<ScheduledMessage> scheduledMessages = scheduledMessageRepository.getAll(shardKey);
+            workManager.schedule(shardKey,scheduledMessages.toArray(new ScheduledMessage[scheduledMessages.size()]));
+        }
     }
 
     @Override
     public void unregisterShard(ShardKey shardKey) {
+        ShardWindow shardWindow = shardWindows.remove(shardKey);
+        if (shardWindow != null) {
+            shardWindow.cancel();
+        }
         workManager.unregisterShard(shardKey);
     }
 
@@ -106,8 +180,7 @@ public final class ShardedScheduler implements SchedulerService,WorkExecutorFact
                         byte[] serializedBytes = new byte[serializedMessage.remaining()];
                         serializedMessage.get(serializedBytes);
                         ScheduledMessage scheduledMessage = new ScheduledMessageImpl(fireTime,sender,receiver,message.getClass(),serializedBytes);
-                        scheduledMessageRepository.create(actorShard.getKey(), scheduledMessage);
-                        workManager.schedule(actorShard.getKey(),scheduledMessage);
+                        createAndSchedule(actorShard.getKey(), scheduledMessage);
                         return new ScheduledMessageShardRef(actorSystem.getParent().getClusterName(),actorShard,new ScheduledMessageKey(scheduledMessage.getId(),fireTime));
                     } catch(Exception e) {
                         throw new RejectedExecutionException(e);
@@ -119,6 +192,36 @@ public final class ShardedScheduler implements SchedulerService,WorkExecutorFact
         throw new IllegalArgumentException(format("sender ref: %s needs to be a non-temp, non-service, locally sharded actor ref",(sender == null) ? "null" : sender.toString()));
     }
 
+    private void createAndSchedule(ShardKey shardKey, ScheduledMessage scheduledMessage) {
+        // when called from an actor, the message it is handling will only be acknowledged when the create is written
+        final MessageHandlerEventListener writeListener = PendingWrites.register();
+        final ShardWindow shardWindow = shardWindows.get(shardKey);
+        if (shardWindow == null) {
+            scheduledMessageRepository.createAsync(shardKey, scheduledMessage, null, writeListener);
+            workManager.schedule(shardKey, scheduledMessage);
+        } else {
+            // the read lock makes sure the next window is not being loaded in the mean time
+            shardWindow.lock.readLock().lock();
+            try {
+                if (scheduledMessage.getFireTime(TimeUnit.MILLISECONDS) < shardWindow.end) {
+                    scheduledMessageRepository.createAsync(shardKey, scheduledMessage, null, writeListener);
+                    workManager.schedule(shardKey, scheduledMessage);
+                } else {
+                    // beyond the current window, a load of the next window will not see it until it is written
+                    shardWindow.unwritten.put(scheduledMessage.getKey(), scheduledMessage);
+                    if (scheduledMessage.getFireTime(TimeUnit.MILLISECONDS) < shardWindow.loadingEnd) {
+                        // the window that is being loaded might have been read before the message was written
+                        shardWindow.createdDuringLoad.put(scheduledMessage.getKey(), scheduledMessage);
+                    }
+                    scheduledMessageRepository.createAsync(shardKey, scheduledMessage, null,
+                            new UnwrittenMessageListener(shardWindow, scheduledMessage.getKey(), writeListener));
+                }
+            } finally {
+                shardWindow.lock.readLock().unlock();
+            }
+        }
+    }
+
     @Override
     public WorkExecutor create() {
         return new ScheduledMessageExecutor();
@@ -134,8 +237,245 @@ public final class ShardedScheduler implements SchedulerService,WorkExecutorFact
     public void cancel(ShardKey shardKey,ScheduledMessageKey messageKey) {
         // sanity check if this is actually a local shard that we manage
         // bit of a hack to send in a broken ScheduledMessage (only the key set)
+        final ShardWindow shardWindow = shardWindows.get(shardKey);
+        if (shardWindow != null) {
+            // before the unschedule, so a window that is merged in the meantime doesn't schedule it again
+            shardWindow.cancel(messageKey);
+        }
         workManager.unschedule(shardKey,new ScheduledMessageImpl(messageKey.getId(),messageKey.getFireTime()));
-        scheduledMessageRepository.delete(shardKey,messageKey);
+        if (shardWindow != null) {
+            // a window that is loaded before the delete is written should not schedule the message again
+            scheduledMessageRepository.deleteAsync(shardKey, messageKey, new PendingDeleteListener(shardWindow, messageKey));
+        } else {
+            scheduledMessageRepository.deleteAsync(shardKey,messageKey);
+        }
+    }
+
+    /**
+     * The window is read from the {@link ScheduledMessageRepository} without holding the lock, so scheduling and
+     * cancelling messages is not blocked by the (potentially slow) read. The write lock is only taken to merge the
+     * loaded page with the messages that were created or cancelled while it was being read. Cancelled messages are
+     * also filtered from every loaded window until their delete has been written.
+     */
+    private final class ShardWindow implements Runnable {
+        private final ShardKey shardKey;
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        // created beyond the current window, but not written yet
+        private final ConcurrentMap<ScheduledMessageKey,ScheduledMessage> unwritten = new ConcurrentHashMap<>();
+        // created (within the window that is being loaded) or cancelled while the window was being read
+        private final ConcurrentMap<ScheduledMessageKey,ScheduledMessage> createdDuringLoad = new ConcurrentHashMap<>();
+        private final Set<ScheduledMessageKey> cancelledDuringLoad = ConcurrentHashMap.newKeySet();
+        // cancelled, but the delete has not been written yet
+        private final Set<ScheduledMessageKey> pendingDeletes = ConcurrentHashMap.newKeySet();
+        // end of the loaded window (exclusive), guarded by the lock
+        private long end;
+        // end of the window that is being loaded (exclusive) or 0 when no load is in progress, guarded by the lock
+        private long loadingEnd;
+        private volatile boolean active = true;
+        private volatile ScheduledFuture<?> prefetch;
+
+        private ShardWindow(ShardKey shardKey) {
+            this.shardKey = shardKey;
+        }
+
+        /**
+         * Needs to be called without holding the lock
+         */
+        private void load(long fromMillis, long toMillis) {
+            lock.writeLock().lock();
+            try {
+                loadingEnd = toMillis;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            final List<ScheduledMessage> loadedMessages;
+            try {
+                loadedMessages = scheduledMessageRepository.getRange(shardKey, fromMillis, toMillis, loadPageSize);
+            } catch (RuntimeException e) {
+                lock.writeLock().lock();
+                try {
+                    loadingEnd = 0L;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                throw e;
+            }
+            lock.writeLock().lock();
+            try {
+                if (!active) {
+                    // the shard was unregistered while we were loading
+                    return;
+                }
+                workManager.schedule(shardKey, merge(loadedMessages, fromMillis, toMillis));
+                end = toMillis;
+                // the windows only move forward, so (failed) deletes of messages in this window are no longer needed
+                pendingDeletes.removeIf(scheduledMessageKey -> scheduledMessageKey.getFireTime() < toMillis);
+            } finally {
+                loadingEnd = 0L;
+                createdDuringLoad.clear();
+                cancelledDuringLoad.clear();
+                lock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * Needs to be called with the write lock held
+         */
+        private ScheduledMessage[] merge(List<ScheduledMessage> loadedMessages, long fromMillis, long toMillis) {
+            List<ScheduledMessage> scheduledMessages = new ArrayList<>(loadedMessages.size());
+            Set<ScheduledMessageKey> loadedKeys = new HashSet<>();
+            for (ScheduledMessage scheduledMessage : loadedMessages) {
+                if (!cancelledDuringLoad.contains(scheduledMessage.getKey()) && !pendingDeletes.contains(scheduledMessage.getKey())) {
+                    scheduledMessages.add(scheduledMessage);
+                }
+                loadedKeys.add(scheduledMessage.getKey());
+            }
+            for (ScheduledMessage scheduledMessage : unwritten.values()) {
+                addIfMissing(scheduledMessages, loadedKeys, scheduledMessage, fromMillis, toMillis);
+            }
+            for (ScheduledMessage scheduledMessage : createdDuringLoad.values()) {
+                addIfMissing(scheduledMessages, loadedKeys, scheduledMessage, fromMillis, toMillis);
+            }
+            return scheduledMessages.toArray(new ScheduledMessage[scheduledMessages.size()]);
+        }
+
+        private void addIfMissing(List<ScheduledMessage> scheduledMessages, Set<ScheduledMessageKey> loadedKeys,
+                                  ScheduledMessage scheduledMessage, long fromMillis, long toMillis) {
+            long fireTime = scheduledMessage.getFireTime(TimeUnit.MILLISECONDS);
+            if (fireTime >= fromMillis && fireTime < toMillis && loadedKeys.add(scheduledMessage.getKey())) {
+                scheduledMessages.add(scheduledMessage);
+            }
+        }
+
+        private void removeUnwritten(ScheduledMessageKey scheduledMessageKey) {
+            lock.readLock().lock();
+            try {
+                unwritten.remove(scheduledMessageKey);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private void cancel(ScheduledMessageKey scheduledMessageKey) {
+            lock.readLock().lock();
+            try {
+                pendingDeletes.add(scheduledMessageKey);
+                unwritten.remove(scheduledMessageKey);
+                createdDuringLoad.remove(scheduledMessageKey);
+                if (loadingEnd != 0L) {
+                    // the message might be in the page that is being read
+                    cancelledDuringLoad.add(scheduledMessageKey);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private long nextPrefetchDelay() {
+            // load the next window when half of the current window has passed
+            lock.readLock().lock();
+            try {
+                return Math.max(0L, end - (loadWindowMillis / 2) - System.currentTimeMillis());
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private void schedulePrefetch(long delayMillis) {
+            if (active) {
+                try {
+                    prefetch = prefetchExecutor.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // shutting down
+                }
+            }
+        }
+
+        private void cancel() {
+            active = false;
+            ScheduledFuture<?> currentPrefetch = prefetch;
+            if (currentPrefetch != null) {
+                currentPrefetch.cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (!active) {
+                return;
+            }
+            try {
+                final long currentEnd;
+                lock.readLock().lock();
+                try {
+                    currentEnd = end;
+                } finally {
+                    lock.readLock().unlock();
+                }
+                // only the prefetch thread moves the window forward, so the end cannot change in the meantime
+                load(currentEnd, currentEnd + loadWindowMillis);
+            } catch (Exception e) {
+                logger.error(format("Exception while loading the next window of ScheduledMessages for shard %s, retrying in %d msecs", shardKey, PREFETCH_RETRY_MILLIS), e);
+                schedulePrefetch(PREFETCH_RETRY_MILLIS);
+                return;
+            }
+            schedulePrefetch(nextPrefetchDelay());
+        }
+    }
+
+    /**
+     * Removes a message that was created beyond the current window from the unwritten messages when the write completes
+     */
+    private static final class UnwrittenMessageListener implements MessageHandlerEventListener {
+        private final ShardWindow shardWindow;
+        private final ScheduledMessageKey scheduledMessageKey;
+        private final MessageHandlerEventListener delegate;
+
+        private UnwrittenMessageListener(ShardWindow shardWindow, ScheduledMessageKey scheduledMessageKey, MessageHandlerEventListener delegate) {
+            this.shardWindow = shardWindow;
+            this.scheduledMessageKey = scheduledMessageKey;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onError(InternalMessage message, Throwable exception) {
+            shardWindow.removeUnwritten(scheduledMessageKey);
+            if (delegate != null) {
+                delegate.onError(message, exception);
+            }
+        }
+
+        @Override
+        public void onDone(InternalMessage message) {
+            shardWindow.removeUnwritten(scheduledMessageKey);
+            if (delegate != null) {
+                delegate.onDone(message);
+            }
+        }
+    }
+
+    /**
+     * Stops filtering a cancelled message from the loaded windows once its delete has been written. When the delete
+     * fails the message keeps being filtered until a window beyond its fire time has been loaded
+     */
+    private static final class PendingDeleteListener implements MessageHandlerEventListener {
+        private final ShardWindow shardWindow;
+        private final ScheduledMessageKey scheduledMessageKey;
+
+        private PendingDeleteListener(ShardWindow shardWindow, ScheduledMessageKey scheduledMessageKey) {
+            this.shardWindow = shardWindow;
+            this.scheduledMessageKey = scheduledMessageKey;
+        }
+
+        @Override
+        public void onError(InternalMessage message, Throwable exception) {
+            logger.error(format("Exception while deleting cancelled ScheduledMessage %s on shard %s", scheduledMessageKey.getId(), shardWindow.shardKey), exception);
+        }
+
+        @Override
+        public void onDone(InternalMessage message) {
+            shardWindow.pendingDeletes.remove(scheduledMessageKey);
+        }
     }
 
     private final class ScheduledMessageExecutor implements WorkExecutor<ShardKey,ScheduledMessage> {
@@ -160,8 +500,7 @@ public final class ShardedScheduler implements SchedulerService,WorkExecutorFact
                     // so it should be no problem
                     long fireTime = System.currentTimeMillis() + 1000L;
                     ScheduledMessage rescheduledMessage = new ScheduledMessageImpl(fireTime,message.getSender(),message.getReceiver(),message.getMessageClass(),message.getMessageBytes());
-                    scheduledMessageRepository.create(shardKey, rescheduledMessage);
-                    workManager.schedule(shardKey,rescheduledMessage);
+                    createAndSchedule(shardKey, rescheduledMessage);
                     logger.warn("Got a recoverable MessageDeliveryException, rescheduling ScheduledMessage to fire in 1000 msecs");
                 } else {
                     logger.error("Got an unrecoverable MessageDeliveryException",e);
@@ -174,7 +513,7 @@ public final class ShardedScheduler implements SchedulerService,WorkExecutorFact
                 logger.error("Caught unexpected Exception while exexuting ScheduledMessage",e);
             } finally {
                 // always remove from the backing store
-                scheduledMessageRepository.delete(shardKey, message.getKey());
+                scheduledMessageRepository.deleteAsync(shardKey, message.getKey());
             }
         }
     }
@@ -24,14 +24,15 @@ import org.elasticsoftware.elasticactors.messaging.InternalMessage;
 import org.elasticsoftware.elasticactors.messaging.MessageHandlerEventListener;
 import org.elasticsoftware.elasticactors.serialization.SerializationContext;
 import org.elasticsoftware.elasticactors.state.*;
+import org.elasticsoftware.elasticactors.util.ClassLoadingHelper;
 import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundRunnable;
 
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 
 import static java.lang.String.format;
+import static java.util.Collections.singletonList;
 import static java.util.concurrent.TimeUnit.MICROSECONDS;
 
 /**
@@ -49,6 +50,7 @@ public abstract class ActorLifecycleTask implements ThreadBoundRunnable<String>
     private final Measurement measurement;
     private final ActorStateUpdateProcessor actorStateUpdateProcessor;
     private final Long serializationWarnThreshold;
+    private Exception executionException;
 
     protected ActorLifecycleTask(ActorStateUpdateProcessor actorStateUpdateProcessor,
                                  PersistentActorRepository persistentActorRepository,
@@ -83,17 +85,15 @@ public abstract class ActorLifecycleTask implements ThreadBoundRunnable<String>
             this.measurement.setExecutionStart(System.nanoTime());
         }
         // setup the context
-        Exception executionException = null;
         InternalActorContext.setContext(persistentActor);
         SerializationContext.initialize();
+        PendingWrites.begin();
         boolean shouldUpdateState = false;
         try {
-            shouldUpdateState = doInActorContext(actorSystem, receiver, receiverRef, internalMessage);
-            executeLifecycleListeners();
-        } catch (Exception e) {
-            log.error("Exception in doInActorContext",e);
-            executionException = e;
+            shouldUpdateState = execute();
         } finally {
+            // asynchronous writes started by the actor need to complete before the message is acknowledged
+            final PendingWrites pendingWrites = PendingWrites.end();
             // reset the serialization context
             SerializationContext.reset();
             // clear the state from the thread
@@ -103,64 +103,185 @@ public abstract class ActorLifecycleTask implements ThreadBoundRunnable<String>
                 this.measurement.setExecutionEnd(System.nanoTime());
             }
             // check if we have state now that needs to be written to the persistent actor store
-            if (persistentActorRepository != null && persistentActor.getState() != null && shouldUpdateState) {
-                try {
-                    // generate the serialized state
-                    persistentActor.serializeState();
-                    persistentActorRepository.updateAsync((ShardKey) persistentActor.getKey(), persistentActor,
-                                                          internalMessage, messageHandlerEventListener);
-                    // if we have a configured actor state update processor, then use it
-                    if(actorStateUpdateProcessor != null) {
-                        // this is either a lifecycle step or an incoming message
-                        if(getLifeCycleStep() != null) {
-                            actorStateUpdateProcessor.process(getLifeCycleStep(), null, persistentActor);
-                        } else {
-                            // it's an incoming message so the messageClass in the internal message is what we need
-                            // to support multiple internal message handling protocols (such as the reactive streams protocol)
-                            // we need to unwrap here to find the actual message
-                            unwrapMessageClass(internalMessage).ifPresent(messageClass ->
-                                    actorStateUpdateProcessor.process(null, messageClass, persistentActor));
-                        }
-                    }
-                } catch (Exception e) {
-                    log.error(format("Exception while serializing ActorState for actor [%s]", receiverRef.getActorId()), e);
-                } finally {
-                    // always ensure we release the memory of the serialized state
-                     persistentActor.setSerializedState(null);
+            if (shouldPersistState(shouldUpdateState)) {
+                persistState(pendingWrites != null ? pendingWrites.chain(internalMessage, messageHandlerEventListener) : messageHandlerEventListener, singletonList(this));
+            } else if (pendingWrites != null) {
+                acknowledgeWhenDone(pendingWrites, singletonList(this));
+            } else {
+                acknowledge();
+            }
+            logMeasurement();
+        }
+    }
+
+    /**
+     * Runs a number of tasks for the same actor back to back in a single actor context. The state is serialized and
+     * written only once, after the last task. When the state is written all messages are acknowledged together
+     * once the write completes, otherwise every message is acknowledged right away.
+     *
+     * @param tasks the tasks to run, in order. They should all be for the same {@link PersistentActor}
+     */
+    public static void runBatch(List<? extends ActorLifecycleTask> tasks) {
+        final ActorLifecycleTask first = tasks.get(0);
+        ActorLifecycleTask updatingTask = null;
+        List<ActorLifecycleTask> updatingTasks = null;
+        InternalActorContext.setContext(first.persistentActor);
+        SerializationContext.initialize();
+        PendingWrites.begin();
+        PendingWrites pendingWrites = null;
+        try {
+            for (ActorLifecycleTask task : tasks) {
+                if(task.measurement != null) {
+                    task.measurement.setExecutionStart(System.nanoTime());
                 }
-                // measure the serialization time
-                if(this.measurement != null) {
-                    this.measurement.setSerializationEnd(System.nanoTime());
+                if(task.execute()) {
+                    updatingTask = task;
+                    if(updatingTasks == null) {
+                        updatingTasks = new ArrayList<>(tasks.size());
+                    }
+                    updatingTasks.add(task);
                 }
-            } else if(messageHandlerEventListener != null) {
-                if(executionException == null) {
-                    messageHandlerEventListener.onDone(internalMessage);
-                } else {
-                    messageHandlerEventListener.onError(internalMessage,executionException);
+                if(task.measurement != null) {
+                    task.measurement.setExecutionEnd(System.nanoTime());
                 }
-                // measure the ack time
-                if(this.measurement != null) {
-                    this.measurement.setAckEnd(System.nanoTime());
+            }
+        } finally {
+            pendingWrites = PendingWrites.end();
+            SerializationContext.reset();
+            InternalActorContext.getAndClearContext();
+        }
+        if(updatingTask != null && updatingTask.shouldPersistState(true)) {
+            final MessageHandlerEventListener batchListener = new BatchMessageHandlerEventListener(tasks);
+            updatingTask.persistState(pendingWrites != null ? pendingWrites.chain(updatingTask.internalMessage, batchListener) : batchListener, updatingTasks);
+            updatingTask.logMeasurement();
+        } else if (pendingWrites != null) {
+            acknowledgeWhenDone(pendingWrites, tasks);
+        } else {
+            for (ActorLifecycleTask task : tasks) {
+                task.acknowledge();
+            }
+        }
+    }
+
+    private boolean execute() {
+        try {
+            boolean shouldUpdateState = doInActorContext(actorSystem, receiver, receiverRef, internalMessage);
+            executeLifecycleListeners();
+            return shouldUpdateState;
+        } catch (Exception e) {
+            log.error("Exception in doInActorContext",e);
+            executionException = e;
+            return false;
+        }
+    }
+
+    private boolean shouldPersistState(boolean shouldUpdateState) {
+        return persistentActorRepository != null && persistentActor.getState() != null && shouldUpdateState;
+    }
+
+    /**
+     * Serializes and writes the state of the actor
+     *
+     * @param messageHandlerEventListener
+     * @param updatingTasks the tasks of which the message caused the state update, every one of them is reported to
+     *                      the {@link ActorStateUpdateProcessor} (with the state as it is after the last task)
+     */
+    private void persistState(MessageHandlerEventListener messageHandlerEventListener, List<ActorLifecycleTask> updatingTasks) {
+        try {
+            // generate the serialized state
+            persistentActor.serializeState();
+            persistentActorRepository.updateAsync((ShardKey) persistentActor.getKey(), persistentActor,
+                                                  internalMessage, messageHandlerEventListener);
+            // if we have a configured actor state update processor, then use it
+            if(actorStateUpdateProcessor != null) {
+                for (ActorLifecycleTask updatingTask : updatingTasks) {
+                    updatingTask.processStateUpdate();
                 }
             }
-            // do some trace logging
+        } catch (Exception e) {
+            log.error(format("Exception while serializing ActorState for actor [%s]", receiverRef.getActorId()), e);
+        } finally {
+            // always ensure we release the memory of the serialized state
+             persistentActor.setSerializedState(null);
+        }
+        // measure the serialization time
+        if(this.measurement != null) {
+            this.measurement.setSerializationEnd(System.nanoTime());
+        }
+    }
+
+    private void processStateUpdate() {
+        // this is either a lifecycle step or an incoming message
+        if(getLifeCycleStep() != null) {
+            actorStateUpdateProcessor.process(getLifeCycleStep(), null, persistentActor);
+        } else {
+            // it's an incoming message so the messageClass in the internal message is what we need
+            // to support multiple internal message handling protocols (such as the reactive streams protocol)
+            // we need to unwrap here to find the actual message
+            Class<?> messageClass = unwrapMessageClass(internalMessage);
+            if(messageClass != null) {
+                actorStateUpdateProcessor.process(null, messageClass, persistentActor);
+            }
+        }
+    }
+
+    private static void acknowledgeWhenDone(PendingWrites pendingWrites, List<? extends ActorLifecycleTask> tasks) {
+        // there is no state to write, so the message is done as far as this task is concerned
+        final InternalMessage message = tasks.get(0).internalMessage;
+        final MessageHandlerEventListener listener = pendingWrites.chain(message, new BatchMessageHandlerEventListener(tasks));
+        if (listener != null) {
+            listener.onDone(message);
+        }
+    }
+
+    private void acknowledge() {
+        if(messageHandlerEventListener != null) {
+            if(executionException == null) {
+                messageHandlerEventListener.onDone(internalMessage);
+            } else {
+                messageHandlerEventListener.onError(internalMessage,executionException);
+            }
+            // measure the ack time
             if(this.measurement != null) {
-                // @todo: commenting this out for now, as in a real life scenario it would just spam the logs
-                //log.trace(format("(%s) Message of type [%s] with id [%s] for actor [%s] took %d microsecs in queue, %d microsecs to execute, %d microsecs to serialize and %d microsecs to ack (state update %b)",this.getClass().getSimpleName(),(internalMessage != null) ? internalMessage.getPayloadClass() : "null",(internalMessage != null) ? internalMessage.getId().toString() : "null",receiverRef.getActorId(),measurement.getQueueDuration(MICROSECONDS),measurement.getExecutionDuration(MICROSECONDS),measurement.getSerializationDuration(MICROSECONDS),measurement.getAckDuration(MICROSECONDS),measurement.isSerialized()));
+                this.measurement.setAckEnd(System.nanoTime());
+            }
+        }
+    }
 
-                if (serializationWarnThreshold != null && this.measurement.getSerializationDuration(TimeUnit.MICROSECONDS) > serializationWarnThreshold) {
-                    log.warn(format("(%s) Message of type [%s] with id [%s] triggered serialization for actor [%s] which took %d microsecs to complete",this.getClass().getSimpleName(),(internalMessage != null) ? internalMessage.getPayloadClass() : "null",(internalMessage != null) ? internalMessage.getId().toString() : "null",receiverRef.getActorId(),measurement.getSerializationDuration(MICROSECONDS)));
-                }
+    private void logMeasurement() {
+        // do some trace logging
+        if(this.measurement != null) {
+            // @todo: commenting this out for now, as in a real life scenario it would just spam the logs
+            //log.trace(format("(%s) Message of type [%s] with id [%s] for actor [%s] took %d microsecs in queue, %d microsecs to execute, %d microsecs to serialize and %d microsecs to ack (state update %b)",this.getClass().getSimpleName(),(internalMessage != null) ? internalMessage.getPayloadClass() : "null",(internalMessage != null) ? internalMessage.getId().toString() : "null",receiverRef.getActorId(),measurement.getQueueDuration(MICROSECONDS),measurement.getExecutionDuration(MICROSECONDS),measurement.getSerializationDuration(MICROSECONDS),measurement.getAckDuration(MICROSECONDS),measurement.isSerialized()));
+
+            if (serializationWarnThreshold != null && this.measurement.getSerializationDuration(TimeUnit.MICROSECONDS) > serializationWarnThreshold) {
+                log.warn(format("(%s) Message of type [%s] with id [%s] triggered serialization for actor [%s] which took %d microsecs to complete",this.getClass().getSimpleName(),(internalMessage != null) ? internalMessage.getPayloadClass() : "null",(internalMessage != null) ? internalMessage.getId().toString() : "null",receiverRef.getActorId(),measurement.getSerializationDuration(MICROSECONDS)));
             }
         }
     }
 
+    /**
+     * Whether this task can be run together with the other queued tasks for the same actor, see
+     * {@link #runBatch(List)}
+     */
+    protected boolean isBatchable() {
+        return false;
+    }
+
+    final boolean canBatchWith(ActorLifecycleTask other) {
+        return other.getClass() == getClass() && other.persistentActor == persistentActor && other.isBatchable();
+    }
+
     protected abstract boolean doInActorContext(InternalActorSystem actorSystem,
                                                 ElasticActor receiver,
                                                 ActorRef receiverRef,
                                                 InternalMessage internalMessage);
 
     private void executeLifecycleListeners() {
+        // only the lifecycle steps call the listeners, no need to look them up for every message
+        if(getLifeCycleStep() == null) {
+            return;
+        }
         final List<ActorLifecycleListener<?>> lifecycleListeners = actorSystem.getActorLifecycleListeners(persistentActor.getActorClass());
         if(lifecycleListeners != null) {
             for (ActorLifecycleListener<?> lifecycleListener : lifecycleListeners) {
@@ -182,32 +303,11 @@ public abstract class ActorLifecycleTask implements ThreadBoundRunnable<String>
     }
 
     public static boolean shouldUpdateState(ElasticActor elasticActor,ActorLifecycleStep lifecycleStep) {
-        if(PersistenceAdvisor.class.isAssignableFrom(elasticActor.getClass())) {
-            return ((PersistenceAdvisor)elasticActor).shouldUpdateState(lifecycleStep);
-        } else {
-            PersistenceConfig persistenceConfig = elasticActor.getClass().getAnnotation(PersistenceConfig.class);
-            return persistenceConfig == null || Arrays.asList(persistenceConfig.persistOn()).contains(lifecycleStep);
-        }
+        return ActorPersistenceDecisions.forActorClass(elasticActor.getClass()).shouldUpdateState(elasticActor, lifecycleStep);
     }
 
     public static boolean shouldUpdateState(ElasticActor elasticActor, Object message) {
-        if(PersistenceAdvisor.class.isAssignableFrom(elasticActor.getClass())) {
-            return ((PersistenceAdvisor)elasticActor).shouldUpdateState(message);
-        } else {
-            // look at the annotation on the actor class
-            PersistenceConfig persistenceConfig = elasticActor.getClass().getAnnotation(PersistenceConfig.class);
-            if (persistenceConfig != null) {
-                // look for not excluded when persist all is on
-                if(persistenceConfig.persistOnMessages()) {
-                    return !Arrays.asList(persistenceConfig.excluded()).contains(message.getClass());
-                } else {
-                    // look for included otherwise
-                    return Arrays.asList(persistenceConfig.included()).contains(message.getClass());
-                }
-            } else {
-                return true;
-            }
-        }
+        return ActorPersistenceDecisions.forActorClass(elasticActor.getClass()).shouldUpdateState(elasticActor, message);
     }
 
     /**
@@ -216,14 +316,44 @@ public abstract class ActorLifecycleTask implements ThreadBoundRunnable<String>
      * ultimate message being delivered. If the
      *
      * @param internalMessage
-     * @return
-     * @throws ClassNotFoundException
+     * @return the message class or null if it cannot be determined
      */
-    protected Optional<Class> unwrapMessageClass(InternalMessage internalMessage) {
+    protected Class<?> unwrapMessageClass(InternalMessage internalMessage) {
         try {
-            return Optional.of(Class.forName(internalMessage.getPayloadClass()));
+            return ClassLoadingHelper.forName(internalMessage.getPayloadClass());
         } catch (ClassNotFoundException e) {
-            return Optional.empty();
+            return null;
+        }
+    }
+
+    public static boolean shouldBatchMessages(ElasticActor elasticActor) {
+        return ActorPersistenceDecisions.forActorClass(elasticActor.getClass()).shouldBatchMessages();
+    }
+
+    /**
+     * Acknowledges all the messages of a batch when the state write (and the pending writes) completes
+     */
+    private static final class BatchMessageHandlerEventListener implements MessageHandlerEventListener {
+        private final List<? extends ActorLifecycleTask> tasks;
+
+        private BatchMessageHandlerEventListener(List<? extends ActorLifecycleTask> tasks) {
+            this.tasks = tasks;
+        }
+
+        @Override
+        public void onError(InternalMessage message, Throwable exception) {
+            for (ActorLifecycleTask task : tasks) {
+                if(task.messageHandlerEventListener != null) {
+                    task.messageHandlerEventListener.onError(task.internalMessage, exception);
+                }
+            }
+        }
+
+        @Override
+        public void onDone(InternalMessage message) {
+            for (ActorLifecycleTask task : tasks) {
+                task.acknowledge();
+            }
         }
     }
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.cluster.tasks;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsoftware.elasticactors.*;
+import org.elasticsoftware.elasticactors.cluster.InternalActorSystem;
+import org.elasticsoftware.elasticactors.core.actors.ActorDelegate;
+import org.elasticsoftware.elasticactors.messaging.InternalMessage;
+import org.elasticsoftware.elasticactors.messaging.MessageHandlerEventListener;
+import org.elasticsoftware.elasticactors.messaging.internal.PersistActorMessage;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundRunnable;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import static org.elasticsoftware.elasticactors.util.SerializationTools.deserializeMessage;
+
+/**
+ * Hands the response to a pooled ask request to its {@link ActorDelegate}, this does the same as the
+ * {@link org.elasticsoftware.elasticactors.core.actors.ReplyActor} but without a temp actor.
+ *
+ * @author Joost van de Wijgerd
+ */
+public final class HandleReplyTask implements ThreadBoundRunnable<String>, ActorContext {
+    private static final Logger logger = LogManager.getLogger(HandleReplyTask.class);
+    private final InternalActorSystem actorSystem;
+    private final ActorRef replyRef;
+    private final ActorDelegate delegate;
+    private final InternalMessage internalMessage;
+    private final MessageHandlerEventListener messageHandlerEventListener;
+
+    public HandleReplyTask(InternalActorSystem actorSystem,
+                           ActorRef replyRef,
+                           ActorDelegate delegate,
+                           InternalMessage internalMessage,
+                           MessageHandlerEventListener messageHandlerEventListener) {
+        this.actorSystem = actorSystem;
+        this.replyRef = replyRef;
+        this.delegate = delegate;
+        this.internalMessage = internalMessage;
+        this.messageHandlerEventListener = messageHandlerEventListener;
+    }
+
+    @Override
+    public ActorRef getSelf() {
+        return replyRef;
+    }
+
+    @Override
+    public <T extends ActorState> T getState(Class<T> stateClass) {
+        return stateClass.cast(delegate);
+    }
+
+    @Override
+    public void setState(ActorState state) {
+        // state not supported
+    }
+
+    @Override
+    public ActorSystem getActorSystem() {
+        return actorSystem;
+    }
+
+    @Override
+    public String getKey() {
+        return replyRef.getActorId();
+    }
+
+    @Override
+    public Collection<PersistentSubscription> getSubscriptions() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Map<String, Set<ActorRef>> getSubscribers() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public void run() {
+        Exception executionException = null;
+        InternalActorContext.setContext(this);
+        try {
+            Object message = deserializeMessage(actorSystem, internalMessage);
+            if(internalMessage.isUndeliverable()) {
+                delegate.onUndeliverable(internalMessage.getSender(), message);
+            } else {
+                delegate.onReceive(internalMessage.getSender(), message);
+                if(delegate.getCallerRef() instanceof ActorContainerRef) {
+                    ActorContainer shard = ((ActorContainerRef) delegate.getCallerRef()).getActorContainer();
+                    shard.sendMessage(null, shard.getActorRef(), new PersistActorMessage(delegate.getCallerRef()));
+                }
+            }
+        } catch(Exception e) {
+            logger.error(String.format("Exception while handling reply for [%s]", replyRef.toString()), e);
+            executionException = e;
+        } finally {
+            InternalActorContext.getAndClearContext();
+        }
+        if(executionException == null) {
+            messageHandlerEventListener.onDone(internalMessage);
+        } else {
+            messageHandlerEventListener.onError(internalMessage, executionException);
+        }
+    }
+}
@@ -16,66 +16,66 @@
 
 package org.elasticsoftware.elasticactors.cluster.tasks;
 
-import javax.annotation.Nullable;
 import java.util.concurrent.TimeUnit;
 
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 /**
+ * Timings of a task, kept as primitives to avoid boxing a Long for every timestamp.
+ *
  * @author Joost van de Wijgerd
  */
 public final class Measurement {
-    private final Long creationTime;
-    private Long executionStart;
-    private Long executionEnd;
-    @Nullable
-    private Long serializationEnd = null;
-    @Nullable
-    private Long ackEnd = null;
+    private static final long NOT_SET = Long.MIN_VALUE;
+    private final long creationTime;
+    private long executionStart;
+    private long executionEnd;
+    private long serializationEnd = NOT_SET;
+    private long ackEnd = NOT_SET;
 
 
-    public Measurement(Long creationTime) {
+    public Measurement(long creationTime) {
         this.creationTime = creationTime;
     }
 
-    public void setExecutionStart(Long executionStart) {
+    public void setExecutionStart(long executionStart) {
         this.executionStart = executionStart;
     }
 
-    public void setExecutionEnd(Long executionEnd) {
+    public void setExecutionEnd(long executionEnd) {
         this.executionEnd = executionEnd;
     }
 
-    public void setSerializationEnd(@Nullable Long serializationEnd) {
+    public void setSerializationEnd(long serializationEnd) {
         this.serializationEnd = serializationEnd;
     }
 
-    public void setAckEnd(@Nullable Long ackEnd) {
+    public void setAckEnd(long ackEnd) {
         this.ackEnd = ackEnd;
     }
 
     public boolean isSerialized() {
-        return serializationEnd != null;
+        return serializationEnd != NOT_SET;
     }
 
-    public Long getQueueDuration(final TimeUnit unit) {
+    public long getQueueDuration(final TimeUnit unit) {
         return unit.convert(executionStart-creationTime, NANOSECONDS);
     }
 
-    public Long getExecutionDuration(final TimeUnit unit) {
+    public long getExecutionDuration(final TimeUnit unit) {
         return unit.convert(executionEnd-executionStart, NANOSECONDS);
     }
 
-    public Long getSerializationDuration(final TimeUnit unit) {
-        return (serializationEnd != null) ? unit.convert(serializationEnd-executionEnd, NANOSECONDS) : 0L;
+    public long getSerializationDuration(final TimeUnit unit) {
+        return (serializationEnd != NOT_SET) ? unit.convert(serializationEnd-executionEnd, NANOSECONDS) : 0L;
     }
 
-    public Long getAckDuration(final TimeUnit unit) {
-        return (ackEnd != null) ? unit.convert(ackEnd-executionEnd, NANOSECONDS) : 0L;
+    public long getAckDuration(final TimeUnit unit) {
+        return (ackEnd != NOT_SET) ? unit.convert(ackEnd-executionEnd, NANOSECONDS) : 0L;
     }
 
-    public Long getTotalDuration(final TimeUnit unit) {
-        Long endTime = (ackEnd != null) ? ackEnd : (serializationEnd != null) ? serializationEnd : creationTime;
+    public long getTotalDuration(final TimeUnit unit) {
+        long endTime = (ackEnd != NOT_SET) ? ackEnd : (serializationEnd != NOT_SET) ? serializationEnd : creationTime;
         return unit.convert(endTime-creationTime,NANOSECONDS);
     }
 }
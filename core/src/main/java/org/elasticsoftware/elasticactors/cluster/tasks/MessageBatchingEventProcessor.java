@@ -0,0 +1,98 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsoftware.elasticactors.cluster.tasks;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundEventProcessor;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundRunnable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * {@link ThreadBoundEventProcessor} for the actor executor. Runs the events in order, except that an
+ * {@link ActorLifecycleTask} for an actor that has message batching enabled will pick up the tasks for the same actor
+ * that follow it in the batch and run them together (see {@link ActorLifecycleTask#runBatch(List)}). Scanning for
+ * tasks of the same actor stops at the first task with the same key that cannot be batched, so the order of the
+ * tasks per key is preserved.
+ *
+ * @author Joost van de Wijgerd
+ */
+public final class MessageBatchingEventProcessor implements ThreadBoundEventProcessor<ThreadBoundRunnable> {
+    private static final Logger logger = LogManager.getLogger(MessageBatchingEventProcessor.class);
+
+    @Override
+    public void process(List<ThreadBoundRunnable> events) {
+        // only allocated when we actually find something to batch
+        boolean[] processed = null;
+        final int size = events.size();
+        for (int i = 0; i < size; i++) {
+            if (processed != null && processed[i]) {
+                continue;
+            }
+            final ThreadBoundRunnable event = events.get(i);
+            List<ActorLifecycleTask> tasks = null;
+            if (i < size - 1 && event instanceof ActorLifecycleTask && ((ActorLifecycleTask) event).isBatchable()) {
+                final ActorLifecycleTask task = (ActorLifecycleTask) event;
+                for (int j = i + 1; j < size; j++) {
+                    final ThreadBoundRunnable next = events.get(j);
+                    if ((processed == null || !processed[j]) && Objects.equals(task.getKey(), next.getKey())) {
+                        if (next instanceof ActorLifecycleTask && task.canBatchWith((ActorLifecycleTask) next)) {
+                            if (tasks == null) {
+                                tasks = new ArrayList<>();
+                                tasks.add(task);
+                            }
+                            if (processed == null) {
+                                processed = new boolean[size];
+                            }
+                            tasks.add((ActorLifecycleTask) next);
+                            processed[j] = true;
+                        } else {
+                            break;
+                        }
+                    }
+                }
+            }
+            if (tasks != null) {
+                try {
+                    ActorLifecycleTask.runBatch(tasks);
+                } catch (Throwable exception) {
+                    logger.error(String.format("exception on queue %s while executing batch of %d tasks: %s", Thread.currentThread().getName(), tasks.size(), event), exception);
+                }
+            } else {
+                run(event);
+            }
+        }
+    }
+
+    @Override
+    public void process(ThreadBoundRunnable... events) {
+        process(Arrays.asList(events));
+    }
+
+    private void run(ThreadBoundRunnable event) {
+        try {
+            event.run();
+        } catch (Throwable exception) {
+            logger.error(String.format("exception on queue %s while executing runnable: %s", Thread.currentThread().getName(), event), exception);
+        }
+    }
+}
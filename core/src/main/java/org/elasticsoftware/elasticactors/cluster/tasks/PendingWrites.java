@@ -0,0 +1,121 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsoftware.elasticactors.cluster.tasks;
+
+import org.elasticsoftware.elasticactors.messaging.InternalMessage;
+import org.elasticsoftware.elasticactors.messaging.MessageHandlerEventListener;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps track of the asynchronous writes that are started while an actor handles a message (for instance the
+ * creation of a {@link org.elasticsoftware.elasticactors.cluster.scheduler.ScheduledMessage}). The message is only
+ * acknowledged when all these writes (and the write of the actor state) have completed, so that nothing gets lost
+ * when the node crashes after the message was acknowledged.
+ *
+ * @author Joost van de Wijgerd
+ */
+public final class PendingWrites implements MessageHandlerEventListener {
+    private static final ThreadLocal<Scope> threadScope = ThreadLocal.withInitial(Scope::new);
+    // one for the message itself, it is released when the message would normally be acknowledged
+    private final AtomicInteger pending = new AtomicInteger(1);
+    private final AtomicReference<Throwable> error = new AtomicReference<>();
+    private volatile InternalMessage message;
+    private volatile MessageHandlerEventListener delegate;
+
+    private PendingWrites() {
+    }
+
+    /**
+     * Registers an asynchronous write with the message that is currently being handled on this thread.
+     *
+     * @return the listener that should be notified when the write completes, or null when no message is being handled
+     */
+    @Nullable
+    public static MessageHandlerEventListener register() {
+        final Scope scope = threadScope.get();
+        if (!scope.active) {
+            return null;
+        }
+        if (scope.pendingWrites == null) {
+            scope.pendingWrites = new PendingWrites();
+        }
+        scope.pendingWrites.pending.incrementAndGet();
+        return scope.pendingWrites;
+    }
+
+    static void begin() {
+        final Scope scope = threadScope.get();
+        scope.active = true;
+        scope.pendingWrites = null;
+    }
+
+    /**
+     * @return the writes that were registered since {@link #begin()} or null if there were none
+     */
+    @Nullable
+    static PendingWrites end() {
+        final Scope scope = threadScope.get();
+        final PendingWrites pendingWrites = scope.pendingWrites;
+        scope.active = false;
+        scope.pendingWrites = null;
+        return pendingWrites;
+    }
+
+    /**
+     * @return a listener that notifies the given listener when both the message and the registered writes are done
+     */
+    @Nullable
+    MessageHandlerEventListener chain(InternalMessage message, @Nullable MessageHandlerEventListener listener) {
+        if (listener == null) {
+            return null;
+        }
+        this.message = message;
+        this.delegate = listener;
+        return this;
+    }
+
+    @Override
+    public void onError(InternalMessage message, Throwable exception) {
+        error.compareAndSet(null, exception);
+        release();
+    }
+
+    @Override
+    public void onDone(InternalMessage message) {
+        release();
+    }
+
+    private void release() {
+        if (pending.decrementAndGet() == 0 && delegate != null) {
+            final Throwable exception = error.get();
+            if (exception == null) {
+                delegate.onDone(message);
+            } else {
+                delegate.onError(message, exception);
+            }
+        }
+    }
+
+    private static final class Scope {
+        private boolean active;
+        private PendingWrites pendingWrites;
+    }
+}
@@ -18,9 +18,11 @@ package org.elasticsoftware.elasticactors.cluster.tasks.app;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.elasticsoftware.elasticactors.ActorContainer;
 import org.elasticsoftware.elasticactors.ActorRef;
 import org.elasticsoftware.elasticactors.ElasticActor;
 import org.elasticsoftware.elasticactors.MessageDeliveryException;
+import org.elasticsoftware.elasticactors.cluster.ActorShardRef;
 import org.elasticsoftware.elasticactors.cluster.InternalActorSystem;
 import org.elasticsoftware.elasticactors.cluster.tasks.ActorLifecycleTask;
 import org.elasticsoftware.elasticactors.messaging.InternalMessage;
@@ -34,6 +36,10 @@ import org.elasticsoftware.elasticactors.state.PersistentActorRepository;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Stream;
 
@@ -73,6 +79,11 @@ public final class HandleMessageTask extends ActorLifecycleTask {
     }
 
 
+    @Override
+    protected boolean isBatchable() {
+        return shouldBatchMessages(receiver);
+    }
+
     protected boolean doInActorContext(InternalActorSystem actorSystem,
                                        ElasticActor receiver,
                                        ActorRef receiverRef,
@@ -107,13 +118,33 @@ public final class HandleMessageTask extends ActorLifecycleTask {
     private void notifySubscribers(InternalMessage internalMessage) {
         if(persistentActor.getMessageSubscribers() != null) {
             try {
-                // todo consider using ActorRefGroup here
-                if(persistentActor.getMessageSubscribers().containsKey(internalMessage.getPayloadClass())) {
+                Set<MessageSubscriber> messageSubscribers =
+                        persistentActor.getMessageSubscribers().get(internalMessage.getPayloadClass());
+                if(!messageSubscribers.isEmpty()) {
                     // copy the bytes from the incoming message, discarding possible changes made in onReceive
                     NextMessage nextMessage = new NextMessage(internalMessage.getPayloadClass(), getMessageBytes(internalMessage));
-                    ((Set<MessageSubscriber>) persistentActor.getMessageSubscribers().get(internalMessage.getPayloadClass()))
-                            .stream().filter(messageSubscriber -> messageSubscriber.getAndDecrement() > 0)
-                            .forEach(messageSubscriber -> messageSubscriber.getSubscriberRef().tell(nextMessage, receiverRef));
+                    // group the subscribers per shard, every shard gets one message with all its subscribers as receivers
+                    Map<ActorContainer, List<ActorRef>> receiversPerShard = new HashMap<>();
+                    for (MessageSubscriber messageSubscriber : messageSubscribers) {
+                        // only subscribers that have leases left get the message
+                        if(messageSubscriber.getAndDecrement() > 0) {
+                            ActorRef subscriberRef = messageSubscriber.getSubscriberRef();
+                            if(subscriberRef instanceof ActorShardRef) {
+                                receiversPerShard.computeIfAbsent(((ActorShardRef) subscriberRef).getActorContainer(),
+                                        actorContainer -> new ArrayList<>()).add(subscriberRef);
+                            } else {
+                                subscriberRef.tell(nextMessage, receiverRef);
+                            }
+                        }
+                    }
+                    receiversPerShard.forEach((actorShard, receivers) -> {
+                        try {
+                            actorShard.sendMessage(receiverRef, receivers, nextMessage);
+                        } catch (Exception e) {
+                            log.error(format("Exception while forwarding message to %d Subscribers on [%s]",
+                                    receivers.size(), actorShard.getActorRef()), e);
+                        }
+                    });
                 }
             } catch(Exception e) {
                 log.error("Unexpected exception while forwarding message to Subscribers", e);
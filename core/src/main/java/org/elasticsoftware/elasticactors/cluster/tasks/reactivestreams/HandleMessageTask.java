@@ -31,6 +31,7 @@ import org.elasticsoftware.elasticactors.state.ActorStateUpdateProcessor;
 import org.elasticsoftware.elasticactors.state.MessageSubscriber;
 import org.elasticsoftware.elasticactors.state.PersistentActor;
 import org.elasticsoftware.elasticactors.state.PersistentActorRepository;
+import org.elasticsoftware.elasticactors.util.ClassLoadingHelper;
 import org.reactivestreams.Subscriber;
 
 import java.io.IOException;
@@ -90,17 +91,17 @@ public final class HandleMessageTask extends ActorLifecycleTask implements Subsc
     }
 
     @Override
-    protected Optional<Class> unwrapMessageClass(InternalMessage internalMessage)  {
+    protected Class<?> unwrapMessageClass(InternalMessage internalMessage)  {
         if(NextMessage.class.getName().equals(internalMessage.getPayloadClass())) {
             try {
                 NextMessage nextMessage = (NextMessage) internalMessage.getPayload(
-                        actorSystem.getDeserializer(Class.forName(internalMessage.getPayloadClass())));
-                return Optional.of(Class.forName(nextMessage.getMessageName()));
+                        actorSystem.getDeserializer(NextMessage.class));
+                return ClassLoadingHelper.forName(nextMessage.getMessageName());
             } catch(IOException | ClassNotFoundException e) {
-                return Optional.empty();
+                return null;
             }
         } else {
-            return Optional.empty();
+            return null;
         }
 
     }
@@ -141,7 +142,7 @@ public final class HandleMessageTask extends ActorLifecycleTask implements Subsc
         if(persistentSubscription.isPresent()) {
             try {
                 // @todo: for now the message name == messageClass
-                Class<?> messageClass = Class.forName(nextMessage.getMessageName());
+                Class<?> messageClass = ClassLoadingHelper.forName(nextMessage.getMessageName());
                 MessageDeserializer<?> deserializer = actorSystem.getDeserializer(messageClass);
                 Object message = SerializationContext.deserialize(deserializer, ByteBuffer.wrap(nextMessage.getMessageBytes()));
 
@@ -21,6 +21,7 @@ import org.elasticsoftware.elasticactors.ActorRef;
 import org.elasticsoftware.elasticactors.UnexpectedResponseTypeException;
 
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
 
 import static java.lang.String.format;
 
@@ -52,4 +53,8 @@ public final class CompletableFutureDelegate<T> extends ActorDelegate<T> {
             future.completeExceptionally(new UnexpectedResponseTypeException("Receiver unexpectedly responded with a message of type " + message.getClass().getTypeName()));
         }
     }
+
+    public void onTimeout(long timeoutMillis) {
+        future.completeExceptionally(new TimeoutException(format("No response received within %d ms", timeoutMillis)));
+    }
 }
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.messaging;
+
+import com.google.common.collect.ImmutableList;
+import org.elasticsoftware.elasticactors.ActorRef;
+import org.elasticsoftware.elasticactors.serialization.MessageDeserializer;
+import org.elasticsoftware.elasticactors.serialization.SerializationContext;
+import org.elasticsoftware.elasticactors.serialization.internal.ActorRefDeserializer;
+import org.elasticsoftware.elasticactors.serialization.internal.FramedInternalMessageSerializer;
+import org.elasticsoftware.elasticactors.serialization.internal.InternalMessageSerializer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+import static org.elasticsoftware.elasticactors.serialization.internal.FramedInternalMessageSerializer.DURABLE;
+import static org.elasticsoftware.elasticactors.serialization.internal.FramedInternalMessageSerializer.UNDELIVERABLE;
+
+/**
+ * An {@link InternalMessage} that wraps a frame written by the {@link FramedInternalMessageSerializer} without copying
+ * it. Only the header and the payload class are read up front, the sender and receivers are decoded when they are
+ * first needed and the payload is handed out as a slice of the frame.
+ *
+ * @author Joost van de Wijgerd
+ */
+public final class FramedInternalMessage implements InternalMessage {
+    private final ByteBuffer frame;
+    private final ActorRefDeserializer actorRefDeserializer;
+    private final boolean immutable;
+    private final UUID id;
+    private final boolean durable;
+    private final boolean undeliverable;
+    private final int timeout;
+    private final String payloadClass;
+    private final int payloadOffset;
+    private final int payloadLength;
+    private final int senderOffset;
+    private final int receiversOffset;
+    private volatile ActorRef sender;
+    private volatile ImmutableList<ActorRef> receivers;
+    private volatile DeserializedPayload deserializedPayload;
+    private byte[] serializedForm;
+
+    /**
+     * @param frame                 the frame, from its position up to its limit. It should not be modified afterwards
+     * @param actorRefDeserializer  used to (lazily) decode the sender and receivers
+     * @param immutableMessageClass tells whether the payload class is an immutable message, in that case the payload
+     *                              is only deserialized once (per deserializer)
+     * @throws IOException          when the frame cannot be read
+     */
+    public FramedInternalMessage(ByteBuffer frame,
+                                 ActorRefDeserializer actorRefDeserializer,
+                                 Predicate<String> immutableMessageClass) throws IOException {
+        this.frame = frame.slice();
+        this.actorRefDeserializer = actorRefDeserializer;
+        try {
+            if(this.frame.get(0) != FramedInternalMessageSerializer.MARKER) {
+                throw new IOException("Not a framed InternalMessage");
+            }
+            final byte version = this.frame.get(1);
+            if(version > FramedInternalMessageSerializer.VERSION) {
+                throw new IOException(String.format("Unsupported InternalMessage frame version %d", version));
+            }
+            final byte flags = this.frame.get(2);
+            this.durable = (flags & DURABLE) != 0;
+            this.undeliverable = (flags & UNDELIVERABLE) != 0;
+            this.id = new UUID(this.frame.getLong(3), this.frame.getLong(11));
+            this.timeout = this.frame.getInt(19);
+            int offset = FramedInternalMessageSerializer.HEADER_SIZE;
+            final int payloadClassLength = this.frame.getInt(offset);
+            this.payloadClass = readString(offset + 4, payloadClassLength);
+            offset += 4 + payloadClassLength;
+            this.payloadLength = this.frame.getInt(offset);
+            this.payloadOffset = offset + 4;
+            this.senderOffset = checkBounds(payloadOffset + payloadLength);
+            final int senderLength = this.frame.getInt(senderOffset);
+            this.receiversOffset = checkBounds(senderOffset + 4 + Math.max(0, senderLength));
+            // walk the receivers (without decoding them) to make sure they are all there
+            final int receiverCount = this.frame.getInt(receiversOffset);
+            int receiverOffset = receiversOffset + 4;
+            for (int i = 0; i < receiverCount; i++) {
+                receiverOffset = checkBounds(receiverOffset + 4 + this.frame.getInt(receiverOffset));
+            }
+            this.immutable = immutableMessageClass.test(payloadClass);
+        } catch(IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Corrupt InternalMessage frame", e);
+        }
+    }
+
+    private int checkBounds(int offset) {
+        if(offset < 0 || offset > frame.limit()) {
+            throw new IndexOutOfBoundsException(Integer.toString(offset));
+        }
+        return offset;
+    }
+
+    private String readString(int offset, int length) {
+        if(length < 0 || offset + length > frame.limit()) {
+            throw new IndexOutOfBoundsException(Integer.toString(offset + length));
+        }
+        if(frame.hasArray()) {
+            return new String(frame.array(), frame.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+        }
+        final ByteBuffer bytes = frame.duplicate();
+        bytes.position(offset).limit(offset + length);
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+
+    private ActorRef readActorRef(int offset) {
+        try {
+            return actorRefDeserializer.deserialize(readString(offset + 4, frame.getInt(offset)));
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the complete frame
+     */
+    public ByteBuffer getFrame() {
+        return frame.duplicate();
+    }
+
+    @Override
+    public UUID getId() {
+        return id;
+    }
+
+    @Override
+    public ActorRef getSender() {
+        ActorRef sender = this.sender;
+        if(sender == null && frame.getInt(senderOffset) >= 0) {
+            this.sender = sender = readActorRef(senderOffset);
+        }
+        return sender;
+    }
+
+    @Override
+    public ImmutableList<ActorRef> getReceivers() {
+        ImmutableList<ActorRef> receivers = this.receivers;
+        if(receivers == null) {
+            final int count = frame.getInt(receiversOffset);
+            if(count == 1) {
+                receivers = ImmutableList.of(readActorRef(receiversOffset + 4));
+            } else {
+                final ImmutableList.Builder<ActorRef> builder = ImmutableList.builder();
+                int offset = receiversOffset + 4;
+                for (int i = 0; i < count; i++) {
+                    builder.add(readActorRef(offset));
+                    offset += 4 + frame.getInt(offset);
+                }
+                receivers = builder.build();
+            }
+            this.receivers = receivers;
+        }
+        return receivers;
+    }
+
+    /**
+     * @return a slice of the frame, every call returns a new buffer so the readers don't affect each other
+     */
+    @Override
+    public ByteBuffer getPayload() {
+        final ByteBuffer payload = frame.duplicate();
+        payload.position(payloadOffset).limit(payloadOffset + payloadLength);
+        return payload.slice();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getPayload(MessageDeserializer<T> deserializer) throws IOException {
+        if(immutable) {
+            // immutable messages can be shared so they only need to be deserialized once (per deserializer)
+            DeserializedPayload deserializedPayload = this.deserializedPayload;
+            if(deserializedPayload == null || deserializedPayload.deserializer != deserializer) {
+                this.deserializedPayload = deserializedPayload =
+                        new DeserializedPayload(deserializer, deserializer.deserialize(getPayload()));
+            }
+            return (T) deserializedPayload.payload;
+        }
+        return SerializationContext.deserialize(deserializer, getPayload());
+    }
+
+    @Override
+    public String getPayloadClass() {
+        return payloadClass;
+    }
+
+    @Override
+    public boolean isDurable() {
+        return durable;
+    }
+
+    @Override
+    public boolean isUndeliverable() {
+        return undeliverable;
+    }
+
+    @Override
+    public int getTimeout() {
+        return timeout;
+    }
+
+    @Override
+    public byte[] toByteArray() {
+        if(serializedForm == null) {
+            serializedForm = InternalMessageSerializer.get().serialize(this);
+        }
+        return serializedForm;
+    }
+
+    @Override
+    public InternalMessage copyOf() {
+        // the frame is never modified and every reader gets its own payload buffer
+        return this;
+    }
+
+    private static final class DeserializedPayload {
+        private final MessageDeserializer<?> deserializer;
+        private final Object payload;
+
+        private DeserializedPayload(MessageDeserializer<?> deserializer, Object payload) {
+            this.deserializer = deserializer;
+            this.payload = payload;
+        }
+    }
+}
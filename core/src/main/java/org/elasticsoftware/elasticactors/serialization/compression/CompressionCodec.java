@@ -0,0 +1,43 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsoftware.elasticactors.serialization.compression;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+
+/**
+ * Compresses serialized objects before they are stored. The compressed bytes of every codec start with a header that
+ * identifies the codec, this way {@link #isCompressed(byte[])} can select the codec to decompress with and
+ * uncompressed (small) objects can be stored alongside the compressed ones.
+ *
+ * @author Joost van de Wijgerd
+ */
+public interface CompressionCodec {
+    /**
+     * @param uncompressed  the serialized object
+     * @param type          the type of the serialized object (i.e. the actor class), can be used to select a dictionary
+     */
+    byte[] compress(byte[] uncompressed, @Nullable Class<?> type) throws IOException;
+
+    /**
+     * @return true if the bytes start with the header of this codec
+     */
+    boolean isCompressed(byte[] serialized);
+
+    byte[] decompress(byte[] compressed) throws IOException;
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsoftware.elasticactors.serialization.compression;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.util.StreamUtils;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.String.format;
+
+/**
+ * @author Joost van de Wijgerd
+ */
+public final class CompressionCodecs {
+    private static final Logger logger = LogManager.getLogger(CompressionCodecs.class);
+    public static final String LZ4 = "lz4";
+    public static final String ZSTD = "zstd";
+    private static final String DICTIONARY_EXTENSION = ".dict";
+
+    private CompressionCodecs() {}
+
+    public static CompressionCodec create(String name, int level, Map<String, byte[]> dictionaries) {
+        if (LZ4.equalsIgnoreCase(name)) {
+            return new Lz4CompressionCodec();
+        } else if (ZSTD.equalsIgnoreCase(name)) {
+            return new ZstdCompressionCodec(level, dictionaries);
+        } else {
+            throw new IllegalArgumentException(format("Unknown compression codec %s, supported codecs are %s and %s", name, LZ4, ZSTD));
+        }
+    }
+
+    /**
+     * Returns all the codecs that can be encountered when reading, independent of the configured codec. This
+     * allows switching codecs without having to migrate the existing data.
+     */
+    public static List<CompressionCodec> createDecompressionCodecs(Map<String, byte[]> dictionaries) {
+        List<CompressionCodec> codecs = new ArrayList<>();
+        codecs.add(new Lz4CompressionCodec());
+        if (isZstdAvailable()) {
+            // the level is not used for decompression
+            codecs.add(new ZstdCompressionCodec(3, dictionaries));
+        }
+        return codecs;
+    }
+
+    /**
+     * Loads the dictionaries matching the (spring resource) location pattern, i.e. {@code classpath*:dictionaries/*.dict}.
+     * The name of a dictionary file is the name of the type it should be used for followed by the .dict extension.
+     */
+    public static Map<String, byte[]> loadDictionaries(@Nullable String locationPattern) throws IOException {
+        if (locationPattern == null || locationPattern.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, byte[]> dictionaries = new HashMap<>();
+        for (Resource resource : new PathMatchingResourcePatternResolver().getResources(locationPattern)) {
+            String filename = resource.getFilename();
+            if (filename != null && filename.endsWith(DICTIONARY_EXTENSION)) {
+                try (InputStream inputStream = resource.getInputStream()) {
+                    dictionaries.put(filename.substring(0, filename.length() - DICTIONARY_EXTENSION.length()),
+                            StreamUtils.copyToByteArray(inputStream));
+                }
+            }
+        }
+        logger.info(format("Loaded %d compression dictionaries from %s", dictionaries.size(), locationPattern));
+        return dictionaries;
+    }
+
+    private static boolean isZstdAvailable() {
+        try {
+            com.github.luben.zstd.util.Native.load();
+            return true;
+        } catch (LinkageError | RuntimeException e) {
+            return false;
+        }
+    }
+
+    static boolean startsWith(byte[] bytes, byte[] header) {
+        if (bytes.length < header.length) {
+            return false;
+        }
+        for (int i = 0; i < header.length; i++) {
+            if (bytes[i] != header[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsoftware.elasticactors.serialization.compression;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * LZ4 block compression, prefixed with a magic header and the uncompressed length. This is the format that has
+ * always been used by the backplanes.
+ *
+ * @author Joost van de Wijgerd
+ */
+public final class Lz4CompressionCodec implements CompressionCodec {
+    private static final LZ4Compressor lz4Compressor = LZ4Factory.fastestJavaInstance().fastCompressor();
+    private static final LZ4FastDecompressor lz4Decompressor = LZ4Factory.fastestJavaInstance().fastDecompressor();
+    private static final byte[] MAGIC_HEADER = {0x18,0x4D,0x22,0x04};
+    private static final int HEADER_SIZE = MAGIC_HEADER.length + 4;
+
+    @Override
+    public byte[] compress(byte[] uncompressed, @Nullable Class<?> type) {
+        byte[] compressed = new byte[HEADER_SIZE + lz4Compressor.maxCompressedLength(uncompressed.length)];
+        ByteBuffer.wrap(compressed).put(MAGIC_HEADER).putInt(uncompressed.length);
+        int compressedLength = lz4Compressor.compress(uncompressed, 0, uncompressed.length, compressed, HEADER_SIZE);
+        return Arrays.copyOf(compressed, HEADER_SIZE + compressedLength);
+    }
+
+    @Override
+    public boolean isCompressed(byte[] serialized) {
+        return CompressionCodecs.startsWith(serialized, MAGIC_HEADER);
+    }
+
+    @Override
+    public byte[] decompress(byte[] compressed) throws IOException {
+        if (compressed.length < HEADER_SIZE) {
+            throw new IOException("Invalid LZ4 header");
+        }
+        int uncompressedLength = ByteBuffer.wrap(compressed, MAGIC_HEADER.length, 4).getInt();
+        return lz4Decompressor.decompress(compressed, HEADER_SIZE, uncompressedLength);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsoftware.elasticactors.serialization.compression;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.github.luben.zstd.ZstdException;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Zstandard compression with optional dictionaries per type. The state of actors of the same class is usually very
+ * similar, a dictionary trained on samples of that state makes a big difference for the (relatively small) records.
+ *
+ * <p/>
+ * The standard zstd frame is used as is: it starts with the zstd magic number and contains the id of the dictionary
+ * it was compressed with. Every dictionary that was ever used should therefore stay available for decompression.
+ *
+ * @author Joost van de Wijgerd
+ */
+public final class ZstdCompressionCodec implements CompressionCodec {
+    private static final byte[] MAGIC_HEADER = {0x28,(byte)0xB5,0x2F,(byte)0xFD};
+    private final Map<String, ZstdDictCompress> compressionDictionaries = new HashMap<>();
+    private final Map<Long, ZstdDictDecompress> decompressionDictionaries = new HashMap<>();
+    // creating a (native) context per call is expensive compared to compressing a small record, the contexts with a
+    // dictionary are kept separate as the dictionary is set before every use
+    private final ThreadLocal<ZstdCompressCtx> compressContext;
+    private final ThreadLocal<ZstdCompressCtx> dictionaryCompressContext;
+    private final ThreadLocal<ZstdDecompressCtx> decompressContext = ThreadLocal.withInitial(ZstdDecompressCtx::new);
+    private final ThreadLocal<ZstdDecompressCtx> dictionaryDecompressContext = ThreadLocal.withInitial(ZstdDecompressCtx::new);
+
+    public ZstdCompressionCodec(int level) {
+        this(level, Collections.emptyMap());
+    }
+
+    /**
+     * @param level         the compression level
+     * @param dictionaries  trained dictionaries by type name
+     */
+    public ZstdCompressionCodec(int level, Map<String, byte[]> dictionaries) {
+        this.compressContext = ThreadLocal.withInitial(() -> new ZstdCompressCtx().setLevel(level));
+        this.dictionaryCompressContext = ThreadLocal.withInitial(() -> new ZstdCompressCtx().setLevel(level));
+        dictionaries.forEach((typeName, dictionary) -> {
+            long dictionaryId = Zstd.getDictIdFromDict(dictionary);
+            if (dictionaryId == 0) {
+                throw new IllegalArgumentException(String.format("Dictionary for %s is not a zstd dictionary", typeName));
+            }
+            compressionDictionaries.put(typeName, new ZstdDictCompress(dictionary, level));
+            decompressionDictionaries.put(dictionaryId, new ZstdDictDecompress(dictionary));
+        });
+    }
+
+    /**
+     * Trains a dictionary on the given samples, the samples should be representative for the serialized objects of a
+     * single type.
+     */
+    public static byte[] trainDictionary(List<byte[]> samples, int dictionarySize) {
+        int totalSize = 0;
+        for (byte[] sample : samples) {
+            totalSize += sample.length;
+        }
+        ZstdDictTrainer trainer = new ZstdDictTrainer(totalSize, dictionarySize);
+        samples.forEach(trainer::addSample);
+        return trainer.trainSamples();
+    }
+
+    @Override
+    public byte[] compress(byte[] uncompressed, @Nullable Class<?> type) throws IOException {
+        ZstdDictCompress dictionary = (type != null) ? compressionDictionaries.get(type.getName()) : null;
+        try {
+            if (dictionary != null) {
+                return dictionaryCompressContext.get().loadDict(dictionary).compress(uncompressed);
+            } else {
+                return compressContext.get().compress(uncompressed);
+            }
+        } catch (ZstdException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public boolean isCompressed(byte[] serialized) {
+        return CompressionCodecs.startsWith(serialized, MAGIC_HEADER);
+    }
+
+    @Override
+    public byte[] decompress(byte[] compressed) throws IOException {
+        try {
+            long uncompressedLength = Zstd.decompressedSize(compressed);
+            if (uncompressedLength <= 0 || uncompressedLength > Integer.MAX_VALUE) {
+                throw new IOException("Invalid zstd frame, the uncompressed length is missing");
+            }
+            long dictionaryId = Zstd.getDictIdFromFrame(compressed);
+            if (dictionaryId == 0) {
+                return decompressContext.get().decompress(compressed, (int) uncompressedLength);
+            }
+            ZstdDictDecompress dictionary = decompressionDictionaries.get(dictionaryId);
+            if (dictionary == null) {
+                throw new IOException(String.format("Zstd dictionary with id %d is not available", dictionaryId));
+            }
+            return dictionaryDecompressContext.get().loadDict(dictionary).decompress(compressed, (int) uncompressedLength);
+        } catch (ZstdException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.serialization.internal;
+
+import org.elasticsoftware.elasticactors.ActorRef;
+import org.elasticsoftware.elasticactors.messaging.FramedInternalMessage;
+import org.elasticsoftware.elasticactors.messaging.InternalMessage;
+import org.elasticsoftware.elasticactors.serialization.Serializer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Writes an {@link InternalMessage} in a binary frame that can be read back without copying, see
+ * {@link FramedInternalMessage}. All values are big endian, strings are UTF-8 encoded and prefixed with their length:
+ *
+ * <pre>
+ * byte    marker (0)
+ * byte    version
+ * byte    flags (1 = durable, 2 = undeliverable)
+ * long    id (most significant bits)
+ * long    id (least significant bits)
+ * int     timeout
+ * string  payloadClass
+ * int     payload length, followed by the payload
+ * string  sender (length -1 when there is no sender)
+ * int     number of receivers, followed by the receivers as strings
+ * </pre>
+ *
+ * The marker can never be the first byte of a protobuf encoded message (field number 0 is invalid), this is how the
+ * {@link InternalMessageDeserializer} can read both formats. New fields can be added at the end of the frame, readers
+ * ignore the bytes they don't know about. The version is only increased for incompatible changes.
+ *
+ * @author Joost van de Wijgerd
+ */
+public final class FramedInternalMessageSerializer implements Serializer<InternalMessage,byte[]> {
+    public static final byte MARKER = 0;
+    public static final byte VERSION = 1;
+    public static final byte DURABLE = 1;
+    public static final byte UNDELIVERABLE = 2;
+    // marker, version, flags, id and timeout
+    public static final int HEADER_SIZE = 3 + 16 + 4;
+    private static final FramedInternalMessageSerializer INSTANCE = new FramedInternalMessageSerializer();
+
+    public static FramedInternalMessageSerializer get() {
+        return INSTANCE;
+    }
+
+    public static boolean isFramed(ByteBuffer serializedObject) {
+        return serializedObject.hasRemaining() && serializedObject.get(serializedObject.position()) == MARKER;
+    }
+
+    @Override
+    public byte[] serialize(InternalMessage internalMessage) {
+        if(internalMessage instanceof FramedInternalMessage) {
+            // it's already framed, no need to encode it again
+            return toByteArray(((FramedInternalMessage) internalMessage).getFrame());
+        }
+        final byte[] payloadClass = internalMessage.getPayloadClass().getBytes(StandardCharsets.UTF_8);
+        final byte[] sender = internalMessage.getSender() != null
+                ? ActorRefSerializer.get().serialize(internalMessage.getSender()).getBytes(StandardCharsets.UTF_8) : null;
+        final List<ActorRef> receivers = internalMessage.getReceivers();
+        final byte[][] receiverBytes = new byte[receivers.size()][];
+        // don't change the position of the payload
+        final ByteBuffer payload = internalMessage.getPayload().duplicate();
+        int size = HEADER_SIZE + 4 + payloadClass.length + 4 + payload.remaining() + 4 + (sender != null ? sender.length : 0) + 4;
+        for (int i = 0; i < receiverBytes.length; i++) {
+            receiverBytes[i] = ActorRefSerializer.get().serialize(receivers.get(i)).getBytes(StandardCharsets.UTF_8);
+            size += 4 + receiverBytes[i].length;
+        }
+        final ByteBuffer frame = ByteBuffer.allocate(size);
+        frame.put(MARKER);
+        frame.put(VERSION);
+        frame.put((byte) ((internalMessage.isDurable() ? DURABLE : 0) | (internalMessage.isUndeliverable() ? UNDELIVERABLE : 0)));
+        frame.putLong(internalMessage.getId().getMostSignificantBits());
+        frame.putLong(internalMessage.getId().getLeastSignificantBits());
+        frame.putInt(internalMessage.getTimeout());
+        frame.putInt(payloadClass.length).put(payloadClass);
+        frame.putInt(payload.remaining()).put(payload);
+        if(sender != null) {
+            frame.putInt(sender.length).put(sender);
+        } else {
+            frame.putInt(-1);
+        }
+        frame.putInt(receiverBytes.length);
+        for (byte[] receiver : receiverBytes) {
+            frame.putInt(receiver.length).put(receiver);
+        }
+        return frame.array();
+    }
+
+    private static byte[] toByteArray(ByteBuffer frame) {
+        // always copy, the frame could be backed by an array of the caller and it should never be modified
+        final byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        return bytes;
+    }
+}
@@ -20,6 +20,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import org.elasticsoftware.elasticactors.ActorRef;
 import org.elasticsoftware.elasticactors.cluster.InternalActorSystem;
+import org.elasticsoftware.elasticactors.messaging.FramedInternalMessage;
 import org.elasticsoftware.elasticactors.messaging.ImmutableInternalMessage;
 import org.elasticsoftware.elasticactors.messaging.InternalMessage;
 import org.elasticsoftware.elasticactors.messaging.InternalMessageImpl;
@@ -27,11 +28,14 @@ import org.elasticsoftware.elasticactors.messaging.UUIDTools;
 import org.elasticsoftware.elasticactors.serialization.Deserializer;
 import org.elasticsoftware.elasticactors.serialization.Message;
 import org.elasticsoftware.elasticactors.serialization.protobuf.Elasticactors;
+import org.elasticsoftware.elasticactors.util.ClassLoadingHelper;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.function.Predicate;
 
 import static org.elasticsoftware.elasticactors.messaging.UUIDTools.toUUID;
 
@@ -41,6 +45,7 @@ import static org.elasticsoftware.elasticactors.messaging.UUIDTools.toUUID;
 public final class InternalMessageDeserializer implements Deserializer<byte[],InternalMessage> {
     private final ActorRefDeserializer actorRefDeserializer;
     private final InternalActorSystem internalActorSystem;
+    private final Predicate<String> immutableMessageClass = this::isImmutable;
 
     public InternalMessageDeserializer(ActorRefDeserializer actorRefDeserializer, InternalActorSystem internalActorSystem) {
         this.actorRefDeserializer = actorRefDeserializer;
@@ -49,7 +54,24 @@ public final class InternalMessageDeserializer implements Deserializer<byte[],In
 
     @Override
     public InternalMessage deserialize(byte[] serializedObject) throws IOException {
-        Elasticactors.InternalMessage protobufMessage = Elasticactors.InternalMessage.parseFrom(serializedObject);
+        if(serializedObject.length > 0 && serializedObject[0] == FramedInternalMessageSerializer.MARKER) {
+            return new FramedInternalMessage(ByteBuffer.wrap(serializedObject), actorRefDeserializer, immutableMessageClass);
+        }
+        return deserialize(Elasticactors.InternalMessage.parseFrom(serializedObject));
+    }
+
+    /**
+     * Reads a framed or protobuf encoded message from the position to the limit of the buffer. A framed message wraps
+     * the buffer, so it should not be modified afterwards.
+     */
+    public InternalMessage deserialize(ByteBuffer serializedObject) throws IOException {
+        if(FramedInternalMessageSerializer.isFramed(serializedObject)) {
+            return new FramedInternalMessage(serializedObject, actorRefDeserializer, immutableMessageClass);
+        }
+        return deserialize(Elasticactors.InternalMessage.parseFrom(serializedObject.duplicate()));
+    }
+
+    private InternalMessage deserialize(Elasticactors.InternalMessage protobufMessage) throws IOException {
         ActorRef sender = (protobufMessage.getSender() != null && !protobufMessage.getSender().isEmpty()) ? actorRefDeserializer.deserialize(protobufMessage.getSender()) : null;
         // there is either a receiver or a list of receivers
         ImmutableList<ActorRef> receivers;
@@ -80,9 +102,13 @@ public final class InternalMessageDeserializer implements Deserializer<byte[],In
         }
     }
 
+    private boolean isImmutable(String messageClassString) {
+        return isImmutableMessageClass(messageClassString) != null;
+    }
+
     private Class<?> isImmutableMessageClass(String messageClassString) {
         try {
-            Class<?> messageClass = Class.forName(messageClassString);
+            Class<?> messageClass = ClassLoadingHelper.forName(messageClassString);
             Message messageAnnotation = messageClass.getAnnotation(Message.class);
             if(messageAnnotation != null &&  messageAnnotation.immutable()) {
                 return messageClass;
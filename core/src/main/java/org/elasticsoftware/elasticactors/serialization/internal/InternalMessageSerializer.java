@@ -27,6 +27,8 @@ import org.elasticsoftware.elasticactors.serialization.protobuf.Elasticactors;
  * @author Joost van de Wijgerd
  */
 public final class InternalMessageSerializer implements Serializer<InternalMessage,byte[]> {
+    // only enable this when all the nodes in the cluster can read the framed format
+    private static final boolean framedWireFormatEnabled = Boolean.valueOf(System.getProperty("ea.internalMessage.framedWireFormat.enabled", "false"));
     private static final InternalMessageSerializer INSTANCE = new InternalMessageSerializer();
 
     public static InternalMessageSerializer get() {
@@ -35,6 +37,9 @@ public final class InternalMessageSerializer implements Serializer<InternalMessa
 
     @Override
     public byte[] serialize(InternalMessage internalMessage) {
+        if(framedWireFormatEnabled) {
+            return FramedInternalMessageSerializer.get().serialize(internalMessage);
+        }
         Elasticactors.InternalMessage.Builder builder = Elasticactors.InternalMessage.newBuilder();
         builder.setId(ByteString.copyFrom(UUIDTools.toByteArray(internalMessage.getId())));
         builder.setPayload(ByteString.copyFrom(internalMessage.getPayload()));
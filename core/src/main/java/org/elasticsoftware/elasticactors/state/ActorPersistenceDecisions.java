@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.state;
+
+import org.elasticsoftware.elasticactors.ElasticActor;
+
+/**
+ * The persistence decisions of an {@link ElasticActor} class, resolved once from its {@link PersistenceConfig} so
+ * the annotation doesn't need to be looked up (and its arrays copied) for every handled message. Actors that
+ * implement {@link PersistenceAdvisor} decide for themselves, in that case the decisions are delegated to the actor
+ * instance.
+ *
+ * @author Joost van de Wijgerd
+ */
+public final class ActorPersistenceDecisions {
+    private static final ClassValue<ActorPersistenceDecisions> decisions = new ClassValue<ActorPersistenceDecisions>() {
+        @Override
+        protected ActorPersistenceDecisions computeValue(Class<?> actorClass) {
+            return new ActorPersistenceDecisions(actorClass);
+        }
+    };
+    private final boolean advisor;
+    private final boolean persistOnMessages;
+    // the excluded classes when persistOnMessages is true, the included classes otherwise
+    private final Class<?>[] exceptions;
+    private final boolean[] persistOnLifecycleSteps;
+    private final boolean batchMessages;
+
+    private ActorPersistenceDecisions(Class<?> actorClass) {
+        this.advisor = PersistenceAdvisor.class.isAssignableFrom(actorClass);
+        final PersistenceConfig persistenceConfig = actorClass.getAnnotation(PersistenceConfig.class);
+        if (persistenceConfig != null) {
+            this.persistOnMessages = persistenceConfig.persistOnMessages();
+            this.exceptions = persistOnMessages ? persistenceConfig.excluded() : persistenceConfig.included();
+            this.batchMessages = persistenceConfig.batchMessages();
+        } else {
+            this.persistOnMessages = true;
+            this.exceptions = new Class<?>[0];
+            this.batchMessages = false;
+        }
+        final ActorLifecycleStep[] lifecycleSteps = ActorLifecycleStep.values();
+        this.persistOnLifecycleSteps = new boolean[lifecycleSteps.length];
+        for (ActorLifecycleStep lifecycleStep : lifecycleSteps) {
+            persistOnLifecycleSteps[lifecycleStep.ordinal()] = PersistenceConfigHelper.shouldUpdateState(persistenceConfig, lifecycleStep);
+        }
+    }
+
+    public static ActorPersistenceDecisions forActorClass(Class<? extends ElasticActor> actorClass) {
+        return decisions.get(actorClass);
+    }
+
+    public boolean shouldUpdateState(ElasticActor elasticActor, Object message) {
+        if (advisor) {
+            return ((PersistenceAdvisor) elasticActor).shouldUpdateState(message);
+        }
+        final Class<?> messageClass = message.getClass();
+        for (Class<?> exception : exceptions) {
+            if (exception == messageClass) {
+                return !persistOnMessages;
+            }
+        }
+        return persistOnMessages;
+    }
+
+    public boolean shouldUpdateState(ElasticActor elasticActor, ActorLifecycleStep lifecycleStep) {
+        if (advisor) {
+            return ((PersistenceAdvisor) elasticActor).shouldUpdateState(lifecycleStep);
+        }
+        return persistOnLifecycleSteps[lifecycleStep.ordinal()];
+    }
+
+    public boolean shouldBatchMessages() {
+        return batchMessages;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsoftware.elasticactors.util;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary delta between two versions of a serialized object. The delta holds the length of the common prefix
+ * and suffix of both versions and the bytes in between. This works well for the typical state update where a single
+ * field changes or an element is added to a collection.
+ *
+ * <p/>
+ * A delta also contains the length and checksum of the version it was created against and will not be applied to
+ * any other version.
+ *
+ * @author Joost van de Wijgerd
+ */
+public final class BinaryDelta {
+    private static final byte VERSION = 1;
+    // version, base length, base checksum, prefix length, suffix length
+    private static final int HEADER_SIZE = 1 + 4 * 4;
+
+    private BinaryDelta() {}
+
+    public static byte[] create(byte[] base, byte[] target) {
+        final int maxCommon = Math.min(base.length, target.length);
+        int prefix = 0;
+        while (prefix < maxCommon && base[prefix] == target[prefix]) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < maxCommon - prefix && base[base.length - 1 - suffix] == target[target.length - 1 - suffix]) {
+            suffix++;
+        }
+        final int changed = target.length - prefix - suffix;
+        ByteBuffer delta = ByteBuffer.allocate(HEADER_SIZE + changed);
+        delta.put(VERSION).putInt(base.length).putInt(checksum(base)).putInt(prefix).putInt(suffix);
+        delta.put(target, prefix, changed);
+        return delta.array();
+    }
+
+    /**
+     * @return the target version or null when the delta was not created against the given base
+     */
+    @Nullable
+    public static byte[] apply(byte[] base, byte[] delta) {
+        if (delta.length < HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(delta);
+        if (buffer.get() != VERSION || buffer.getInt() != base.length || buffer.getInt() != checksum(base)) {
+            return null;
+        }
+        final int prefix = buffer.getInt();
+        final int suffix = buffer.getInt();
+        if (prefix < 0 || suffix < 0 || prefix + suffix > base.length) {
+            return null;
+        }
+        final int changed = buffer.remaining();
+        byte[] target = new byte[prefix + changed + suffix];
+        System.arraycopy(base, 0, target, 0, prefix);
+        buffer.get(target, prefix, changed);
+        System.arraycopy(base, base.length - suffix, target, prefix + changed, suffix);
+        return target;
+    }
+
+    private static int checksum(byte[] bytes) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes, 0, bytes.length);
+        return (int) crc32.getValue();
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsoftware.elasticactors.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the result of {@link Class#forName(String)} for the class names that are sent along with every message. The
+ * message path resolves the payload class a couple of times per message and {@link Class#forName(String)} is
+ * relatively expensive. Classes that cannot be found are not cached.
+ *
+ * @author Joost van de Wijgerd
+ */
+public final class ClassLoadingHelper {
+    private static final ConcurrentMap<String, Class<?>> classCache = new ConcurrentHashMap<>();
+
+    private ClassLoadingHelper() {}
+
+    public static Class<?> forName(String className) throws ClassNotFoundException {
+        Class<?> clazz = classCache.get(className);
+        if(clazz == null) {
+            clazz = Class.forName(className);
+            classCache.putIfAbsent(className, clazz);
+        }
+        return clazz;
+    }
+}
@@ -32,7 +32,7 @@ import java.io.IOException;
  */
 public final class SerializationTools {
     public static Object deserializeMessage(InternalActorSystem actorSystem, InternalMessage internalMessage) throws Exception {
-        Class<?> messageClass = Class.forName(internalMessage.getPayloadClass());
+        Class<?> messageClass = ClassLoadingHelper.forName(internalMessage.getPayloadClass());
         MessageDeserializer<?> deserializer = actorSystem.getDeserializer(messageClass);
 
         if(deserializer != null) {
@@ -36,7 +36,7 @@ import static java.lang.String.format;
  * @param <K>   Key for a shard
  * @param <T>   The Scheduled Object that will be passed to {@link WorkExecutor#execute(Object, Object)} after the delay has expired
  */
-public final class ShardedScheduledWorkManager<K,T extends Delayed> {
+public final class ShardedScheduledWorkManager<K,T extends Delayed> implements ScheduledWorkManager<K,T> {
     private static final Logger LOGGER = LogManager.getLogger(ShardedScheduledWorkManager.class);
     public static final long MAX_AWAIT_MILLIS = 60000L;
 
@@ -59,6 +59,7 @@ public final class ShardedScheduledWorkManager<K,T extends Delayed> {
         delayQueues = new ConcurrentHashMap<>();
     }
 
+    @Override
     @PostConstruct
     public void init() {
         stop = false;
@@ -68,6 +69,7 @@ public final class ShardedScheduledWorkManager<K,T extends Delayed> {
         }
     }
 
+    @Override
     @PreDestroy
     public void destroy() {
         LOGGER.info("calling ShardedScheduledWorkManager.destroy()");
@@ -85,14 +87,17 @@ public final class ShardedScheduledWorkManager<K,T extends Delayed> {
         }
     }
 
+    @Override
     public void registerShard(K shard) {
         delayQueues.putIfAbsent(shard,new DelayQueue<T>());
     }
 
+    @Override
     public void unregisterShard(K shard) {
         delayQueues.remove(shard);
     }
 
+    @Override
     public void schedule(K shard, T... unitsOfWork) {
         final DelayQueue<T> delayQueue = this.delayQueues.get(shard);
         if(delayQueue == null) {
@@ -116,6 +121,7 @@ public final class ShardedScheduledWorkManager<K,T extends Delayed> {
         }
     }
 
+    @Override
     public void unschedule(K shard,T unitOfWork) {
         final DelayQueue<T> delayQueue = this.delayQueues.get(shard);
         if(delayQueue == null) {
@@ -125,6 +131,7 @@ public final class ShardedScheduledWorkManager<K,T extends Delayed> {
         // no need to wake up a thread as there is nothing to do..
     }
 
+    @Override
     public int getSize() {
         int totalSize = 0;
         for (DelayQueue<T> delayQueue : delayQueues.values()) {
@@ -21,7 +21,8 @@ package org.elasticsoftware.elasticactors.util.concurrent;
  *
  * <p/>
  * A thread bound executor guarantees that a runnable executed on the executor that has the same key
- * will always be executed by the same thread.
+ * will always be executed by the same thread. The work stealing implementation relaxes this to: runnables with the
+ * same key are executed serially and in order, but not necessarily on the same thread.
  *
  * @param <T> The type of the key
  * @author Joost van de Wijgerd
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.util.concurrent;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs tasks when their timeout expires, the timeouts are kept in a {@link TimingWheel} that is owned by a single
+ * (daemon) thread. Meant for large numbers of timeouts that are almost always cancelled before they expire (like
+ * request timeouts): scheduling and cancelling a timeout is O(1) and only hands it over to the timer thread.
+ *
+ * <p/>
+ * The timer thread wakes up at least every {@link #MAX_PARK_MILLIS} to remove the cancelled timeouts from the wheel,
+ * a cancelled timeout releases its task immediately.
+ *
+ * @author Joost van de Wijgerd
+ */
+public final class TimeoutWheel {
+    private static final Logger LOGGER = LogManager.getLogger(TimeoutWheel.class);
+    private static final long MAX_PARK_MILLIS = 100L;
+    private static final int WHEEL_SIZE = 512;
+    private final Worker worker;
+    private final long tickMillis;
+    private final Thread thread;
+    private volatile boolean stop;
+
+    public TimeoutWheel(String name, long tickMillis) {
+        this.tickMillis = Math.max(1L, tickMillis);
+        this.worker = new Worker(this.tickMillis);
+        this.thread = new DaemonThreadFactory(name).newThread(worker);
+        this.thread.start();
+    }
+
+    /**
+     * Runs the task on the timer thread after the delay, unless the returned {@link Timeout} is cancelled first. The
+     * task should be short, it delays the other timeouts.
+     */
+    public Timeout schedule(long delayMillis, Runnable task) {
+        // the wheel expires a whole tick at once, round up so a timeout never expires before its delay
+        final long deadline = System.currentTimeMillis() + delayMillis + tickMillis - 1;
+        final Timeout timeout = new Timeout(deadline - (deadline % tickMillis), task, this);
+        worker.schedule(timeout);
+        return timeout;
+    }
+
+    public void shutdown() {
+        stop = true;
+        LockSupport.unpark(thread);
+    }
+
+    private final class Worker extends TimingWheelWorker<Timeout> {
+        private Worker(long tickMillis) {
+            super(tickMillis, WHEEL_SIZE, MAX_PARK_MILLIS);
+        }
+
+        @Override
+        protected boolean isStopped() {
+            return stop;
+        }
+
+        @Override
+        protected boolean isCancelled(Timeout timeout) {
+            return timeout.isCancelled();
+        }
+
+        @Override
+        protected void expire(Timeout timeout) {
+            final Runnable task = timeout.task;
+            // the state change decides between running the task and a concurrent cancel
+            if (Timeout.STATE.compareAndSet(timeout, Timeout.PENDING, Timeout.EXPIRED)) {
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    LOGGER.error("Exception while running timeout task", e);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                super.run();
+            } finally {
+                LOGGER.info("Timeout thread stopped");
+            }
+        }
+    }
+
+    public static final class Timeout extends TimingWheel.Entry {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+        private final TimeoutWheel timeoutWheel;
+        private volatile Runnable task;
+        private volatile int state = PENDING;
+
+        private Timeout(long deadline, Runnable task, TimeoutWheel timeoutWheel) {
+            super(deadline);
+            this.task = task;
+            this.timeoutWheel = timeoutWheel;
+        }
+
+        /**
+         * @return true if the timeout was cancelled, false if it already expired (or was cancelled before)
+         */
+        public boolean cancel() {
+            if (STATE.compareAndSet(this, PENDING, CANCELLED)) {
+                // release the task right away, the timeout itself is removed from the wheel later
+                task = null;
+                timeoutWheel.worker.cancel(this);
+                return true;
+            }
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+    }
+}
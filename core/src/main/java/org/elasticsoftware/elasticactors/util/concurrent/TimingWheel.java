@@ -0,0 +1,191 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsoftware.elasticactors.util.concurrent;
+
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel. Every wheel has a fixed number of buckets that each cover one tick, entries that are
+ * too far in the future for the wheel are passed on to an overflow wheel that has a tick as large as the interval of
+ * the wheel below it. Adding and removing an entry is O(1), the non empty buckets of all the wheels are kept in a
+ * (small) priority queue ordered by expiration so the owner knows how long it can wait.
+ *
+ * <p/>
+ * When a bucket of an overflow wheel expires its entries are added again, which moves them to a lower level wheel
+ * until they are eventually in a bucket of the lowest wheel and expire.
+ *
+ * <p/>
+ * Not thread safe, a timing wheel should only be accessed by the thread that owns it.
+ *
+ * @author Joost van de Wijgerd
+ */
+final class TimingWheel {
+    private final long tickMillis;
+    private final int wheelSize;
+    private final long interval;
+    private final Bucket[] buckets;
+    private final PriorityQueue<Bucket> bucketQueue;
+    private long currentTime;
+    private TimingWheel overflowWheel;
+
+    TimingWheel(long tickMillis, int wheelSize, long startMillis) {
+        this(tickMillis, wheelSize, startMillis, new PriorityQueue<>(64, (first, second) -> Long.compare(first.expiration, second.expiration)));
+    }
+
+    private TimingWheel(long tickMillis, int wheelSize, long startMillis, PriorityQueue<Bucket> bucketQueue) {
+        this.tickMillis = tickMillis;
+        this.wheelSize = wheelSize;
+        this.interval = tickMillis * wheelSize;
+        this.buckets = new Bucket[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            buckets[i] = new Bucket();
+        }
+        this.bucketQueue = bucketQueue;
+        this.currentTime = startMillis - (startMillis % tickMillis);
+    }
+
+    /**
+     * @return false if the entry has already expired and should be executed now
+     */
+    boolean add(Entry entry) {
+        final long deadline = entry.deadline;
+        if (deadline < currentTime + tickMillis) {
+            return false;
+        } else if (deadline < currentTime + interval) {
+            final long virtualId = deadline / tickMillis;
+            Bucket bucket = buckets[(int) (virtualId % wheelSize)];
+            bucket.add(entry);
+            // the bucket is (re)used for a new tick, schedule it
+            if (bucket.setExpiration(virtualId * tickMillis)) {
+                bucketQueue.add(bucket);
+            }
+            return true;
+        } else {
+            if (overflowWheel == null) {
+                overflowWheel = new TimingWheel(interval, wheelSize, currentTime, bucketQueue);
+            }
+            return overflowWheel.add(entry);
+        }
+    }
+
+    void remove(Entry entry) {
+        if (entry.bucket != null) {
+            entry.bucket.remove(entry);
+        }
+    }
+
+    /**
+     * @return the expiration time of the first bucket to expire or {@link Long#MAX_VALUE} when the wheel is empty
+     */
+    long nextExpiration() {
+        Bucket bucket = bucketQueue.peek();
+        return bucket != null ? bucket.expiration : Long.MAX_VALUE;
+    }
+
+    /**
+     * Expires all the buckets up to the given time, the entries are passed to the consumer when they have expired
+     */
+    void expire(long timeMillis, Consumer<Entry> expiredEntries) {
+        Bucket bucket;
+        while ((bucket = bucketQueue.peek()) != null && bucket.expiration <= timeMillis) {
+            bucketQueue.poll();
+            advanceClock(bucket.expiration);
+            Entry entry;
+            while ((entry = bucket.poll()) != null) {
+                if (!add(entry)) {
+                    expiredEntries.accept(entry);
+                }
+            }
+            bucket.expiration = -1L;
+        }
+        // the clock can safely move up to the first bucket that has not expired yet
+        advanceClock(Math.min(timeMillis, nextExpiration()));
+    }
+
+    private void advanceClock(long timeMillis) {
+        if (timeMillis >= currentTime + tickMillis) {
+            currentTime = timeMillis - (timeMillis % tickMillis);
+            if (overflowWheel != null) {
+                overflowWheel.advanceClock(currentTime);
+            }
+        }
+    }
+
+    static class Entry {
+        private final long deadline;
+        private Bucket bucket;
+        private Entry previous;
+        private Entry next;
+
+        Entry(long deadline) {
+            this.deadline = deadline;
+        }
+
+        long getDeadline() {
+            return deadline;
+        }
+    }
+
+    /**
+     * Doubly linked list of entries
+     */
+    private static final class Bucket {
+        private final Entry root = new Entry(-1L);
+        private long expiration = -1L;
+
+        private Bucket() {
+            root.next = root;
+            root.previous = root;
+        }
+
+        private boolean setExpiration(long expiration) {
+            if (this.expiration != expiration) {
+                this.expiration = expiration;
+                return true;
+            }
+            return false;
+        }
+
+        private void add(Entry entry) {
+            Entry tail = root.previous;
+            entry.next = root;
+            entry.previous = tail;
+            entry.bucket = this;
+            tail.next = entry;
+            root.previous = entry;
+        }
+
+        private void remove(Entry entry) {
+            entry.next.previous = entry.previous;
+            entry.previous.next = entry.next;
+            entry.next = null;
+            entry.previous = null;
+            entry.bucket = null;
+        }
+
+        private Entry poll() {
+            Entry head = root.next;
+            if (head == root) {
+                return null;
+            }
+            remove(head);
+            return head;
+        }
+    }
+}
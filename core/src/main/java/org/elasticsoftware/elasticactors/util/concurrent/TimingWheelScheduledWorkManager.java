@@ -0,0 +1,231 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsoftware.elasticactors.util.concurrent;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * {@link ScheduledWorkManager} that keeps the scheduled units of work in hierarchical timing wheels instead of a
+ * {@link java.util.concurrent.DelayQueue} per shard. Scheduling and unscheduling are O(1) (instead of O(log n) and
+ * O(n)) and the workers no longer scan all the shards every time they wake up.
+ *
+ * <p/>
+ * Every shard is assigned to one of the workers, each worker owns a timing wheel that is only accessed from its own
+ * thread. Scheduled and cancelled units of work are handed over to the worker through a queue and the worker is only
+ * woken up when the new unit of work expires before the time it is currently waiting for. The timing wheel has a
+ * resolution of one millisecond.
+ *
+ * <p/>
+ * Units of work are identified by their {@link Object#equals(Object)} and {@link Object#hashCode()}, scheduling a
+ * unit of work that is equal to one that is already scheduled for the shard has no effect.
+ *
+ * @param <K>   Key for a shard
+ * @param <T>   The Scheduled Object that will be passed to {@link WorkExecutor#execute(Object, Object)} after the delay has expired
+ * @author Joost van de Wijgerd
+ */
+public final class TimingWheelScheduledWorkManager<K,T extends Delayed> implements ScheduledWorkManager<K,T> {
+    private static final Logger LOGGER = LogManager.getLogger(TimingWheelScheduledWorkManager.class);
+    public static final long MAX_AWAIT_MILLIS = 60000L;
+    private static final long TICK_MILLIS = 1L;
+    // 512ms for the first wheel, about 4 minutes for the second and 37 hours for the third
+    private static final int WHEEL_SIZE = 512;
+
+    private final ExecutorService executor;
+    private final WorkExecutorFactory<WorkExecutor<K,T>> workerFactory;
+    private final Worker[] workers;
+    private final ConcurrentMap<K,ShardTimers> shards = new ConcurrentHashMap<>();
+    private final List<Future<?>> futures = new ArrayList<>();
+    private volatile boolean stop;
+
+    @SuppressWarnings("unchecked")
+    public TimingWheelScheduledWorkManager(ExecutorService executor, WorkExecutorFactory<WorkExecutor<K,T>> workerFactory, int numberOfWorkers) {
+        this.executor = executor;
+        this.workerFactory = workerFactory;
+        this.workers = new TimingWheelScheduledWorkManager.Worker[Math.max(1, numberOfWorkers)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker();
+        }
+    }
+
+    @Override
+    @PostConstruct
+    public void init() {
+        stop = false;
+        for (Worker worker : workers) {
+            worker.workExecutor = workerFactory.create();
+            futures.add(executor.submit(worker));
+        }
+    }
+
+    @Override
+    @PreDestroy
+    public void destroy() {
+        LOGGER.info("calling TimingWheelScheduledWorkManager.destroy()");
+        stop = true;
+        for (Worker worker : workers) {
+            worker.wakeUp();
+        }
+        for (Future<?> f : futures) {
+            try {
+                f.cancel(true);
+            } catch (Exception e) {
+            }// ignore
+        }
+        shards.clear();
+    }
+
+    @Override
+    public void registerShard(K shard) {
+        shards.computeIfAbsent(shard, key -> new ShardTimers(key, workers[Math.abs(key.hashCode() % workers.length)]));
+    }
+
+    @Override
+    public void unregisterShard(K shard) {
+        ShardTimers shardTimers = shards.remove(shard);
+        if (shardTimers != null) {
+            shardTimers.registered = false;
+            for (Timer timer : shardTimers.timers.values()) {
+                shardTimers.worker.cancel(timer);
+            }
+            shardTimers.timers.clear();
+        }
+    }
+
+    @Override
+    public void schedule(K shard, T... unitsOfWork) {
+        final ShardTimers shardTimers = shards.get(shard);
+        if (shardTimers == null) {
+            throw new RejectedExecutionException(format("Shard: %s is not registered, please call registerShard first",shard.toString()));
+        }
+        for (T unitOfWork : unitsOfWork) {
+            // read the clock after the delay is computed, so we never fire before the delay has expired
+            final long delay = unitOfWork.getDelay(TimeUnit.MILLISECONDS);
+            Timer timer = new Timer(System.currentTimeMillis() + delay, shardTimers, unitOfWork);
+            if (shardTimers.timers.putIfAbsent(unitOfWork, timer) == null) {
+                shardTimers.worker.schedule(timer);
+            }
+        }
+    }
+
+    @Override
+    public void unschedule(K shard, T unitOfWork) {
+        final ShardTimers shardTimers = shards.get(shard);
+        if (shardTimers == null) {
+            throw new IllegalArgumentException(format("Shard: %s is not registered, please call registerShard first",shard.toString()));
+        }
+        Timer timer = shardTimers.timers.remove(unitOfWork);
+        if (timer != null) {
+            // no need to wake up the worker, it will remove the timer from the wheel the next time it wakes up
+            shardTimers.worker.cancel(timer);
+        }
+    }
+
+    @Override
+    public int getSize() {
+        int totalSize = 0;
+        for (ShardTimers shardTimers : shards.values()) {
+            totalSize += shardTimers.timers.size();
+        }
+        return totalSize;
+    }
+
+    private final class ShardTimers {
+        private final K shard;
+        private final Worker worker;
+        private final ConcurrentMap<T,Timer> timers = new ConcurrentHashMap<>();
+        private volatile boolean registered = true;
+
+        private ShardTimers(K shard, Worker worker) {
+            this.shard = shard;
+            this.worker = worker;
+        }
+    }
+
+    private final class Timer extends TimingWheel.Entry {
+        private final ShardTimers shardTimers;
+        private final T unitOfWork;
+        private volatile boolean cancelled = false;
+
+        private Timer(long deadline, ShardTimers shardTimers, T unitOfWork) {
+            super(deadline);
+            this.shardTimers = shardTimers;
+            this.unitOfWork = unitOfWork;
+        }
+    }
+
+    private final class Worker extends TimingWheelWorker<Timer> {
+        private WorkExecutor<K,T> workExecutor;
+
+        private Worker() {
+            super(TICK_MILLIS, WHEEL_SIZE, MAX_AWAIT_MILLIS);
+        }
+
+        @Override
+        void cancel(Timer timer) {
+            timer.cancelled = true;
+            super.cancel(timer);
+        }
+
+        @Override
+        protected boolean isStopped() {
+            return stop;
+        }
+
+        @Override
+        protected boolean isCancelled(Timer timer) {
+            return timer.cancelled;
+        }
+
+        @Override
+        public void run() {
+            try {
+                super.run();
+            } finally {
+                LOGGER.info("Worker thread stopped");
+            }
+        }
+
+        @Override
+        protected void expire(Timer timer) {
+            final ShardTimers shardTimers = timer.shardTimers;
+            // removing the timer decides between executing and a concurrent unschedule
+            if (!timer.cancelled && shardTimers.timers.remove(timer.unitOfWork, timer) && shardTimers.registered) {
+                try {
+                    workExecutor.execute(shardTimers.shard, timer.unitOfWork);
+                } catch(Throwable e) {
+                    LOGGER.error("Exception while executing work!", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.util.concurrent;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The loop of the thread that owns a {@link TimingWheel}. Other threads hand over the entries they schedule and
+ * cancel through a queue, the owning thread moves them into the wheel, expires the entries that are due and parks
+ * until the next entry expires (or at most maxParkMillis). A thread that schedules an entry only wakes up the owning
+ * thread when the entry expires before the time it is currently parked until.
+ *
+ * @param <E>   the type of the entries in the wheel
+ * @author Joost van de Wijgerd
+ */
+abstract class TimingWheelWorker<E extends TimingWheel.Entry> implements Runnable {
+    private final Queue<E> scheduled = new ConcurrentLinkedQueue<>();
+    private final Queue<E> cancelled = new ConcurrentLinkedQueue<>();
+    private final long tickMillis;
+    private final int wheelSize;
+    private final long maxParkMillis;
+    // the time the worker is parked until, 0 when it is running
+    private volatile long wakeUpTime = 0L;
+    private volatile Thread thread;
+
+    TimingWheelWorker(long tickMillis, int wheelSize, long maxParkMillis) {
+        this.tickMillis = tickMillis;
+        this.wheelSize = wheelSize;
+        this.maxParkMillis = maxParkMillis;
+    }
+
+    void schedule(E entry) {
+        scheduled.add(entry);
+        if (entry.getDeadline() < wakeUpTime) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * The entry is removed from the wheel the next time the worker wakes up, it should not expire in the meantime
+     */
+    void cancel(E entry) {
+        cancelled.add(entry);
+    }
+
+    void wakeUp() {
+        LockSupport.unpark(thread);
+    }
+
+    protected abstract boolean isStopped();
+
+    protected abstract boolean isCancelled(E entry);
+
+    /**
+     * Called on the worker thread when the deadline of the entry has passed
+     */
+    protected abstract void expire(E entry);
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void run() {
+        thread = Thread.currentThread();
+        final TimingWheel timingWheel = new TimingWheel(tickMillis, wheelSize, System.currentTimeMillis());
+        while (!isStopped()) {
+            final long now = System.currentTimeMillis();
+            E entry;
+            while ((entry = cancelled.poll()) != null) {
+                timingWheel.remove(entry);
+            }
+            timingWheel.expire(now, expired -> expire((E) expired));
+            while ((entry = scheduled.poll()) != null) {
+                if (!isCancelled(entry) && !timingWheel.add(entry)) {
+                    expire(entry);
+                }
+            }
+            final long nextWakeUpTime = Math.min(timingWheel.nextExpiration(), now + maxParkMillis);
+            // announce when we want to be woken up and check again to avoid missing a wake up
+            wakeUpTime = nextWakeUpTime;
+            if (scheduled.isEmpty() && !isStopped()) {
+                final long waitTimeMillis = nextWakeUpTime - System.currentTimeMillis();
+                if (waitTimeMillis > 0) {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(waitTimeMillis));
+                }
+            }
+            wakeUpTime = 0L;
+        }
+    }
+}
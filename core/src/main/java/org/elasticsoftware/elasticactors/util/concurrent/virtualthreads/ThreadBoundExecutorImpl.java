@@ -0,0 +1,210 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.util.concurrent.virtualthreads;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundEvent;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundEventProcessor;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundExecutor;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundRunnableEventProcessor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.lang.String.format;
+
+/**
+ * {@link ThreadBoundExecutor} that gives every key its own mailbox. A mailbox with pending events is drained by a
+ * (short lived) virtual thread, so an actor that blocks (for instance on a synchronous http call) only blocks its own
+ * mailbox instead of all the actors that hash to the same worker thread. Events with the same key are executed
+ * serially and in submission order.
+ *
+ * <p/>
+ * Virtual threads are only available on JDK 21 and higher, as we still compile against Java 8 they are looked up
+ * reflectively. On older JVMs (see {@link #isSupported()}) the mailboxes are drained by a fixed pool of
+ * numberOfThreads platform threads created with the given {@link ThreadFactory}, so a blocked actor will occupy one of
+ * these threads.
+ *
+ * <p/>
+ * Be aware that blocking inside a synchronized block pins the carrier thread of the virtual thread.
+ *
+ * @author Joost van de Wijgerd
+ */
+public final class ThreadBoundExecutorImpl implements ThreadBoundExecutor {
+    private static final Logger LOG = LogManager.getLogger(ThreadBoundExecutorImpl.class);
+    private final ThreadFactory threadFactory;
+    private final int numberOfThreads;
+    private final ThreadBoundEventProcessor<ThreadBoundEvent> eventProcessor;
+    private final int maxBatchSize;
+    private final ExecutorService executorService;
+    private final AtomicBoolean shuttingDown = new AtomicBoolean(false);
+    private final ConcurrentMap<Object, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    public ThreadBoundExecutorImpl(ThreadFactory threadFactory, int numberOfThreads) {
+        this(new ThreadBoundRunnableEventProcessor(), 1, threadFactory, numberOfThreads);
+    }
+
+    public ThreadBoundExecutorImpl(ThreadBoundEventProcessor eventProcessor, int maxBatchSize, ThreadFactory threadFactory, int numberOfThreads) {
+        this.threadFactory = threadFactory;
+        this.numberOfThreads = numberOfThreads;
+        this.eventProcessor = eventProcessor;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        ExecutorService virtualThreadExecutor = createVirtualThreadExecutor(threadFactory.toString());
+        if (virtualThreadExecutor != null) {
+            LOG.info(format("Initializing (VirtualThreads)ThreadBoundExecutor[%s]",threadFactory.toString()));
+            this.executorService = virtualThreadExecutor;
+        } else {
+            LOG.warn(format("Virtual threads are not supported by this JVM, (VirtualThreads)ThreadBoundExecutor[%s] will use %d platform threads",threadFactory.toString(),numberOfThreads));
+            this.executorService = Executors.newFixedThreadPool(numberOfThreads, threadFactory);
+        }
+    }
+
+    /**
+     * @return true if the running JVM supports virtual threads (JDK 21 and higher)
+     */
+    public static boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates an executor that starts a new virtual thread per task using the JDK 21 api. Returns null if this is not
+     * supported by the running JVM.
+     */
+    static ExecutorService createVirtualThreadExecutor(String name) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + " - ", 1L);
+            ThreadFactory virtualThreadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, virtualThreadFactory);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void execute(ThreadBoundEvent event) {
+        if (shuttingDown.get()) {
+            throw new RejectedExecutionException("The system is shutting down.");
+        }
+        final Object key = event.getKey();
+        final ScheduleHolder holder = new ScheduleHolder();
+        // the mailbox is created, appended to and (when empty) removed under the lock of the map entry, this
+        // guarantees there is only ever one mailbox per key and no events get lost when it is removed
+        mailboxes.compute(key, (k, mailbox) -> {
+            if (mailbox == null) {
+                mailbox = new Mailbox(k);
+            }
+            mailbox.events.add(event);
+            if (!mailbox.scheduled) {
+                mailbox.scheduled = true;
+                holder.mailbox = mailbox;
+            }
+            return mailbox;
+        });
+        if (holder.mailbox != null) {
+            executorService.execute(holder.mailbox);
+        }
+    }
+
+    @Override
+    public int getThreadCount() {
+        return numberOfThreads;
+    }
+
+    @Override
+    public void shutdown() {
+        LOG.info(format("shutting down the (VirtualThreads)ThreadBoundExecutor[%s]",threadFactory.toString()));
+        if (shuttingDown.compareAndSet(false, true)) {
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (!mailboxes.isEmpty() && System.nanoTime() < deadline) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            }
+            if (!mailboxes.isEmpty()) {
+                LOG.error(format("timeout while waiting for (VirtualThreads)ThreadBoundExecutor[%s] mailboxes to empty",threadFactory.toString()));
+            }
+            executorService.shutdown();
+        }
+        LOG.info(format("(VirtualThreads)ThreadBoundExecutor[%s] shut down completed",threadFactory.toString()));
+    }
+
+    private static final class ScheduleHolder {
+        private Mailbox mailbox;
+    }
+
+    private final class Mailbox implements Runnable {
+        private final Object key;
+        private final Queue<ThreadBoundEvent> events = new ConcurrentLinkedQueue<>();
+        // only accessed under the map entry lock
+        private boolean scheduled = false;
+
+        private Mailbox(Object key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            final List<ThreadBoundEvent> batch = new ArrayList<>(maxBatchSize);
+            do {
+                ThreadBoundEvent event;
+                while ((event = events.poll()) != null) {
+                    batch.add(event);
+                    if (batch.size() == maxBatchSize) {
+                        process(batch);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    process(batch);
+                }
+            } while (!release());
+        }
+
+        private void process(List<ThreadBoundEvent> batch) {
+            try {
+                eventProcessor.process(batch);
+            } catch (Throwable exception) {
+                LOG.error(format("exception on mailbox %s while executing events", key), exception);
+            } finally {
+                batch.clear();
+            }
+        }
+
+        /**
+         * @return true if the mailbox was empty and has been removed, false if new events have arrived
+         */
+        private boolean release() {
+            return mailboxes.computeIfPresent(key, (k, current) -> current.events.isEmpty() ? null : current) == null;
+        }
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.util.concurrent.workstealing;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundEvent;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundEventProcessor;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundExecutor;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundRunnableEventProcessor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.lang.String.format;
+
+/**
+ * {@link ThreadBoundExecutor} that keeps a separate queue per key and schedules these key queues on the worker
+ * threads. A key queue starts out on the worker selected by the hash of the key (just like the other
+ * implementations) but when that worker is busy an idle worker will steal the key queue and run it instead. This
+ * keeps a couple of hot keys that happen to hash to the same worker from starving all the other keys on that worker.
+ *
+ * <p/>
+ * A key queue is owned by at most one worker at any time, so events with the same key are still executed serially
+ * and in submission order. They are however no longer guaranteed to always run on the same thread.
+ *
+ * @author Joost van de Wijgerd
+ */
+public final class ThreadBoundExecutorImpl implements ThreadBoundExecutor {
+    private static final Logger LOG = LogManager.getLogger(ThreadBoundExecutorImpl.class);
+    // safety net for missed wake ups, idle workers are normally woken up when there is work to steal
+    private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    // number of batches a worker runs for the key queues it owns before handing them back
+    private static final int MAX_ROUNDS = 64;
+    private static final int SPINS = 16;
+    private final ThreadFactory threadFactory;
+    private final AtomicBoolean shuttingDown = new AtomicBoolean(false);
+    private final ConcurrentMap<Object, KeyQueue> keyQueues = new ConcurrentHashMap<>();
+    private final Worker[] workers;
+
+    public ThreadBoundExecutorImpl(ThreadFactory threadFactory, int numberOfThreads) {
+        this(new ThreadBoundRunnableEventProcessor(), 1, threadFactory, numberOfThreads);
+    }
+
+    public ThreadBoundExecutorImpl(ThreadBoundEventProcessor eventProcessor, int maxBatchSize, ThreadFactory threadFactory, int numberOfThreads) {
+        this.threadFactory = threadFactory;
+        LOG.info(format("Initializing (WorkStealing)ThreadBoundExecutor[%s]",threadFactory.toString()));
+        this.workers = new Worker[numberOfThreads];
+        for (int i = 0; i < numberOfThreads; i++) {
+            workers[i] = new Worker(i, eventProcessor, maxBatchSize);
+        }
+        for (Worker worker : workers) {
+            worker.thread = threadFactory.newThread(worker);
+            worker.thread.start();
+        }
+    }
+
+    @Override
+    public void execute(ThreadBoundEvent event) {
+        if (shuttingDown.get()) {
+            throw new RejectedExecutionException("The system is shutting down.");
+        }
+        final Object key = event.getKey();
+        final ScheduleHolder holder = new ScheduleHolder();
+        // the key queue is created, appended to and (when empty) removed under the lock of the map entry, this
+        // guarantees there is only ever one key queue per key and no events get lost when it is removed
+        keyQueues.compute(key, (k, keyQueue) -> {
+            if (keyQueue == null) {
+                keyQueue = new KeyQueue(k);
+            }
+            keyQueue.events.add(event);
+            if (!keyQueue.scheduled) {
+                keyQueue.scheduled = true;
+                holder.keyQueue = keyQueue;
+            }
+            return keyQueue;
+        });
+        if (holder.keyQueue != null) {
+            Worker home = workers[getBucket(key)];
+            home.push(holder.keyQueue);
+            if (!home.wakeUp() && home.size.get() > 1) {
+                // the home worker is busy and has a backlog, see if somebody else wants to take over
+                wakeUpIdleWorker(home);
+            }
+        }
+    }
+
+    @Override
+    public int getThreadCount() {
+        return workers.length;
+    }
+
+    private int getBucket(Object key) {
+        return Math.abs(key.hashCode()) % workers.length;
+    }
+
+    private void wakeUpIdleWorker(Worker busyWorker) {
+        for (Worker worker : workers) {
+            if (worker != busyWorker && worker.wakeUp()) {
+                return;
+            }
+        }
+    }
+
+    private KeyQueue steal(Worker thief) {
+        // take from the worker with the most scheduled key queues
+        Worker victim = null;
+        int victimSize = 0;
+        for (Worker worker : workers) {
+            if (worker != thief) {
+                int size = worker.size.get();
+                if (size > victimSize) {
+                    victim = worker;
+                    victimSize = size;
+                }
+            }
+        }
+        return victim != null ? victim.pollLast() : null;
+    }
+
+    /**
+     * Called by the owning worker after the events have been processed. Either reschedules the key queue on the
+     * current worker or removes it when there are no more events.
+     */
+    private void release(Worker worker, KeyQueue keyQueue) {
+        final ScheduleHolder holder = new ScheduleHolder();
+        keyQueues.computeIfPresent(keyQueue.key, (k, current) -> {
+            if (current.events.isEmpty()) {
+                return null;
+            } else {
+                holder.keyQueue = current;
+                return current;
+            }
+        });
+        if (holder.keyQueue != null) {
+            // still scheduled, add it to the end of the local queue to be fair to the other keys
+            worker.push(holder.keyQueue);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        LOG.info(format("shutting down the (WorkStealing)ThreadBoundExecutor[%s]",threadFactory.toString()));
+        if (shuttingDown.compareAndSet(false, true)) {
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (!keyQueues.isEmpty() && System.nanoTime() < deadline) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            }
+            if (!keyQueues.isEmpty()) {
+                LOG.error(format("timeout while waiting for (WorkStealing)ThreadBoundExecutor[%s] queues to empty",threadFactory.toString()));
+            }
+            for (Worker worker : workers) {
+                worker.running = false;
+                LockSupport.unpark(worker.thread);
+            }
+        }
+        LOG.info(format("(WorkStealing)ThreadBoundExecutor[%s] shut down completed",threadFactory.toString()));
+    }
+
+    private static final class KeyQueue {
+        private final Object key;
+        private final Queue<ThreadBoundEvent> events = new ConcurrentLinkedQueue<>();
+        // only accessed under the map entry lock
+        private boolean scheduled = false;
+
+        private KeyQueue(Object key) {
+            this.key = key;
+        }
+    }
+
+    private static final class ScheduleHolder {
+        private KeyQueue keyQueue;
+    }
+
+    private final class Worker implements Runnable {
+        private final int index;
+        private final ConcurrentLinkedDeque<KeyQueue> scheduled = new ConcurrentLinkedDeque<>();
+        // ConcurrentLinkedDeque.size() is not a constant time operation
+        private final AtomicInteger size = new AtomicInteger(0);
+        private final AtomicBoolean idle = new AtomicBoolean(false);
+        private final ThreadBoundEventProcessor<ThreadBoundEvent> eventProcessor;
+        private final int maxBatchSize;
+        private final List<ThreadBoundEvent> batch;
+        private final List<KeyQueue> owned = new ArrayList<>();
+        private volatile boolean running = true;
+        private Thread thread;
+
+        private Worker(int index, ThreadBoundEventProcessor eventProcessor, int maxBatchSize) {
+            this.index = index;
+            this.eventProcessor = eventProcessor;
+            this.maxBatchSize = Math.max(1, maxBatchSize);
+            this.batch = new ArrayList<>(this.maxBatchSize);
+        }
+
+        private void push(KeyQueue keyQueue) {
+            scheduled.addLast(keyQueue);
+            size.incrementAndGet();
+        }
+
+        private KeyQueue pollFirst() {
+            KeyQueue keyQueue = scheduled.pollFirst();
+            if (keyQueue != null) {
+                size.decrementAndGet();
+            }
+            return keyQueue;
+        }
+
+        private KeyQueue pollLast() {
+            KeyQueue keyQueue = scheduled.pollLast();
+            if (keyQueue != null) {
+                size.decrementAndGet();
+            }
+            return keyQueue;
+        }
+
+        /**
+         * @return true if this worker was idle and has been woken up
+         */
+        private boolean wakeUp() {
+            if (idle.get() && idle.compareAndSet(true, false)) {
+                LockSupport.unpark(thread);
+                return true;
+            }
+            return false;
+        }
+
+        private KeyQueue next() {
+            KeyQueue keyQueue = pollFirst();
+            return keyQueue != null ? keyQueue : steal(this);
+        }
+
+        private KeyQueue spinForNext() {
+            // parking and unparking is expensive compared to most events, so look around a couple of times first
+            for (int i = 0; i < SPINS; i++) {
+                Thread.yield();
+                KeyQueue keyQueue = next();
+                if (keyQueue != null) {
+                    return keyQueue;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    KeyQueue keyQueue = next();
+                    if (keyQueue == null) {
+                        keyQueue = spinForNext();
+                    }
+                    if (keyQueue == null) {
+                        // announce that we are idle and check again to avoid missing a wake up
+                        idle.set(true);
+                        keyQueue = next();
+                        if (keyQueue == null) {
+                            if (running) {
+                                LockSupport.parkNanos(this, MAX_IDLE_NANOS);
+                            }
+                            idle.set(false);
+                            continue;
+                        }
+                        idle.set(false);
+                    }
+                    process(keyQueue);
+                }
+            } catch(Throwable unexpectedThrowable) {
+                // we observed some cases where trying to log the inner exception threw an error
+                // don't use the logger here as that seems to be causing the problem in the first place
+                System.err.println("Caught an unexpected Throwable while logging");
+                System.err.println("This problem happens when jar files change at runtime, JVM might be UNSTABLE");
+                unexpectedThrowable.printStackTrace(System.err);
+            }
+        }
+
+        private void process(KeyQueue keyQueue) {
+            try {
+                owned.add(keyQueue);
+                drain(keyQueue);
+                // fill up the batch with events of other keys that are scheduled on this worker
+                KeyQueue next;
+                while (batch.size() < maxBatchSize && (next = pollFirst()) != null) {
+                    owned.add(next);
+                    drain(next);
+                }
+                // keep running the owned key queues for a while, this saves rescheduling them for every batch
+                for (int round = 1; ; round++) {
+                    processBatch();
+                    if (round == MAX_ROUNDS) {
+                        break;
+                    }
+                    for (int i = 0; i < owned.size() && batch.size() < maxBatchSize; i++) {
+                        drain(owned.get(i));
+                    }
+                    if (batch.isEmpty()) {
+                        break;
+                    }
+                }
+            } finally {
+                for (KeyQueue ownedQueue : owned) {
+                    release(this, ownedQueue);
+                }
+                owned.clear();
+            }
+        }
+
+        private void processBatch() {
+            try {
+                eventProcessor.process(batch);
+            } catch (Throwable exception) {
+                LOG.error(format("exception on worker %s while executing events", Thread.currentThread().getName()), exception);
+            } finally {
+                batch.clear();
+            }
+        }
+
+        private void drain(KeyQueue keyQueue) {
+            ThreadBoundEvent event;
+            while (batch.size() < maxBatchSize && (event = keyQueue.events.poll()) != null) {
+                batch.add(event);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return format("Worker[%d]", index);
+        }
+    }
+}
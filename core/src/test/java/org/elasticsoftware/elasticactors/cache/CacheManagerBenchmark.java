@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.cache;
+
+import com.google.common.cache.Cache;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link GuavaCacheManager} with the {@link CaffeineCacheManager} using the access pattern of the
+ * LocalActorShard (get with a loader) on a number of segments. Run the main method to execute it with 8 to 64
+ * threads.
+ *
+ * @author Joost van de Wijgerd
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheManagerBenchmark {
+    private static final int SEGMENTS = 64;
+    private static final int KEYS_PER_SEGMENT = 200;
+    private static final int MAXIMUM_SIZE = 10240;
+
+    @State(Scope.Benchmark)
+    public static class CacheState {
+        @Param({"guava", "caffeine"})
+        public String implementation;
+
+        private CacheManager<String, Object> cacheManager;
+        private Cache<String, Object>[] segments;
+        private String[][] keys;
+
+        @Setup
+        @SuppressWarnings("unchecked")
+        public void setUp() throws ExecutionException {
+            cacheManager = "guava".equals(implementation) ? new GuavaCacheManager<>(MAXIMUM_SIZE) : new CaffeineCacheManager<>(MAXIMUM_SIZE);
+            segments = new Cache[SEGMENTS];
+            keys = new String[SEGMENTS][KEYS_PER_SEGMENT];
+            for (int i = 0; i < SEGMENTS; i++) {
+                segments[i] = cacheManager.create("shard-" + i, value -> { });
+                for (int j = 0; j < KEYS_PER_SEGMENT; j++) {
+                    keys[i][j] = "shard-" + i + "/actor-" + j;
+                    final String key = keys[i][j];
+                    segments[i].get(key, () -> key);
+                }
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            for (Cache<String, Object> segment : segments) {
+                cacheManager.destroy(segment);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class LoaderState {
+        private String key;
+
+        private final Callable<Object> loader = () -> key;
+    }
+
+    @Benchmark
+    public Object get(CacheState cacheState, LoaderState loaderState) throws ExecutionException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int segment = random.nextInt(SEGMENTS);
+        loaderState.key = cacheState.keys[segment][random.nextInt(KEYS_PER_SEGMENT)];
+        return cacheState.segments[segment].get(loaderState.key, loaderState.loader);
+    }
+
+    @Benchmark
+    public Object getIfPresent(CacheState cacheState) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int segment = random.nextInt(SEGMENTS);
+        return cacheState.segments[segment].getIfPresent(cacheState.keys[segment][random.nextInt(KEYS_PER_SEGMENT)]);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[] {8, 16, 32, 64}) {
+            Options options = new OptionsBuilder()
+                    .include(CacheManagerBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
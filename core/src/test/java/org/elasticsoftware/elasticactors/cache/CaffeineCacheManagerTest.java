@@ -0,0 +1,158 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Joost van de Wijgerd
+ */
+public class CaffeineCacheManagerTest {
+    @Test
+    public void testSegmentsAreIsolated() throws Exception {
+        CaffeineCacheManager<String,String> cacheManager = new CaffeineCacheManager<>(100);
+        Cache<String,String> first = cacheManager.create("first", null);
+        Cache<String,String> second = cacheManager.create("second", null);
+        first.put("key", "value");
+        assertEquals(first.getIfPresent("key"), "value");
+        assertNull(second.getIfPresent("key"));
+        assertEquals(first.size(), 1);
+        assertEquals(second.size(), 0);
+        assertEquals(first.get("other", () -> "loaded"), "loaded");
+        assertEquals(first.stats().hitCount(), 1);
+        assertEquals(first.stats().loadSuccessCount(), 1);
+        cacheManager.destroy(first);
+        assertNull(first.getIfPresent("key"));
+        assertEquals(first.size(), 0);
+    }
+
+    @Test(expectedExceptions = UncheckedExecutionException.class)
+    public void testLoaderException() throws Exception {
+        CaffeineCacheManager<String,String> cacheManager = new CaffeineCacheManager<>(100);
+        Cache<String,String> cache = cacheManager.create("segment", null);
+        cache.get("key", () -> { throw new IllegalStateException("not found"); });
+    }
+
+    @Test
+    public void testEvictionListener() throws Exception {
+        final List<String> evicted = new ArrayList<>();
+        CaffeineCacheManager<String,String> cacheManager = new CaffeineCacheManager<>(10);
+        Cache<String,String> cache = cacheManager.create("segment", evicted::add);
+        for (int i = 0; i < 100; i++) {
+            cache.put("key" + i, "value" + i);
+        }
+        cache.cleanUp();
+        assertEquals(evicted.size(), 90);
+        assertEquals(cache.size(), 10);
+        assertEquals(cache.stats().evictionCount(), 90);
+        // explicit removal should not notify
+        cacheManager.destroy(cache);
+        assertEquals(evicted.size(), 90);
+    }
+
+    @Test
+    public void testWeightedEviction() throws Exception {
+        final List<String> evicted = new ArrayList<>();
+        CaffeineCacheManager<String,String> cacheManager = new CaffeineCacheManager<>(1000, String::length);
+        Cache<String,String> cache = cacheManager.create("segment", evicted::add);
+        cache.put("small", "x");
+        cache.put("large", new String(new char[995]));
+        cache.put("other", new String(new char[100]));
+        cache.cleanUp();
+        assertFalse(evicted.isEmpty());
+        assertTrue(cache.size() < 3);
+    }
+
+    @Test(timeOut = 10000)
+    public void testLoadDoesNotBlockOtherKeys() throws Exception {
+        CaffeineCacheManager<String,String> cacheManager = new CaffeineCacheManager<>(100000);
+        Cache<String,String> cache = cacheManager.create("segment", null);
+        final CountDownLatch loaderStarted = new CountDownLatch(1);
+        final CountDownLatch releaseLoader = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> slowLoad = executor.submit(() -> cache.get("slow", () -> {
+                loaderStarted.countDown();
+                releaseLoader.await();
+                return "loaded";
+            }));
+            loaderStarted.await();
+            // enough keys to resize the backing map, which would block on the bin that is being loaded
+            for (int i = 0; i < 10000; i++) {
+                cache.put("key" + i, "value" + i);
+            }
+            assertEquals(cache.get("other", () -> "other"), "other");
+            // a concurrent load of the same key waits for the first one
+            Future<String> concurrentLoad = executor.submit(() -> cache.get("slow", () -> "duplicate"));
+            releaseLoader.countDown();
+            assertEquals(slowLoad.get(), "loaded");
+            assertEquals(concurrentLoad.get(), "loaded");
+            assertEquals(cache.stats().loadSuccessCount(), 2);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConcurrentLoadIsNotCountedTwice() throws Exception {
+        CaffeineCacheManager<String,String> cacheManager = new CaffeineCacheManager<>(100);
+        Cache<String,String> cache = cacheManager.create("segment", null);
+        final CountDownLatch loaderStarted = new CountDownLatch(1);
+        final CountDownLatch releaseLoader = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executor.submit(() -> cache.get("key", () -> {
+                loaderStarted.countDown();
+                releaseLoader.await();
+                throw new IllegalStateException("not found");
+            }));
+            loaderStarted.await();
+            Future<String> second = executor.submit(() -> cache.get("key", () -> "value"));
+            // give the second thread time to find the load in flight
+            Thread.sleep(100);
+            releaseLoader.countDown();
+            assertLoadFailed(first);
+            assertLoadFailed(second);
+            assertEquals(cache.stats().loadExceptionCount(), 1);
+            assertEquals(cache.stats().loadSuccessCount(), 0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void assertLoadFailed(Future<String> future) throws InterruptedException {
+        try {
+            future.get();
+            fail("expected the load to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof UncheckedExecutionException);
+            assertTrue(e.getCause().getCause() instanceof IllegalStateException);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsoftware.elasticactors.cache;
+
+import com.google.common.cache.Cache;
+import org.elasticsoftware.elasticactors.state.PersistentActor;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Joost van de Wijgerd
+ */
+public class PersistentActorWeigherTest {
+    private static final long MAXIMUM_WEIGHT = 10000;
+    private final PersistentActorWeigher<String> weigher = new PersistentActorWeigher<>(100);
+
+    @DataProvider(name = "cacheManagers")
+    public Object[][] cacheManagers() {
+        return new Object[][] {
+                { new GuavaCacheManager<String,PersistentActor<String>>(MAXIMUM_WEIGHT, weigher) },
+                { new CaffeineCacheManager<String,PersistentActor<String>>(MAXIMUM_WEIGHT, weigher) }
+        };
+    }
+
+    @Test(dataProvider = "cacheManagers")
+    public void testLargeActorsAreEvicted(CacheManager<String,PersistentActor<String>> cacheManager) {
+        final List<PersistentActor<String>> evicted = new ArrayList<>();
+        Cache<String,PersistentActor<String>> cache = cacheManager.create("segment", evicted::add);
+        for (int i = 0; i < 10; i++) {
+            cache.put("small" + i, persistentActor(100));
+        }
+        cache.cleanUp();
+        assertTrue(evicted.isEmpty());
+        cache.put("large", persistentActor(9000));
+        cache.cleanUp();
+        assertFalse(evicted.isEmpty());
+        assertTrue(cachedWeight(cache) <= MAXIMUM_WEIGHT);
+    }
+
+    @Test(dataProvider = "cacheManagers")
+    public void testWeightIsUpdatedWhenPutAgain(CacheManager<String,PersistentActor<String>> cacheManager) {
+        final List<PersistentActor<String>> evicted = new ArrayList<>();
+        Cache<String,PersistentActor<String>> cache = cacheManager.create("segment", evicted::add);
+        List<PersistentActor<String>> actors = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            PersistentActor<String> actor = persistentActor(100);
+            assertFalse(PersistentActorWeigher.isWeightOutdated(actor));
+            cache.put("actor" + i, actor);
+            assertFalse(PersistentActorWeigher.isWeightOutdated(actor));
+            actors.add(actor);
+        }
+        // the state grows when the actors are persisted
+        for (PersistentActor<String> actor : actors) {
+            actor.setSerializedState(new byte[2000]);
+            assertTrue(PersistentActorWeigher.isWeightOutdated(actor));
+        }
+        cache.cleanUp();
+        assertTrue(evicted.isEmpty());
+        for (int i = 0; i < actors.size(); i++) {
+            cache.put("actor" + i, actors.get(i));
+        }
+        cache.cleanUp();
+        assertFalse(evicted.isEmpty());
+        assertTrue(cachedWeight(cache) <= MAXIMUM_WEIGHT);
+    }
+
+    private long cachedWeight(Cache<String,PersistentActor<String>> cache) {
+        long weight = 0;
+        for (String key : new String[] {"large", "small0", "small1", "small2", "small3", "small4", "small5", "small6", "small7", "small8", "small9",
+                                        "actor0", "actor1", "actor2", "actor3", "actor4", "actor5", "actor6", "actor7", "actor8", "actor9"}) {
+            PersistentActor<String> actor = cache.getIfPresent(key);
+            if (actor != null) {
+                weight += weigher.applyAsInt(actor);
+            }
+        }
+        return weight;
+    }
+
+    private static PersistentActor<String> persistentActor(int stateSize) {
+        return new PersistentActor<>("segment", null, "1.0", "1.0", null, null, new byte[stateSize], null, null);
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsoftware.elasticactors.cluster;
+
+import com.google.common.collect.ImmutableList;
+import org.elasticsoftware.elasticactors.ActorRef;
+import org.elasticsoftware.elasticactors.ElasticActor;
+import org.elasticsoftware.elasticactors.PhysicalNode;
+import org.elasticsoftware.elasticactors.ShardKey;
+import org.elasticsoftware.elasticactors.UntypedActor;
+import org.elasticsoftware.elasticactors.cache.CaffeineCacheManager;
+import org.elasticsoftware.elasticactors.cache.PersistentActorWeigher;
+import org.elasticsoftware.elasticactors.cache.ShardActorCacheManager;
+import org.elasticsoftware.elasticactors.cluster.tasks.ActivateActorTask;
+import org.elasticsoftware.elasticactors.cluster.tasks.CreateActorTask;
+import org.elasticsoftware.elasticactors.cluster.tasks.PersistActorTask;
+import org.elasticsoftware.elasticactors.cluster.tasks.app.HandleMessageTask;
+import org.elasticsoftware.elasticactors.messaging.InternalMessage;
+import org.elasticsoftware.elasticactors.messaging.MessageHandlerEventListener;
+import org.elasticsoftware.elasticactors.messaging.MessageQueue;
+import org.elasticsoftware.elasticactors.messaging.MessageQueueFactory;
+import org.elasticsoftware.elasticactors.messaging.internal.CreateActorMessage;
+import org.elasticsoftware.elasticactors.messaging.internal.DestroyActorMessage;
+import org.elasticsoftware.elasticactors.messaging.internal.PersistActorMessage;
+import org.elasticsoftware.elasticactors.serialization.MessageDeserializer;
+import org.elasticsoftware.elasticactors.state.ActorStateUpdateProcessor;
+import org.elasticsoftware.elasticactors.state.PersistentActor;
+import org.elasticsoftware.elasticactors.state.PersistentActorRepository;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundExecutor;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundRunnable;
+import org.mockito.ArgumentCaptor;
+import org.springframework.core.env.Environment;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.assertEquals;
+
+/**
+ * @author Joost van de Wijgerd
+ */
+public class LocalActorShardTest {
+    private InternalActorSystem actorSystem;
+    private ThreadBoundExecutor actorExecutor;
+    private PersistentActorRepository persistentActorRepository;
+    private ActorRef actorRef;
+    private ActorRef shardRef;
+    private List<Runnable> activations;
+    private List<InternalMessage> queuedMessages;
+    private LocalActorShard actorShard;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        actorSystem = mock(InternalActorSystem.class);
+        actorExecutor = mock(ThreadBoundExecutor.class);
+        persistentActorRepository = mock(PersistentActorRepository.class);
+        actorRef = mock(ActorRef.class);
+        shardRef = mock(ActorRef.class);
+        when(actorSystem.getName()).thenReturn("test");
+        when(actorSystem.actorFor("actor")).thenReturn(actorRef);
+        when(actorSystem.getActorInstance(eq(actorRef), any(Class.class))).thenReturn(mock(ElasticActor.class));
+        when(actorRef.getActorId()).thenReturn("actor");
+        when(shardRef.getActorPath()).thenReturn("test/shards/0");
+        // the messages the shard sends to itself are handled by the test, as if on the shard thread
+        queuedMessages = new ArrayList<>();
+        MessageQueue messageQueue = mock(MessageQueue.class);
+        doAnswer(invocation -> queuedMessages.add((InternalMessage) invocation.getArguments()[0]))
+                .when(messageQueue).offer(any(InternalMessage.class));
+        MessageQueueFactory messageQueueFactory = mock(MessageQueueFactory.class);
+        when(messageQueueFactory.create(anyString(), any(LocalActorShard.class))).thenReturn(messageQueue);
+        Environment environment = mock(Environment.class);
+        when(environment.getProperty("ea.actorShard.asyncActivation", Boolean.class, Boolean.FALSE)).thenReturn(Boolean.TRUE);
+        // the activations are run by the test, to control when the load completes
+        activations = new ArrayList<>();
+        ExecutorService actorActivationExecutor = mock(ExecutorService.class);
+        doAnswer(invocation -> activations.add((Runnable) invocation.getArguments()[0]))
+                .when(actorActivationExecutor).execute(any(Runnable.class));
+
+        actorShard = new LocalActorShard(mock(PhysicalNode.class), actorSystem, 0, shardRef, messageQueueFactory, new ShardActorCacheManager(new CaffeineCacheManager<>(1000000, new PersistentActorWeigher<>(1024))));
+        actorShard.setEnvironment(environment);
+        actorShard.setActorExecutor(actorExecutor);
+        actorShard.setActorActivationExecutor(actorActivationExecutor);
+        actorShard.setPersistentActorRepository(persistentActorRepository);
+        actorShard.setActorStateUpdateProcessor(mock(ActorStateUpdateProcessor.class));
+        actorShard.init();
+    }
+
+    @Test(timeOut = 5000)
+    public void testPersistIsHandledAfterPendingActivation() throws Exception {
+        when(persistentActorRepository.get(any(ShardKey.class), eq("actor"))).thenReturn(persistentActor());
+        MessageHandlerEventListener listener = mock(MessageHandlerEventListener.class);
+
+        actorShard.handleMessage(actorMessage(), listener);
+        // the shard thread should not wait for the load to complete
+        actorShard.handleMessage(shardMessage(new PersistActorMessage(actorRef)), listener);
+        assertEquals(activations.size(), 1);
+        verify(persistentActorRepository, never()).get(any(ShardKey.class), anyString());
+        verify(actorExecutor, never()).execute(any(ThreadBoundRunnable.class));
+
+        completeActivation();
+
+        assertEquals(executedTasks(3), ImmutableList.of(ActivateActorTask.class, HandleMessageTask.class, PersistActorTask.class));
+        // the actor is in the cache now, so the next persist is handled directly
+        actorShard.handleMessage(shardMessage(new PersistActorMessage(actorRef)), listener);
+        assertEquals(activations.size(), 1);
+        assertEquals(executedTasks(4).get(3), PersistActorTask.class);
+        verify(persistentActorRepository, times(1)).get(any(ShardKey.class), eq("actor"));
+    }
+
+    @Test(timeOut = 5000)
+    public void testDestroyOfMissingActorAfterPendingActivation() throws Exception {
+        MessageHandlerEventListener listener = mock(MessageHandlerEventListener.class);
+        InternalMessage actorMessage = actorMessage();
+        InternalMessage destroyMessage = shardMessage(new DestroyActorMessage(actorRef));
+
+        actorShard.handleMessage(actorMessage, listener);
+        actorShard.handleMessage(destroyMessage, listener);
+        verify(listener, never()).onDone(any(InternalMessage.class));
+
+        completeActivation();
+
+        // the message is undeliverable and the destroy is acked since there is no actor
+        verify(listener).onDone(actorMessage);
+        verify(listener).onDone(destroyMessage);
+        verify(persistentActorRepository).contains(any(ShardKey.class), eq("actor"));
+        verify(actorExecutor, never()).execute(any(ThreadBoundRunnable.class));
+    }
+
+    @Test(timeOut = 5000)
+    public void testCreateDuringPendingActivation() throws Exception {
+        MessageHandlerEventListener listener = mock(MessageHandlerEventListener.class);
+        InternalMessage firstMessage = actorMessage();
+        InternalMessage secondMessage = actorMessage();
+
+        actorShard.handleMessage(firstMessage, listener);
+        actorShard.handleMessage(shardMessage(new CreateActorMessage("test", TestActor.class.getName(), "actor", null)), listener);
+        actorShard.handleMessage(secondMessage, listener);
+
+        completeActivation();
+
+        // the first message was not deliverable yet, the second one goes to the created actor
+        verify(listener).onDone(firstMessage);
+        assertEquals(executedTasks(2), ImmutableList.of(CreateActorTask.class, HandleMessageTask.class));
+        assertEquals(activations.size(), 1);
+    }
+
+    @Test
+    public void testWeightIsUpdatedWhenStateSizeChanged() throws Exception {
+        PersistentActor<ShardKey> persistentActor = persistentActor();
+        when(persistentActorRepository.get(any(ShardKey.class), eq("actor"))).thenReturn(persistentActor);
+        MessageHandlerEventListener listener = mock(MessageHandlerEventListener.class);
+
+        actorShard.handleMessage(actorMessage(), listener);
+        completeActivation();
+        assertEquals(persistentActor.getWeighedStateSize(), 0);
+        // the actor was persisted after handling the message
+        persistentActor.setSerializedState(new byte[4096]);
+
+        actorShard.handleMessage(actorMessage(), listener);
+        assertEquals(persistentActor.getWeighedStateSize(), 4096);
+    }
+
+    private void completeActivation() {
+        activations.get(0).run();
+        // the parked messages are not handled on the activation thread
+        verify(actorExecutor, never()).execute(any(ThreadBoundRunnable.class));
+        verify(persistentActorRepository, never()).contains(any(ShardKey.class), anyString());
+        assertEquals(queuedMessages.size(), 1);
+        actorShard.handleMessage(queuedMessages.remove(0), mock(MessageHandlerEventListener.class));
+    }
+
+    private List<Class<?>> executedTasks(int count) {
+        ArgumentCaptor<ThreadBoundRunnable> captor = ArgumentCaptor.forClass(ThreadBoundRunnable.class);
+        verify(actorExecutor, times(count)).execute(captor.capture());
+        List<Class<?>> taskClasses = new ArrayList<>();
+        for (ThreadBoundRunnable task : captor.getAllValues()) {
+            taskClasses.add(task.getClass());
+        }
+        return taskClasses;
+    }
+
+    private PersistentActor<ShardKey> persistentActor() {
+        return new PersistentActor<>(new ShardKey("test", 0), actorSystem, "1.0", actorRef, TestActor.class, null);
+    }
+
+    private InternalMessage actorMessage() {
+        InternalMessage internalMessage = mock(InternalMessage.class);
+        when(internalMessage.getReceivers()).thenReturn(ImmutableList.of(actorRef));
+        when(internalMessage.getPayloadClass()).thenReturn(String.class.getName());
+        return internalMessage;
+    }
+
+    private InternalMessage shardMessage(Object message) throws Exception {
+        MessageDeserializer deserializer = mock(MessageDeserializer.class);
+        when(actorSystem.getDeserializer(message.getClass())).thenReturn(deserializer);
+        InternalMessage internalMessage = mock(InternalMessage.class);
+        when(internalMessage.getReceivers()).thenReturn(ImmutableList.of(shardRef));
+        when(internalMessage.getPayloadClass()).thenReturn(message.getClass().getName());
+        doReturn(message).when(internalMessage).getPayload(deserializer);
+        return internalMessage;
+    }
+
+    public static final class TestActor extends UntypedActor {
+        @Override
+        public void onReceive(ActorRef sender, Object message) throws Exception {
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.cluster.scheduler;
+
+import org.elasticsoftware.elasticactors.ActorContainerRef;
+import org.elasticsoftware.elasticactors.ActorRef;
+import org.elasticsoftware.elasticactors.ActorShard;
+import org.elasticsoftware.elasticactors.PhysicalNode;
+import org.elasticsoftware.elasticactors.ShardKey;
+import org.elasticsoftware.elasticactors.cluster.InternalActorSystem;
+import org.elasticsoftware.elasticactors.cluster.InternalActorSystems;
+import org.elasticsoftware.elasticactors.messaging.InternalMessage;
+import org.elasticsoftware.elasticactors.messaging.MessageHandlerEventListener;
+import org.elasticsoftware.elasticactors.serialization.MessageDeserializer;
+import org.elasticsoftware.elasticactors.serialization.MessageSerializer;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.singletonList;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Joost van de Wijgerd
+ */
+public class ShardedSchedulerTest {
+    private static final long LOAD_WINDOW_MILLIS = 1000L;
+    private final ShardKey shardKey = new ShardKey("test", 0);
+    private ScheduledMessageRepository repository;
+    private ActorRef sender;
+    private ActorRef receiver;
+    private ShardedScheduler scheduler;
+
+    @BeforeMethod
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        repository = mock(ScheduledMessageRepository.class);
+        when(repository.getRange(eq(shardKey), anyLong(), anyLong(), anyInt())).thenReturn(Collections.emptyList());
+        receiver = mock(ActorRef.class);
+        ActorShard actorShard = mock(ActorShard.class);
+        PhysicalNode node = mock(PhysicalNode.class);
+        when(node.isLocal()).thenReturn(true);
+        when(actorShard.getOwningNode()).thenReturn(node);
+        when(actorShard.getKey()).thenReturn(shardKey);
+        sender = mock(ActorRef.class, withSettings().extraInterfaces(ActorContainerRef.class));
+        when(((ActorContainerRef) sender).getActorContainer()).thenReturn(actorShard);
+        InternalActorSystem actorSystem = mock(InternalActorSystem.class);
+        InternalActorSystems parent = mock(InternalActorSystems.class);
+        when(parent.getClusterName()).thenReturn("cluster");
+        when(actorSystem.getParent()).thenReturn(parent);
+        MessageSerializer serializer = mock(MessageSerializer.class);
+        when(serializer.serialize(any())).thenAnswer(invocation -> ByteBuffer.wrap(((String) invocation.getArguments()[0]).getBytes()));
+        when(actorSystem.getSerializer(String.class)).thenReturn(serializer);
+        MessageDeserializer deserializer = mock(MessageDeserializer.class);
+        when(deserializer.deserialize(any(ByteBuffer.class))).thenAnswer(invocation -> {
+            ByteBuffer buffer = (ByteBuffer) invocation.getArguments()[0];
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return new String(bytes);
+        });
+        when(actorSystem.getDeserializer(String.class)).thenReturn(deserializer);
+        scheduler = new ShardedScheduler(false, LOAD_WINDOW_MILLIS, 100);
+        scheduler.setScheduledMessageRepository(repository);
+        scheduler.setActorSystem(actorSystem);
+        scheduler.init();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        scheduler.destroy();
+    }
+
+    @Test
+    public void testOnlyTheFirstWindowIsLoaded() throws Exception {
+        final long now = System.currentTimeMillis();
+        when(repository.getRange(eq(shardKey), eq(0L), anyLong(), eq(100))).thenReturn(singletonList(scheduledMessage(now + 50, "first")));
+
+        scheduler.registerShard(shardKey);
+
+        ArgumentCaptor<Long> end = ArgumentCaptor.forClass(Long.class);
+        verify(repository).getRange(eq(shardKey), eq(0L), end.capture(), eq(100));
+        assertTrue(end.getValue() >= now + LOAD_WINDOW_MILLIS);
+        verify(repository, never()).getAll(shardKey);
+        verify(receiver, timeout(1000)).tell("first", sender);
+    }
+
+    @Test
+    public void testNextWindowIsPrefetched() throws Exception {
+        scheduler.registerShard(shardKey);
+        ArgumentCaptor<Long> end = ArgumentCaptor.forClass(Long.class);
+        verify(repository).getRange(eq(shardKey), eq(0L), end.capture(), eq(100));
+        final long firstWindowEnd = end.getValue();
+        when(repository.getRange(shardKey, firstWindowEnd, firstWindowEnd + LOAD_WINDOW_MILLIS, 100))
+                .thenReturn(singletonList(scheduledMessage(firstWindowEnd + 10, "second")));
+
+        // the next window is loaded halfway through the current one
+        verify(repository, timeout(2000)).getRange(shardKey, firstWindowEnd, firstWindowEnd + LOAD_WINDOW_MILLIS, 100);
+        verify(receiver, timeout(2000)).tell("second", sender);
+    }
+
+    @Test(timeOut = 10000)
+    public void testScheduleIsNotBlockedByPrefetch() throws Exception {
+        scheduler.registerShard(shardKey);
+        ArgumentCaptor<Long> end = ArgumentCaptor.forClass(Long.class);
+        verify(repository).getRange(eq(shardKey), eq(0L), end.capture(), eq(100));
+        final long firstWindowEnd = end.getValue();
+        final CountDownLatch prefetchStarted = new CountDownLatch(1);
+        final CountDownLatch releasePrefetch = new CountDownLatch(1);
+        when(repository.getRange(shardKey, firstWindowEnd, firstWindowEnd + LOAD_WINDOW_MILLIS, 100)).thenAnswer(invocation -> {
+            prefetchStarted.countDown();
+            releasePrefetch.await();
+            // the page was read before the message below was written
+            return Collections.emptyList();
+        });
+        // complete the writes right away
+        doAnswer(invocation -> {
+            ((MessageHandlerEventListener) invocation.getArguments()[3]).onDone(null);
+            return null;
+        }).when(repository).createAsync(eq(shardKey), any(ScheduledMessage.class), any(InternalMessage.class), any(MessageHandlerEventListener.class));
+
+        prefetchStarted.await();
+        // the read of the next window should not block the scheduling of new messages
+        scheduler.scheduleOnce(sender, "created", receiver, firstWindowEnd + 100 - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        verify(repository).createAsync(eq(shardKey), any(ScheduledMessage.class), any(InternalMessage.class), any(MessageHandlerEventListener.class));
+        releasePrefetch.countDown();
+
+        verify(receiver, timeout(3000)).tell("created", sender);
+    }
+
+    @Test
+    public void testCancelledMessageIsNotLoadedAgainBeforeItIsDeleted() throws Exception {
+        scheduler.registerShard(shardKey);
+        ArgumentCaptor<Long> end = ArgumentCaptor.forClass(Long.class);
+        verify(repository).getRange(eq(shardKey), eq(0L), end.capture(), eq(100));
+        final long firstWindowEnd = end.getValue();
+        ScheduledMessage cancelled = scheduledMessage(firstWindowEnd + 10, "cancelled");
+        ScheduledMessage deleted = scheduledMessage(firstWindowEnd + 20, "deleted");
+        // the deletes have not been written when the next window is read
+        when(repository.getRange(shardKey, firstWindowEnd, firstWindowEnd + LOAD_WINDOW_MILLIS, 100))
+                .thenReturn(Arrays.asList(cancelled, deleted, scheduledMessage(firstWindowEnd + 30, "next")));
+        ArgumentCaptor<MessageHandlerEventListener> deleteListener = ArgumentCaptor.forClass(MessageHandlerEventListener.class);
+
+        // cancelled outside of a load
+        scheduler.cancel(shardKey, cancelled.getKey());
+        scheduler.cancel(shardKey, deleted.getKey());
+        verify(repository).deleteAsync(eq(shardKey), eq(cancelled.getKey()), deleteListener.capture());
+        verify(repository).deleteAsync(eq(shardKey), eq(deleted.getKey()), deleteListener.capture());
+        deleteListener.getValue().onDone(null);
+
+        verify(receiver, timeout(3000)).tell("next", sender);
+        verify(receiver, never()).tell("cancelled", sender);
+        // a completed delete is no longer filtered (normally the repository doesn't return it anymore)
+        verify(receiver).tell("deleted", sender);
+    }
+
+    private ScheduledMessage scheduledMessage(long fireTime, String message) {
+        return new ScheduledMessageImpl(fireTime, sender, receiver, String.class, message.getBytes());
+    }
+}
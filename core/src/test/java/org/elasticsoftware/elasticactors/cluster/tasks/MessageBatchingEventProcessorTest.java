@@ -0,0 +1,163 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.cluster.tasks;
+
+import org.elasticsoftware.elasticactors.ActorRef;
+import org.elasticsoftware.elasticactors.ActorState;
+import org.elasticsoftware.elasticactors.ElasticActor;
+import org.elasticsoftware.elasticactors.ShardKey;
+import org.elasticsoftware.elasticactors.UntypedActor;
+import org.elasticsoftware.elasticactors.cluster.InternalActorSystem;
+import org.elasticsoftware.elasticactors.cluster.InternalActorSystems;
+import org.elasticsoftware.elasticactors.cluster.tasks.app.HandleMessageTask;
+import org.elasticsoftware.elasticactors.messaging.InternalMessage;
+import org.elasticsoftware.elasticactors.messaging.InternalMessageImpl;
+import org.elasticsoftware.elasticactors.messaging.MessageHandlerEventListener;
+import org.elasticsoftware.elasticactors.serialization.MessageDeserializer;
+import org.elasticsoftware.elasticactors.serialization.SerializationFramework;
+import org.elasticsoftware.elasticactors.serialization.Serializer;
+import org.elasticsoftware.elasticactors.state.ActorLifecycleStep;
+import org.elasticsoftware.elasticactors.state.ActorStateUpdateProcessor;
+import org.elasticsoftware.elasticactors.state.PersistenceConfig;
+import org.elasticsoftware.elasticactors.state.PersistentActor;
+import org.elasticsoftware.elasticactors.state.PersistentActorRepository;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundRunnable;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.assertEquals;
+
+/**
+ * @author Joost van de Wijgerd
+ */
+public class MessageBatchingEventProcessorTest {
+    private final List<String> received = new ArrayList<>();
+    private InternalActorSystem actorSystem;
+    private PersistentActorRepository repository;
+    private ActorStateUpdateProcessor actorStateUpdateProcessor;
+    private MessageHandlerEventListener listener;
+
+    @BeforeMethod
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        received.clear();
+        final Serializer<ActorState, byte[]> stateSerializer = state -> new byte[] { 1 };
+        final SerializationFramework serializationFramework = mock(SerializationFramework.class);
+        when(serializationFramework.getActorStateSerializer(any(ActorState.class))).thenReturn(stateSerializer);
+        final InternalActorSystems parent = mock(InternalActorSystems.class);
+        when(parent.getSerializationFramework(SerializationFramework.class)).thenReturn(serializationFramework);
+        final MessageDeserializer<String> deserializer = mock(MessageDeserializer.class);
+        when(deserializer.deserialize(any(ByteBuffer.class))).thenAnswer(invocation -> {
+            ByteBuffer serializedObject = (ByteBuffer) invocation.getArguments()[0];
+            byte[] bytes = new byte[serializedObject.remaining()];
+            serializedObject.get(bytes);
+            return new String(bytes);
+        });
+        actorSystem = mock(InternalActorSystem.class);
+        when(actorSystem.getDeserializer(String.class)).thenReturn(deserializer);
+        when(actorSystem.getParent()).thenReturn(parent);
+        repository = mock(PersistentActorRepository.class);
+        // complete the write right away
+        doAnswer(invocation -> {
+            ((MessageHandlerEventListener) invocation.getArguments()[3]).onDone((InternalMessage) invocation.getArguments()[2]);
+            return null;
+        }).when(repository).updateAsync(any(ShardKey.class), any(PersistentActor.class), any(InternalMessage.class), any(MessageHandlerEventListener.class));
+        actorStateUpdateProcessor = mock(ActorStateUpdateProcessor.class);
+        listener = mock(MessageHandlerEventListener.class);
+    }
+
+    @Test
+    public void testTasksForBatchingActorAreCombined() throws Exception {
+        PersistentActor<ShardKey> batching = persistentActor("batching", BatchingActor.class);
+        PersistentActor<ShardKey> regular = persistentActor("regular", RegularActor.class);
+        ElasticActor batchingActor = new BatchingActor();
+        ElasticActor regularActor = new RegularActor();
+        List<ThreadBoundRunnable> tasks = asList(
+                task(batchingActor, batching, "b1"),
+                task(regularActor, regular, "r1"),
+                task(batchingActor, batching, "b2"),
+                task(regularActor, regular, "r2"),
+                task(batchingActor, batching, "b3"));
+
+        new MessageBatchingEventProcessor().process(tasks);
+
+        assertEquals(received, asList("b1", "b2", "b3", "r1", "r2"));
+        // once for the batch and once for each of the regular messages
+        verify(repository, times(1)).updateAsync(any(ShardKey.class), eq(batching), any(InternalMessage.class), any(MessageHandlerEventListener.class));
+        verify(repository, times(2)).updateAsync(any(ShardKey.class), eq(regular), any(InternalMessage.class), any(MessageHandlerEventListener.class));
+        verify(listener, times(5)).onDone(any(InternalMessage.class));
+        verify(listener, never()).onError(any(InternalMessage.class), any(Throwable.class));
+        // every message that updated the state is reported, not only the last one of the batch
+        verify(actorStateUpdateProcessor, times(3)).process(isNull(ActorLifecycleStep.class), eq(String.class), eq(batching));
+        verify(actorStateUpdateProcessor, times(2)).process(isNull(ActorLifecycleStep.class), eq(String.class), eq(regular));
+    }
+
+    @Test
+    public void testRegularActorIsNotBatched() throws Exception {
+        PersistentActor<ShardKey> regular = persistentActor("regular", RegularActor.class);
+        ElasticActor regularActor = new RegularActor();
+        List<ThreadBoundRunnable> tasks = asList(
+                task(regularActor, regular, "r1"),
+                task(regularActor, regular, "r2"));
+
+        new MessageBatchingEventProcessor().process(tasks);
+
+        assertEquals(received, asList("r1", "r2"));
+        verify(repository, times(2)).updateAsync(any(ShardKey.class), eq(regular), any(InternalMessage.class), any(MessageHandlerEventListener.class));
+        verify(listener, times(2)).onDone(any(InternalMessage.class));
+        verify(actorStateUpdateProcessor, times(2)).process(isNull(ActorLifecycleStep.class), eq(String.class), eq(regular));
+    }
+
+    private PersistentActor<ShardKey> persistentActor(String actorId, Class<? extends ElasticActor> actorClass) {
+        ActorRef ref = mock(ActorRef.class);
+        when(ref.getActorId()).thenReturn(actorId);
+        ActorState state = mock(ActorState.class);
+        doReturn(SerializationFramework.class).when(state).getSerializationFramework();
+        return new PersistentActor<>(new ShardKey("test", 0), actorSystem, "1", ref, actorClass, state);
+    }
+
+    private HandleMessageTask task(ElasticActor actor, PersistentActor<ShardKey> persistentActor, String message) {
+        InternalMessage internalMessage = new InternalMessageImpl(null, persistentActor.getSelf(),
+                ByteBuffer.wrap(message.getBytes()), String.class.getName(), false);
+        return new HandleMessageTask(actorSystem, actor, persistentActor.getSelf(), internalMessage, persistentActor,
+                repository, actorStateUpdateProcessor, listener);
+    }
+
+    @PersistenceConfig(batchMessages = true)
+    public final class BatchingActor extends UntypedActor {
+        @Override
+        public void onReceive(ActorRef sender, Object message) {
+            received.add((String) message);
+        }
+    }
+
+    public final class RegularActor extends UntypedActor {
+        @Override
+        public void onReceive(ActorRef sender, Object message) {
+            received.add((String) message);
+        }
+    }
+}
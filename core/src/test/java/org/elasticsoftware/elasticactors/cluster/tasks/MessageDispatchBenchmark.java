@@ -0,0 +1,153 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.cluster.tasks;
+
+import org.elasticsoftware.elasticactors.ActorRef;
+import org.elasticsoftware.elasticactors.UntypedActor;
+import org.elasticsoftware.elasticactors.cluster.InternalActorSystem;
+import org.elasticsoftware.elasticactors.cluster.tasks.app.HandleMessageTask;
+import org.elasticsoftware.elasticactors.messaging.InternalMessage;
+import org.elasticsoftware.elasticactors.messaging.InternalMessageImpl;
+import org.elasticsoftware.elasticactors.messaging.MessageHandlerEventListener;
+import org.elasticsoftware.elasticactors.serialization.MessageDeserializer;
+import org.elasticsoftware.elasticactors.state.PersistenceConfig;
+import org.elasticsoftware.elasticactors.state.PersistentActor;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Measures the dispatch of a message to an actor (creating and running the {@link HandleMessageTask}) without the
+ * cost of the actual payload. The deserializer returns a preallocated message so the allocations that are reported
+ * by the gc profiler (gc.alloc.rate.norm, in bytes per message) are the overhead of the message path itself, plus the
+ * (constant) cost of the calls on the mocked actor system. The mock records its invocations, so they are cleared
+ * after every batch of {@link #BATCH_SIZE} messages. Run the main method to get the gc profiler output.
+ *
+ * @author Joost van de Wijgerd
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@org.openjdk.jmh.annotations.Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageDispatchBenchmark {
+    private static final int BATCH_SIZE = 1000;
+
+    // null disables the measurement of the task timings
+    @Param({"", "1000"})
+    public String serializationWarnThreshold;
+
+    private InternalActorSystem actorSystem;
+    private MessageDeserializer<BenchmarkMessage> deserializer;
+    private BenchmarkActor receiver;
+    private PersistentActor persistentActor;
+    private InternalMessage internalMessage;
+    private BenchmarkMessage message;
+    private Long warnThreshold;
+    private final MessageHandlerEventListener listener = new MessageHandlerEventListener() {
+        @Override
+        public void onError(InternalMessage message, Throwable exception) {
+        }
+
+        @Override
+        public void onDone(InternalMessage message) {
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        message = new BenchmarkMessage();
+        deserializer = new MessageDeserializer<BenchmarkMessage>() {
+            @Override
+            public BenchmarkMessage deserialize(ByteBuffer serializedObject) {
+                return message;
+            }
+
+            @Override
+            public Class<BenchmarkMessage> getMessageClass() {
+                return BenchmarkMessage.class;
+            }
+        };
+        actorSystem = mock(InternalActorSystem.class);
+        stubActorSystem();
+        receiver = new BenchmarkActor();
+        persistentActor = new PersistentActor<>(null, actorSystem, null, null, BenchmarkActor.class, null);
+        internalMessage = new InternalMessageImpl(null, mock(ActorRef.class), ByteBuffer.allocate(0), BenchmarkMessage.class.getName(), false);
+        warnThreshold = serializationWarnThreshold.isEmpty() ? null : Long.valueOf(serializationWarnThreshold);
+    }
+
+    @TearDown(Level.Invocation)
+    public void clearInvocations() {
+        reset(actorSystem);
+        stubActorSystem();
+    }
+
+    // only the methods used on the message path are stubbed
+    private void stubActorSystem() {
+        doReturn(deserializer).when(actorSystem).getDeserializer(BenchmarkMessage.class);
+        when(actorSystem.getName()).thenReturn("benchmark");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public Object dispatch() {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            HandleMessageTask task = new HandleMessageTask(actorSystem, receiver, null, internalMessage, persistentActor,
+                    null, null, listener, warnThreshold);
+            task.run();
+        }
+        return receiver.lastMessage;
+    }
+
+    @Benchmark
+    public boolean shouldUpdateState() {
+        return ActorLifecycleTask.shouldUpdateState(receiver, message);
+    }
+
+    public static final class BenchmarkMessage {
+    }
+
+    public static final class ExcludedMessage {
+    }
+
+    @PersistenceConfig(excluded = ExcludedMessage.class)
+    public static final class BenchmarkActor extends UntypedActor {
+        private Object lastMessage;
+
+        @Override
+        public void onReceive(ActorRef sender, Object message) {
+            lastMessage = message;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(MessageDispatchBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
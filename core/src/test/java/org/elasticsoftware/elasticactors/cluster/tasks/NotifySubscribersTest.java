@@ -0,0 +1,152 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.cluster.tasks;
+
+import org.elasticsoftware.elasticactors.ActorRef;
+import org.elasticsoftware.elasticactors.ActorShard;
+import org.elasticsoftware.elasticactors.ShardKey;
+import org.elasticsoftware.elasticactors.UntypedActor;
+import org.elasticsoftware.elasticactors.cluster.ActorShardRef;
+import org.elasticsoftware.elasticactors.cluster.InternalActorSystem;
+import org.elasticsoftware.elasticactors.cluster.tasks.app.HandleMessageTask;
+import org.elasticsoftware.elasticactors.messaging.InternalMessage;
+import org.elasticsoftware.elasticactors.messaging.InternalMessageImpl;
+import org.elasticsoftware.elasticactors.messaging.MessageHandlerEventListener;
+import org.elasticsoftware.elasticactors.messaging.reactivestreams.NextMessage;
+import org.elasticsoftware.elasticactors.serialization.MessageDeserializer;
+import org.elasticsoftware.elasticactors.state.MessageSubscriber;
+import org.elasticsoftware.elasticactors.state.PersistentActor;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Joost van de Wijgerd
+ */
+public class NotifySubscribersTest {
+    private final Map<ShardKey, List<List<ActorRef>>> sent = new HashMap<>();
+
+    @Test
+    public void testSubscribersAreGroupedPerShard() throws Exception {
+        InternalActorSystem actorSystem = actorSystem();
+        ActorShard shard0 = shard(new ShardKey("test", 0));
+        ActorShard shard1 = shard(new ShardKey("test", 1));
+        ActorRef publisherRef = new ActorShardRef("test", shard0, "publisher", actorSystem);
+        PersistentActor<ShardKey> persistentActor = new PersistentActor<>(shard0.getKey(), actorSystem, null, publisherRef,
+                PublisherActor.class, null);
+        ActorRef a = subscribe(persistentActor, actorSystem, shard0, "a", Long.MAX_VALUE);
+        ActorRef b = subscribe(persistentActor, actorSystem, shard0, "b", 1);
+        ActorRef c = subscribe(persistentActor, actorSystem, shard1, "c", 2);
+        subscribe(persistentActor, actorSystem, shard1, "d", 0);
+
+        publish(actorSystem, persistentActor, publisherRef);
+
+        // one message per shard, subscribers without leases don't get the message
+        assertEquals(sent.size(), 2);
+        assertEquals(sent.get(shard0.getKey()).size(), 1);
+        assertEquals(new HashSet<>(sent.get(shard0.getKey()).get(0)), new HashSet<>(asList(a, b)));
+        assertEquals(sent.get(shard1.getKey()), asList(asList(c)));
+
+        sent.clear();
+        publish(actorSystem, persistentActor, publisherRef);
+
+        // b ran out of leases
+        assertEquals(sent.get(shard0.getKey()), asList(asList(a)));
+        assertEquals(sent.get(shard1.getKey()), asList(asList(c)));
+
+        sent.clear();
+        publish(actorSystem, persistentActor, publisherRef);
+
+        assertEquals(sent.get(shard0.getKey()), asList(asList(a)));
+        assertTrue(!sent.containsKey(shard1.getKey()));
+    }
+
+    private void publish(InternalActorSystem actorSystem, PersistentActor<ShardKey> persistentActor, ActorRef publisherRef) {
+        InternalMessage internalMessage = new InternalMessageImpl(null, publisherRef, ByteBuffer.wrap("test".getBytes()),
+                String.class.getName(), false);
+        new HandleMessageTask(actorSystem, new PublisherActor(), publisherRef, internalMessage, persistentActor,
+                null, null, new MessageHandlerEventListener() {
+            @Override
+            public void onError(InternalMessage message, Throwable exception) {
+                throw new AssertionError(exception);
+            }
+
+            @Override
+            public void onDone(InternalMessage message) {
+            }
+        }).run();
+    }
+
+    private ActorRef subscribe(PersistentActor<ShardKey> persistentActor, InternalActorSystem actorSystem,
+                               ActorShard shard, String actorId, long leases) {
+        ActorRef subscriberRef = new ActorShardRef("test", shard, actorId, actorSystem);
+        persistentActor.addSubscriber(String.class.getName(), new MessageSubscriber(subscriberRef, leases));
+        return subscriberRef;
+    }
+
+    private InternalActorSystem actorSystem() {
+        final MessageDeserializer<String> deserializer = new MessageDeserializer<String>() {
+            @Override
+            public String deserialize(ByteBuffer serializedObject) {
+                byte[] bytes = new byte[serializedObject.remaining()];
+                serializedObject.get(bytes);
+                return new String(bytes);
+            }
+
+            @Override
+            public Class<String> getMessageClass() {
+                return String.class;
+            }
+        };
+        InternalActorSystem actorSystem = mock(InternalActorSystem.class);
+        doReturn(deserializer).when(actorSystem).getDeserializer(String.class);
+        return actorSystem;
+    }
+
+    private ActorShard shard(ShardKey shardKey) throws Exception {
+        ActorShard shard = mock(ActorShard.class);
+        when(shard.getKey()).thenReturn(shardKey);
+        doAnswer(invocation -> {
+            List<ActorRef> receivers = (List<ActorRef>) invocation.getArguments()[1];
+            sent.computeIfAbsent(shardKey, key -> new ArrayList<>()).add(new ArrayList<>(receivers));
+            return null;
+        }).when(shard).sendMessage(any(ActorRef.class), anyListOf(ActorRef.class), isA(NextMessage.class));
+        return shard;
+    }
+
+    public static final class PublisherActor extends UntypedActor {
+        @Override
+        public void onReceive(ActorRef sender, Object message) {
+        }
+    }
+}
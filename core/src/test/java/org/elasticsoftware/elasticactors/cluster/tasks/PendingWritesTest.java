@@ -0,0 +1,99 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsoftware.elasticactors.cluster.tasks;
+
+import org.elasticsoftware.elasticactors.messaging.InternalMessage;
+import org.elasticsoftware.elasticactors.messaging.MessageHandlerEventListener;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Joost van de Wijgerd
+ */
+public class PendingWritesTest {
+    private final List<InternalMessage> done = new ArrayList<>();
+    private final List<Throwable> errors = new ArrayList<>();
+    private final MessageHandlerEventListener listener = new MessageHandlerEventListener() {
+        @Override
+        public void onError(InternalMessage message, Throwable exception) {
+            errors.add(exception);
+        }
+
+        @Override
+        public void onDone(InternalMessage message) {
+            done.add(message);
+        }
+    };
+    private final InternalMessage message = mock(InternalMessage.class);
+
+    @BeforeMethod
+    public void setUp() {
+        done.clear();
+        errors.clear();
+    }
+
+    @Test
+    public void testNoWritesOutsideOfMessageHandling() {
+        assertNull(PendingWrites.register());
+        PendingWrites.begin();
+        assertNull(PendingWrites.end());
+        assertNull(PendingWrites.register());
+    }
+
+    @Test
+    public void testAcknowledgedAfterAllWrites() {
+        PendingWrites.begin();
+        MessageHandlerEventListener firstWrite = PendingWrites.register();
+        MessageHandlerEventListener secondWrite = PendingWrites.register();
+        PendingWrites pendingWrites = PendingWrites.end();
+
+        firstWrite.onDone(null);
+        MessageHandlerEventListener chained = pendingWrites.chain(message, listener);
+        chained.onDone(message);
+        assertTrue(done.isEmpty());
+
+        secondWrite.onDone(null);
+        assertEquals(done.size(), 1);
+        assertSame(done.get(0), message);
+        assertTrue(errors.isEmpty());
+    }
+
+    @Test
+    public void testFailedWriteIsReported() {
+        PendingWrites.begin();
+        MessageHandlerEventListener write = PendingWrites.register();
+        PendingWrites pendingWrites = PendingWrites.end();
+
+        pendingWrites.chain(message, listener).onDone(message);
+        IllegalStateException exception = new IllegalStateException("write failed");
+        write.onError(null, exception);
+
+        assertTrue(done.isEmpty());
+        assertEquals(errors.size(), 1);
+        assertSame(errors.get(0), exception);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.cluster.tasks;
+
+import org.elasticsoftware.elasticactors.ActorRef;
+import org.elasticsoftware.elasticactors.ActorShard;
+import org.elasticsoftware.elasticactors.ShardKey;
+import org.elasticsoftware.elasticactors.UntypedActor;
+import org.elasticsoftware.elasticactors.cluster.ActorShardRef;
+import org.elasticsoftware.elasticactors.cluster.InternalActorSystem;
+import org.elasticsoftware.elasticactors.cluster.tasks.app.HandleMessageTask;
+import org.elasticsoftware.elasticactors.messaging.InternalMessage;
+import org.elasticsoftware.elasticactors.messaging.InternalMessageImpl;
+import org.elasticsoftware.elasticactors.messaging.MessageHandlerEventListener;
+import org.elasticsoftware.elasticactors.messaging.reactivestreams.NextMessage;
+import org.elasticsoftware.elasticactors.serialization.MessageDeserializer;
+import org.elasticsoftware.elasticactors.serialization.reactivestreams.NextMessageSerializer;
+import org.elasticsoftware.elasticactors.state.MessageSubscriber;
+import org.elasticsoftware.elasticactors.state.PersistentActor;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Measures the fan out of a published message to the reactive streams subscribers of an actor. The subscribers are
+ * spread over a number of shards, the shards serialize the {@link NextMessage} and count the publishes to their
+ * message queue (as the real shards would do) but don't send anything. The shards are mocks that record their
+ * invocations, these are cleared after every fan out. Run the main method to get the gc profiler output.
+ *
+ * @author Joost van de Wijgerd
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@org.openjdk.jmh.annotations.Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SubscriberFanOutBenchmark {
+    private static final int SHARDS = 64;
+
+    @Param({"1000", "10000", "100000"})
+    public int subscribers;
+
+    private InternalActorSystem actorSystem;
+    private final ActorShard[] shards = new ActorShard[SHARDS];
+    private BenchmarkActor receiver;
+    private ActorRef receiverRef;
+    private PersistentActor<ShardKey> persistentActor;
+    private InternalMessage internalMessage;
+    private long publishes;
+    private final NextMessageSerializer serializer = new NextMessageSerializer();
+    private final MessageHandlerEventListener listener = new MessageHandlerEventListener() {
+        @Override
+        public void onError(InternalMessage message, Throwable exception) {
+        }
+
+        @Override
+        public void onDone(InternalMessage message) {
+        }
+    };
+
+    @Setup
+    public void setUp() throws Exception {
+        final BenchmarkMessage message = new BenchmarkMessage();
+        final MessageDeserializer<BenchmarkMessage> deserializer = new MessageDeserializer<BenchmarkMessage>() {
+            @Override
+            public BenchmarkMessage deserialize(ByteBuffer serializedObject) {
+                return message;
+            }
+
+            @Override
+            public Class<BenchmarkMessage> getMessageClass() {
+                return BenchmarkMessage.class;
+            }
+        };
+        // only the methods used on the message path are stubbed
+        actorSystem = mock(InternalActorSystem.class);
+        doReturn(deserializer).when(actorSystem).getDeserializer(BenchmarkMessage.class);
+        when(actorSystem.getName()).thenReturn("benchmark");
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = mock(ActorShard.class);
+            stubShard(i);
+        }
+        receiver = new BenchmarkActor();
+        receiverRef = new ActorShardRef("benchmark", shards[0], "publisher", actorSystem);
+        persistentActor = new PersistentActor<>(null, actorSystem, null, receiverRef, BenchmarkActor.class, null);
+        for (int i = 0; i < subscribers; i++) {
+            ActorRef subscriberRef = new ActorShardRef("benchmark", shards[i % SHARDS], "subscriber-" + i, actorSystem);
+            MessageSubscriber messageSubscriber = new MessageSubscriber(subscriberRef);
+            messageSubscriber.incrementAndGet(Long.MAX_VALUE);
+            persistentActor.addSubscriber(BenchmarkMessage.class.getName(), messageSubscriber);
+        }
+        internalMessage = new InternalMessageImpl(null, receiverRef, ByteBuffer.wrap(new byte[256]),
+                BenchmarkMessage.class.getName(), false);
+    }
+
+    @TearDown(Level.Invocation)
+    public void clearInvocations() throws Exception {
+        for (int i = 0; i < SHARDS; i++) {
+            reset(shards[i]);
+            stubShard(i);
+        }
+    }
+
+    private void stubShard(int shardId) throws Exception {
+        when(shards[shardId].getKey()).thenReturn(new ShardKey("benchmark", shardId));
+        doAnswer(invocation -> {
+            // serialize like the shard does for every message it puts on the queue
+            serializer.serialize((NextMessage) invocation.getArguments()[2]);
+            publishes++;
+            return null;
+        }).when(shards[shardId]).sendMessage(any(ActorRef.class), any(ActorRef.class), any());
+    }
+
+    @Benchmark
+    public long fanOut() {
+        HandleMessageTask task = new HandleMessageTask(actorSystem, receiver, receiverRef, internalMessage, persistentActor,
+                null, null, listener);
+        task.run();
+        return publishes;
+    }
+
+    public static final class BenchmarkMessage {
+    }
+
+    public static final class BenchmarkActor extends UntypedActor {
+        @Override
+        public void onReceive(ActorRef sender, Object message) {
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(SubscriberFanOutBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
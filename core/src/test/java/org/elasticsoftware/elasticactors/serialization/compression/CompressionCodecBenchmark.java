@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsoftware.elasticactors.serialization.compression;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * Compares the compression codecs on generated actor states. The compression ratio of each codec is printed during
+ * the setup, the benchmarks measure the time to compress or decompress a single state.
+ *
+ * @author Joost van de Wijgerd
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompressionCodecBenchmark {
+    private static final int TRAINING_STATES = 500;
+    private static final int BENCHMARK_STATES = 500;
+
+    @Param({"lz4", "zstd", "zstd-dictionary"})
+    public String codecName;
+
+    private CompressionCodec codec;
+    private List<byte[]> states;
+    private byte[][] compressedStates;
+    private int index;
+
+    @Setup
+    public void setUp() throws IOException {
+        Map<String, byte[]> dictionaries = Collections.emptyMap();
+        if ("zstd-dictionary".equals(codecName)) {
+            byte[] dictionary = ZstdCompressionCodec.trainDictionary(StateFixtures.walletStates(TRAINING_STATES, 1L), 16 * 1024);
+            dictionaries = Collections.singletonMap(WalletState.class.getName(), dictionary);
+        }
+        codec = CompressionCodecs.create(codecName.startsWith(CompressionCodecs.ZSTD) ? CompressionCodecs.ZSTD : codecName, 3, dictionaries);
+        // use other states than the ones the dictionary was trained on
+        states = StateFixtures.walletStates(BENCHMARK_STATES, 2L);
+        compressedStates = new byte[states.size()][];
+        long uncompressedSize = 0;
+        long compressedSize = 0;
+        for (int i = 0; i < states.size(); i++) {
+            compressedStates[i] = codec.compress(states.get(i), WalletState.class);
+            uncompressedSize += states.get(i).length;
+            compressedSize += compressedStates[i].length;
+        }
+        System.out.println(format("%n%s: average state size %d bytes, compression ratio %.2f", codecName,
+                uncompressedSize / states.size(), (double) uncompressedSize / compressedSize));
+    }
+
+    @Benchmark
+    public byte[] compress() throws IOException {
+        index = (index + 1) % states.size();
+        return codec.compress(states.get(index), WalletState.class);
+    }
+
+    @Benchmark
+    public byte[] decompress() throws IOException {
+        index = (index + 1) % compressedStates.length;
+        return codec.decompress(compressedStates[index]);
+    }
+
+    private static final class WalletState {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(CompressionCodecBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
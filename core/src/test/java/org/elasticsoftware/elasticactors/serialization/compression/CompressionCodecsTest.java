@@ -0,0 +1,69 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsoftware.elasticactors.serialization.compression;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Joost van de Wijgerd
+ */
+public class CompressionCodecsTest {
+    @Test
+    public void testDecompressionCodecsReadAllFormats() throws IOException {
+        List<byte[]> states = StateFixtures.walletStates(200, 1L);
+        byte[] dictionary = ZstdCompressionCodec.trainDictionary(states.subList(0, 100), 8 * 1024);
+        Map<String, byte[]> dictionaries = Collections.singletonMap(String.class.getName(), dictionary);
+        List<CompressionCodec> decompressionCodecs = CompressionCodecs.createDecompressionCodecs(dictionaries);
+
+        CompressionCodec lz4 = CompressionCodecs.create(CompressionCodecs.LZ4, 0, dictionaries);
+        CompressionCodec zstd = CompressionCodecs.create(CompressionCodecs.ZSTD, 3, dictionaries);
+        for (byte[] state : states.subList(100, 200)) {
+            assertRoundTrip(decompressionCodecs, state, lz4.compress(state, String.class));
+            assertRoundTrip(decompressionCodecs, state, zstd.compress(state, null));
+            byte[] withDictionary = zstd.compress(state, String.class);
+            assertTrue(withDictionary.length < zstd.compress(state, null).length);
+            assertRoundTrip(decompressionCodecs, state, withDictionary);
+            // uncompressed json is not recognized by any codec
+            for (CompressionCodec codec : decompressionCodecs) {
+                assertFalse(codec.isCompressed(state));
+            }
+        }
+    }
+
+    private static void assertRoundTrip(List<CompressionCodec> decompressionCodecs, byte[] state, byte[] compressed) throws IOException {
+        CompressionCodec decompressionCodec = null;
+        for (CompressionCodec codec : decompressionCodecs) {
+            if (codec.isCompressed(compressed)) {
+                assertEquals(decompressionCodec, null, "more than one codec recognizes the header");
+                decompressionCodec = codec;
+            }
+        }
+        assertNotNull(decompressionCodec);
+        assertEquals(decompressionCodec.decompress(compressed), state);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsoftware.elasticactors.serialization.compression;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Generates serialized actor states that look like the json produced by the JacksonActorStateSerializer: lots of
+ * repeated property names and class names with varying values.
+ *
+ * @author Joost van de Wijgerd
+ */
+final class StateFixtures {
+    private static final String[] CURRENCIES = {"EUR", "USD", "GBP", "CHF"};
+    private static final String[] TYPES = {"DEPOSIT", "WITHDRAWAL", "TRANSFER", "FEE"};
+
+    private StateFixtures() {}
+
+    static List<byte[]> walletStates(int count, long seed) {
+        Random random = new Random(seed);
+        List<byte[]> states = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder json = new StringBuilder(4096);
+            json.append("{\"@class\":\"com.example.wallet.actors.WalletActor$State\",\"userId\":\"")
+                    .append(uuid(random)).append("\",\"currency\":\"").append(CURRENCIES[random.nextInt(CURRENCIES.length)])
+                    .append("\",\"balance\":").append(random.nextInt(1_000_000)).append('.').append(random.nextInt(100))
+                    .append(",\"createdAt\":").append(1_500_000_000_000L + random.nextInt(Integer.MAX_VALUE))
+                    .append(",\"transactions\":[");
+            int transactions = 5 + random.nextInt(40);
+            for (int t = 0; t < transactions; t++) {
+                if (t > 0) {
+                    json.append(',');
+                }
+                json.append("{\"transactionId\":\"").append(uuid(random))
+                        .append("\",\"type\":\"").append(TYPES[random.nextInt(TYPES.length)])
+                        .append("\",\"amount\":").append(random.nextInt(10_000)).append('.').append(random.nextInt(100))
+                        .append(",\"timestamp\":").append(1_500_000_000_000L + random.nextInt(Integer.MAX_VALUE))
+                        .append(",\"reference\":\"order-").append(random.nextInt(1_000_000))
+                        .append("\",\"counterparty\":{\"actorRef\":\"actor://cluster/wallets/shards/")
+                        .append(random.nextInt(256)).append('/').append(uuid(random)).append("\"}}");
+            }
+            json.append("],\"limits\":{\"daily\":").append(random.nextInt(10_000))
+                    .append(",\"monthly\":").append(random.nextInt(100_000)).append("}}");
+            states.add(json.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return states;
+    }
+
+    private static String uuid(Random random) {
+        return new UUID(random.nextLong(), random.nextLong()).toString();
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.serialization.internal;
+
+import com.google.common.collect.ImmutableList;
+import org.elasticsoftware.elasticactors.ActorRef;
+import org.elasticsoftware.elasticactors.messaging.FramedInternalMessage;
+import org.elasticsoftware.elasticactors.messaging.InternalMessage;
+import org.elasticsoftware.elasticactors.messaging.InternalMessageImpl;
+import org.elasticsoftware.elasticactors.messaging.UUIDTools;
+import org.elasticsoftware.elasticactors.serialization.MessageDeserializer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * @author Joost van de Wijgerd
+ */
+public class FramedInternalMessageTest {
+    private final List<String> decodedRefs = new ArrayList<>();
+    private InternalMessageDeserializer deserializer;
+
+    @BeforeMethod
+    public void setUp() {
+        decodedRefs.clear();
+        deserializer = new InternalMessageDeserializer(new ActorRefDeserializer(refSpec -> {
+            decodedRefs.add(refSpec);
+            return actorRef(refSpec);
+        }), null);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        InternalMessage message = new InternalMessageImpl(UUIDTools.createTimeBasedUUID(), actorRef("actor://cluster/system/shards/1/sender"),
+                ImmutableList.of(actorRef("actor://cluster/system/shards/2/first"), actorRef("actor://cluster/system/shards/3/second")),
+                ByteBuffer.wrap("payload".getBytes(StandardCharsets.UTF_8)), "com.example.Message", true, false, 5000);
+
+        byte[] frame = FramedInternalMessageSerializer.get().serialize(message);
+        InternalMessage deserialized = deserializer.deserialize(frame);
+
+        assertTrue(deserialized instanceof FramedInternalMessage);
+        assertEquals(deserialized.getId(), message.getId());
+        assertEquals(deserialized.getPayloadClass(), "com.example.Message");
+        assertTrue(deserialized.isDurable());
+        assertFalse(deserialized.isUndeliverable());
+        assertEquals(deserialized.getTimeout(), 5000);
+        // the refs are only decoded when needed
+        assertTrue(decodedRefs.isEmpty());
+        assertEquals(deserialized.getSender().toString(), "actor://cluster/system/shards/1/sender");
+        assertEquals(deserialized.getReceivers().size(), 2);
+        assertEquals(deserialized.getReceivers().get(1).toString(), "actor://cluster/system/shards/3/second");
+        assertSame(deserialized.getReceivers(), deserialized.getReceivers());
+        assertEquals(decodedRefs.size(), 3);
+        // the payload is a slice of the frame
+        ByteBuffer payload = deserialized.getPayload();
+        assertSame(payload.array(), frame);
+        assertEquals(StandardCharsets.UTF_8.decode(payload).toString(), "payload");
+        assertEquals(deserialized.getPayload().remaining(), "payload".length());
+        // writing it again doesn't encode it again, but it doesn't hand out the frame either
+        byte[] serializedAgain = FramedInternalMessageSerializer.get().serialize(deserialized);
+        assertEquals(serializedAgain, frame);
+        assertNotSame(serializedAgain, frame);
+        // the original payload position is not affected
+        assertEquals(message.getPayload().remaining(), "payload".length());
+    }
+
+    @Test
+    public void testWithoutSenderFromByteBuffer() throws IOException {
+        InternalMessage message = new InternalMessageImpl(null, actorRef("actor://cluster/system/shards/2/receiver"),
+                ByteBuffer.wrap(new byte[] { 1, 2, 3 }), "com.example.Message", false, true);
+        byte[] frame = FramedInternalMessageSerializer.get().serialize(message);
+        // wrap it in a larger buffer
+        ByteBuffer buffer = ByteBuffer.allocate(frame.length + 8);
+        buffer.position(4);
+        buffer.put(frame).flip().position(4);
+
+        InternalMessage deserialized = deserializer.deserialize(buffer);
+        assertNull(deserialized.getSender());
+        assertTrue(deserialized.isUndeliverable());
+        assertEquals(deserialized.getTimeout(), InternalMessage.NO_TIMEOUT);
+        assertEquals(deserialized.getReceivers().get(0).toString(), "actor://cluster/system/shards/2/receiver");
+        byte[] payload = new byte[3];
+        deserialized.getPayload().get(payload);
+        assertEquals(payload, new byte[] { 1, 2, 3 });
+        assertEquals(FramedInternalMessageSerializer.get().serialize(deserialized), frame);
+    }
+
+    @Test
+    public void testProtobufIsStillSupported() throws IOException {
+        InternalMessage message = new InternalMessageImpl(actorRef("actor://cluster/system/shards/1/sender"),
+                actorRef("actor://cluster/system/shards/2/receiver"), ByteBuffer.wrap(new byte[] { 1, 2, 3 }), "com.example.Message", true);
+        byte[] serialized = InternalMessageSerializer.get().serialize(message);
+        assertFalse(FramedInternalMessageSerializer.isFramed(ByteBuffer.wrap(serialized)));
+
+        InternalMessage deserialized = deserializer.deserialize(serialized);
+        assertFalse(deserialized instanceof FramedInternalMessage);
+        assertEquals(deserialized.getId(), message.getId());
+        assertEquals(deserialized.getReceivers().get(0).toString(), "actor://cluster/system/shards/2/receiver");
+        assertEquals(deserializer.deserialize(ByteBuffer.wrap(serialized)).getId(), message.getId());
+    }
+
+    @Test
+    public void testImmutablePayloadIsDeserializedOncePerDeserializer() throws IOException {
+        InternalMessage message = new InternalMessageImpl(null, actorRef("actor://cluster/system/shards/2/receiver"),
+                ByteBuffer.wrap("payload".getBytes(StandardCharsets.UTF_8)), "com.example.Message", false);
+        byte[] frame = FramedInternalMessageSerializer.get().serialize(message);
+        InternalMessage deserialized = new FramedInternalMessage(ByteBuffer.wrap(frame), null, payloadClass -> true);
+        MessageDeserializer<String> asString = mock(MessageDeserializer.class);
+        when(asString.deserialize(any(ByteBuffer.class))).thenReturn("payload");
+        MessageDeserializer<String> asUpperCase = mock(MessageDeserializer.class);
+        when(asUpperCase.deserialize(any(ByteBuffer.class))).thenReturn("PAYLOAD");
+
+        assertEquals(deserialized.getPayload(asString), "payload");
+        assertEquals(deserialized.getPayload(asString), "payload");
+        verify(asString).deserialize(any(ByteBuffer.class));
+        // another deserializer doesn't get the cached payload
+        assertEquals(deserialized.getPayload(asUpperCase), "PAYLOAD");
+        verify(asUpperCase).deserialize(any(ByteBuffer.class));
+    }
+
+    @Test
+    public void testUnsupportedVersionAndCorruptFrame() {
+        InternalMessage message = new InternalMessageImpl(null, actorRef("actor://cluster/system/shards/2/receiver"),
+                ByteBuffer.wrap(new byte[] { 1, 2, 3 }), "com.example.Message", false);
+        byte[] frame = FramedInternalMessageSerializer.get().serialize(message);
+        byte[] newerVersion = frame.clone();
+        newerVersion[1] = FramedInternalMessageSerializer.VERSION + 1;
+        try {
+            deserializer.deserialize(newerVersion);
+            fail("expected an IOException");
+        } catch(IOException e) {
+            // expected
+        }
+        try {
+            deserializer.deserialize(Arrays.copyOf(frame, frame.length - 10));
+            fail("expected an IOException");
+        } catch(IOException e) {
+            // expected
+        }
+    }
+
+    static ActorRef actorRef(String refSpec) {
+        ActorRef actorRef = mock(ActorRef.class);
+        when(actorRef.toString()).thenReturn(refSpec);
+        return actorRef;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.serialization.internal;
+
+import com.google.common.collect.ImmutableList;
+import org.elasticsoftware.elasticactors.ActorRef;
+import org.elasticsoftware.elasticactors.messaging.InternalMessage;
+import org.elasticsoftware.elasticactors.messaging.InternalMessageImpl;
+import org.elasticsoftware.elasticactors.messaging.UUIDTools;
+import org.elasticsoftware.elasticactors.serialization.Serializer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip of an {@link InternalMessage} through the protobuf and the framed wire format: serialize it, deserialize
+ * it and read the first receiver and the payload the way the message handling path does. The sender is not read, as
+ * most actors don't look at it. Run the main method to get the gc profiler output (gc.alloc.rate.norm, in bytes per
+ * message).
+ *
+ * @author Joost van de Wijgerd
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@org.openjdk.jmh.annotations.Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InternalMessageSerializationBenchmark {
+    @Param({"protobuf", "framed"})
+    public String format;
+
+    @Param({"256", "4096"})
+    public int payloadSize;
+
+    private Serializer<InternalMessage, byte[]> serializer;
+    private InternalMessageDeserializer deserializer;
+    private InternalMessage message;
+
+    @Setup
+    public void setUp() {
+        // the protobuf serializer is used as long as the framed format is not enabled
+        serializer = "framed".equals(format) ? FramedInternalMessageSerializer.get() : InternalMessageSerializer.get();
+        final ActorRef sender = FramedInternalMessageTest.actorRef("actor://benchmark/system/shards/1/sender");
+        final ActorRef receiver = FramedInternalMessageTest.actorRef("actor://benchmark/system/shards/2/receiver");
+        deserializer = new InternalMessageDeserializer(new ActorRefDeserializer(refSpec -> receiver), null);
+        message = new InternalMessageImpl(UUIDTools.createTimeBasedUUID(), sender, ImmutableList.of(receiver),
+                ByteBuffer.wrap(new byte[payloadSize]), BenchmarkMessage.class.getName(),
+                true, false, InternalMessage.NO_TIMEOUT);
+    }
+
+    @Benchmark
+    public int roundTrip() throws IOException {
+        final InternalMessage deserialized = deserializer.deserialize(serializer.serialize(message));
+        return System.identityHashCode(deserialized.getReceivers().get(0)) + deserialized.getPayload().remaining();
+    }
+
+    public static final class BenchmarkMessage {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(InternalMessageSerializationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
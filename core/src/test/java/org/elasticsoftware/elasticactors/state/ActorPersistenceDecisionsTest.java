@@ -0,0 +1,119 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.state;
+
+import org.elasticsoftware.elasticactors.ActorRef;
+import org.elasticsoftware.elasticactors.UntypedActor;
+import org.testng.annotations.Test;
+
+import static org.elasticsoftware.elasticactors.state.ActorLifecycleStep.ACTIVATE;
+import static org.elasticsoftware.elasticactors.state.ActorLifecycleStep.CREATE;
+import static org.elasticsoftware.elasticactors.state.ActorLifecycleStep.DESTROY;
+import static org.elasticsoftware.elasticactors.state.ActorLifecycleStep.PASSIVATE;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Joost van de Wijgerd
+ */
+public class ActorPersistenceDecisionsTest {
+    @Test
+    public void testDefaults() {
+        DefaultActor actor = new DefaultActor();
+        ActorPersistenceDecisions decisions = ActorPersistenceDecisions.forActorClass(DefaultActor.class);
+        assertSame(ActorPersistenceDecisions.forActorClass(DefaultActor.class), decisions);
+        assertTrue(decisions.shouldUpdateState(actor, new FirstMessage()));
+        assertTrue(decisions.shouldUpdateState(actor, CREATE));
+        assertTrue(decisions.shouldUpdateState(actor, PASSIVATE));
+        assertFalse(decisions.shouldBatchMessages());
+    }
+
+    @Test
+    public void testExcluded() {
+        ExcludingActor actor = new ExcludingActor();
+        ActorPersistenceDecisions decisions = ActorPersistenceDecisions.forActorClass(ExcludingActor.class);
+        assertFalse(decisions.shouldUpdateState(actor, new FirstMessage()));
+        assertTrue(decisions.shouldUpdateState(actor, new SecondMessage()));
+        assertTrue(decisions.shouldUpdateState(actor, ACTIVATE));
+        assertFalse(decisions.shouldUpdateState(actor, DESTROY));
+        assertTrue(decisions.shouldBatchMessages());
+    }
+
+    @Test
+    public void testIncluded() {
+        IncludingActor actor = new IncludingActor();
+        ActorPersistenceDecisions decisions = ActorPersistenceDecisions.forActorClass(IncludingActor.class);
+        assertTrue(decisions.shouldUpdateState(actor, new FirstMessage()));
+        assertFalse(decisions.shouldUpdateState(actor, new SecondMessage()));
+        assertTrue(decisions.shouldUpdateState(actor, PASSIVATE));
+        assertFalse(decisions.shouldUpdateState(actor, CREATE));
+    }
+
+    @Test
+    public void testPersistenceAdvisor() {
+        AdvisingActor actor = new AdvisingActor();
+        ActorPersistenceDecisions decisions = ActorPersistenceDecisions.forActorClass(AdvisingActor.class);
+        assertFalse(decisions.shouldUpdateState(actor, new FirstMessage()));
+        assertTrue(decisions.shouldUpdateState(actor, new SecondMessage()));
+        assertFalse(decisions.shouldUpdateState(actor, CREATE));
+    }
+
+    public static final class FirstMessage {
+    }
+
+    public static final class SecondMessage {
+    }
+
+    public static final class DefaultActor extends UntypedActor {
+        @Override
+        public void onReceive(ActorRef sender, Object message) {
+        }
+    }
+
+    @PersistenceConfig(excluded = FirstMessage.class, batchMessages = true)
+    public static final class ExcludingActor extends UntypedActor {
+        @Override
+        public void onReceive(ActorRef sender, Object message) {
+        }
+    }
+
+    @PersistenceConfig(persistOnMessages = false, included = FirstMessage.class, persistOn = PASSIVATE)
+    public static final class IncludingActor extends UntypedActor {
+        @Override
+        public void onReceive(ActorRef sender, Object message) {
+        }
+    }
+
+    // the annotation is ignored when the actor decides for itself
+    @PersistenceConfig(excluded = SecondMessage.class)
+    public static final class AdvisingActor extends UntypedActor implements PersistenceAdvisor {
+        @Override
+        public void onReceive(ActorRef sender, Object message) {
+        }
+
+        @Override
+        public boolean shouldUpdateState(Object message) {
+            return message instanceof SecondMessage;
+        }
+
+        @Override
+        public boolean shouldUpdateState(ActorLifecycleStep lifecycleStep) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsoftware.elasticactors.util;
+
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Joost van de Wijgerd
+ */
+public class BinaryDeltaTest {
+    @Test
+    public void testRoundTrip() {
+        assertRoundTrip("{\"items\":[1,2,3],\"name\":\"test\"}", "{\"items\":[1,2,3,4],\"name\":\"test\"}");
+        assertRoundTrip("{\"items\":[1,2,3],\"name\":\"test\"}", "{\"items\":[1,3],\"name\":\"test\"}");
+        assertRoundTrip("{\"count\":9}", "{\"count\":10}");
+        assertRoundTrip("aaaa", "aaaa");
+        assertRoundTrip("aaaa", "aa");
+        assertRoundTrip("aa", "aaaa");
+        assertRoundTrip("", "abc");
+        assertRoundTrip("abc", "");
+    }
+
+    @Test
+    public void testDeltaIsSmall() {
+        StringBuilder state = new StringBuilder("{\"items\":[");
+        for (int i = 0; i < 1000; i++) {
+            state.append(i).append(',');
+        }
+        String base = state.toString() + "1000],\"name\":\"test\"}";
+        String target = state.toString() + "1000,1001],\"name\":\"test\"}";
+        byte[] delta = BinaryDelta.create(bytes(base), bytes(target));
+        assertTrue(delta.length < 32);
+    }
+
+    @Test
+    public void testDeltaIsNotAppliedToOtherBase() {
+        byte[] delta = BinaryDelta.create(bytes("{\"count\":9}"), bytes("{\"count\":10}"));
+        assertNull(BinaryDelta.apply(bytes("{\"count\":8}"), delta));
+        assertNull(BinaryDelta.apply(bytes("{\"count\":9}"), new byte[] { 1, 2, 3 }));
+    }
+
+    private static void assertRoundTrip(String base, String target) {
+        byte[] delta = BinaryDelta.create(bytes(base), bytes(target));
+        assertEquals(new String(BinaryDelta.apply(bytes(base), delta), StandardCharsets.UTF_8), target);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
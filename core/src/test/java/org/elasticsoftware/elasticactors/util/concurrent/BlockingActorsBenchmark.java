@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.util.concurrent;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mixes cpu bound actors with actors that block (simulating a synchronous http call) and measures how long it takes
+ * for a round of messages to the cpu bound actors to complete. With a fixed number of worker threads the cpu bound
+ * actors that hash to a worker that is blocked have to wait, with a mailbox per actor they don't.
+ *
+ * @author Joost van de Wijgerd
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlockingActorsBenchmark {
+    private static final int CPU_ACTORS = 1000;
+    private static final int BLOCKING_ACTORS = 100;
+    private static final int ROUND_SIZE = 1000;
+
+    @State(Scope.Benchmark)
+    public static class ExecutorState {
+        @Param({"queue", "workstealing", "virtualthreads"})
+        public String implementation;
+
+        @Param({"8"})
+        public int workers;
+
+        @Param({"0.05"})
+        public double blockingRatio;
+
+        @Param({"1"})
+        public long blockingMillis;
+
+        private ThreadBoundExecutor executor;
+
+        @Setup
+        public void setUp() {
+            DaemonThreadFactory threadFactory = new DaemonThreadFactory("BENCHMARK-WORKER");
+            if ("workstealing".equals(implementation)) {
+                executor = new org.elasticsoftware.elasticactors.util.concurrent.workstealing.ThreadBoundExecutorImpl(threadFactory, workers);
+            } else if ("virtualthreads".equals(implementation)) {
+                executor = new org.elasticsoftware.elasticactors.util.concurrent.virtualthreads.ThreadBoundExecutorImpl(threadFactory, workers);
+            } else {
+                executor = new ThreadBoundExecutorImpl(threadFactory, workers);
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            executor.shutdown();
+        }
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public void round(ExecutorState state) throws InterruptedException {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final CountDownLatch latch = new CountDownLatch(ROUND_SIZE);
+        for (int i = 0; i < ROUND_SIZE; i++) {
+            if (random.nextDouble() < state.blockingRatio) {
+                // the blocking actors are not part of the round, we only want to see how much they hurt the others
+                state.executor.execute(new Work("blocking-" + random.nextInt(BLOCKING_ACTORS), state.blockingMillis, null));
+            }
+            state.executor.execute(new Work("cpu-" + random.nextInt(CPU_ACTORS), 0L, latch));
+        }
+        latch.await();
+    }
+
+    private static final class Work implements ThreadBoundRunnable<String> {
+        private final String actorId;
+        private final long blockingMillis;
+        private final CountDownLatch latch;
+
+        private Work(String actorId, long blockingMillis, CountDownLatch latch) {
+            this.actorId = actorId;
+            this.blockingMillis = blockingMillis;
+            this.latch = latch;
+        }
+
+        @Override
+        public String getKey() {
+            return actorId;
+        }
+
+        @Override
+        public void run() {
+            if (blockingMillis > 0) {
+                try {
+                    Thread.sleep(blockingMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else {
+                Blackhole.consumeCPU(500);
+            }
+            if (latch != null) {
+                latch.countDown();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(BlockingActorsBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsoftware.elasticactors.util.concurrent;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules and cancels 10M timers (think request timeouts that almost never fire) spread over a number of shards.
+ * A sliding window of timers is kept outstanding, every new timer cancels the oldest one. The score is the time it
+ * takes to schedule and cancel all of them.
+ *
+ * @author Joost van de Wijgerd
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class ScheduledWorkManagerBenchmark {
+    private static final int TIMERS = 10_000_000;
+
+    @Param({"delayqueue", "timingwheel"})
+    public String implementation;
+
+    @Param({"256"})
+    public int shards;
+
+    @Param({"100000"})
+    public int outstanding;
+
+    private ExecutorService executorService;
+    private ScheduledWorkManager<Integer,Timer> workManager;
+
+    @Setup
+    public void setUp() {
+        executorService = Executors.newCachedThreadPool(new DaemonThreadFactory("BENCHMARK-SCHEDULER"));
+        WorkExecutorFactory<WorkExecutor<Integer,Timer>> workExecutorFactory = () -> (shard, timer) -> { };
+        if ("timingwheel".equals(implementation)) {
+            workManager = new TimingWheelScheduledWorkManager<>(executorService, workExecutorFactory, 2);
+        } else {
+            workManager = new ShardedScheduledWorkManager<>(executorService, workExecutorFactory, 2);
+        }
+        workManager.init();
+        for (int i = 0; i < shards; i++) {
+            workManager.registerShard(i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        workManager.destroy();
+        executorService.shutdownNow();
+    }
+
+    @Benchmark
+    public int scheduleAndCancel() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final Timer[] window = new Timer[outstanding];
+        for (int i = 0; i < TIMERS; i++) {
+            final int slot = i % outstanding;
+            if (window[slot] != null) {
+                workManager.unschedule(window[slot].shard, window[slot]);
+            }
+            // between 1 second and 1 hour, none of them should fire during the benchmark
+            Timer timer = new Timer(i, random.nextInt(shards), random.nextLong(1000L, 3_600_000L));
+            workManager.schedule(timer.shard, timer);
+            window[slot] = timer;
+        }
+        for (Timer timer : window) {
+            workManager.unschedule(timer.shard, timer);
+        }
+        return workManager.getSize();
+    }
+
+    private static final class Timer implements Delayed {
+        private final long id;
+        private final Integer shard;
+        private final long fireTime;
+
+        private Timer(long id, int shard, long delayMillis) {
+            this.id = id;
+            this.shard = shard;
+            this.fireTime = System.currentTimeMillis() + delayMillis;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(fireTime - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(fireTime, ((Timer) other).fireTime);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Timer && ((Timer) other).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(id);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ScheduledWorkManagerBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
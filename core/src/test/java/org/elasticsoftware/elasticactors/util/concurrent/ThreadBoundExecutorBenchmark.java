@@ -0,0 +1,154 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.util.concurrent;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link ThreadBoundExecutor} implementations under a skewed load. Every invocation submits a round of
+ * events for actor ids drawn from a Zipfian distribution (so a handful of actors receive most of the messages) and
+ * waits for all of them to complete. The throughput mode reports rounds per second, the sample mode reports the
+ * round completion time percentiles (look at p0.99).
+ *
+ * @author Joost van de Wijgerd
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThreadBoundExecutorBenchmark {
+    private static final int ACTORS = 10000;
+    private static final int SAMPLES = 1 << 20;
+    private static final int ROUND_SIZE = 1024;
+
+    @State(Scope.Benchmark)
+    public static class ExecutorState {
+        @Param({"queue", "disruptor", "workstealing"})
+        public String implementation;
+
+        @Param({"8"})
+        public int workers;
+
+        @Param({"0.99"})
+        public double skew;
+
+        @Param({"200"})
+        public long tokens;
+
+        private ThreadBoundExecutor executor;
+        private Integer[] actorIds;
+        private int position = 0;
+
+        @Setup
+        public void setUp() {
+            DaemonThreadFactory threadFactory = new DaemonThreadFactory("BENCHMARK-WORKER");
+            if ("disruptor".equals(implementation)) {
+                executor = new org.elasticsoftware.elasticactors.util.concurrent.disruptor.ThreadBoundExecutorImpl(threadFactory, workers);
+            } else if ("workstealing".equals(implementation)) {
+                executor = new org.elasticsoftware.elasticactors.util.concurrent.workstealing.ThreadBoundExecutorImpl(threadFactory, workers);
+            } else {
+                executor = new ThreadBoundExecutorImpl(threadFactory, workers);
+            }
+            actorIds = zipfian(ACTORS, skew, SAMPLES, new Random(42));
+        }
+
+        @TearDown
+        public void tearDown() {
+            executor.shutdown();
+        }
+
+        private Integer nextActorId() {
+            Integer actorId = actorIds[position];
+            position = (position + 1) & (SAMPLES - 1);
+            return actorId;
+        }
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public void round(ExecutorState state) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(ROUND_SIZE);
+        for (int i = 0; i < ROUND_SIZE; i++) {
+            state.executor.execute(new Work(state.nextActorId(), state.tokens, latch));
+        }
+        latch.await();
+    }
+
+    private static final class Work implements ThreadBoundRunnable<Integer> {
+        private final Integer actorId;
+        private final long tokens;
+        private final CountDownLatch latch;
+
+        private Work(Integer actorId, long tokens, CountDownLatch latch) {
+            this.actorId = actorId;
+            this.tokens = tokens;
+            this.latch = latch;
+        }
+
+        @Override
+        public Integer getKey() {
+            return actorId;
+        }
+
+        @Override
+        public void run() {
+            Blackhole.consumeCPU(tokens);
+            latch.countDown();
+        }
+    }
+
+    /**
+     * Draws samples from a Zipfian distribution over [0, items) by doing a binary search on the cumulative
+     * probabilities.
+     */
+    static Integer[] zipfian(int items, double skew, int samples, Random random) {
+        double[] cumulative = new double[items];
+        double sum = 0.0d;
+        for (int i = 0; i < items; i++) {
+            sum += 1.0d / Math.pow(i + 1, skew);
+            cumulative[i] = sum;
+        }
+        Integer[] ids = new Integer[items];
+        for (int i = 0; i < items; i++) {
+            ids[i] = i;
+        }
+        Integer[] result = new Integer[samples];
+        for (int i = 0; i < samples; i++) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            result[i] = ids[Math.min(index < 0 ? -index - 1 : index, items - 1)];
+        }
+        return result;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ThreadBoundExecutorBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.util.concurrent;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Joost van de Wijgerd
+ */
+public class ThreadBoundExecutorOrderingTest {
+    private static final int KEYS = 100;
+    private static final int EVENTS = 100000;
+
+    @DataProvider(name = "executors")
+    public Object[][] executors() {
+        return new Object[][] {
+                { new org.elasticsoftware.elasticactors.util.concurrent.workstealing.ThreadBoundExecutorImpl(new DaemonThreadFactory("WORKSTEALING-WORKER"), 4) },
+                { new org.elasticsoftware.elasticactors.util.concurrent.virtualthreads.ThreadBoundExecutorImpl(new DaemonThreadFactory("VIRTUAL-WORKER"), 4) }
+        };
+    }
+
+    @Test(dataProvider = "executors")
+    @SuppressWarnings("unchecked")
+    public void testOrderingPerKeyIsPreserved(ThreadBoundExecutor executor) throws Exception {
+        final ConcurrentMap<Integer, AtomicInteger> lastSeen = new ConcurrentHashMap<>();
+        final ConcurrentMap<Integer, AtomicBoolean> running = new ConcurrentHashMap<>();
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        final CountDownLatch latch = new CountDownLatch(EVENTS);
+        final int[] sequences = new int[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            lastSeen.put(i, new AtomicInteger(-1));
+            running.put(i, new AtomicBoolean(false));
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < EVENTS; i++) {
+            // skew the load towards the first couple of keys
+            final int key = random.nextInt(4) == 0 ? random.nextInt(KEYS) : random.nextInt(4);
+            final int sequence = sequences[key]++;
+            executor.execute(new ThreadBoundRunnable<Integer>() {
+                @Override
+                public Integer getKey() {
+                    return key;
+                }
+
+                @Override
+                public void run() {
+                    if (!running.get(key).compareAndSet(false, true)) {
+                        failed.set(true);
+                    }
+                    if (lastSeen.get(key).getAndSet(sequence) != sequence - 1) {
+                        failed.set(true);
+                    }
+                    running.get(key).set(false);
+                    latch.countDown();
+                }
+            });
+        }
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        assertFalse(failed.get());
+        executor.shutdown();
+    }
+}
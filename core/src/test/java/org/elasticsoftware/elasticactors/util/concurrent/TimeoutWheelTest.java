@@ -0,0 +1,76 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.util.concurrent;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Joost van de Wijgerd
+ */
+public class TimeoutWheelTest {
+    private TimeoutWheel timeoutWheel;
+
+    @BeforeMethod
+    public void setUp() {
+        timeoutWheel = new TimeoutWheel("TEST-TIMEOUTS", 10L);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        timeoutWheel.shutdown();
+    }
+
+    @Test
+    public void testTimeoutExpires() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final long start = System.currentTimeMillis();
+        TimeoutWheel.Timeout timeout = timeoutWheel.schedule(100L, latch::countDown);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 100L);
+        assertTrue(timeout.isExpired());
+        assertFalse(timeout.cancel());
+    }
+
+    @Test
+    public void testCancelledTimeoutsDontExpire() throws Exception {
+        final AtomicInteger expired = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+        for (int i = 0; i < 1000; i++) {
+            TimeoutWheel.Timeout timeout = timeoutWheel.schedule(50L + i % 100, expired::incrementAndGet);
+            if (i % 10 != 0) {
+                assertTrue(timeout.cancel());
+                assertTrue(timeout.isCancelled());
+            }
+        }
+        // expires after all the others
+        timeoutWheel.schedule(300L, latch::countDown);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(expired.get(), 100);
+    }
+}
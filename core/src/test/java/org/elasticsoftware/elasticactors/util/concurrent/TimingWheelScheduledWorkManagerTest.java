@@ -0,0 +1,132 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsoftware.elasticactors.util.concurrent;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Joost van de Wijgerd
+ */
+public class TimingWheelScheduledWorkManagerTest {
+    private final List<Work> executed = new ArrayList<>();
+    private volatile CountDownLatch latch;
+    private TimingWheelScheduledWorkManager<String,Work> workManager;
+
+    @BeforeMethod
+    public void setUp() {
+        executed.clear();
+        workManager = new TimingWheelScheduledWorkManager<>(Executors.newCachedThreadPool(new DaemonThreadFactory("TEST-SCHEDULER")),
+                () -> (WorkExecutor<String, Work>) (shard, work) -> {
+                    work.executedAt = System.currentTimeMillis();
+                    synchronized (executed) {
+                        executed.add(work);
+                    }
+                    latch.countDown();
+                }, 1);
+        workManager.init();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        workManager.destroy();
+    }
+
+    @Test
+    public void testExecutedInOrderAfterDelay() throws InterruptedException {
+        latch = new CountDownLatch(4);
+        workManager.registerShard("shard");
+        Work third = new Work(1, 700);
+        Work first = new Work(2, 20);
+        Work fourth = new Work(3, 1200);
+        Work second = new Work(4, 300);
+        workManager.schedule("shard", third, first, fourth, second);
+        assertEquals(workManager.getSize(), 4);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(executed, asList(first, second, third, fourth));
+        for (Work work : executed) {
+            assertTrue(work.executedAt >= work.fireTime);
+        }
+        assertEquals(workManager.getSize(), 0);
+    }
+
+    @Test
+    public void testUnscheduledWorkIsNotExecuted() throws InterruptedException {
+        latch = new CountDownLatch(2);
+        workManager.registerShard("shard");
+        workManager.registerShard("other");
+        Work cancelled = new Work(1, 50);
+        Work unregistered = new Work(2, 50);
+        Work executedWork = new Work(3, 100);
+        workManager.schedule("shard", cancelled, executedWork);
+        workManager.schedule("other", unregistered);
+        // unschedule works with an equal instance
+        workManager.unschedule("shard", new Work(1, 0));
+        workManager.unregisterShard("other");
+        assertEquals(workManager.getSize(), 1);
+
+        // only one unit of work should be executed
+        assertFalse(latch.await(500, TimeUnit.MILLISECONDS));
+        assertEquals(executed, asList(executedWork));
+    }
+
+    private static final class Work implements Delayed {
+        private final long id;
+        private final long fireTime;
+        private volatile long executedAt;
+
+        private Work(long id, long delayMillis) {
+            this.id = id;
+            this.fireTime = System.currentTimeMillis() + delayMillis;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(fireTime - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(getDelay(TimeUnit.MILLISECONDS), other.getDelay(TimeUnit.MILLISECONDS));
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Work && ((Work) other).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(id);
+        }
+    }
+}
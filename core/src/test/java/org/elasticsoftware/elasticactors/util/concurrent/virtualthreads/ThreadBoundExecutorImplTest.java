@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsoftware.elasticactors.util.concurrent.virtualthreads;
+
+import org.elasticsoftware.elasticactors.util.concurrent.DaemonThreadFactory;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundRunnable;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Joost van de Wijgerd
+ */
+public class ThreadBoundExecutorImplTest {
+    @Test
+    public void testFallbackToPlatformThreads() throws Exception {
+        final Set<Thread> platformThreads = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        final ThreadFactory delegate = new DaemonThreadFactory("VIRTUAL-WORKER");
+        final ThreadFactory threadFactory = r -> {
+            Thread thread = delegate.newThread(r);
+            platformThreads.add(thread);
+            return thread;
+        };
+        final Set<Thread> executingThreads = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        final CountDownLatch latch = new CountDownLatch(100);
+        ThreadBoundExecutorImpl executor = new ThreadBoundExecutorImpl(threadFactory, 2);
+        try {
+            for (int i = 0; i < 100; i++) {
+                final int key = i;
+                executor.execute(new ThreadBoundRunnable<Integer>() {
+                    @Override
+                    public Integer getKey() {
+                        return key;
+                    }
+
+                    @Override
+                    public void run() {
+                        executingThreads.add(Thread.currentThread());
+                        latch.countDown();
+                    }
+                });
+            }
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+        if (ThreadBoundExecutorImpl.isSupported()) {
+            // every mailbox is drained by a virtual thread
+            assertTrue(platformThreads.isEmpty());
+        } else {
+            // the mailboxes are drained by the fixed pool of platform threads
+            assertTrue(platformThreads.size() <= 2);
+            assertTrue(platformThreads.containsAll(executingThreads));
+            assertNull(ThreadBoundExecutorImpl.createVirtualThreadExecutor("VIRTUAL-WORKER"));
+        }
+    }
+}
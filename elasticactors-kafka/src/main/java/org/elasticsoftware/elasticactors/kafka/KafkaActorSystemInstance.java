@@ -68,7 +68,11 @@ public final class KafkaActorSystemInstance implements InternalActorSystem, Shar
                                     Serializer<PersistentActor<ShardKey>, byte[]> stateSerializer,
                                     Deserializer<byte[], PersistentActor<ShardKey>> stateDeserializer,
                                     ActorLifecycleListenerRegistry actorLifecycleListenerRegistry,
-                                    PersistentActorStoreFactory persistentActorStoreFactory) {
+                                    PersistentActorStoreFactory persistentActorStoreFactory,
+                                    int transactionBatchSize,
+                                    long transactionBatchMillis,
+                                    int restoreThreads,
+                                    long restoreMaxResumeLag) {
         this.actorLifecycleListenerRegistry = actorLifecycleListenerRegistry;
         this.schedulerService = new KafkaTopicScheduler(this);
         this.localNode = node;
@@ -89,7 +93,8 @@ public final class KafkaActorSystemInstance implements InternalActorSystem, Shar
         for(int i = 0 ; i < numberOfShardThreads ; i++) {
             this.shardThreads[i] = new KafkaActorThread(cluster.getClusterName(), bootstrapServers, localNode.getId(),
                     this, actorRefFactory, shardActorCacheManager, nodeActorCacheManager, stateSerializer,
-                    stateDeserializer, persistentActorStoreFactory);
+                    stateDeserializer, persistentActorStoreFactory, transactionBatchSize, transactionBatchMillis, restoreThreads,
+                    restoreMaxResumeLag);
         }
         for(int i = 0 ; i < configuration.getNumberOfShards() ; i++) {
             this.actorShards[i] = new KafkaActorShard(new ShardKey(configuration.getName(), i),
@@ -120,6 +125,27 @@ public final class KafkaActorSystemInstance implements InternalActorSystem, Shar
         }
     }
 
+    /**
+     * @return the number of PersistentActor and ScheduledMessage records restored since this node was started
+     */
+    public long getRestoredRecords() {
+        return Arrays.stream(shardThreads).mapToLong(shardThread -> shardThread.getStateRestorer().getRestoredRecords()).sum();
+    }
+
+    /**
+     * @return the number of records that still need to be restored before the newly assigned shards become active
+     */
+    public long getRemainingRestoreRecords() {
+        return Arrays.stream(shardThreads).mapToLong(shardThread -> shardThread.getStateRestorer().getRemainingRecords()).sum();
+    }
+
+    /**
+     * @return the combined throughput of the last restore of all shard threads, in records per second
+     */
+    public long getRestoreRate() {
+        return Arrays.stream(shardThreads).mapToLong(shardThread -> shardThread.getStateRestorer().getLastRestoreRate()).sum();
+    }
+
     @Override
     public InternalActorSystemConfiguration getConfiguration() {
         return configuration;
@@ -6,9 +6,9 @@ import com.google.common.collect.Multimap;
 import com.google.common.collect.TreeMultimap;
 import org.apache.kafka.clients.CommonClientConfigs;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
-import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.clients.producer.*;
 import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.TopicPartition;
@@ -67,7 +67,6 @@ public final class KafkaActorThread extends Thread {
             new PersistentActor<>(null,null,null,null,null,null);
     private final KafkaConsumer<UUID, InternalMessage> messageConsumer;
     private final KafkaProducer<Object, Object> producer;
-    private final KafkaConsumer<String, byte[]> stateConsumer;
     private final KafkaConsumer<String, ActorSystemEventListener> actorSystemEventListenersConsumer;
     private final KafkaConsumer<UUID, ScheduledMessage> scheduledMessagesConsumer;
     private final String clusterName;
@@ -86,6 +85,14 @@ public final class KafkaActorThread extends Thread {
     private final String scheduledMessagesTopic;
     private final String actorSystemEventListenersTopic;
     private final String persistentActorsTopic;
+    private final KafkaTransactionBatcher<UUID, InternalMessage> messageBatcher;
+    private final KafkaStateRestorer stateRestorer;
+    private final KafkaScheduledMessageDeserializer scheduledMessageDeserializer;
+    // the shards with changes of the running transaction batch, these are applied when the transaction commits
+    private final Set<ManagedActorShard> uncommittedShards = new HashSet<>();
+    // the next fire time of every local shard that has scheduled messages, entries can be stale (but never too late)
+    private final PriorityQueue<ShardFireTime> nextFireTimes = new PriorityQueue<>();
+    private boolean inTransactionBatch = false;
     private boolean RUNNING = true;
     private final Integer nodeTopicPartitionId;
     private final Callback loggingCallback = (metadata, exception) -> {
@@ -107,7 +114,11 @@ public final class KafkaActorThread extends Thread {
                             NodeActorCacheManager nodeActorCacheManager,
                             Serializer<PersistentActor<ShardKey>, byte[]> stateSerializer,
                             Deserializer<byte[], PersistentActor<ShardKey>> stateDeserializer,
-                            PersistentActorStoreFactory persistentActorStoreFactory) {
+                            PersistentActorStoreFactory persistentActorStoreFactory,
+                            int transactionBatchSize,
+                            long transactionBatchMillis,
+                            int restoreThreads,
+                            long restoreMaxResumeLag) {
         super("KafkaActorThread-"+THREAD_ID_SEQUENCE.getAndIncrement());
         this.persistentActorStoreFactory = persistentActorStoreFactory;
         // this is the node partition that this thread will be listening on (-1 because it was already incremented)
@@ -124,7 +135,8 @@ public final class KafkaActorThread extends Thread {
         this.actorSystemEventListenersTopic = TopicNamesHelper.getActorsystemEventListenersTopic(internalActorSystem);
         this.persistentActorsTopic = TopicNamesHelper.getPersistentActorsTopic(internalActorSystem);
         final Map<String, Object> consumerConfig = new HashMap<>();
-        consumerConfig.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, "50");
+        // a transaction batch cannot span multiple polls
+        consumerConfig.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, Integer.toString(Math.max(50, transactionBatchSize)));
         consumerConfig.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
         consumerConfig.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
         consumerConfig.put("internal.leave.group.on.close", false);
@@ -170,20 +182,12 @@ public final class KafkaActorThread extends Thread {
         producer.initTransactions();
 
         this.commands = new LinkedBlockingQueue<>();
+        this.messageBatcher = new KafkaTransactionBatcher<>(messageConsumer, producer, clusterName,
+                transactionBatchSize, transactionBatchMillis, new MessageBatchHandler());
 
-        final Map<String, Object> stateConsumerConfig = new HashMap<>();
-        stateConsumerConfig.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, "100");
-        stateConsumerConfig.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
-        stateConsumerConfig.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
-        stateConsumerConfig.put("internal.leave.group.on.close", false);
-        stateConsumerConfig.put(ConsumerConfig.MAX_POLL_INTERVAL_MS_CONFIG, Integer.toString(Integer.MAX_VALUE));
-        stateConsumerConfig.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, READ_COMMITTED.name().toLowerCase(Locale.ROOT));
-        stateConsumerConfig.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
-
-        stateConsumerConfig.put(ConsumerConfig.GROUP_ID_CONFIG, clusterName+"-state");
-        stateConsumerConfig.put(CommonClientConfigs.CLIENT_ID_CONFIG, nodeId + "-" + getName() + "-state-consumer");
-
-        stateConsumer = new KafkaConsumer<>(stateConsumerConfig, new StringDeserializer(), new ByteArrayDeserializer());
+        // the state of new shards is restored in parallel with separate consumers
+        this.stateRestorer = new KafkaStateRestorer(nodeId + "-" + getName(), bootstrapServers, restoreThreads,
+                restoreMaxResumeLag);
 
         final Map<String, Object> scheduledMessagesConsumerConfig = new HashMap<>();
         scheduledMessagesConsumerConfig.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, "100");
@@ -197,8 +201,7 @@ public final class KafkaActorThread extends Thread {
         scheduledMessagesConsumerConfig.put(ConsumerConfig.GROUP_ID_CONFIG, clusterName+"-scheduledMessages");
         scheduledMessagesConsumerConfig.put(CommonClientConfigs.CLIENT_ID_CONFIG,nodeId + "-" + getName() + "-scheduledMessages-consumer");
 
-        KafkaScheduledMessageDeserializer scheduledMessageDeserializer
-                = new KafkaScheduledMessageDeserializer(
+        scheduledMessageDeserializer = new KafkaScheduledMessageDeserializer(
                         new ScheduledMessageDeserializer(new ActorRefDeserializer(actorRefFactory)));
         scheduledMessagesConsumer = new KafkaConsumer<>(scheduledMessagesConsumerConfig, new UUIDDeserializer(), scheduledMessageDeserializer);
 
@@ -247,7 +250,6 @@ public final class KafkaActorThread extends Thread {
         } finally {
             // cleanup resources
             producer.close();
-            stateConsumer.close();
             actorSystemEventListenersConsumer.close();
             scheduledMessagesConsumer.close();
         }
@@ -276,40 +278,10 @@ public final class KafkaActorThread extends Thread {
                 if(logger.isDebugEnabled()) {
                     logger.debug(format("messageConsumer has %d records to process", consumerRecords.count()));
                 }
-                consumerRecords.partitions().forEach(topicPartition -> consumerRecords.records(topicPartition).forEach(consumerRecord -> {
+                for (TopicPartition topicPartition : consumerRecords.partitions()) {
+                    inTransactionBatch = true;
                     try {
-                        if(logger.isDebugEnabled()) {
-                            logger.debug(format("handling InternalMessage(sender:%s, receiver:%s, type:%s)  with offset %d from topicPartition(%s)",
-                                    consumerRecord.value().getSender(), consumerRecord.value().getReceivers().get(0),
-                                    consumerRecord.value().getPayloadClass(), consumerRecord.offset(),
-                                    topicPartition.toString()));
-                        }
-                        // start a new transaction for each message
-                        producer.beginTransaction();
-                        try {
-                            // set this producer in the transactional context
-                            KafkaTransactionContext.setTransactionalProducer(producer);
-                            // handle the InternalMessage here
-                            handleInternalMessage(topicPartition, consumerRecord.value());
-                            // mark the message as read
-                            Map<TopicPartition, OffsetAndMetadata> offset = new HashMap<>();
-                            offset.put(topicPartition, new OffsetAndMetadata(consumerRecord.offset() + 1));
-                            // commit the offset
-                            producer.sendOffsetsToTransaction(offset, clusterName);
-                            // commit the transaction
-                            producer.commitTransaction();
-                        } catch (WakeupException | InterruptException e) {
-                            logger.warn("Recoverable exception while handling InternalMessage", e);
-                            // @todo: find out how to handle this
-                        } catch (KafkaException e) {
-                            logger.error("FATAL: Unrecoverable exception while handling InternalMessage", e);
-                            // @todo: this is an unrecoverable error
-                        } catch (Throwable t) {
-                            logger.error("Unexpected exception while handling InternalMessage", t);
-                        } finally {
-                            // clear the transaction context
-                            KafkaTransactionContext.clear();
-                        }
+                        messageBatcher.process(topicPartition, consumerRecords.records(topicPartition));
                     } catch(ProducerFencedException e) {
                         logger.error("FATAL: ProducerFenced while committing transaction, another Node seems to be handling the same shards", e);
                     } catch(KafkaException e) {
@@ -317,8 +289,14 @@ public final class KafkaActorThread extends Thread {
                         // @todo: this is an unrecoverable error
                     } catch(Throwable t) {
                         logger.error("Unexpected exception while handling InternalMessage", t);
+                    } finally {
+                        inTransactionBatch = false;
+                        // anything left over belongs to a transaction that didn't complete
+                        if(!uncommittedShards.isEmpty()) {
+                            discardUncommittedState(topicPartition);
+                        }
                     }
-                }));
+                }
             }
         } catch(WakeupException | InterruptException e) {
             logger.warn("Recoverable exception while polling for Messages", e);
@@ -330,6 +308,27 @@ public final class KafkaActorThread extends Thread {
         }
     }
 
+    private void applyUncommittedState() {
+        uncommittedShards.forEach(managedActorShard -> managedActorShard.transactionalStore.commit());
+        uncommittedShards.clear();
+    }
+
+    private void discardUncommittedState(TopicPartition topicPartition) {
+        if(topicPartition.topic().equals(messagesTopic)) {
+            ManagedActorShard managedActorShard = this.localShards.get(new ShardKey(internalActorSystem.getName(), topicPartition.partition()));
+            if(managedActorShard != null) {
+                uncommittedShards.add(managedActorShard);
+            }
+        }
+        // the cached actors can contain state of the aborted transaction, they will be reloaded from the actor store
+        // NOTE: invalidating doesn't run the passivate logic
+        uncommittedShards.forEach(managedActorShard -> {
+            managedActorShard.transactionalStore.rollback();
+            managedActorShard.actorCache.invalidateAll();
+        });
+        uncommittedShards.clear();
+    }
+
     private void updateScheduledMessages() {
         try {
             // first see if we have new messages
@@ -341,10 +340,10 @@ public final class KafkaActorThread extends Thread {
                     ManagedActorShard managedActorShard = this.localShards.get(new ShardKey(internalActorSystem.getName(), topicPartition.partition()));
                     if (managedActorShard != null) {
                         if (consumerRecord.value() != null) {
-                            managedActorShard.scheduledMessages.put(consumerRecord.value().getFireTime(TimeUnit.MILLISECONDS), consumerRecord.value());
+                            managedActorShard.addScheduledMessage(consumerRecord.value());
                         } else {
-                            // for removed scheduledmessages we only have the id, we will have to search
-                            managedActorShard.scheduledMessages.entries().removeIf(entry -> entry.getValue().getId().equals(consumerRecord.key()));
+                            // for removed scheduledmessages we only have the id
+                            managedActorShard.removeScheduledMessage(consumerRecord.key());
                         }
                     }
                 }));
@@ -361,10 +360,33 @@ public final class KafkaActorThread extends Thread {
 
     private void maybeFireScheduledMessages() {
         // @todo: this needs proper error handling
+        final long now = System.currentTimeMillis();
+        ShardFireTime nextFireTime = nextFireTimes.peek();
+        // nothing to do until the first scheduled message is due
+        if(nextFireTime == null || nextFireTime.fireTime >= now) {
+            return;
+        }
+        final Set<ManagedActorShard> dueShards = new LinkedHashSet<>();
+        while((nextFireTime = nextFireTimes.peek()) != null && nextFireTime.fireTime < now) {
+            nextFireTimes.poll();
+            // skip shards that are no longer managed by this thread
+            if(localShards.get(nextFireTime.shard.getKey()) == nextFireTime.shard) {
+                dueShards.add(nextFireTime.shard);
+            }
+        }
         // now see if we need to fire a message
-        List<ScheduledMessage> messagesToFire = this.localShards.values().stream()
-                .map(managedActorShard -> managedActorShard.getScheduledMessagesThatShouldFire(System.currentTimeMillis()))
+        List<ScheduledMessage> messagesToFire = dueShards.stream()
+                .map(managedActorShard -> managedActorShard.getScheduledMessagesThatShouldFire(now))
                 .flatMap(List::stream).collect(Collectors.toList());
+        try {
+            fireScheduledMessages(messagesToFire);
+        } finally {
+            // the messages that could not be fired will be retried
+            dueShards.forEach(ManagedActorShard::scheduleNextFireTime);
+        }
+    }
+
+    private void fireScheduledMessages(List<ScheduledMessage> messagesToFire) {
         if(!messagesToFire.isEmpty()) {
             // fire them all within a producer transaction
             try {
@@ -388,7 +410,7 @@ public final class KafkaActorThread extends Thread {
                 // now we need to remove them from the managedActorShards as well
                 messagesToFire.forEach(scheduledMessage -> {
                     ShardKey sourceKey = ((ActorShard) ((ActorContainerRef) scheduledMessage.getSender()).getActorContainer()).getKey();
-                    this.localShards.get(sourceKey).scheduledMessages.remove(scheduledMessage.getFireTime(TimeUnit.MILLISECONDS), scheduledMessage);
+                    this.localShards.get(sourceKey).removeScheduledMessage(scheduledMessage.getId());
                 });
             } catch(RetriableException e) {
                 logger.warn("Recoverable exception while sending ScheduledMessages", e);
@@ -472,6 +494,10 @@ public final class KafkaActorThread extends Thread {
         runCommand((kafkaConsumer, kafkaProducer) -> this.managedShards.put(actorShard.getKey(), actorShard));
     }
 
+    KafkaStateRestorer getStateRestorer() {
+        return stateRestorer;
+    }
+
     void stopRunning() {
         runCommand((kafkaConsumer, kafkaProducer) -> this.RUNNING = false);
     }
@@ -600,11 +626,6 @@ public final class KafkaActorThread extends Thread {
         }
         this.messageConsumer.assign(messagePartitions);
 
-        // also need to assign the state partitions
-        List<TopicPartition> statePartitions = this.localShards.entrySet().stream()
-                .map(entry -> new TopicPartition(persistentActorsTopic, entry.getKey().getShardId())).collect(Collectors.toList());
-        this.stateConsumer.assign(statePartitions);
-
         // and the scheduled messages
         List<TopicPartition> scheduledMessagesPartitions = this.localShards.entrySet().stream()
                 .map(entry -> new TopicPartition(scheduledMessagesTopic, entry.getKey().getShardId())).collect(Collectors.toList());
@@ -620,124 +641,81 @@ public final class KafkaActorThread extends Thread {
         return persistentActorStoreFactory.create(shardKey, stateDeserializer);
     }
 
-    private void initializeStateStores(List<ManagedActorShard> managedActorShards) {
+    private void initializeStateStores(List<ManagedActorShard> managedActorShards) throws Exception {
         // in the case of a scale out there are no new managed shards
         if(managedActorShards.isEmpty()) {
             return;
         }
-        // loop over the state consumer until nothing is left
-        // seek to the beginning for the new actor shards
-        // we don't need to do this if we don't commit anything (autocommit is off for the stateConsumer)
-        List<TopicPartition> topicPartitions = managedActorShards.stream()
-                .map(managedActorShard -> new TopicPartition(persistentActorsTopic, managedActorShard.getKey().getShardId()))
-                .collect(Collectors.toList());
-        // seek to the end for all (the ones we already own)
-        stateConsumer.seekToEnd(stateConsumer.assignment());
-        // and then to the beginning for the new ones only
-        stateConsumer.seekToBeginning(topicPartitions);
-        // this is to optimize the lookup in the poll loop
-        Map<Integer, ManagedActorShard> partitionsToShards = managedActorShards.stream()
-                .collect(Collectors.toMap(managedActorShard -> managedActorShard.getKey().getShardId(), managedActorShard -> managedActorShard));
-        // we need to be sure to read the topics fully. stopping to early will cause loss of state!
-        // topic is always the same so we just index on the partition here
-        final Map<Integer, Long> endOffsets = stateConsumer.endOffsets(topicPartitions).entrySet()
-                .stream().filter(e -> e.getValue() > 0).collect(Collectors.toMap(e -> e.getKey().partition(), Map.Entry::getValue));
-        // find the right position to start reading from
-        partitionsToShards.forEach((key, value) -> {
-            if(value.actorStore.getOffset() >= 0) {
-                stateConsumer.seek(new TopicPartition(persistentActorsTopic, value.getKey().getShardId()), value.actorStore.getOffset()+1);
-                // see if we are at the end of the partition already
-                Long endOffset = endOffsets.get(value.getKey().getShardId());
-                if(endOffset != null && (endOffset - DEFAULT_OFFSET_INCREASE) == value.actorStore.getOffset()) {
-                    endOffsets.remove(value.getKey().getShardId());
-                }
-            }
-        });
+        // every partition is restored by its own consumer on a restore thread, the actor thread waits for all of them
+        // to finish so the stores are only accessed by the restore thread while it is running
+        Map<TopicPartition, KafkaStateRestorer.PartitionRestorer<String, byte[]>> restorers = new HashMap<>();
+        managedActorShards.forEach(managedActorShard -> restorers.put(
+                new TopicPartition(persistentActorsTopic, managedActorShard.getKey().getShardId()),
+                new KafkaStateRestorer.PartitionRestorer<String, byte[]>() {
+                    private final PersistentActorStore actorStore = managedActorShard.actorStore;
+
+                    @Override
+                    public long getStartOffset() {
+                        // a local (persistent) store only needs the records after the last offset it has seen
+                        return actorStore.getOffset() >= 0 ? actorStore.getOffset() + 1 : -1L;
+                    }
 
-        // and poll till you can't poll no more
-        ConsumerRecords<String, byte[]> stateRecords = null;
-        int totalCount = 0;
-        do {
-            try {
-                stateRecords = stateConsumer.poll(10);
-                totalCount += stateRecords.count();
-                // distribute the data to the stores
-                stateRecords.iterator().forEachRemaining(consumerRecord -> {
-                    // value can be null (if actor was stopped and state deleted
-                    if(consumerRecord.value() != null) {
-                        partitionsToShards.get(consumerRecord.partition()).actorStore.put(consumerRecord.key(), consumerRecord.value(), consumerRecord.offset());
+                    @Override
+                    public void reset() {
+                        actorStore.clear();
                     }
-                    // see if we still have seen (at least) everything for this partition
-                    Long endOffset = endOffsets.get(consumerRecord.partition());
-                    if(endOffset != null && (endOffset - DEFAULT_OFFSET_INCREASE) == consumerRecord.offset()) {
-                        endOffsets.remove(consumerRecord.partition());
+
+                    @Override
+                    public void restore(ConsumerRecord<String, byte[]> consumerRecord) {
+                        // value can be null (if actor was stopped and state deleted)
+                        if(consumerRecord.value() != null) {
+                            actorStore.put(consumerRecord.key(), consumerRecord.value(), consumerRecord.offset());
+                        } else {
+                            actorStore.remove(consumerRecord.key());
+                        }
                     }
-                });
-            } catch(WakeupException | InterruptException e) {
-                logger.warn("Recoverable exception while polling PersistentActors state", e);
-                // @todo: find out how to handle this
-            } catch(KafkaException e) {
-                logger.error("FATAL: Unrecoverable exception while polling PersistentActors state", e);
-                // @todo: this is an unrecoverable error
-            } catch(Throwable t) {
-                logger.error("Unexpected exception while populating PersistentActorStores", t);
-            }
-        } while((stateRecords != null && !stateRecords.isEmpty()) || !endOffsets.isEmpty());
+                }));
+        stateRestorer.restore("PersistentActors", restorers, StringDeserializer::new, ByteArrayDeserializer::new);
         int uniques = managedActorShards.stream().mapToInt(value -> value.actorStore.count()).sum();
-        logger.info(format("Loaded %d unique persistent actors from %d entries", uniques, totalCount));
+        logger.info(format("Loaded %d unique persistent actors", uniques));
     }
 
-    private void initializeScheduledMessages(List<ManagedActorShard> managedActorShards) {
+    private void initializeScheduledMessages(List<ManagedActorShard> managedActorShards) throws Exception {
         // on scale out the managed actorshards can be empty
         if(managedActorShards.isEmpty()) {
             return;
         }
-        List<TopicPartition> topicPartitions = managedActorShards.stream()
-                .map(managedActorShard -> new TopicPartition(scheduledMessagesTopic, managedActorShard.getKey().getShardId()))
-                .collect(Collectors.toList());
-        // seek to the beginning for the new actor shards
-        scheduledMessagesConsumer.seekToBeginning(topicPartitions);
-        // this is to optimize the lookup in the poll loop
-        Map<Integer, ManagedActorShard> partitionsToShards = managedActorShards.stream()
-                .collect(Collectors.toMap(managedActorShard -> managedActorShard.getKey().getShardId(), managedActorShard -> managedActorShard));
-        // see if we have any messages at all
-        final Map<Integer, Long> endOffsets = scheduledMessagesConsumer.endOffsets(topicPartitions).entrySet()
-                .stream().filter(e -> e.getValue() > 0).collect(Collectors.toMap(e -> e.getKey().partition(), Map.Entry::getValue));
-        // and poll till you can't poll no more
-        ConsumerRecords<UUID, ScheduledMessage> scheduleMessageRecords = null;
-        do {
-            try {
-                scheduleMessageRecords = scheduledMessagesConsumer.poll(10);
-                // distribute the data to the scheduledMessages maps
-                scheduleMessageRecords.iterator().forEachRemaining(consumerRecord -> {
-                    // value can be null if the scheduled message was deleted
-                    if(consumerRecord.value() != null) {
-                        partitionsToShards.get(consumerRecord.partition())
-                                .scheduledMessages.put(consumerRecord.value().getFireTime(TimeUnit.MILLISECONDS),
-                                consumerRecord.value());
-                    } else {
-                        // could be that we need to remove one that was already added
-                        partitionsToShards.get(consumerRecord.partition()).scheduledMessages.entries()
-                                .removeIf(entry -> entry.getValue().getId().equals(consumerRecord.key()));
-                    }
-                    // see if we still have seen (at least) everything for this partition
-                    Long endOffset = endOffsets.get(consumerRecord.partition());
-                    if(endOffset != null && (endOffset - DEFAULT_OFFSET_INCREASE) == consumerRecord.offset()) {
-                        endOffsets.remove(consumerRecord.partition());
-                    }
-                });
-            } catch(WakeupException | InterruptException e) {
-                logger.warn("Recoverable exception while polling ScheduledMessages state", e);
-                // @todo: find out how to handle this
-            } catch(KafkaException e) {
-                logger.error("FATAL: Unrecoverable exception while polling ScheduledMessages state", e);
-                // @todo: this is an unrecoverable error
-            } catch(Throwable t) {
-                logger.error("Unexpected exception while populating ScheduledMessage", t);
-            }
-        } while((scheduleMessageRecords != null && !scheduleMessageRecords.isEmpty()) || !endOffsets.isEmpty());
-        //} while(scheduleMessageRecords != null && !scheduleMessageRecords.isEmpty());
-        // make sure we commit here so that we don't get replays later when we poll for more messages
+        // the restore threads collect the latest version of every scheduled message, these are added to the
+        // shards on the actor thread once the restore is done
+        Map<ManagedActorShard, Map<UUID, ScheduledMessage>> restoredMessages = new HashMap<>();
+        Map<TopicPartition, KafkaStateRestorer.PartitionRestorer<UUID, ScheduledMessage>> restorers = new HashMap<>();
+        managedActorShards.forEach(managedActorShard -> {
+            final Map<UUID, ScheduledMessage> scheduledMessages = new LinkedHashMap<>();
+            restoredMessages.put(managedActorShard, scheduledMessages);
+            restorers.put(new TopicPartition(scheduledMessagesTopic, managedActorShard.getKey().getShardId()),
+                    new KafkaStateRestorer.PartitionRestorer<UUID, ScheduledMessage>() {
+                        @Override
+                        public long getStartOffset() {
+                            return -1L;
+                        }
+
+                        @Override
+                        public void restore(ConsumerRecord<UUID, ScheduledMessage> consumerRecord) {
+                            // value can be null if the scheduled message was deleted
+                            if(consumerRecord.value() != null) {
+                                scheduledMessages.put(consumerRecord.key(), consumerRecord.value());
+                            } else {
+                                scheduledMessages.remove(consumerRecord.key());
+                            }
+                        }
+                    });
+        });
+        Map<TopicPartition, Long> positions = stateRestorer.restore("ScheduledMessages", restorers,
+                UUIDDeserializer::new, () -> scheduledMessageDeserializer);
+        restoredMessages.forEach((managedActorShard, scheduledMessages) ->
+                scheduledMessages.values().forEach(managedActorShard::addScheduledMessage));
+        // continue after the restored records, and commit here so that we don't get replays later when we poll for more messages
+        positions.forEach(scheduledMessagesConsumer::seek);
         try {
             scheduledMessagesConsumer.commitSync();
         } catch(WakeupException | InterruptException e) {
@@ -1014,6 +992,8 @@ public final class KafkaActorThread extends Thread {
         }
         if(shouldUpdateState) {
             managedActorContainer.persistActor(persistentActor);
+        } else {
+            managedActorContainer.stateNotPersisted(persistentActor);
         }
     }
 
@@ -1091,17 +1071,58 @@ public final class KafkaActorThread extends Thread {
         return new InternalMessageImpl(from, ImmutableList.copyOf(to), SerializationContext.serialize(messageSerializer, message),message.getClass().getName(),durable, timeout);
     }
 
+    private static final class ShardFireTime implements Comparable<ShardFireTime> {
+        private final long fireTime;
+        private final ManagedActorShard shard;
+
+        private ShardFireTime(long fireTime, ManagedActorShard shard) {
+            this.fireTime = fireTime;
+            this.shard = shard;
+        }
+
+        @Override
+        public int compareTo(ShardFireTime other) {
+            return Long.compare(fireTime, other.fireTime);
+        }
+    }
+
+    private final class MessageBatchHandler implements KafkaTransactionBatcher.Handler<UUID, InternalMessage> {
+        @Override
+        public void handle(TopicPartition topicPartition, ConsumerRecord<UUID, InternalMessage> consumerRecord) {
+            if(logger.isDebugEnabled()) {
+                logger.debug(format("handling InternalMessage(sender:%s, receiver:%s, type:%s)  with offset %d from topicPartition(%s)",
+                        consumerRecord.value().getSender(), consumerRecord.value().getReceivers().get(0),
+                        consumerRecord.value().getPayloadClass(), consumerRecord.offset(),
+                        topicPartition.toString()));
+            }
+            handleInternalMessage(topicPartition, consumerRecord.value());
+        }
+
+        @Override
+        public void onCommit(TopicPartition topicPartition) {
+            applyUncommittedState();
+        }
+
+        @Override
+        public void onAbort(TopicPartition topicPartition) {
+            discardUncommittedState(topicPartition);
+        }
+    }
+
     private final class ManagedActorShard implements EvictionListener<PersistentActor<ShardKey>>, ManagedActorContainer<ShardKey> {
         private final KafkaActorShard actorShard;
         private final Cache<ActorRef,PersistentActor<ShardKey>> actorCache;
         private final PersistentActorStore actorStore;
         private final TreeMultimap<Long, ScheduledMessage> scheduledMessages;
+        private final Map<UUID, ScheduledMessage> scheduledMessagesById = new HashMap<>();
+        private final TransactionalActorStore transactionalStore;
 
         public ManagedActorShard(KafkaActorShard actorShard,
                                  PersistentActorStore actorStore) {
             this.actorShard = actorShard;
             this.actorCache = shardActorCacheManager.create(actorShard.getKey(), this);
             this.actorStore = actorStore;
+            this.transactionalStore = new TransactionalActorStore(actorStore);
             this.scheduledMessages = TreeMultimap.create(Comparator.naturalOrder(), Comparator.naturalOrder());
         }
 
@@ -1116,6 +1137,7 @@ public final class KafkaActorThread extends Thread {
             if(!(TOMBSTONE == value)) {
                 // run the passivate logic
                 doInActorContext(ApplicationProtocol::passivateActor, this, value, null);
+                transactionalStore.evicted(value);
             }
         }
 
@@ -1129,8 +1151,7 @@ public final class KafkaActorThread extends Thread {
         public PersistentActor<ShardKey> getPersistentActor(ActorRef actorRef) {
             PersistentActor<ShardKey> persistentActor = actorCache.getIfPresent(actorRef);
             if(persistentActor == null) {
-                // materialize from actor store
-                persistentActor = actorStore.getPersistentActor(actorRef.getActorId());
+                persistentActor = transactionalStore.getPersistentActor(actorRef.getActorId());
                 if(persistentActor != null) {
                     // actor exists, we need to run the activate logic and then cache it
                     doInActorContext(ApplicationProtocol::activateActor, this, persistentActor, null);
@@ -1145,13 +1166,39 @@ public final class KafkaActorThread extends Thread {
         }
 
         public boolean actorExists(ActorRef actorRef) {
-            return actorStore.containsKey(actorRef.getActorId());
+            return transactionalStore.containsKey(actorRef.getActorId());
+        }
+
+        public void addScheduledMessage(ScheduledMessage scheduledMessage) {
+            final long fireTime = scheduledMessage.getFireTime(TimeUnit.MILLISECONDS);
+            final boolean firstToFire = scheduledMessages.isEmpty() || fireTime < scheduledMessages.keySet().first();
+            ScheduledMessage previous = scheduledMessagesById.put(scheduledMessage.getId(), scheduledMessage);
+            if(previous != null) {
+                scheduledMessages.remove(previous.getFireTime(TimeUnit.MILLISECONDS), previous);
+            }
+            scheduledMessages.put(fireTime, scheduledMessage);
+            if(firstToFire) {
+                nextFireTimes.add(new ShardFireTime(fireTime, this));
+            }
+        }
+
+        public void removeScheduledMessage(UUID id) {
+            ScheduledMessage scheduledMessage = scheduledMessagesById.remove(id);
+            if(scheduledMessage != null) {
+                scheduledMessages.remove(scheduledMessage.getFireTime(TimeUnit.MILLISECONDS), scheduledMessage);
+            }
         }
 
         public List<ScheduledMessage> getScheduledMessagesThatShouldFire(long now) {
-            return this.scheduledMessages.values().stream()
-                    .filter(scheduledMessage -> scheduledMessage.getFireTime(TimeUnit.MILLISECONDS) < now)
-                    .collect(Collectors.toList());
+            List<ScheduledMessage> result = new ArrayList<>();
+            scheduledMessages.asMap().headMap(now).values().forEach(result::addAll);
+            return result;
+        }
+
+        public void scheduleNextFireTime() {
+            if(!scheduledMessages.isEmpty()) {
+                nextFireTimes.add(new ShardFireTime(scheduledMessages.keySet().first(), this));
+            }
         }
 
         @Override
@@ -1166,6 +1213,21 @@ public final class KafkaActorThread extends Thread {
                 }
                 ProducerRecord<Object,Object> producerRecord = new ProducerRecord<>(persistentActorsTopic, this.getKey().getShardId(),
                         persistentActor.getSelf().getActorId(), serializedActor);
+                if(inTransactionBatch) {
+                    // the actor store should only see committed state, so wait for the transaction to commit
+                    transactionalStore.persisted(persistentActor.getSelf().getActorId());
+                    uncommittedShards.add(this);
+                    producer.send(producerRecord, (metadata, exception) -> {
+                        if(metadata != null) {
+                            transactionalStore.put(persistentActor.getSelf().getActorId(), serializedActor,
+                                    metadata.hasOffset() ? metadata.offset() : -1L);
+                        } else {
+                            logger.error("Exception while sending message to KafkaProducer", exception);
+                        }
+                    });
+                    return;
+                }
+                transactionalStore.clearUnpersisted(persistentActor.getSelf().getActorId());
                 // this will always be within a transaction
                 producer.send(producerRecord, (metadata, exception) -> {
                     if(metadata != null) {
@@ -1194,17 +1256,28 @@ public final class KafkaActorThread extends Thread {
 
         @Override
         public void deleteActor(PersistentActor<ShardKey> persistentActor) {
-            this.actorStore.remove(persistentActor.getSelf().getActorId());
+            final String actorId = persistentActor.getSelf().getActorId();
+            // actors are only destroyed while handling a message, the actor store can only be updated when the
+            // transaction that writes the tombstone commits
+            if(!inTransactionBatch) {
+                throw new IllegalStateException(format("Cannot delete actor %s outside of a transaction batch", actorId));
+            }
+            transactionalStore.deleted(actorId);
+            uncommittedShards.add(this);
             // and from the underlying topic
-            // @todo: this will lead to inconsistent state when the transaction fails
             ProducerRecord<Object,Object> producerRecord = new ProducerRecord<>(persistentActorsTopic, this.getKey().getShardId(),
                     persistentActor.getSelf().getActorId(), null);
             doSend(producerRecord, KafkaTransactionContext.getProducer());
         }
 
+        @Override
+        public void stateNotPersisted(PersistentActor<ShardKey> persistentActor) {
+            transactionalStore.stateNotPersisted(persistentActor.getSelf().getActorId());
+        }
+
         @Override
         public boolean containsKey(String actorId) {
-            return actorStore.containsKey(actorId);
+            return transactionalStore.containsKey(actorId);
         }
 
         @Override
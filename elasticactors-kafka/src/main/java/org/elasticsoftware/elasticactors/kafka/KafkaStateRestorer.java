@@ -0,0 +1,221 @@
+package org.elasticsoftware.elasticactors.kafka;
+
+import org.apache.kafka.clients.CommonClientConfigs;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.RetriableException;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsoftware.elasticactors.util.concurrent.DaemonThreadFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import static java.lang.String.format;
+import static org.apache.kafka.common.requests.IsolationLevel.READ_COMMITTED;
+
+/**
+ * Restores the contents of a number of partitions in parallel, every partition is read by its own (short lived)
+ * consumer on a restore thread until the last stable offset is reached. A {@link PartitionRestorer} is only used by
+ * the thread that restores its partition, once {@link #restore(String, Map, Supplier, Supplier)} returns the restored
+ * state is handed back to the calling thread.
+ *
+ * A partition is only resumed from the start offset of its {@link PartitionRestorer} when that offset is at most
+ * maxResumeLag records behind the end of the partition, an older local state could have missed tombstones that were
+ * removed by the log compaction in the meantime. In that case the partition is restored from the beginning.
+ *
+ * The progress of the running restore and the throughput of the last restore are exposed for monitoring.
+ */
+final class KafkaStateRestorer {
+    private static final Logger logger = LogManager.getLogger(KafkaStateRestorer.class);
+    private static final long PROGRESS_LOG_INTERVAL_SECONDS = 10L;
+    private final String name;
+    private final String bootstrapServers;
+    private final int restoreThreads;
+    private final long maxResumeLag;
+    private final LongAdder restoredRecords = new LongAdder();
+    private final AtomicLong remainingRecords = new AtomicLong();
+    private volatile long lastRestoreRate;
+    private volatile long lastRestoreMillis;
+
+    KafkaStateRestorer(String name, String bootstrapServers, int restoreThreads, long maxResumeLag) {
+        this.name = name;
+        this.bootstrapServers = bootstrapServers;
+        this.restoreThreads = Math.max(1, restoreThreads);
+        this.maxResumeLag = maxResumeLag;
+    }
+
+    /**
+     * Restores the given partitions and waits for all of them to complete.
+     *
+     * @return the position after the last restored record for every partition
+     */
+    <K, V> Map<TopicPartition, Long> restore(String description,
+                                             Map<TopicPartition, ? extends PartitionRestorer<K, V>> partitions,
+                                             Supplier<Deserializer<K>> keyDeserializer,
+                                             Supplier<Deserializer<V>> valueDeserializer) throws Exception {
+        if (partitions.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        final long start = System.nanoTime();
+        final long restoredBefore = restoredRecords.sum();
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(restoreThreads, partitions.size()),
+                new DaemonThreadFactory(name + "-restore"));
+        try {
+            final Map<TopicPartition, Future<Long>> futures = new LinkedHashMap<>();
+            partitions.forEach((topicPartition, restorer) -> futures.put(topicPartition,
+                    executor.submit(() -> restorePartition(topicPartition, restorer, keyDeserializer.get(), valueDeserializer.get()))));
+            final Map<TopicPartition, Long> positions = new HashMap<>();
+            for (Map.Entry<TopicPartition, Future<Long>> entry : futures.entrySet()) {
+                positions.put(entry.getKey(), await(description, entry.getValue()));
+            }
+            final long restored = restoredRecords.sum() - restoredBefore;
+            lastRestoreMillis = Math.max(1L, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            lastRestoreRate = restored * 1000L / lastRestoreMillis;
+            logger.info(format("Restored %d %s records from %d partitions in %d ms (%d records/s)", restored, description,
+                    partitions.size(), lastRestoreMillis, lastRestoreRate));
+            return positions;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Long await(String description, Future<Long> future) throws Exception {
+        while (true) {
+            try {
+                return future.get(PROGRESS_LOG_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                logger.info(format("Restoring %s: %d records restored, %d records remaining", description,
+                        restoredRecords.sum(), remainingRecords.get()));
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+
+    private <K, V> long restorePartition(TopicPartition topicPartition,
+                                         PartitionRestorer<K, V> restorer,
+                                         Deserializer<K> keyDeserializer,
+                                         Deserializer<V> valueDeserializer) {
+        try (KafkaConsumer<K, V> consumer = createConsumer(topicPartition, keyDeserializer, valueDeserializer)) {
+            final Map<TopicPartition, Long> partitionOffsets = Collections.singletonMap(topicPartition, 0L);
+            consumer.assign(partitionOffsets.keySet());
+            // with read_committed this is the last stable offset
+            final long endOffset = consumer.endOffsets(partitionOffsets.keySet()).get(topicPartition);
+            final long beginningOffset = consumer.beginningOffsets(partitionOffsets.keySet()).get(topicPartition);
+            final long startOffset = restorer.getStartOffset();
+            if (startOffset >= beginningOffset && startOffset <= endOffset && endOffset - startOffset <= maxResumeLag) {
+                // resume from the local state
+                consumer.seek(topicPartition, startOffset);
+            } else {
+                if (startOffset >= 0) {
+                    logger.warn(format("Local state of topicPartition(%s) is at offset %d which is outside of [%d,%d] or more than %d records behind, restoring from the beginning",
+                            topicPartition, startOffset, beginningOffset, endOffset, maxResumeLag));
+                    // the stale local state should not be mixed with the restored state
+                    restorer.reset();
+                }
+                consumer.seek(topicPartition, beginningOffset);
+            }
+            long position = consumer.position(topicPartition);
+            long remaining = Math.max(0L, endOffset - position);
+            remainingRecords.addAndGet(remaining);
+            try {
+                while (position < endOffset) {
+                    try {
+                        for (ConsumerRecord<K, V> record : consumer.poll(100)) {
+                            restorer.restore(record);
+                            restoredRecords.increment();
+                        }
+                    } catch (RetriableException e) {
+                        logger.warn(format("Recoverable exception while restoring topicPartition(%s)", topicPartition), e);
+                    }
+                    // transaction markers and aborted records are skipped so we need to look at the position
+                    position = consumer.position(topicPartition);
+                    final long newRemaining = Math.max(0L, endOffset - position);
+                    remainingRecords.addAndGet(newRemaining - remaining);
+                    remaining = newRemaining;
+                }
+                return position;
+            } finally {
+                // nothing remains for a failed restore either
+                remainingRecords.addAndGet(-remaining);
+            }
+        }
+    }
+
+    private <K, V> KafkaConsumer<K, V> createConsumer(TopicPartition topicPartition,
+                                                      Deserializer<K> keyDeserializer,
+                                                      Deserializer<V> valueDeserializer) {
+        final Map<String, Object> consumerConfig = new HashMap<>();
+        consumerConfig.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, "1000");
+        consumerConfig.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        consumerConfig.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, READ_COMMITTED.name().toLowerCase(Locale.ROOT));
+        consumerConfig.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        consumerConfig.put(CommonClientConfigs.CLIENT_ID_CONFIG, name + "-restore-consumer-" + topicPartition);
+        return new KafkaConsumer<>(consumerConfig, keyDeserializer, valueDeserializer);
+    }
+
+    /**
+     * @return the total number of records restored by this restorer
+     */
+    long getRestoredRecords() {
+        return restoredRecords.sum();
+    }
+
+    /**
+     * @return the number of records that still need to be restored by the running restore
+     */
+    long getRemainingRecords() {
+        return remainingRecords.get();
+    }
+
+    /**
+     * @return the throughput of the last completed restore in records per second
+     */
+    long getLastRestoreRate() {
+        return lastRestoreRate;
+    }
+
+    /**
+     * @return the duration of the last completed restore in milliseconds
+     */
+    long getLastRestoreMillis() {
+        return lastRestoreMillis;
+    }
+
+    interface PartitionRestorer<K, V> {
+        /**
+         * @return the offset to resume the restore from, or -1 to restore the partition from the beginning
+         */
+        long getStartOffset();
+
+        /**
+         * Called on the restore thread for every record of the partition, in order
+         */
+        void restore(ConsumerRecord<K, V> record);
+
+        /**
+         * Called on the restore thread when the partition can't be resumed from the start offset and is restored from
+         * the beginning, any local state should be discarded
+         */
+        default void reset() { }
+    }
+}
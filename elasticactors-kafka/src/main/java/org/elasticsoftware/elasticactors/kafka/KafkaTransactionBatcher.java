@@ -0,0 +1,135 @@
+package org.elasticsoftware.elasticactors.kafka;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.ProducerFencedException;
+import org.apache.kafka.common.errors.RetriableException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Collections;
+import java.util.List;
+
+import static java.lang.String.format;
+
+/**
+ * Handles the records of a {@link TopicPartition} in producer transactions of at most maxBatchSize records or
+ * maxBatchMillis milliseconds, whichever comes first. The offset of the last record of the batch is committed as
+ * part of the transaction, so the output of the batch and the consumed offsets are committed atomically.
+ *
+ * When a batch fails the transaction is aborted and the records of the batch are replayed with one transaction per
+ * record, this way only the record that caused the failure is affected. If that single record fails again with a
+ * {@link RetriableException} the consumer is rewound so it will be retried on the next poll, any other failure is
+ * logged and the record is skipped by committing only its offset.
+ */
+final class KafkaTransactionBatcher<K, V> {
+    private static final Logger logger = LogManager.getLogger(KafkaTransactionBatcher.class);
+    private final KafkaConsumer<K, V> consumer;
+    private final KafkaProducer<Object, Object> producer;
+    private final String consumerGroupId;
+    private final int maxBatchSize;
+    private final long maxBatchMillis;
+    private final Handler<K, V> handler;
+
+    KafkaTransactionBatcher(KafkaConsumer<K, V> consumer,
+                            KafkaProducer<Object, Object> producer,
+                            String consumerGroupId,
+                            int maxBatchSize,
+                            long maxBatchMillis,
+                            Handler<K, V> handler) {
+        this.consumer = consumer;
+        this.producer = producer;
+        this.consumerGroupId = consumerGroupId;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxBatchMillis = maxBatchMillis;
+        this.handler = handler;
+    }
+
+    void process(TopicPartition topicPartition, List<ConsumerRecord<K, V>> records) {
+        int index = 0;
+        // the records of a failed batch are replayed with one transaction per record
+        int replayUntil = 0;
+        try {
+            while (index < records.size()) {
+                final boolean replaying = index < replayUntil;
+                final int limit = replaying ? index + 1 : Math.min(records.size(), index + maxBatchSize);
+                final long deadline = System.currentTimeMillis() + maxBatchMillis;
+                int end = index;
+                producer.beginTransaction();
+                try {
+                    // set this producer in the transactional context
+                    KafkaTransactionContext.setTransactionalProducer(producer);
+                    do {
+                        handler.handle(topicPartition, records.get(end++));
+                    } while (end < limit && (maxBatchMillis <= 0 || System.currentTimeMillis() < deadline));
+                    // mark the messages as read, this will commit the offset as part of the transaction
+                    producer.sendOffsetsToTransaction(Collections.singletonMap(topicPartition,
+                            new OffsetAndMetadata(records.get(end - 1).offset() + 1)), consumerGroupId);
+                    producer.commitTransaction();
+                } catch (ProducerFencedException e) {
+                    // the transaction cannot be aborted anymore, the caller needs to deal with this
+                    throw e;
+                } catch (Exception e) {
+                    producer.abortTransaction();
+                    handler.onAbort(topicPartition);
+                    if (end - index > 1) {
+                        logger.warn(format("Aborted transaction for %d records from topicPartition(%s), replaying them one by one",
+                                end - index, topicPartition), e);
+                        replayUntil = end;
+                        continue;
+                    } else if (e instanceof RetriableException) {
+                        logger.warn(format("Aborted transaction for record with offset %d from topicPartition(%s), will retry",
+                                records.get(index).offset(), topicPartition), e);
+                        // make sure the remaining records will be polled again
+                        consumer.seek(topicPartition, records.get(index).offset());
+                        return;
+                    } else {
+                        logger.error(format("Aborted transaction for record with offset %d from topicPartition(%s), skipping it",
+                                records.get(index).offset(), topicPartition), e);
+                        skip(topicPartition, records.get(index));
+                        index += 1;
+                        continue;
+                    }
+                } finally {
+                    // clear the transaction context
+                    KafkaTransactionContext.clear();
+                }
+                handler.onCommit(topicPartition);
+                index = end;
+            }
+        } catch (RuntimeException | Error e) {
+            // the remaining records need to be polled again, otherwise they would be lost
+            if (index < records.size()) {
+                consumer.seek(topicPartition, records.get(index).offset());
+            }
+            throw e;
+        }
+    }
+
+    private void skip(TopicPartition topicPartition, ConsumerRecord<K, V> record) {
+        producer.beginTransaction();
+        producer.sendOffsetsToTransaction(Collections.singletonMap(topicPartition,
+                new OffsetAndMetadata(record.offset() + 1)), consumerGroupId);
+        producer.commitTransaction();
+    }
+
+    interface Handler<K, V> {
+        /**
+         * Called within the transaction for every record of the batch
+         */
+        void handle(TopicPartition topicPartition, ConsumerRecord<K, V> record);
+
+        /**
+         * Called after the transaction was successfully committed
+         */
+        void onCommit(TopicPartition topicPartition);
+
+        /**
+         * Called after the transaction was aborted, all changes made by the batch need to be discarded
+         */
+        void onAbort(TopicPartition topicPartition);
+    }
+}
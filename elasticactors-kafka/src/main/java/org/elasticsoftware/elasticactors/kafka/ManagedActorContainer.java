@@ -13,6 +13,13 @@ public interface ManagedActorContainer<K> {
 
     void deleteActor(PersistentActor<K> persistentActor);
 
+    /**
+     * Called when the actor was handled without persisting its state
+     *
+     * @param persistentActor
+     */
+    default void stateNotPersisted(PersistentActor<K> persistentActor) { }
+
     boolean containsKey(String actorId);
 
     K getKey();
@@ -0,0 +1,145 @@
+package org.elasticsoftware.elasticactors.kafka;
+
+import org.elasticsoftware.elasticactors.ShardKey;
+import org.elasticsoftware.elasticactors.kafka.state.PersistentActorStore;
+import org.elasticsoftware.elasticactors.state.PersistentActor;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Keeps the changes a transaction batch makes to the {@link PersistentActorStore} of a shard until the transaction is
+ * committed, the store should only see committed state. Until then the persisted (or deleted) actors are tracked here
+ * and the actors that were evicted from the actor cache are kept, the store doesn't have their latest state yet.
+ *
+ * Only the store updates are added from the producer callbacks, everything else should only be used from the
+ * KafkaActorThread.
+ */
+final class TransactionalActorStore {
+    private final PersistentActorStore actorStore;
+    // the actor store updates of the running transaction batch, these are applied when the transaction commits
+    private final Queue<Runnable> uncommittedStoreUpdates = new ConcurrentLinkedQueue<>();
+    // actors that were persisted (true) or deleted (false) by the running transaction batch
+    private final Map<String, Boolean> uncommittedActors = new HashMap<>();
+    // actors that were evicted from the cache during the running transaction batch, the store doesn't have their
+    // latest state yet
+    private final Map<String, PersistentActor<ShardKey>> evictedActors = new HashMap<>();
+    // cached actors whose state might differ from the last persisted state
+    private final Set<String> unpersistedActors = new HashSet<>();
+
+    TransactionalActorStore(PersistentActorStore actorStore) {
+        this.actorStore = actorStore;
+    }
+
+    /**
+     * The actor was written to the producer within the running transaction batch, the store is updated with
+     * {@link #put(String, byte[], long)} once the write is acknowledged
+     */
+    void persisted(String actorId) {
+        unpersistedActors.remove(actorId);
+        uncommittedActors.put(actorId, Boolean.TRUE);
+    }
+
+    /**
+     * Called from the producer callback, the update is applied when the transaction commits
+     *
+     * @param offset the offset of the record, or -1 when it is unknown
+     */
+    void put(String actorId, byte[] persistentActorBytes, long offset) {
+        if(offset >= 0) {
+            uncommittedStoreUpdates.add(() -> actorStore.put(actorId, persistentActorBytes, offset));
+        } else {
+            uncommittedStoreUpdates.add(() -> actorStore.put(actorId, persistentActorBytes));
+        }
+    }
+
+    /**
+     * The actor was deleted within the running transaction batch
+     */
+    void deleted(String actorId) {
+        unpersistedActors.remove(actorId);
+        uncommittedActors.put(actorId, Boolean.FALSE);
+        uncommittedStoreUpdates.add(() -> actorStore.remove(actorId));
+    }
+
+    /**
+     * The state of the (cached) actor changed but was not persisted
+     */
+    void stateNotPersisted(String actorId) {
+        unpersistedActors.add(actorId);
+    }
+
+    /**
+     * The actor was persisted outside of a transaction batch
+     */
+    void clearUnpersisted(String actorId) {
+        unpersistedActors.remove(actorId);
+    }
+
+    /**
+     * The actor was evicted from the actor cache. When the store has its latest state the instance is handed back to
+     * the store so it can be reused, when it was persisted by the running transaction batch it is kept until the batch
+     * is committed.
+     */
+    void evicted(PersistentActor<ShardKey> persistentActor) {
+        final String actorId = persistentActor.getSelf().getActorId();
+        final Boolean uncommitted = uncommittedActors.get(actorId);
+        if(Boolean.TRUE.equals(uncommitted)) {
+            evictedActors.put(actorId, persistentActor);
+        } else if(!unpersistedActors.remove(actorId) && uncommitted == null) {
+            actorStore.release(persistentActor);
+        }
+    }
+
+    /**
+     * @return the actor as seen by the running transaction batch, or null if it doesn't exist (anymore)
+     */
+    PersistentActor<ShardKey> getPersistentActor(String actorId) {
+        if(Boolean.FALSE.equals(uncommittedActors.get(actorId))) {
+            // deleted in the running transaction batch
+            return null;
+        }
+        // evicted in the running transaction batch, otherwise materialize from actor store
+        PersistentActor<ShardKey> persistentActor = evictedActors.remove(actorId);
+        return persistentActor != null ? persistentActor : actorStore.getPersistentActor(actorId);
+    }
+
+    boolean containsKey(String actorId) {
+        Boolean uncommitted = uncommittedActors.get(actorId);
+        return uncommitted != null ? uncommitted : actorStore.containsKey(actorId);
+    }
+
+    /**
+     * Applies the updates of the committed transaction batch to the store
+     */
+    void commit() {
+        // the callbacks of the producer have all been called when the transaction is committed
+        Runnable storeUpdate;
+        while((storeUpdate = uncommittedStoreUpdates.poll()) != null) {
+            storeUpdate.run();
+        }
+        uncommittedActors.clear();
+        // the store is up to date now, hand back the actors that were evicted so they can be reused
+        evictedActors.forEach((actorId, evictedActor) -> {
+            if(!unpersistedActors.remove(actorId)) {
+                actorStore.release(evictedActor);
+            }
+        });
+        evictedActors.clear();
+    }
+
+    /**
+     * Discards the updates of the aborted transaction batch, the store still has the last committed state. The cached
+     * actors can contain state of the aborted transaction as well so the caller needs to invalidate them
+     */
+    void rollback() {
+        uncommittedStoreUpdates.clear();
+        uncommittedActors.clear();
+        evictedActors.clear();
+        unpersistedActors.clear();
+    }
+}
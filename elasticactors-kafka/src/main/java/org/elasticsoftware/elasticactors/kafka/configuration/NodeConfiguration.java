@@ -31,6 +31,7 @@ import org.elasticsoftware.elasticactors.scheduler.ScheduledMessageRef;
 import org.elasticsoftware.elasticactors.serialization.Deserializer;
 import org.elasticsoftware.elasticactors.serialization.Serializer;
 import org.elasticsoftware.elasticactors.serialization.SystemSerializationFramework;
+import org.elasticsoftware.elasticactors.serialization.compression.CompressionCodecs;
 import org.elasticsoftware.elasticactors.serialization.internal.PersistentActorDeserializer;
 import org.elasticsoftware.elasticactors.serialization.internal.PersistentActorSerializer;
 import org.elasticsoftware.elasticactors.state.PersistentActor;
@@ -43,6 +44,7 @@ import org.springframework.core.io.ResourceLoader;
 import javax.annotation.PostConstruct;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.Map;
 
 public class NodeConfiguration {
     @Autowired
@@ -128,17 +130,31 @@ public class NodeConfiguration {
     public InternalActorSystem createLocalActorSystemInstance(ShardActorCacheManager shardActorCacheManager,
                                                               NodeActorCacheManager nodeActorCacheManager,
                                                               ActorLifecycleListenerRegistry actorLifecycleListenerRegistry,
-                                                              PersistentActorStoreFactory persistentActorStoreFactory) {
+                                                              PersistentActorStoreFactory persistentActorStoreFactory) throws IOException {
         final int workers = env.getProperty("ea.shardThreads.workerCount",Integer.class,Runtime.getRuntime().availableProcessors());
         final String bootstrapServers = env.getRequiredProperty("ea.kafka.bootstrapServers");
         final Integer compressionThreshold = env.getProperty("ea.persistentActorRepository.compressionThreshold",Integer.class, 512);
-        Serializer<PersistentActor<ShardKey>,byte[]> serializer = new CompressingSerializer<>(new PersistentActorSerializer(node),compressionThreshold);
-        Deserializer<byte[],PersistentActor<ShardKey>> deserializer = new DecompressingDeserializer<>(new PersistentActorDeserializer(node, node));
+        final String compressionCodec = env.getProperty("ea.persistentActorRepository.compressionCodec", CompressionCodecs.LZ4);
+        final Integer compressionLevel = env.getProperty("ea.persistentActorRepository.compressionLevel",Integer.class, 3);
+        final Map<String, byte[]> dictionaries = CompressionCodecs.loadDictionaries(env.getProperty("ea.persistentActorRepository.compressionDictionaries"));
+        // number of messages (per partition) that are handled in one kafka transaction, 1 means a transaction per message
+        final int transactionBatchSize = env.getProperty("ea.kafka.transactionBatch.maxSize", Integer.class, 1);
+        final long transactionBatchMillis = env.getProperty("ea.kafka.transactionBatch.maxMillis", Long.class, 100L);
+        // number of partitions (per KafkaActorThread) that are restored in parallel when shards are assigned
+        final int restoreThreads = env.getProperty("ea.kafka.stateRestore.threads", Integer.class, 4);
+        // a local state store that is further behind than this number of records is restored from the beginning, the
+        // tombstones it missed could have been removed by the log compaction
+        final long restoreMaxResumeLag = env.getProperty("ea.kafka.stateRestore.maxResumeLag", Long.class, 100000L);
+        Serializer<PersistentActor<ShardKey>,byte[]> serializer = new CompressingSerializer<>(new PersistentActorSerializer(node),compressionThreshold,
+                CompressionCodecs.create(compressionCodec, compressionLevel, dictionaries), PersistentActor::getActorClass);
+        Deserializer<byte[],PersistentActor<ShardKey>> deserializer = new DecompressingDeserializer<>(new PersistentActorDeserializer(node, node),
+                CompressionCodecs.createDecompressionCodecs(dictionaries));
         // NOTE: the node topic will be created with ea.shardThreads.workerCount number of partitions, changing this
         // value will require you to update the topic or face serious issues otherwise
         return new KafkaActorSystemInstance(node, configuration, nodeSelectorFactory, workers, bootstrapServers,
                 actorRefCache, shardActorCacheManager, nodeActorCacheManager, serializer, deserializer,
-                actorLifecycleListenerRegistry, persistentActorStoreFactory);
+                actorLifecycleListenerRegistry, persistentActorStoreFactory, transactionBatchSize, transactionBatchMillis,
+                restoreThreads, restoreMaxResumeLag);
     }
 
     @Bean(name = {"internalActorSystemHealthCheck"})
@@ -73,7 +73,7 @@ public final class ChronicleMapPersistentActorStore implements PersistentActorSt
 
     @Override
     public PersistentActor<ShardKey> getPersistentActor(String actorId) {
-        byte[] persistentActorBytes = backingMap.get(actorId);
+        byte[] persistentActorBytes = getBytes(actorId);
         try {
             return persistentActorBytes != null ? deserializer.deserialize(persistentActorBytes) : null;
         } catch(IOException e) {
@@ -81,11 +81,21 @@ public final class ChronicleMapPersistentActorStore implements PersistentActorSt
         }
     }
 
+    byte[] getBytes(String actorId) {
+        return backingMap.get(actorId);
+    }
+
     @Override
     public void remove(String actorId) {
         backingMap.remove(actorId);
     }
 
+    @Override
+    public void clear() {
+        backingMap.clear();
+        offset = -1L;
+    }
+
     @Override
     public int count() {
         // we have to subtract the OFFSETS_KEY entry
@@ -22,14 +22,21 @@ public final class ChronicleMapPersistentActorStoreFactory implements Persistent
     @Override
     public PersistentActorStore create(ShardKey shardKey, Deserializer<byte[], PersistentActor<ShardKey>> deserializer) {
         try {
-            String dataDir = environment.getProperty("ea.kafka.persistentActorStore.dataDirectory", String.class, System.getProperty("java.io.tmpdir"));
-            final Double averageKeySize = environment.getProperty("ea.kafka.persistentActorStore.averageKeySize", Double.class, 45d);
-            final Double averageValueSize = environment.getProperty("ea.kafka.persistentActorStore.averageValueSize", Double.class, 512d);
-            final Long maxEntries = environment.getProperty("ea.kafka.persistentActorStore.averageValueSize", Long.class, 1048576L);
-            return new ChronicleMapPersistentActorStore(shardKey, deserializer, dataDir, averageKeySize, averageValueSize, maxEntries);
+            return createStore(environment, shardKey, deserializer);
         } catch(IOException e) {
             logger.warn("IOException while creating ChronicleMapPersistenActorStore, falling back to InMemoryPersistentActorStore", e);
             return new InMemoryPersistentActorStore(shardKey, deserializer);
         }
     }
+
+    static ChronicleMapPersistentActorStore createStore(Environment environment,
+                                                        ShardKey shardKey,
+                                                        Deserializer<byte[], PersistentActor<ShardKey>> deserializer) throws IOException {
+        String dataDir = environment.getProperty("ea.kafka.persistentActorStore.dataDirectory", String.class, System.getProperty("java.io.tmpdir"));
+        final Double averageKeySize = environment.getProperty("ea.kafka.persistentActorStore.averageKeySize", Double.class, 45d);
+        final Double averageValueSize = environment.getProperty("ea.kafka.persistentActorStore.averageValueSize", Double.class, 512d);
+        // the maximum number of actors per shard
+        final Long maxEntries = environment.getProperty("ea.kafka.persistentActorStore.maxEntries", Long.class, 1048576L);
+        return new ChronicleMapPersistentActorStore(shardKey, deserializer, dataDir, averageKeySize, averageValueSize, maxEntries);
+    }
 }
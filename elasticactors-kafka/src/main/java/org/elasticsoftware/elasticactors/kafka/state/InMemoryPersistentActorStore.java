@@ -39,6 +39,11 @@ public final class InMemoryPersistentActorStore implements PersistentActorStore
         backingMap.remove(actorId);
     }
 
+    @Override
+    public void clear() {
+        backingMap.clear();
+    }
+
     @Override
     public boolean containsKey(String actorId) {
         return backingMap.containsKey(actorId);
@@ -16,6 +16,20 @@ public interface PersistentActorStore {
 
     void remove(String actorId);
 
+    /**
+     * Removes all actors and the offset from the store
+     */
+    void clear();
+
+    /**
+     * Hands back an actor that was obtained with {@link #getPersistentActor(String)} and is no longer used, the state
+     * of the actor matches the last bytes that were put. Stores can keep the instance around to save the
+     * deserialization when it is needed again.
+     *
+     * @param persistentActor
+     */
+    default void release(PersistentActor<ShardKey> persistentActor) { }
+
     default void init() { }
 
     default void destroy() {}
@@ -0,0 +1,171 @@
+package org.elasticsoftware.elasticactors.kafka.state;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsoftware.elasticactors.ShardKey;
+import org.elasticsoftware.elasticactors.serialization.Deserializer;
+import org.elasticsoftware.elasticactors.state.PersistentActor;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.lang.String.format;
+
+/**
+ * {@link PersistentActorStore} with two tiers. The cold tier is a (memory mapped, off heap)
+ * {@link ChronicleMapPersistentActorStore} that holds the serialized state of all actors of the shard. The hot tier is
+ * a small, bounded, on heap LRU map of deserialized {@link PersistentActor} instances that saves the deserialization
+ * for actors that are reloaded often.
+ *
+ * Actors are demoted to the hot tier when they are {@link #release(PersistentActor) released} (after being evicted
+ * from the actor cache) and promoted back when they are loaded again, at that point they are removed from the hot
+ * tier as the instance is not shared. The least recently released actors are dropped from the hot tier when it is
+ * full, their state is still in the cold tier. Every put or remove drops the actor from the hot tier.
+ *
+ * This store is not concurrent, it should only be used from the KafkaActorThread.
+ */
+public final class TieredPersistentActorStore implements PersistentActorStore {
+    private static final Logger logger = LogManager.getLogger(TieredPersistentActorStore.class);
+    private final ChronicleMapPersistentActorStore coldTier;
+    private final Deserializer<byte[], PersistentActor<ShardKey>> deserializer;
+    private final int hotEntries;
+    private final Map<String, PersistentActor<ShardKey>> hotTier;
+    private final LongAdder hotHits = new LongAdder();
+    private final LongAdder coldHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    TieredPersistentActorStore(ChronicleMapPersistentActorStore coldTier,
+                               Deserializer<byte[], PersistentActor<ShardKey>> deserializer,
+                               int hotEntries) {
+        this.coldTier = coldTier;
+        this.deserializer = deserializer;
+        this.hotEntries = hotEntries;
+        this.hotTier = new LinkedHashMap<String, PersistentActor<ShardKey>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PersistentActor<ShardKey>> eldest) {
+                return size() > TieredPersistentActorStore.this.hotEntries;
+            }
+        };
+    }
+
+    @Override
+    public ShardKey getShardKey() {
+        return coldTier.getShardKey();
+    }
+
+    @Override
+    public void put(String actorId, byte[] persistentActorBytes) {
+        hotTier.remove(actorId);
+        coldTier.put(actorId, persistentActorBytes);
+    }
+
+    @Override
+    public void put(String actorId, byte[] persistentActorBytes, long offset) {
+        hotTier.remove(actorId);
+        coldTier.put(actorId, persistentActorBytes, offset);
+    }
+
+    @Override
+    public boolean containsKey(String actorId) {
+        return coldTier.containsKey(actorId);
+    }
+
+    @Override
+    public PersistentActor<ShardKey> getPersistentActor(String actorId) {
+        PersistentActor<ShardKey> persistentActor = hotTier.remove(actorId);
+        if(persistentActor != null) {
+            hotHits.increment();
+            return persistentActor;
+        }
+        byte[] persistentActorBytes = coldTier.getBytes(actorId);
+        if(persistentActorBytes == null) {
+            misses.increment();
+            return null;
+        }
+        coldHits.increment();
+        try {
+            return deserializer.deserialize(persistentActorBytes);
+        } catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void release(PersistentActor<ShardKey> persistentActor) {
+        if(hotEntries > 0) {
+            hotTier.put(persistentActor.getSelf().getActorId(), persistentActor);
+        }
+    }
+
+    @Override
+    public void remove(String actorId) {
+        hotTier.remove(actorId);
+        coldTier.remove(actorId);
+    }
+
+    @Override
+    public void clear() {
+        hotTier.clear();
+        coldTier.clear();
+    }
+
+    @Override
+    public void init() {
+        coldTier.init();
+    }
+
+    @Override
+    public void destroy() {
+        logger.info(format("Destroying %s", this));
+        hotTier.clear();
+        coldTier.destroy();
+    }
+
+    @Override
+    public int count() {
+        return coldTier.count();
+    }
+
+    @Override
+    public long getOffset() {
+        return coldTier.getOffset();
+    }
+
+    public long getHotHits() {
+        return hotHits.sum();
+    }
+
+    public long getColdHits() {
+        return coldHits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the fraction of the lookups that was served from the hot tier
+     */
+    public double getHotHitRate() {
+        final long hot = getHotHits();
+        final long lookups = hot + getColdHits() + getMisses();
+        return lookups == 0 ? 0d : (double) hot / lookups;
+    }
+
+    /**
+     * @return the fraction of the lookups that missed the hot tier and was served from the cold tier
+     */
+    public double getColdHitRate() {
+        final long cold = getColdHits();
+        final long lookups = cold + getMisses();
+        return lookups == 0 ? 0d : (double) cold / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return format("TieredPersistentActorStore[%s](hotEntries=%d, hotHitRate=%.3f, coldHitRate=%.3f)",
+                getShardKey(), hotTier.size(), getHotHitRate(), getColdHitRate());
+    }
+}
@@ -0,0 +1,34 @@
+package org.elasticsoftware.elasticactors.kafka.state;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsoftware.elasticactors.ShardKey;
+import org.elasticsoftware.elasticactors.serialization.Deserializer;
+import org.elasticsoftware.elasticactors.state.PersistentActor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+
+import java.io.IOException;
+
+public final class TieredPersistentActorStoreFactory implements PersistentActorStoreFactory {
+    private static final Logger logger = LogManager.getLogger(TieredPersistentActorStoreFactory.class);
+    private Environment environment;
+
+    @Autowired
+    public void setEnvironment(Environment environment) {
+        this.environment = environment;
+    }
+
+    @Override
+    public PersistentActorStore create(ShardKey shardKey, Deserializer<byte[], PersistentActor<ShardKey>> deserializer) {
+        try {
+            // the maximum number of deserialized actors per shard
+            final Integer hotEntries = environment.getProperty("ea.kafka.persistentActorStore.hotEntries", Integer.class, 1024);
+            return new TieredPersistentActorStore(ChronicleMapPersistentActorStoreFactory.createStore(environment, shardKey, deserializer),
+                    deserializer, hotEntries);
+        } catch(IOException e) {
+            logger.warn("IOException while creating TieredPersistentActorStore, falling back to InMemoryPersistentActorStore", e);
+            return new InMemoryPersistentActorStore(shardKey, deserializer);
+        }
+    }
+}
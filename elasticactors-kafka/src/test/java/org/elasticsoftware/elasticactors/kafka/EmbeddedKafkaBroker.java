@@ -0,0 +1,70 @@
+package org.elasticsoftware.elasticactors.kafka;
+
+import kafka.server.KafkaServerStartable;
+import org.apache.zookeeper.server.NIOServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Properties;
+
+/**
+ * A single node kafka broker (with zookeeper) that runs in the test jvm and stores its data in a temporary directory.
+ *
+ * @author Joost van de Wijgerd
+ */
+final class EmbeddedKafkaBroker {
+    private File dataDirectory;
+    private NIOServerCnxnFactory zookeeper;
+    private KafkaServerStartable broker;
+    private String bootstrapServers;
+
+    void start() throws Exception {
+        dataDirectory = Files.createTempDirectory("kafka-test").toFile();
+        zookeeper = new NIOServerCnxnFactory();
+        zookeeper.configure(new InetSocketAddress("127.0.0.1", 0), 100);
+        zookeeper.startup(new ZooKeeperServer(new File(dataDirectory, "zookeeper"), new File(dataDirectory, "zookeeper"), 500));
+        bootstrapServers = "127.0.0.1:" + freePort();
+        Properties brokerConfig = new Properties();
+        brokerConfig.put("broker.id", "0");
+        brokerConfig.put("zookeeper.connect", "127.0.0.1:" + zookeeper.getLocalPort());
+        brokerConfig.put("listeners", "PLAINTEXT://" + bootstrapServers);
+        brokerConfig.put("log.dirs", new File(dataDirectory, "kafka").getAbsolutePath());
+        brokerConfig.put("offsets.topic.replication.factor", "1");
+        brokerConfig.put("offsets.topic.num.partitions", "1");
+        brokerConfig.put("transaction.state.log.replication.factor", "1");
+        brokerConfig.put("transaction.state.log.min.isr", "1");
+        brokerConfig.put("transaction.state.log.num.partitions", "1");
+        brokerConfig.put("group.initial.rebalance.delay.ms", "0");
+        broker = KafkaServerStartable.fromProps(brokerConfig);
+        broker.startup();
+    }
+
+    void stop() throws IOException {
+        if (broker != null) {
+            broker.shutdown();
+            broker.awaitShutdown();
+        }
+        if (zookeeper != null) {
+            zookeeper.shutdown();
+        }
+        if (dataDirectory != null) {
+            Files.walk(dataDirectory.toPath()).sorted(Collections.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    String getBootstrapServers() {
+        return bootstrapServers;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package org.elasticsoftware.elasticactors.kafka;
+
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Joost van de Wijgerd
+ */
+@Test(singleThreaded = true)
+public class KafkaStateRestorerTest {
+    private static final String TOPIC = "restore";
+    private static final int RECORDS = 100;
+    private static final TopicPartition TOPIC_PARTITION = new TopicPartition(TOPIC, 0);
+    private final EmbeddedKafkaBroker broker = new EmbeddedKafkaBroker();
+
+    @BeforeClass
+    public void startBroker() throws Exception {
+        broker.start();
+        try (AdminClient adminClient = AdminClient.create(Collections.singletonMap(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBootstrapServers()))) {
+            adminClient.createTopics(Collections.singletonList(new NewTopic(TOPIC, 1, (short) 1))).all().get();
+        }
+        try (KafkaProducer<String, String> producer = new KafkaProducer<>(
+                Collections.singletonMap(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBootstrapServers()),
+                new StringSerializer(), new StringSerializer())) {
+            for (int i = 0; i < RECORDS; i++) {
+                producer.send(new ProducerRecord<>(TOPIC, 0, Integer.toString(i), Integer.toString(i)));
+            }
+        }
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stopBroker() throws IOException {
+        broker.stop();
+    }
+
+    @Test
+    public void testResumeFromLocalOffset() throws Exception {
+        RecordingRestorer restorer = new RecordingRestorer(90L);
+
+        Map<TopicPartition, Long> positions = restore(50L, restorer);
+
+        assertEquals(positions.get(TOPIC_PARTITION), Long.valueOf(RECORDS));
+        assertEquals(restorer.restored.size(), 10);
+        assertEquals(restorer.restored.get(0), "90");
+        assertFalse(restorer.reset);
+    }
+
+    @Test
+    public void testFullRestoreWhenLocalOffsetIsTooFarBehind() throws Exception {
+        RecordingRestorer restorer = new RecordingRestorer(10L);
+
+        restore(50L, restorer);
+
+        // the stale state is discarded before the partition is restored from the beginning
+        assertTrue(restorer.reset);
+        assertEquals(restorer.restored.size(), RECORDS);
+        assertEquals(restorer.restored.get(0), "0");
+    }
+
+    @Test
+    public void testFullRestoreWhenLocalOffsetIsOutOfRange() throws Exception {
+        RecordingRestorer restorer = new RecordingRestorer(RECORDS + 10L);
+
+        restore(Long.MAX_VALUE, restorer);
+
+        assertTrue(restorer.reset);
+        assertEquals(restorer.restored.size(), RECORDS);
+    }
+
+    @Test
+    public void testFullRestoreWithoutLocalState() throws Exception {
+        RecordingRestorer restorer = new RecordingRestorer(-1L);
+
+        restore(50L, restorer);
+
+        // there is nothing to discard
+        assertFalse(restorer.reset);
+        assertEquals(restorer.restored.size(), RECORDS);
+    }
+
+    @Test
+    public void testNoRemainingRecordsAfterFailure() throws Exception {
+        KafkaStateRestorer stateRestorer = new KafkaStateRestorer("test", broker.getBootstrapServers(), 1, 50L);
+        RecordingRestorer restorer = new RecordingRestorer(-1L) {
+            @Override
+            public void restore(ConsumerRecord<String, String> record) {
+                if (record.offset() == 42L) {
+                    throw new IllegalStateException("restore failed");
+                }
+                super.restore(record);
+            }
+        };
+
+        try {
+            stateRestorer.restore("test", Collections.singletonMap(TOPIC_PARTITION, restorer), StringDeserializer::new, StringDeserializer::new);
+            fail("expected the restore to fail");
+        } catch (IllegalStateException e) {
+            assertEquals(e.getMessage(), "restore failed");
+        }
+
+        assertEquals(stateRestorer.getRemainingRecords(), 0L);
+        assertEquals(stateRestorer.getRestoredRecords(), 42L);
+    }
+
+    private Map<TopicPartition, Long> restore(long maxResumeLag, RecordingRestorer restorer) throws Exception {
+        KafkaStateRestorer stateRestorer = new KafkaStateRestorer("test", broker.getBootstrapServers(), 1, maxResumeLag);
+        Map<TopicPartition, Long> positions = stateRestorer.restore("test", Collections.singletonMap(TOPIC_PARTITION, restorer),
+                StringDeserializer::new, StringDeserializer::new);
+        assertEquals(stateRestorer.getRemainingRecords(), 0L);
+        assertEquals(stateRestorer.getRestoredRecords(), restorer.restored.size());
+        return positions;
+    }
+
+    private static class RecordingRestorer implements KafkaStateRestorer.PartitionRestorer<String, String> {
+        private final long startOffset;
+        private final List<String> restored = new ArrayList<>();
+        private boolean reset = false;
+
+        private RecordingRestorer(long startOffset) {
+            this.startOffset = startOffset;
+        }
+
+        @Override
+        public long getStartOffset() {
+            return startOffset;
+        }
+
+        @Override
+        public void restore(ConsumerRecord<String, String> record) {
+            restored.add(record.value());
+        }
+
+        @Override
+        public void reset() {
+            reset = true;
+            restored.clear();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.elasticsoftware.elasticactors.kafka;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time it takes to copy a number of records from an input to an output topic with the
+ * {@link KafkaTransactionBatcher} for different batch sizes. With a transaction per message the transaction commit
+ * (which needs a round trip to the transaction coordinator and the partition leaders) dominates.
+ *
+ * @author Joost van de Wijgerd
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KafkaTransactionBatcherBenchmark {
+    @Param({"1", "10", "100", "1000"})
+    public int batchSize;
+
+    @Param({"1000"})
+    public int records;
+
+    private final EmbeddedKafkaBroker broker = new EmbeddedKafkaBroker();
+    private int run = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        broker.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        broker.stop();
+    }
+
+    @Benchmark
+    public int copy() throws Exception {
+        // every run uses its own topics
+        return KafkaTransactionBatcherTest.copy(broker, "benchmark-" + batchSize + "-" + run++, records, batchSize, record -> false).size();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(KafkaTransactionBatcherBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,172 @@
+package org.elasticsoftware.elasticactors.kafka;
+
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static org.apache.kafka.common.requests.IsolationLevel.READ_COMMITTED;
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Runs the consume - handle - produce loop of the {@link KafkaTransactionBatcher} against an embedded broker and checks
+ * that every record ends up in the output exactly once, also when batches fail. The throughput per batch size is
+ * measured by the {@link KafkaTransactionBatcherBenchmark}.
+ *
+ * @author Joost van de Wijgerd
+ */
+@Test(singleThreaded = true)
+public class KafkaTransactionBatcherTest {
+    private static final int PARTITIONS = 4;
+    private static final int RECORDS = 1000;
+    private final EmbeddedKafkaBroker broker = new EmbeddedKafkaBroker();
+
+    @BeforeClass
+    public void startBroker() throws Exception {
+        broker.start();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stopBroker() throws IOException {
+        broker.stop();
+    }
+
+    @Test
+    public void testFailedBatchIsReplayed() throws Exception {
+        // the first time record 42 is handled the batch fails
+        Set<String> failed = new HashSet<>();
+        Set<String> output = copy(broker, "replay", RECORDS, 100, record -> record.value().equals("42") && failed.add(record.value()));
+        assertEquals(output.size(), RECORDS);
+    }
+
+    @Test
+    public void testFailingRecordIsSkipped() throws Exception {
+        Set<String> output = copy(broker, "skip", RECORDS, 100, record -> record.value().equals("42"));
+        assertEquals(output.size(), RECORDS - 1);
+    }
+
+    /**
+     * Writes the given number of records to an input topic and copies them to an output topic with the batcher. Returns
+     * the (committed) values of the output topic.
+     */
+    static Set<String> copy(EmbeddedKafkaBroker broker, String name, int records, int batchSize, Predicate<ConsumerRecord<String, String>> failure) throws Exception {
+        final String inputTopic = name + "-input";
+        final String outputTopic = name + "-output";
+        try (AdminClient adminClient = AdminClient.create(Collections.singletonMap(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBootstrapServers()))) {
+            adminClient.createTopics(java.util.Arrays.asList(
+                    new NewTopic(inputTopic, PARTITIONS, (short) 1),
+                    new NewTopic(outputTopic, PARTITIONS, (short) 1))).all().get();
+        }
+        Map<String, Object> producerConfig = new HashMap<>();
+        producerConfig.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBootstrapServers());
+        try (KafkaProducer<String, String> producer = new KafkaProducer<>(producerConfig, new StringSerializer(), new StringSerializer())) {
+            for (int i = 0; i < records; i++) {
+                producer.send(new ProducerRecord<>(inputTopic, i % PARTITIONS, Integer.toString(i), Integer.toString(i)));
+            }
+        }
+
+        producerConfig.put(ProducerConfig.LINGER_MS_CONFIG, "10");
+        producerConfig.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        producerConfig.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, 1);
+        producerConfig.put(ProducerConfig.ACKS_CONFIG, "all");
+        producerConfig.put(ProducerConfig.TRANSACTIONAL_ID_CONFIG, name + "-producer");
+        // the batcher works with the Object producer of the KafkaActorThread
+        @SuppressWarnings("unchecked")
+        Serializer<Object> serializer = (Serializer) new StringSerializer();
+        try (KafkaConsumer<String, String> consumer = createConsumer(broker, name, Math.max(50, batchSize));
+             KafkaProducer<Object, Object> producer = new KafkaProducer<>(producerConfig, serializer, serializer)) {
+            producer.initTransactions();
+            consumer.subscribe(Collections.singletonList(inputTopic));
+            KafkaTransactionBatcher<String, String> batcher = new KafkaTransactionBatcher<>(consumer, producer, name,
+                    batchSize, 100L, new KafkaTransactionBatcher.Handler<String, String>() {
+                @Override
+                public void handle(TopicPartition topicPartition, ConsumerRecord<String, String> record) {
+                    if (failure.test(record)) {
+                        throw new KafkaException("failure for record " + record.value());
+                    }
+                    KafkaTransactionContext.getProducer().send(new ProducerRecord<>(outputTopic, record.partition(), record.key(), record.value()));
+                }
+
+                @Override
+                public void onCommit(TopicPartition topicPartition) {
+                }
+
+                @Override
+                public void onAbort(TopicPartition topicPartition) {
+                }
+            });
+            long consumed = 0;
+            while (consumed < records) {
+                ConsumerRecords<String, String> consumerRecords = consumer.poll(100);
+                for (TopicPartition topicPartition : consumerRecords.partitions()) {
+                    batcher.process(topicPartition, consumerRecords.records(topicPartition));
+                }
+                if (consumer.assignment().size() < PARTITIONS) {
+                    continue;
+                }
+                consumed = 0;
+                for (int i = 0; i < PARTITIONS; i++) {
+                    consumed += consumer.position(new TopicPartition(inputTopic, i));
+                }
+            }
+        }
+
+        Set<String> output = new HashSet<>();
+        int count = 0;
+        try (KafkaConsumer<String, String> consumer = createConsumer(broker, name + "-verify", 500)) {
+            List<TopicPartition> partitions = new ArrayList<>();
+            for (int i = 0; i < PARTITIONS; i++) {
+                partitions.add(new TopicPartition(outputTopic, i));
+            }
+            consumer.assign(partitions);
+            consumer.seekToBeginning(partitions);
+            // with read_committed these are the offsets of the last stable (committed) records
+            Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+            while (partitions.stream().anyMatch(partition -> consumer.position(partition) < endOffsets.get(partition))) {
+                for (ConsumerRecord<String, String> record : consumer.poll(100)) {
+                    output.add(record.value());
+                    count += 1;
+                }
+            }
+        }
+        // no duplicates
+        assertEquals(count, output.size());
+        return output;
+    }
+
+    private static KafkaConsumer<String, String> createConsumer(EmbeddedKafkaBroker broker, String groupId, int maxPollRecords) {
+        Map<String, Object> consumerConfig = new HashMap<>();
+        consumerConfig.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBootstrapServers());
+        consumerConfig.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
+        consumerConfig.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, Integer.toString(maxPollRecords));
+        consumerConfig.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        consumerConfig.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        consumerConfig.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, READ_COMMITTED.name().toLowerCase(Locale.ROOT));
+        return new KafkaConsumer<>(consumerConfig, new StringDeserializer(), new StringDeserializer());
+    }
+}
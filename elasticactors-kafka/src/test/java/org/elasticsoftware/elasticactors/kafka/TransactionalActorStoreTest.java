@@ -0,0 +1,158 @@
+package org.elasticsoftware.elasticactors.kafka;
+
+import org.elasticsoftware.elasticactors.ActorRef;
+import org.elasticsoftware.elasticactors.ShardKey;
+import org.elasticsoftware.elasticactors.kafka.state.PersistentActorStore;
+import org.elasticsoftware.elasticactors.state.PersistentActor;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+/**
+ * @author Joost van de Wijgerd
+ */
+public class TransactionalActorStoreTest {
+    private static final ShardKey SHARD_KEY = new ShardKey("test", 0);
+    private PersistentActorStore actorStore;
+    private TransactionalActorStore transactionalStore;
+
+    @BeforeMethod
+    public void setUp() {
+        actorStore = mock(PersistentActorStore.class);
+        transactionalStore = new TransactionalActorStore(actorStore);
+    }
+
+    @Test
+    public void testCommitAppliesTheStoreUpdates() {
+        byte[] state = new byte[10];
+        transactionalStore.persisted("persisted");
+        transactionalStore.put("persisted", state, 42L);
+        transactionalStore.deleted("deleted");
+
+        // the store only sees the changes when the transaction commits
+        assertTrue(transactionalStore.containsKey("persisted"));
+        assertFalse(transactionalStore.containsKey("deleted"));
+        assertNull(transactionalStore.getPersistentActor("deleted"));
+        verify(actorStore, never()).put(anyString(), any(byte[].class), anyLong());
+        verify(actorStore, never()).remove(anyString());
+
+        transactionalStore.commit();
+
+        verify(actorStore).put("persisted", state, 42L);
+        verify(actorStore).remove("deleted");
+        when(actorStore.containsKey("deleted")).thenReturn(false);
+        when(actorStore.containsKey("persisted")).thenReturn(true);
+        assertTrue(transactionalStore.containsKey("persisted"));
+        assertFalse(transactionalStore.containsKey("deleted"));
+    }
+
+    @Test
+    public void testRollbackDiscardsTheStoreUpdates() {
+        PersistentActor<ShardKey> committed = persistentActor("actor");
+        when(actorStore.getPersistentActor("actor")).thenReturn(committed);
+        when(actorStore.containsKey("actor")).thenReturn(true);
+        transactionalStore.persisted("other");
+        transactionalStore.put("other", new byte[10], 42L);
+        transactionalStore.deleted("actor");
+        assertNull(transactionalStore.getPersistentActor("actor"));
+
+        transactionalStore.rollback();
+        // the updates of the aborted transaction should never reach the store
+        transactionalStore.commit();
+
+        verify(actorStore, never()).put(anyString(), any(byte[].class), anyLong());
+        verify(actorStore, never()).remove(anyString());
+        assertTrue(transactionalStore.containsKey("actor"));
+        assertFalse(transactionalStore.containsKey("other"));
+        assertSame(transactionalStore.getPersistentActor("actor"), committed);
+    }
+
+    @Test
+    public void testRollbackDiscardsEvictedActors() {
+        PersistentActor<ShardKey> committed = persistentActor("actor");
+        PersistentActor<ShardKey> uncommitted = persistentActor("actor");
+        when(actorStore.getPersistentActor("actor")).thenReturn(committed);
+        transactionalStore.persisted("actor");
+        transactionalStore.evicted(uncommitted);
+
+        transactionalStore.rollback();
+
+        // the evicted instance has the state of the aborted transaction
+        assertSame(transactionalStore.getPersistentActor("actor"), committed);
+        transactionalStore.commit();
+        verify(actorStore, never()).release(any());
+    }
+
+    @Test
+    public void testEvictedActorIsServedUntilCommit() {
+        PersistentActor<ShardKey> evicted = persistentActor("actor");
+        transactionalStore.persisted("actor");
+        transactionalStore.evicted(evicted);
+
+        // the store doesn't have the latest state yet
+        assertSame(transactionalStore.getPersistentActor("actor"), evicted);
+        verify(actorStore, never()).getPersistentActor(anyString());
+
+        transactionalStore.evicted(evicted);
+        verify(actorStore, never()).release(any());
+        transactionalStore.commit();
+
+        verify(actorStore).release(evicted);
+    }
+
+    @Test
+    public void testEvictedActorIsReleasedOutsideOfTransaction() {
+        PersistentActor<ShardKey> evicted = persistentActor("actor");
+
+        transactionalStore.evicted(evicted);
+
+        verify(actorStore).release(evicted);
+    }
+
+    @Test
+    public void testEvictedActorWithUnpersistedStateIsNotReleased() {
+        PersistentActor<ShardKey> evicted = persistentActor("actor");
+        transactionalStore.stateNotPersisted("actor");
+
+        transactionalStore.evicted(evicted);
+
+        verify(actorStore, never()).release(any());
+        // the flag was cleared with the eviction
+        transactionalStore.evicted(evicted);
+        verify(actorStore).release(evicted);
+    }
+
+    @Test
+    public void testEvictedDeletedActorIsNotReleased() {
+        transactionalStore.deleted("actor");
+
+        transactionalStore.evicted(persistentActor("actor"));
+        transactionalStore.commit();
+
+        verify(actorStore).remove("actor");
+        verify(actorStore, never()).release(any());
+    }
+
+    @Test
+    public void testUnpersistedActorIsNotReleased() {
+        PersistentActor<ShardKey> evicted = persistentActor("actor");
+        transactionalStore.persisted("actor");
+        transactionalStore.stateNotPersisted("actor");
+        transactionalStore.evicted(evicted);
+
+        transactionalStore.commit();
+
+        // the instance has state that is not in the store
+        verify(actorStore, never()).release(any());
+    }
+
+    private PersistentActor<ShardKey> persistentActor(String actorId) {
+        ActorRef actorRef = mock(ActorRef.class);
+        when(actorRef.getActorId()).thenReturn(actorId);
+        return new PersistentActor<>(SHARD_KEY, null, null, actorRef, null, null);
+    }
+}
@@ -0,0 +1,143 @@
+package org.elasticsoftware.elasticactors.kafka.state;
+
+import org.elasticsoftware.elasticactors.ShardKey;
+import org.elasticsoftware.elasticactors.serialization.Deserializer;
+import org.elasticsoftware.elasticactors.state.PersistentActor;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time it takes to restore the state of a shard when it gets assigned to a node. Without a persistent
+ * store all the state needs to be replayed from the persistent actors topic (replay), a memory mapped store that
+ * survived a restart only needs to be reopened and will continue from the stored offset (recover).
+ *
+ * @author Joost van de Wijgerd
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PersistentActorStoreRestoreBenchmark {
+    private static final ShardKey SHARD_KEY = new ShardKey("benchmark", 0);
+    // the restore doesn't deserialize
+    private static final Deserializer<byte[], PersistentActor<ShardKey>> DESERIALIZER = serializedObject -> {
+        throw new UnsupportedOperationException();
+    };
+
+    @Param({"inmemory", "chroniclemap", "tiered"})
+    public String store;
+
+    @Param({"100000"})
+    public int actors;
+
+    private String[] actorIds;
+    private byte[][] states;
+    private File dataDirectory;
+    private File recoverDirectory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        actorIds = new String[actors];
+        states = new byte[actors][];
+        for (int i = 0; i < actors; i++) {
+            actorIds[i] = UUID.randomUUID().toString();
+            states[i] = new byte[256 + random.nextInt(512)];
+            random.nextBytes(states[i]);
+        }
+        // a store that was filled before the restart
+        recoverDirectory = Files.createTempDirectory("restore-benchmark").toFile();
+        if (!"inmemory".equals(store)) {
+            PersistentActorStore persistentActorStore = create(recoverDirectory);
+            replay(persistentActorStore);
+            persistentActorStore.destroy();
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void createDataDirectory() throws IOException {
+        dataDirectory = Files.createTempDirectory("restore-benchmark").toFile();
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteDataDirectory() {
+        delete(dataDirectory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        delete(recoverDirectory);
+    }
+
+    @Benchmark
+    public int replay() throws IOException {
+        PersistentActorStore persistentActorStore = create(dataDirectory);
+        try {
+            replay(persistentActorStore);
+            return persistentActorStore.count();
+        } finally {
+            persistentActorStore.destroy();
+        }
+    }
+
+    @Benchmark
+    public long recover() throws IOException {
+        if ("inmemory".equals(store)) {
+            // nothing survives a restart, this is the same as a replay
+            return replay();
+        }
+        PersistentActorStore persistentActorStore = create(recoverDirectory);
+        try {
+            return persistentActorStore.getOffset();
+        } finally {
+            persistentActorStore.destroy();
+        }
+    }
+
+    private void replay(PersistentActorStore persistentActorStore) {
+        for (int i = 0; i < actors; i++) {
+            persistentActorStore.put(actorIds[i], states[i], i);
+        }
+    }
+
+    private PersistentActorStore create(File directory) throws IOException {
+        switch (store) {
+            case "chroniclemap":
+                return new ChronicleMapPersistentActorStore(SHARD_KEY, DESERIALIZER, directory.getAbsolutePath(), 36d, 512d, actors);
+            case "tiered":
+                return new TieredPersistentActorStore(new ChronicleMapPersistentActorStore(SHARD_KEY, DESERIALIZER,
+                        directory.getAbsolutePath(), 36d, 512d, actors), DESERIALIZER, 1024);
+            default:
+                return new InMemoryPersistentActorStore(SHARD_KEY, DESERIALIZER);
+        }
+    }
+
+    private static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(PersistentActorStoreRestoreBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,134 @@
+package org.elasticsoftware.elasticactors.kafka.state;
+
+import org.elasticsoftware.elasticactors.ActorRef;
+import org.elasticsoftware.elasticactors.ShardKey;
+import org.elasticsoftware.elasticactors.serialization.Deserializer;
+import org.elasticsoftware.elasticactors.state.PersistentActor;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.*;
+
+/**
+ * @author Joost van de Wijgerd
+ */
+public class TieredPersistentActorStoreTest {
+    private static final ShardKey SHARD_KEY = new ShardKey("test", 0);
+    // the serialized state is the actor id
+    private static final Deserializer<byte[], PersistentActor<ShardKey>> DESERIALIZER =
+            serializedObject -> persistentActor(new String(serializedObject, StandardCharsets.UTF_8));
+    private File dataDirectory;
+    private TieredPersistentActorStore store;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        dataDirectory = Files.createTempDirectory("tiered-store-test").toFile();
+        store = new TieredPersistentActorStore(new ChronicleMapPersistentActorStore(SHARD_KEY, DESERIALIZER,
+                dataDirectory.getAbsolutePath(), 36d, 64d, 1000L), DESERIALIZER, 2);
+        store.init();
+        for (String actorId : new String[] {"a", "b", "c"}) {
+            store.put(actorId, actorId.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        store.destroy();
+        File[] files = dataDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dataDirectory.delete();
+    }
+
+    @Test
+    public void testLoadIsServedFromColdTier() {
+        PersistentActor<ShardKey> persistentActor = store.getPersistentActor("a");
+
+        assertEquals(persistentActor.getSelf().getActorId(), "a");
+        assertNull(store.getPersistentActor("unknown"));
+        assertEquals(store.getHotHits(), 0L);
+        assertEquals(store.getColdHits(), 1L);
+        assertEquals(store.getMisses(), 1L);
+        assertEquals(store.getColdHitRate(), 0.5d);
+    }
+
+    @Test
+    public void testReleasedActorIsPromoted() {
+        PersistentActor<ShardKey> persistentActor = store.getPersistentActor("a");
+        store.release(persistentActor);
+
+        // served from the hot tier without deserializing
+        assertSame(store.getPersistentActor("a"), persistentActor);
+        // the instance is not shared, so it was removed from the hot tier
+        PersistentActor<ShardKey> reloaded = store.getPersistentActor("a");
+        assertNotSame(reloaded, persistentActor);
+        assertEquals(reloaded.getSelf().getActorId(), "a");
+        assertEquals(store.getHotHits(), 1L);
+        assertEquals(store.getColdHits(), 2L);
+        assertEquals(store.getHotHitRate(), 1d / 3d);
+    }
+
+    @Test
+    public void testLeastRecentlyReleasedActorIsDemoted() {
+        PersistentActor<ShardKey> a = store.getPersistentActor("a");
+        PersistentActor<ShardKey> b = store.getPersistentActor("b");
+        PersistentActor<ShardKey> c = store.getPersistentActor("c");
+        store.release(a);
+        store.release(b);
+        store.release(c);
+
+        // the hot tier holds 2 actors, a was dropped but its state is still in the cold tier
+        PersistentActor<ShardKey> reloaded = store.getPersistentActor("a");
+        assertNotSame(reloaded, a);
+        assertEquals(reloaded.getSelf().getActorId(), "a");
+        assertSame(store.getPersistentActor("b"), b);
+        assertSame(store.getPersistentActor("c"), c);
+        assertEquals(store.getHotHits(), 2L);
+        assertEquals(store.getColdHits(), 4L);
+    }
+
+    @Test
+    public void testUpdateRemovesActorFromHotTier() {
+        PersistentActor<ShardKey> a = store.getPersistentActor("a");
+        PersistentActor<ShardKey> b = store.getPersistentActor("b");
+        store.release(a);
+        store.release(b);
+
+        store.put("a", "a".getBytes(StandardCharsets.UTF_8), 42L);
+        store.remove("b");
+
+        assertNotSame(store.getPersistentActor("a"), a);
+        assertNull(store.getPersistentActor("b"));
+        assertEquals(store.getHotHits(), 0L);
+    }
+
+    @Test
+    public void testClearRemovesBothTiers() {
+        store.release(store.getPersistentActor("a"));
+        store.put("b", "b".getBytes(StandardCharsets.UTF_8), 42L);
+
+        store.clear();
+
+        assertEquals(store.count(), 0);
+        assertEquals(store.getOffset(), -1L);
+        assertNull(store.getPersistentActor("a"));
+        assertNull(store.getPersistentActor("b"));
+    }
+
+    private static PersistentActor<ShardKey> persistentActor(String actorId) {
+        ActorRef actorRef = mock(ActorRef.class);
+        when(actorRef.getActorId()).thenReturn(actorId);
+        return new PersistentActor<>(SHARD_KEY, null, null, actorRef, null, null);
+    }
+}
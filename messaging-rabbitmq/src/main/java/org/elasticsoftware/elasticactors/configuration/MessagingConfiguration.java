@@ -36,6 +36,7 @@ import org.springframework.core.env.Environment;
 import javax.annotation.PostConstruct;
 
 import static org.elasticsoftware.elasticactors.rabbitmq.MessageAcker.Type.DIRECT;
+import static org.elasticsoftware.elasticactors.rabbitmq.cpt.RabbitMQMessagingService.DEFAULT_PREFETCH_COUNT;
 
 /**
  * @author Joost van de Wijgerd
@@ -60,7 +61,16 @@ public class MessagingConfiguration {
         String rabbitMQPassword = env.getProperty("ea.rabbitmq.password","guest");
         MessageAcker.Type ackType = env.getProperty("ea.rabbitmq.ack",MessageAcker.Type.class, DIRECT);
         String threadModel = env.getProperty("ea.rabbitmq.threadmodel", "sc");
-        Integer prefetchCount = env.getProperty("ea.rabbitmq.prefetchCount", Integer.class, 0);
+        // maximum number of unacked messages per queue, 0 means unlimited
+        Integer prefetchCount = env.getProperty("ea.rabbitmq.prefetchCount", Integer.class, DEFAULT_PREFETCH_COUNT);
+        // number of channels the queues are spread over for consuming (cpt only)
+        Integer consumerChannelCount = env.getProperty("ea.rabbitmq.consumerChannels", Integer.class, 1);
+        // wait for the broker to confirm the published messages before acking the message that sent them (cpt only)
+        Boolean publisherConfirms = env.getProperty("ea.rabbitmq.publisherConfirms.enabled", Boolean.class, Boolean.TRUE);
+        // maximum number of published messages per producer channel that are not yet confirmed by the broker (cpt only)
+        Integer publisherConfirmsWindowSize = env.getProperty("ea.rabbitmq.publisherConfirms.windowSize", Integer.class, 1000);
+        // msecs after which a message that was not published or confirmed is failed, 0 means never (cpt only)
+        Long publishTimeout = env.getProperty("ea.rabbitmq.publishTimeout", Long.class, 30000L);
         if("cpt".equals(threadModel)) {
             messagingService = new org.elasticsoftware.elasticactors.rabbitmq.cpt.RabbitMQMessagingService(clusterName,
                     rabbitMQHosts,
@@ -70,7 +80,11 @@ public class MessagingConfiguration {
                     ackType,
                     queueExecutor,
                     new InternalMessageDeserializer(new ActorRefDeserializer(actorRefFactory), internalActorSystem),
-                    prefetchCount);
+                    prefetchCount,
+                    publisherConfirms,
+                    publisherConfirmsWindowSize,
+                    publishTimeout,
+                    consumerChannelCount);
         } else {
             messagingService = new RabbitMQMessagingService(clusterName,
                     rabbitMQHosts,
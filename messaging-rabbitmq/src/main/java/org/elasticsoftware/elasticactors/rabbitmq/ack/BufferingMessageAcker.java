@@ -23,54 +23,112 @@ import org.elasticsoftware.elasticactors.rabbitmq.MessageAcker;
 import org.elasticsoftware.elasticactors.util.concurrent.DaemonThreadFactory;
 
 import java.io.IOException;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 
 import static java.lang.String.format;
-import static java.util.concurrent.TimeUnit.MICROSECONDS;
 
 /**
+ * Acks the messages of a channel with multiple acks. Delivery tags are handed out by the broker in order per channel,
+ * so every tag up to the highest delivered tag has been delivered. Acked tags are marked in a ring of bits (indexed
+ * by the tag) and a flusher thread advances the ack point over the contiguous acked tags, the channel is acked with
+ * multiple=true up to the tag before the lowest un-acked one. The channel is only acked when the ack point has
+ * stopped moving for a short while (or has been moving for 10 milliseconds), so a burst of acks results in
+ * a single multiple ack.
+ *
+ * Tags that are more than {@link #DEFAULT_CAPACITY} ahead of the ack point don't fit in the ring, these are kept in an
+ * overflow queue until the ack point has caught up. The flusher parks with an increasing timeout while there is
+ * nothing to ack.
+ *
  * @author Joost van de Wijgerd
  */
 public final class BufferingMessageAcker implements Runnable, MessageAcker {
     private static final Logger logger = LogManager.getLogger(BufferingMessageAcker.class);
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long QUIET_PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MAX_ACK_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
     private final Channel consumerChannel;
-    private final LinkedBlockingQueue<Tag> tagQueue = new LinkedBlockingQueue<>();
-    private long lastAckedTag = -1;
-    private long highestDeliveredTag = -1;
-    private final TreeSet<Long> pendingTags = new TreeSet<>();
+    private final int capacity;
+    private final int mask;
+    private final AtomicLongArray ackedTags;
+    private final ConcurrentLinkedQueue<Long> overflowTags = new ConcurrentLinkedQueue<>();
+    private final AtomicLong highestDeliveredTag = new AtomicLong(0);
+    // only written by the flusher thread
+    private volatile long lastAckedTag = 0;
+    private volatile boolean running = true;
+    private volatile Thread flusherThread;
     private final ThreadFactory threadFactory;
     private final CountDownLatch shutdownLatch = new CountDownLatch(1);
 
     public BufferingMessageAcker(Channel consumerChannel) {
+        this(consumerChannel, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param consumerChannel the channel to ack the messages on
+     * @param capacity the number of tags (ahead of the ack point) that fit in the ring, needs to be a power of two
+     */
+    public BufferingMessageAcker(Channel consumerChannel, int capacity) {
+        if (Integer.bitCount(capacity) != 1 || capacity < 64) {
+            throw new IllegalArgumentException("capacity needs to be a power of two of at least 64");
+        }
         this.consumerChannel = consumerChannel;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.ackedTags = new AtomicLongArray(capacity >> 6);
         this.threadFactory = new DaemonThreadFactory("RABBITMQ-MESSAGE_ACKER");
     }
 
     @Override
     public void deliver(long deliveryTag) {
-        tagQueue.offer(new Tag(TagType.DELIVERED,deliveryTag));
+        // the broker hands out the tags in order, we only need to know the highest one
+        highestDeliveredTag.accumulateAndGet(deliveryTag, Math::max);
     }
 
     @Override
     public void ack(long deliveryTag) {
-        tagQueue.offer(new Tag(TagType.ACK,deliveryTag));
+        // the ack point can only move forward so reading a stale value is safe (we might overflow unnecessarily)
+        final long ackPoint = lastAckedTag;
+        if (deliveryTag <= ackPoint) {
+            // already acked
+            return;
+        }
+        if (deliveryTag - ackPoint <= capacity) {
+            setAcked(deliveryTag);
+        } else {
+            overflowTags.offer(deliveryTag);
+        }
+    }
+
+    private void setAcked(long deliveryTag) {
+        final int word = wordIndex(deliveryTag);
+        final long bitMask = bitMask(deliveryTag);
+        long current;
+        do {
+            current = ackedTags.get(word);
+        } while (!ackedTags.compareAndSet(word, current, current | bitMask));
     }
 
     @Override
     public void start() {
         final Thread t = threadFactory.newThread(this);
+        flusherThread = t;
         t.start();
     }
 
     @Override
     public void stop() {
-        tagQueue.offer(new Tag(TagType.STOP,-1));
+        running = false;
+        LockSupport.unpark(flusherThread);
         try {
-            shutdownLatch.await(1,TimeUnit.SECONDS);
+            shutdownLatch.await(1, TimeUnit.SECONDS);
         } catch (InterruptedException e) {
             // ignore
         }
@@ -78,69 +136,111 @@ public final class BufferingMessageAcker implements Runnable, MessageAcker {
 
     @Override
     public void run() {
-        while(true) {
-            try {
-                // poll with a short wait time (@todo: this could be dangerous)
-                Tag tag = tagQueue.poll(200, MICROSECONDS);
-                // need to trigger the flush
-                if(tag == null) {
-                    flushAck();
-                } else if(tag.type == TagType.DELIVERED) {
-                    // register the last delivered tag
-                    highestDeliveredTag = (tag.value > highestDeliveredTag) ? tag.value : highestDeliveredTag;
-                    // add to the end of the list (in order)
-                    pendingTags.add(tag.value);
-                } else if(tag.type == TagType.ACK) {
-                    // search from the beginning and delete
-                    pendingTags.remove(tag.value);
-                } else if(tag.type == TagType.RESET) {
-                    // not sure what to do here
-                } else if(tag.type == TagType.STOP) {
-                    // flush first
-                    flushAck();
-                    shutdownLatch.countDown();
-                    break;
+        long parkNanos = MIN_PARK_NANOS;
+        // the ack point as far as it was scanned, the tags up to here are acked but the channel isn't yet
+        long scannedAckPoint = lastAckedTag;
+        long scanStarted = 0;
+        long lastMoved = 0;
+        try {
+            while (running) {
+                try {
+                    final long ackUntil = scanAckPoint(scannedAckPoint);
+                    if (ackUntil == lastAckedTag) {
+                        drainOverflow();
+                        // nothing to do, back off
+                        LockSupport.parkNanos(parkNanos);
+                        parkNanos = Math.min(parkNanos << 1, MAX_PARK_NANOS);
+                        continue;
+                    }
+                    final long now = System.nanoTime();
+                    if (ackUntil != scannedAckPoint) {
+                        if (scannedAckPoint == lastAckedTag) {
+                            scanStarted = now;
+                        }
+                        scannedAckPoint = ackUntil;
+                        lastMoved = now;
+                    }
+                    if (now - lastMoved >= QUIET_PERIOD_NANOS || now - scanStarted >= MAX_ACK_DELAY_NANOS) {
+                        // the ack point stopped moving (or we waited long enough), ack everything in one go
+                        flushAck(ackUntil);
+                        parkNanos = MIN_PARK_NANOS;
+                    } else {
+                        // still acking, wait a bit to coalesce the acks in a single multiple ack
+                        LockSupport.parkNanos(QUIET_PERIOD_NANOS - (now - lastMoved));
+                    }
+                } catch (Throwable t) {
+                    logger.warn("Caught Throwable", t);
                 }
-            } catch(Throwable t) {
-                logger.warn("Caught Throwable",t);
             }
+            // flush one last time
+            final long ackUntil = scanAckPoint(scannedAckPoint);
+            if (ackUntil != lastAckedTag) {
+                flushAck(ackUntil);
+            }
+        } finally {
+            shutdownLatch.countDown();
         }
     }
 
-    private void flushAck() {
-        // we should only send an ack if something has change
-        if(lastAckedTag == highestDeliveredTag) {
-            return;
+    /**
+     * @param fromTag the tag to start scanning from, all tags up to here are known to be acked
+     * @return the highest tag for which all tags up to (and including) it are acked
+     */
+    private long scanAckPoint(long fromTag) {
+        // the bits beyond the ring belong to tags up to the scanned ack point, these are only cleared on flush
+        final long scanUntil = Math.min(highestDeliveredTag.get(), lastAckedTag + capacity);
+        long ackUntil = fromTag;
+        while (ackUntil < scanUntil && (ackedTags.get(wordIndex(ackUntil + 1)) & bitMask(ackUntil + 1)) != 0) {
+            ackUntil++;
         }
-        // get the head of the deque
-        Long lowestUnAckedTag = (pendingTags.isEmpty()) ? null : pendingTags.first();
-        long ackUntil = (lowestUnAckedTag != null) ? lowestUnAckedTag - 1 : highestDeliveredTag;
-        // don't ack 0 as it will ack all pending messages!!!
-        if(ackUntil > 0 && ackUntil > lastAckedTag) {
-            try {
-                consumerChannel.basicAck(ackUntil,true);
-                if(logger.isInfoEnabled()) {
-                    logger.info(format("Acked all messages from %d up until %d",lastAckedTag,ackUntil));
-                }
-                lastAckedTag = ackUntil;
-            } catch (IOException e) {
-                logger.error("Exception while acking message", e);
+        return ackUntil;
+    }
+
+    /**
+     * Moves the ack point to ackUntil and acks the channel up to there
+     */
+    private void flushAck(long ackUntil) {
+        for (long tag = lastAckedTag + 1; tag <= ackUntil; tag++) {
+            // clear the bit before the ack point is published, the slot will be reused for tag + capacity
+            final int word = wordIndex(tag);
+            final long bitMask = bitMask(tag);
+            long current;
+            do {
+                // another bit in the same word can be set concurrently
+                current = ackedTags.get(word);
+            } while (!ackedTags.compareAndSet(word, current, current & ~bitMask));
+        }
+        lastAckedTag = ackUntil;
+        drainOverflow();
+        try {
+            consumerChannel.basicAck(ackUntil, true);
+            if (logger.isDebugEnabled()) {
+                logger.debug(format("Acked all messages up until %d", ackUntil));
             }
+        } catch (IOException e) {
+            logger.error("Exception while acking message", e);
         }
     }
 
-    private static enum TagType {
-        DELIVERED,ACK,RESET,STOP
+    private int wordIndex(long deliveryTag) {
+        return ((int) (deliveryTag & mask)) >>> 6;
     }
 
-    private static final class Tag {
-        private final TagType type;
-        private final long value;
+    private static long bitMask(long deliveryTag) {
+        // the shift only uses the lowest 6 bits
+        return 1L << deliveryTag;
+    }
 
-        private Tag(TagType type, long value) {
-            this.type = type;
-            this.value = value;
+    private void drainOverflow() {
+        if (!overflowTags.isEmpty()) {
+            // move the tags that fit in the ring now, the ones that don't fit go back in the queue
+            for (int i = overflowTags.size(); i > 0; i--) {
+                Long deliveryTag = overflowTags.poll();
+                if (deliveryTag == null) {
+                    break;
+                }
+                ack(deliveryTag);
+            }
         }
     }
-
 }
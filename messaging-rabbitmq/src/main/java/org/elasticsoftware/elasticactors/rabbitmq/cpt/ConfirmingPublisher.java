@@ -0,0 +1,331 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.rabbitmq.cpt;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.MessageProperties;
+import net.jodah.lyra.event.DefaultChannelListener;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsoftware.elasticactors.MessageDeliveryException;
+import org.elasticsoftware.elasticactors.messaging.InternalMessage;
+import org.elasticsoftware.elasticactors.messaging.MessageHandlerEventListener;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundExecutor;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundRunnable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.String.format;
+
+/**
+ * Publishes messages on a producer {@link Channel} in publisher confirms mode. Messages are buffered and published in
+ * bursts by a single flush task on the queue executor, at most windowSize messages can be unconfirmed at any time.
+ * The {@link MessageHandlerEventListener} of a message is completed when the broker confirms (or rejects) it. When
+ * confirms are disabled the listener is completed as soon as the message has been written to the channel.
+ *
+ * When the channel is closed the unconfirmed messages are kept and published again (in order) once the channel has
+ * been recovered, this means a message can be delivered more than once but it will not be lost. Messages that are not
+ * confirmed within the publish timeout (for instance because the channel does not recover) are failed.
+ *
+ * @author Joost van de Wijgerd
+ */
+public final class ConfirmingPublisher extends DefaultChannelListener implements ConfirmListener {
+    private static final Logger logger = LogManager.getLogger(ConfirmingPublisher.class);
+    private final Channel channel;
+    private final ThreadBoundExecutor queueExecutor;
+    private final String name;
+    private final boolean confirms;
+    private final int windowSize;
+    private final long publishTimeout;
+    private final Deque<PendingMessage> buffer = new ConcurrentLinkedDeque<>();
+    private final ConcurrentNavigableMap<Long, PendingMessage> unconfirmed = new ConcurrentSkipListMap<>();
+    // size() of the skip list is not a constant time operation
+    private final AtomicInteger unconfirmedCount = new AtomicInteger();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean recovering = new AtomicBoolean(false);
+    private final Flusher flusher = new Flusher();
+
+    /**
+     * @param confirms          if false the messages are not confirmed by the broker and the window does not apply
+     * @param windowSize        the maximum number of unconfirmed messages
+     * @param publishTimeout    the time in milliseconds after which a message that is not confirmed is failed, 0 to
+     *                          never fail messages
+     */
+    public ConfirmingPublisher(Channel channel, ThreadBoundExecutor queueExecutor, String name, boolean confirms,
+                               int windowSize, long publishTimeout) {
+        this.channel = channel;
+        this.queueExecutor = queueExecutor;
+        this.name = name;
+        this.confirms = confirms;
+        this.windowSize = Math.max(1, windowSize);
+        this.publishTimeout = publishTimeout;
+    }
+
+    public void initialize() throws IOException {
+        if (confirms) {
+            channel.confirmSelect();
+            channel.addConfirmListener(this);
+        }
+    }
+
+    public void publish(String exchangeName, String routingKey, InternalMessage message, MessageHandlerEventListener listener) {
+        buffer.add(new PendingMessage(exchangeName, routingKey, message, listener));
+        scheduleFlush();
+    }
+
+    public boolean isRecovering() {
+        return recovering.get();
+    }
+
+    /**
+     * @return the number of messages that were published but not confirmed yet
+     */
+    public int getUnconfirmedCount() {
+        return unconfirmedCount.get();
+    }
+
+    /**
+     * @return the number of messages that are waiting for room in the window (or for the channel to recover)
+     */
+    public int getBufferedCount() {
+        return buffer.size();
+    }
+
+    private void scheduleFlush() {
+        if (!buffer.isEmpty() && !recovering.get() && unconfirmedCount.get() < windowSize
+                && flushScheduled.compareAndSet(false, true)) {
+            queueExecutor.execute(flusher);
+        }
+    }
+
+    private void flush() {
+        // without confirms the messages are done when they are written, the listeners are completed outside the lock
+        final List<PendingMessage> published = confirms ? Collections.emptyList() : new ArrayList<>();
+        // publishing and registering the sequence number needs to be atomic
+        synchronized (this) {
+            PendingMessage pendingMessage;
+            while (!recovering.get() && unconfirmedCount.get() < windowSize && (pendingMessage = buffer.poll()) != null) {
+                final long sequenceNumber = channel.getNextPublishSeqNo();
+                if (confirms) {
+                    // register first, the confirm can arrive before basicPublish returns
+                    unconfirmed.put(sequenceNumber, pendingMessage);
+                    unconfirmedCount.incrementAndGet();
+                }
+                try {
+                    channel.basicPublish(pendingMessage.exchangeName, pendingMessage.routingKey, false, false,
+                            createProps(pendingMessage.message), pendingMessage.message.toByteArray());
+                    if (!confirms) {
+                        published.add(pendingMessage);
+                    }
+                } catch (IOException | AlreadyClosedException e) {
+                    // the message was not sent, keep it for when the channel is recovered
+                    if (confirms) {
+                        unconfirmed.remove(sequenceNumber);
+                        unconfirmedCount.decrementAndGet();
+                    }
+                    buffer.addFirst(pendingMessage);
+                    recovering.set(true);
+                    logger.error(format("Exception while publishing message on [%s], MessagingService is recovering", name), e);
+                }
+            }
+        }
+        for (PendingMessage pendingMessage : published) {
+            complete(pendingMessage, null);
+        }
+    }
+
+    /**
+     * Fails the messages that were buffered or published more than publishTimeout milliseconds ago and have not been
+     * confirmed yet. This is called periodically, the messages would otherwise wait forever for a channel that does
+     * not recover.
+     */
+    public void expireMessages() {
+        expireMessages(System.currentTimeMillis());
+    }
+
+    void expireMessages(long now) {
+        if (publishTimeout <= 0) {
+            return;
+        }
+        final long expiredBefore = now - publishTimeout;
+        final List<PendingMessage> expired = new ArrayList<>();
+        synchronized (this) {
+            // the messages are confirmed in order, so the oldest messages are at the head
+            Iterator<PendingMessage> iterator = unconfirmed.values().iterator();
+            PendingMessage pendingMessage;
+            while (iterator.hasNext() && (pendingMessage = iterator.next()).publishTime <= expiredBefore) {
+                iterator.remove();
+                unconfirmedCount.decrementAndGet();
+                expired.add(pendingMessage);
+            }
+            while ((pendingMessage = buffer.peekFirst()) != null && pendingMessage.publishTime <= expiredBefore) {
+                expired.add(buffer.pollFirst());
+            }
+        }
+        if (!expired.isEmpty()) {
+            logger.error(format("%d messages were not confirmed within %d msecs on [%s]", expired.size(), publishTimeout, name));
+            MessageDeliveryException exception =
+                    new MessageDeliveryException(format("Message was not confirmed within %d msecs on [%s]", publishTimeout, name), true);
+            for (PendingMessage expiredMessage : expired) {
+                complete(expiredMessage, exception);
+            }
+            scheduleFlush();
+        }
+    }
+
+    private void complete(PendingMessage pendingMessage, Throwable exception) {
+        try {
+            if (exception == null) {
+                pendingMessage.listener.onDone(pendingMessage.message);
+            } else {
+                pendingMessage.listener.onError(pendingMessage.message, exception);
+            }
+        } catch (Exception e) {
+            logger.error("Unexpected exception while completing a published message", e);
+        }
+    }
+
+    @Override
+    public void handleAck(long deliveryTag, boolean multiple) {
+        for (PendingMessage pendingMessage : confirmed(deliveryTag, multiple)) {
+            complete(pendingMessage, null);
+        }
+        scheduleFlush();
+    }
+
+    @Override
+    public void handleNack(long deliveryTag, boolean multiple) {
+        Collection<PendingMessage> rejected = confirmed(deliveryTag, multiple);
+        if (!rejected.isEmpty()) {
+            logger.error(format("%d messages were rejected by the broker on [%s]", rejected.size(), name));
+            MessageDeliveryException exception =
+                    new MessageDeliveryException(format("Message was rejected by the broker on [%s]", name), false);
+            for (PendingMessage pendingMessage : rejected) {
+                complete(pendingMessage, exception);
+            }
+        }
+        scheduleFlush();
+    }
+
+    private Collection<PendingMessage> confirmed(long deliveryTag, boolean multiple) {
+        if (multiple) {
+            Map<Long, PendingMessage> confirmed = unconfirmed.headMap(deliveryTag, true);
+            List<PendingMessage> pendingMessages = new ArrayList<>(confirmed.values());
+            confirmed.clear();
+            unconfirmedCount.addAndGet(-pendingMessages.size());
+            return pendingMessages;
+        } else {
+            PendingMessage pendingMessage = unconfirmed.remove(deliveryTag);
+            if (pendingMessage == null) {
+                return Collections.emptyList();
+            }
+            unconfirmedCount.decrementAndGet();
+            return Collections.singletonList(pendingMessage);
+        }
+    }
+
+    @Override
+    public void onRecoveryStarted(Channel channel) {
+        recovering.set(true);
+    }
+
+    @Override
+    public void onRecoveryCompleted(Channel channel) {
+        synchronized (this) {
+            // the sequence numbers start again on the new channel, all unconfirmed messages need to be published again
+            if (!unconfirmed.isEmpty()) {
+                logger.warn(format("Publishing %d unconfirmed messages again on [%s]", unconfirmedCount.get(), name));
+                unconfirmed.descendingMap().values().forEach(buffer::addFirst);
+                unconfirmed.clear();
+                unconfirmedCount.set(0);
+            }
+            if (recovering.compareAndSet(true, false)) {
+                logger.info(format("RabbitMQ Channel [%s] recovered", name));
+            }
+        }
+        scheduleFlush();
+    }
+
+    @Override
+    public void onRecoveryFailure(Channel channel, Throwable failure) {
+        logger.error(format("RabbitMQ Channel [%s] recovery failed", name), failure);
+    }
+
+    static AMQP.BasicProperties createProps(InternalMessage message) {
+        if(message.getTimeout() < 0) {
+            return message.isDurable() ? MessageProperties.PERSISTENT_BASIC : MessageProperties.BASIC;
+        } else {
+            if(message.isDurable()) {
+                return new AMQP.BasicProperties.Builder().contentType("application/octet-stream").deliveryMode(2)
+                        .priority(0).expiration(String.valueOf(message.getTimeout())).build();
+            } else {
+                return new AMQP.BasicProperties.Builder().contentType("application/octet-stream").deliveryMode(1)
+                        .priority(0).expiration(String.valueOf(message.getTimeout())).build();
+            }
+        }
+    }
+
+    private static final class PendingMessage {
+        private final String exchangeName;
+        private final String routingKey;
+        private final InternalMessage message;
+        private final MessageHandlerEventListener listener;
+        private final long publishTime = System.currentTimeMillis();
+
+        private PendingMessage(String exchangeName, String routingKey, InternalMessage message, MessageHandlerEventListener listener) {
+            this.exchangeName = exchangeName;
+            this.routingKey = routingKey;
+            this.message = message;
+            this.listener = listener;
+        }
+    }
+
+    private final class Flusher implements ThreadBoundRunnable<String> {
+        @Override
+        public String getKey() {
+            return name;
+        }
+
+        @Override
+        public void run() {
+            try {
+                flush();
+            } catch (Exception e) {
+                logger.error(format("Unexpected exception while publishing messages on [%s]", name), e);
+            } finally {
+                flushScheduled.set(false);
+                // messages could have been added (or confirmed) while we were flushing
+                scheduleFlush();
+            }
+        }
+    }
+}
@@ -17,15 +17,14 @@
 package org.elasticsoftware.elasticactors.rabbitmq.cpt;
 
 import com.rabbitmq.client.*;
-import net.jodah.lyra.event.ChannelListener;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.elasticsoftware.elasticactors.MessageDeliveryException;
+import org.elasticsoftware.elasticactors.cluster.tasks.PendingWrites;
 import org.elasticsoftware.elasticactors.messaging.InternalMessage;
 import org.elasticsoftware.elasticactors.messaging.MessageHandler;
 import org.elasticsoftware.elasticactors.messaging.MessageHandlerEventListener;
 import org.elasticsoftware.elasticactors.messaging.MessageQueue;
-import org.elasticsoftware.elasticactors.rabbitmq.ChannelListenerRegistry;
 import org.elasticsoftware.elasticactors.rabbitmq.MessageAcker;
 import org.elasticsoftware.elasticactors.serialization.internal.InternalMessageDeserializer;
 import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundExecutor;
@@ -34,32 +33,29 @@ import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundRunnable;
 import java.io.IOException;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.lang.String.format;
 
 /**
  * @author Joost van de Wijgerd
  */
-public final class LocalMessageQueue extends DefaultConsumer implements MessageQueue, ChannelListener {
+public final class LocalMessageQueue extends DefaultConsumer implements MessageQueue {
     private static final Logger logger = LogManager.getLogger(LocalMessageQueue.class);
     private final Channel consumerChannel;
-    private final Channel producerChannel;
+    private final ConfirmingPublisher publisher;
     private final String exchangeName;
     private final String queueName;
     private final MessageHandler messageHandler;
     private final TransientAck transientAck = new TransientAck();
+    private final PublishListener publishListener = new PublishListener();
     private final ThreadBoundExecutor queueExecutor;
     private final CountDownLatch destroyLatch = new CountDownLatch(1);
     private final InternalMessageDeserializer internalMessageDeserializer;
-    private final AtomicBoolean recovering = new AtomicBoolean(false);
-    private final ChannelListenerRegistry channelListenerRegistry;
     private final MessageAcker messageAcker;
 
     public LocalMessageQueue(ThreadBoundExecutor queueExecutor,
-                             ChannelListenerRegistry channelListenerRegistry,
                              Channel consumerChannel,
-                             Channel producerChannel,
+                             ConfirmingPublisher publisher,
                              String exchangeName,
                              String queueName,
                              MessageHandler messageHandler,
@@ -68,20 +64,18 @@ public final class LocalMessageQueue extends DefaultConsumer implements MessageQ
         super(consumerChannel);
         this.queueExecutor = queueExecutor;
         this.consumerChannel = consumerChannel;
-        this.producerChannel = producerChannel;
+        this.publisher = publisher;
         this.exchangeName = exchangeName;
         this.queueName = queueName;
         this.messageHandler = messageHandler;
         this.internalMessageDeserializer = internalMessageDeserializer;
         this.messageAcker = messageAcker;
-        this.channelListenerRegistry = channelListenerRegistry;
-        this.channelListenerRegistry.addChannelListener(this.producerChannel,this);
     }
 
     @Override
     public boolean offer(final InternalMessage message) {
         // see if we are recovering first
-        if(this.recovering.get()) {
+        if(this.publisher.isRecovering()) {
             throw new MessageDeliveryException("MessagingService is recovering",true);
         }
         if(!message.isDurable()) {
@@ -89,25 +83,14 @@ public final class LocalMessageQueue extends DefaultConsumer implements MessageQ
             queueExecutor.execute(new InternalMessageHandler(queueName,message,messageHandler,transientAck,logger));
             return true;
         } else {
-            queueExecutor.execute(new MessageSender(message));
+            // the message that is being handled is only acked when the broker has confirmed this one
+            final MessageHandlerEventListener writeListener = PendingWrites.register();
+            // the publisher coalesces the messages for the producer channel and tracks the confirms
+            publisher.publish(exchangeName, queueName, message, writeListener != null ? writeListener : publishListener);
             return true;
         }
     }
 
-    private AMQP.BasicProperties createProps(InternalMessage message) {
-        if(message.getTimeout() < 0) {
-            return message.isDurable() ? MessageProperties.PERSISTENT_BASIC : MessageProperties.BASIC;
-        } else {
-            if(message.isDurable()) {
-                return new AMQP.BasicProperties.Builder().contentType("application/octet-stream").deliveryMode(2)
-                        .priority(0).expiration(String.valueOf(message.getTimeout())).build();
-            } else {
-                return new AMQP.BasicProperties.Builder().contentType("application/octet-stream").deliveryMode(1)
-                        .priority(0).expiration(String.valueOf(message.getTimeout())).build();
-            }
-        }
-    }
-
     @Override
     public boolean add(InternalMessage message) {
         return offer(message);
@@ -137,8 +120,6 @@ public final class LocalMessageQueue extends DefaultConsumer implements MessageQ
             logger.error("IOException while cancelling consumer",e);
         } catch (InterruptedException e) {
             // ignore
-        } finally {
-            this.channelListenerRegistry.removeChannelListener(this.producerChannel,this);
         }
     }
 
@@ -175,40 +156,6 @@ public final class LocalMessageQueue extends DefaultConsumer implements MessageQ
         }
     }
 
-    @Override
-    public void onCreate(Channel channel) {
-        // ignore
-    }
-
-    @Override
-    public void onCreateFailure(Throwable failure) {
-        // ignore
-    }
-
-    @Override
-    public void onRecovery(Channel channel) {
-
-    }
-
-    @Override
-    public void onRecoveryStarted(Channel channel) {
-
-    }
-
-    @Override
-    public void onRecoveryCompleted(Channel channel) {
-        // reset the recovery flag
-        if(this.recovering.compareAndSet(true,false)) {
-            logger.info("RabbitMQ Channel recovered");
-        }
-    }
-
-    @Override
-    public void onRecoveryFailure(Channel channel, Throwable failure) {
-        // log an error
-        logger.error("RabbitMQ Channel recovery failed");
-    }
-
     private static final class RabbitMQMessageHandler implements ThreadBoundRunnable<String> {
         private final String queueName;
         private final InternalMessageDeserializer internalMessageDeserializer;
@@ -322,29 +269,16 @@ public final class LocalMessageQueue extends DefaultConsumer implements MessageQ
         }
     }
 
-    private final class MessageSender implements ThreadBoundRunnable<String> {
-        private final InternalMessage message;
-
-        public MessageSender(InternalMessage message) {
-            this.message = message;
-        }
+    private final class PublishListener implements MessageHandlerEventListener {
 
         @Override
-        public void run() {
-            try {
-                final AMQP.BasicProperties props = createProps(message);
-                producerChannel.basicPublish(exchangeName, queueName, false, false, props, message.toByteArray());
-            } catch (IOException e) {
-                logger.error("IOException while publishing message", e);
-            } catch(AlreadyClosedException e) {
-                LocalMessageQueue.this.recovering.set(true);
-                logger.error("MessagingService is recovering");
-            }
+        public void onError(InternalMessage message, Throwable exception) {
+            logger.error(format("Error publishing message, payloadClass [%s]", message.getPayloadClass()), exception);
         }
 
         @Override
-        public String getKey() {
-            return LocalMessageQueue.this.queueName;
+        public void onDone(InternalMessage message) {
+            // confirmed by the broker
         }
     }
 }
@@ -39,6 +39,7 @@ import org.elasticsoftware.elasticactors.rabbitmq.ack.BufferingMessageAcker;
 import org.elasticsoftware.elasticactors.rabbitmq.ack.DirectMessageAcker;
 import org.elasticsoftware.elasticactors.rabbitmq.ack.WriteBehindMessageAcker;
 import org.elasticsoftware.elasticactors.serialization.internal.InternalMessageDeserializer;
+import org.elasticsoftware.elasticactors.util.concurrent.DaemonThreadFactory;
 import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundExecutor;
 import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundRunnable;
 import org.springframework.util.StringUtils;
@@ -53,10 +54,13 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 
 import static java.lang.String.format;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
 import static org.elasticsoftware.elasticactors.rabbitmq.MessageAcker.Type.*;
 
 /**
@@ -70,10 +74,15 @@ public final class RabbitMQMessagingService implements ChannelListenerRegistry,
     private static final String QUEUE_NAME_FORMAT = "%s/%s";
     private final String elasticActorsCluster;
     private static final String EA_EXCHANGE_FORMAT = "ea.%s";
+    // the maximum number of unacked messages per queue, 0 means unlimited. A cap is only safe with an acker that can
+    // ack out of order: the BufferingMessageAcker acks cumulatively, so one slow message would hold back the acks
+    // for the whole channel and stall every queue on it once the cap is reached
+    public static final int DEFAULT_PREFETCH_COUNT = 0;
     private final String exchangeName;
     private Connection clientConnection;
-    private Channel consumerChannel;
+    private final List<Channel> consumerChannels;
     private final List<Channel> producerChannels;
+    private final List<ConfirmingPublisher> producerPublishers;
     private final LocalMessageQueueFactory localMessageQueueFactory;
     private final RemoteMessageQueueFactory remoteMessageQueueFactory;
     private final RemoteActorSystemMessageQueueFactoryFactory remoteActorSystemMessageQueueFactoryFactory;
@@ -83,8 +92,13 @@ public final class RabbitMQMessagingService implements ChannelListenerRegistry,
     private final InternalMessageDeserializer internalMessageDeserializer;
     private final ConcurrentMap<Channel,Set<ChannelListener>> channelListenerRegistry = new ConcurrentHashMap<>();
     private final MessageAcker.Type ackType;
-    private MessageAcker messageAcker;
+    private final List<MessageAcker> messageAckers;
     private final Integer prefetchCount;
+    private final int consumerChannelCount;
+    private final boolean publisherConfirms;
+    private final Integer publisherConfirmsWindowSize;
+    private final long publishTimeout;
+    private final ScheduledExecutorService publishTimeoutExecutor = newSingleThreadScheduledExecutor(new DaemonThreadFactory("RABBITMQ-PUBLISH_TIMEOUTS"));
 
     public RabbitMQMessagingService(String elasticActorsCluster,
                                     String rabbitmqHosts,
@@ -94,7 +108,11 @@ public final class RabbitMQMessagingService implements ChannelListenerRegistry,
                                     MessageAcker.Type ackType,
                                     ThreadBoundExecutor queueExecutor,
                                     InternalMessageDeserializer internalMessageDeserializer,
-                                    Integer prefetchCount) {
+                                    Integer prefetchCount,
+                                    Boolean publisherConfirms,
+                                    Integer publisherConfirmsWindowSize,
+                                    Long publishTimeout,
+                                    Integer consumerChannelCount) {
         this.rabbitmqHosts = rabbitmqHosts;
         this.elasticActorsCluster = elasticActorsCluster;
         this.rabbitmqPort = rabbitmqPort;
@@ -105,10 +123,17 @@ public final class RabbitMQMessagingService implements ChannelListenerRegistry,
         this.internalMessageDeserializer = internalMessageDeserializer;
         this.exchangeName = format(EA_EXCHANGE_FORMAT, elasticActorsCluster);
         this.prefetchCount = prefetchCount;
+        this.publisherConfirms = publisherConfirms;
+        this.publisherConfirmsWindowSize = publisherConfirmsWindowSize;
+        this.publishTimeout = publishTimeout;
+        this.consumerChannelCount = Math.max(1, consumerChannelCount);
+        this.consumerChannels = new ArrayList<>(this.consumerChannelCount);
+        this.messageAckers = new ArrayList<>(this.consumerChannelCount);
         this.localMessageQueueFactory = new LocalMessageQueueFactory();
         this.remoteMessageQueueFactory = new RemoteMessageQueueFactory();
         this.remoteActorSystemMessageQueueFactoryFactory = new RemoteActorSystemMessageQueueFactoryFactory();
         this.producerChannels = new ArrayList<>(queueExecutor.getThreadCount());
+        this.producerPublishers = new ArrayList<>(queueExecutor.getThreadCount());
     }
 
     @PostConstruct
@@ -132,31 +157,63 @@ public final class RabbitMQMessagingService implements ChannelListenerRegistry,
         // create single connection
         //clientConnection = connectionFactory.newConnection(Address.parseAddresses(rabbitmqHosts));
         clientConnection = Connections.create(connectionOptions,config);
-        // create a seperate consumer channel
-        consumerChannel = clientConnection.createChannel();
-        consumerChannel.basicQos(prefetchCount);
-        // prepare the consumer channels
+        initializeChannels(clientConnection);
+        // a message that is not confirmed (i.e. because the channel doesn't recover) should not wait forever
+        if(publishTimeout > 0) {
+            long interval = Math.max(100L, publishTimeout / 10);
+            publishTimeoutExecutor.scheduleWithFixedDelay(() -> producerPublishers.forEach(ConfirmingPublisher::expireMessages),
+                    interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    void initializeChannels(Connection connection) throws IOException {
+        // create the consumer channels, the deliveries of a channel are dispatched serially so the queues are spread
+        // over multiple channels (each with their own acker) to be able to dispatch concurrently
+        for (int i = 0; i < consumerChannelCount; i++) {
+            Channel consumerChannel = connection.createChannel();
+            // not global: the prefetch count applies to every queue (consumer) separately
+            consumerChannel.basicQos(prefetchCount, false);
+            consumerChannels.add(consumerChannel);
+        }
+        // prepare the producer channels
         for (int i = 0; i < queueExecutor.getThreadCount(); i++) {
-            producerChannels.add(clientConnection.createChannel());
+            Channel producerChannel = connection.createChannel();
+            producerChannels.add(producerChannel);
+            // all publishes on the producer channel go through the publisher as it needs to track the confirms
+            ConfirmingPublisher publisher = new ConfirmingPublisher(producerChannel, queueExecutor,
+                    format("%s/producer-%d", elasticActorsCluster, i), publisherConfirms,
+                    publisherConfirmsWindowSize, publishTimeout);
+            publisher.initialize();
+            addChannelListener(producerChannel, publisher);
+            producerPublishers.add(publisher);
         }
         // ensure the exchange is there
-        consumerChannel.exchangeDeclare(exchangeName,"direct",true);
+        consumerChannels.get(0).exchangeDeclare(exchangeName,"direct",true);
+        for (Channel consumerChannel : consumerChannels) {
+            // delivery tags are scoped to the channel, so we need an acker per channel
+            MessageAcker messageAcker = createMessageAcker(consumerChannel);
+            messageAcker.start();
+            messageAckers.add(messageAcker);
+        }
+    }
+
+    private MessageAcker createMessageAcker(Channel consumerChannel) {
         if(ackType == BUFFERED) {
-            messageAcker = new BufferingMessageAcker(consumerChannel);
+            return new BufferingMessageAcker(consumerChannel);
         } else if(ackType == WRITE_BEHIND) {
-            messageAcker = new WriteBehindMessageAcker(consumerChannel);
+            return new WriteBehindMessageAcker(consumerChannel);
         } else if(ackType == ASYNC) {
-            messageAcker = new AsyncMessageAcker(consumerChannel);
+            return new AsyncMessageAcker(consumerChannel);
         } else {
-            messageAcker = new DirectMessageAcker(consumerChannel);
+            return new DirectMessageAcker(consumerChannel);
         }
-        messageAcker.start();
     }
 
     @PreDestroy
     public void stop() {
         try {
-            messageAcker.stop();
+            publishTimeoutExecutor.shutdownNow();
+            messageAckers.forEach(MessageAcker::stop);
             clientConnection.close();
         } catch (IOException e) {
             logger.error("Failed to close all RabbitMQ Client resources",e);
@@ -252,7 +309,7 @@ public final class RabbitMQMessagingService implements ChannelListenerRegistry,
     }
 
     public boolean areConsumerChannelsOpen() {
-        return consumerChannel != null && consumerChannel.isOpen();
+        return !consumerChannels.isEmpty() && consumerChannels.stream().allMatch(ShutdownNotifier::isOpen);
     }
 
     public boolean areProducerChannelsOpen() {
@@ -270,6 +327,10 @@ public final class RabbitMQMessagingService implements ChannelListenerRegistry,
         return Math.abs(key.hashCode()) % queueExecutor.getThreadCount();
     }
 
+    private int getConsumerBucket(Object key) {
+        return Math.abs(key.hashCode()) % consumerChannelCount;
+    }
+
     private final class LocalMessageQueueFactory implements MessageQueueFactory {
         @Override
         public MessageQueue create(String name, MessageHandler messageHandler) throws Exception {
@@ -333,14 +394,14 @@ public final class RabbitMQMessagingService implements ChannelListenerRegistry,
         @Override
         public void run() {
             try {
-                Channel producerChannel = producerChannels.get(getBucket(this.queueName));
-                ensureQueueExists(producerChannel, queueName);
+                int bucket = getBucket(this.queueName);
+                int consumerBucket = getConsumerBucket(this.queueName);
+                ensureQueueExists(producerChannels.get(bucket), queueName);
                 this.messageQueue = new LocalMessageQueue(queueExecutor,
-                        RabbitMQMessagingService.this,
-                        consumerChannel,
-                        producerChannel,
+                        consumerChannels.get(consumerBucket),
+                        producerPublishers.get(bucket),
                         exchangeName, queueName, messageHandler,
-                        internalMessageDeserializer, messageAcker);
+                        internalMessageDeserializer, messageAckers.get(consumerBucket));
                 messageQueue.initialize();
             } catch(Exception e) {
                 this.exception = e;
@@ -378,9 +439,9 @@ public final class RabbitMQMessagingService implements ChannelListenerRegistry,
         @Override
         public void run() {
             try {
-                Channel producerChannel = producerChannels.get(getBucket(this.queueName));
-                ensureQueueExists(producerChannel,queueName);
-                this.messageQueue =  new RemoteMessageQueue(RabbitMQMessagingService.this, queueExecutor, producerChannel, exchangeName, queueName);
+                int bucket = getBucket(this.queueName);
+                ensureQueueExists(producerChannels.get(bucket),queueName);
+                this.messageQueue =  new RemoteMessageQueue(producerPublishers.get(bucket), exchangeName, queueName);
                 messageQueue.initialize();
             } catch(Exception e) {
                 this.exception = e;
@@ -16,69 +16,45 @@
 
 package org.elasticsoftware.elasticactors.rabbitmq.cpt;
 
-import com.rabbitmq.client.AMQP;
-import com.rabbitmq.client.AlreadyClosedException;
-import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.MessageProperties;
-import net.jodah.lyra.event.DefaultChannelListener;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.elasticsoftware.elasticactors.MessageDeliveryException;
+import org.elasticsoftware.elasticactors.cluster.tasks.PendingWrites;
 import org.elasticsoftware.elasticactors.messaging.InternalMessage;
+import org.elasticsoftware.elasticactors.messaging.MessageHandlerEventListener;
 import org.elasticsoftware.elasticactors.messaging.MessageQueue;
-import org.elasticsoftware.elasticactors.rabbitmq.ChannelListenerRegistry;
-import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundExecutor;
-import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundRunnable;
 
-import java.io.IOException;
-import java.util.concurrent.atomic.AtomicBoolean;
+import static java.lang.String.format;
 
 /**
  * @author Joost van de Wijgerd
  */
-public final class RemoteMessageQueue extends DefaultChannelListener implements MessageQueue {
+public final class RemoteMessageQueue implements MessageQueue, MessageHandlerEventListener {
     private final Logger logger;
-    private final Channel producerChannel;
+    private final ConfirmingPublisher publisher;
     private final String exchangeName;
     private final String queueName;
-    private final ChannelListenerRegistry channelListenerRegistry;
-    private final ThreadBoundExecutor queueExecutor;
-    private final AtomicBoolean recovering = new AtomicBoolean(false);
 
-    public RemoteMessageQueue(ChannelListenerRegistry channelListenerRegistry, ThreadBoundExecutor queueExecutor, Channel producerChannel, String exchangeName, String queueName) {
-        this.queueExecutor = queueExecutor;
-        this.producerChannel = producerChannel;
+    public RemoteMessageQueue(ConfirmingPublisher publisher, String exchangeName, String queueName) {
+        this.publisher = publisher;
         this.exchangeName = exchangeName;
         this.queueName = queueName;
         this.logger = LogManager.getLogger(String.format("Producer[%s->%s]",exchangeName,queueName));
-        this.channelListenerRegistry = channelListenerRegistry;
-        this.channelListenerRegistry.addChannelListener(this.producerChannel,this);
     }
 
     @Override
     public boolean offer(InternalMessage message) {
         // see if we are recovering first
-        if(this.recovering.get()) {
+        if(this.publisher.isRecovering()) {
             throw new MessageDeliveryException("MessagingService is recovering",true);
         }
-        queueExecutor.execute(new MessageSender(message));
+        // the message that is being handled is only acked when the broker has confirmed this one
+        final MessageHandlerEventListener writeListener = PendingWrites.register();
+        // the producer channel is shared with the other queues, the publisher needs to track all confirms
+        publisher.publish(exchangeName, queueName, message, writeListener != null ? writeListener : this);
         return true;
     }
 
-    private AMQP.BasicProperties createProps(InternalMessage message) {
-        if(message.getTimeout() < 0) {
-            return message.isDurable() ? MessageProperties.PERSISTENT_BASIC : MessageProperties.BASIC;
-        } else {
-            if(message.isDurable()) {
-                return new AMQP.BasicProperties.Builder().contentType("application/octet-stream").deliveryMode(2)
-                        .priority(0).expiration(String.valueOf(message.getTimeout())).build();
-            } else {
-                return new AMQP.BasicProperties.Builder().contentType("application/octet-stream").deliveryMode(1)
-                        .priority(0).expiration(String.valueOf(message.getTimeout())).build();
-            }
-        }
-    }
-
     @Override
     public boolean add(InternalMessage message) {
         return offer(message);
@@ -101,46 +77,16 @@ public final class RemoteMessageQueue extends DefaultChannelListener implements
 
     @Override
     public void destroy() {
-        this.channelListenerRegistry.removeChannelListener(this.producerChannel,this);
+        // nothing to do
     }
 
     @Override
-    public void onRecovery(Channel channel) {
-        // reset the recovery flag
-        if(this.recovering.compareAndSet(true,false)) {
-            logger.info("RabbitMQ Channel recovered");
-        }
+    public void onError(InternalMessage message, Throwable exception) {
+        logger.error(format("Error publishing message, payloadClass [%s]", message.getPayloadClass()), exception);
     }
 
     @Override
-    public void onRecoveryFailure(Channel channel, Throwable failure) {
-        // log an error
-        logger.error("RabbitMQ Channel recovery failed");
-    }
-
-    private final class MessageSender implements ThreadBoundRunnable<String> {
-        private final InternalMessage message;
-
-        public MessageSender(InternalMessage message) {
-            this.message = message;
-        }
-
-        @Override
-        public void run() {
-            try {
-                final AMQP.BasicProperties props = createProps(message);
-                producerChannel.basicPublish(exchangeName, queueName, false, false, props, message.toByteArray());
-            } catch (IOException e) {
-                logger.error("IOException while publishing message", e);
-            } catch(AlreadyClosedException e) {
-                RemoteMessageQueue.this.recovering.set(true);
-                logger.error("MessagingService is recovering");
-            }
-        }
-
-        @Override
-        public String getKey() {
-            return RemoteMessageQueue.this.queueName;
-        }
+    public void onDone(InternalMessage message) {
+        // confirmed by the broker
     }
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.rabbitmq;
+
+import com.rabbitmq.client.Channel;
+import org.elasticsoftware.elasticactors.rabbitmq.ack.BufferingMessageAcker;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.*;
+
+/**
+ * Delivers a burst of messages to the {@link BufferingMessageAcker}, acks them in a shuffled order (like the
+ * messages being handled by different threads) and waits until the acker has acked the whole burst on the
+ * (mocked) channel. The acks are cumulative, so the channel only records a few invocations per burst, these are
+ * cleared after every iteration. Run the main method to get the allocations per message from the gc profiler.
+ *
+ * @author Joost van de Wijgerd
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BufferingMessageAckerBenchmark {
+    private static final int BURST_SIZE = 1000;
+
+    private Channel channel;
+    private BufferingMessageAcker messageAcker;
+    private final int[] ackOrder = new int[BURST_SIZE];
+    private volatile long lastAckedTag;
+    private long nextDeliveryTag = 1;
+
+    @Setup
+    public void setUp() throws Exception {
+        channel = mock(Channel.class);
+        stubChannel();
+        // acks arrive out of order, but not too far from the delivery order
+        Random random = new Random(42);
+        for (int i = 0; i < BURST_SIZE; i++) {
+            ackOrder[i] = i;
+        }
+        for (int i = 0; i < BURST_SIZE; i++) {
+            int j = Math.min(BURST_SIZE - 1, i + random.nextInt(16));
+            int tmp = ackOrder[i];
+            ackOrder[i] = ackOrder[j];
+            ackOrder[j] = tmp;
+        }
+        messageAcker = new BufferingMessageAcker(channel);
+        messageAcker.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void clearInvocations() throws Exception {
+        // all bursts have been acked, so the acker doesn't use the channel now
+        reset(channel);
+        stubChannel();
+    }
+
+    @TearDown
+    public void tearDown() {
+        messageAcker.stop();
+    }
+
+    private void stubChannel() throws Exception {
+        doAnswer(invocation -> {
+            lastAckedTag = (Long) invocation.getArguments()[0];
+            return null;
+        }).when(channel).basicAck(anyLong(), anyBoolean());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST_SIZE)
+    public void deliverAndAck() {
+        final long firstTag = nextDeliveryTag;
+        for (int i = 0; i < BURST_SIZE; i++) {
+            messageAcker.deliver(nextDeliveryTag++);
+        }
+        for (int i = 0; i < BURST_SIZE; i++) {
+            messageAcker.ack(firstTag + ackOrder[i]);
+        }
+        final long lastTag = nextDeliveryTag - 1;
+        while (lastAckedTag < lastTag) {
+            LockSupport.parkNanos(1000L);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(BufferingMessageAckerBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -18,9 +18,20 @@ package org.elasticsoftware.elasticactors.rabbitmq;
 
 import com.rabbitmq.client.Channel;
 import org.elasticsoftware.elasticactors.rabbitmq.ack.BufferingMessageAcker;
+import org.mockito.ArgumentCaptor;
 import org.testng.annotations.Test;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.*;
+import static org.testng.Assert.assertTrue;
 
 /**
  * @author Joost van de Wijgerd
@@ -86,4 +97,85 @@ public class BufferingMessageAckerTest {
 
 
     }
+
+    @Test
+    public void testAcksBeyondCapacity() throws Exception {
+        Channel channel = mock(Channel.class);
+
+        BufferingMessageAcker messageAcker = new BufferingMessageAcker(channel, 64);
+        messageAcker.start();
+
+        for(long i = 1; i <= 1000; i++) {
+            messageAcker.deliver(i);
+        }
+        // most of these don't fit in the ring
+        for(long i = 1000; i > 1; i--) {
+            messageAcker.ack(i);
+        }
+
+        Thread.sleep(1000);
+
+        verifyZeroInteractions(channel);
+
+        messageAcker.ack(1);
+
+        verify(channel,timeout(1000)).basicAck(1000, true);
+
+        messageAcker.stop();
+
+        assertAscendingMultipleAcks(channel);
+    }
+
+    @Test
+    public void testConcurrentAcking() throws Exception {
+        final int messages = 200000;
+        final AtomicIntegerArray acked = new AtomicIntegerArray(messages + 1);
+        final List<String> violations = new CopyOnWriteArrayList<>();
+        Channel channel = mock(Channel.class);
+        // every multiple ack should only cover tags that were acked
+        doAnswer(invocation -> {
+            long deliveryTag = (Long) invocation.getArguments()[0];
+            for(long i = deliveryTag; i > 0 && acked.get((int) i) != 2; i--) {
+                if(acked.get((int) i) == 0) {
+                    violations.add("ack " + deliveryTag + " covers un-acked tag " + i);
+                }
+                acked.set((int) i, 2);
+            }
+            return null;
+        }).when(channel).basicAck(anyLong(), anyBoolean());
+
+        BufferingMessageAcker messageAcker = new BufferingMessageAcker(channel, 1024);
+        messageAcker.start();
+
+        // deliver in order (like the channel dispatcher does) and ack out of order on a number of threads
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for(long i = 1; i <= messages; i++) {
+            final long deliveryTag = i;
+            messageAcker.deliver(deliveryTag);
+            executor.execute(() -> {
+                acked.compareAndSet((int) deliveryTag, 0, 1);
+                messageAcker.ack(deliveryTag);
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        verify(channel,timeout(5000)).basicAck(messages, true);
+
+        messageAcker.stop();
+
+        assertTrue(violations.isEmpty(), violations.toString());
+        assertAscendingMultipleAcks(channel);
+    }
+
+    private void assertAscendingMultipleAcks(Channel channel) throws Exception {
+        ArgumentCaptor<Long> deliveryTags = ArgumentCaptor.forClass(Long.class);
+        verify(channel, atLeastOnce()).basicAck(deliveryTags.capture(), eq(true));
+        verify(channel, never()).basicAck(anyLong(), eq(false));
+        long previous = 0;
+        for(Long deliveryTag : deliveryTags.getAllValues()) {
+            assertTrue(deliveryTag > previous, deliveryTags.getAllValues().toString());
+            previous = deliveryTag;
+        }
+    }
 }
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.rabbitmq.cpt;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ShutdownSignalException;
+import org.elasticsoftware.elasticactors.messaging.InternalMessage;
+import org.elasticsoftware.elasticactors.messaging.MessageHandlerEventListener;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundEvent;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundExecutor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Joost van de Wijgerd
+ */
+public class ConfirmingPublisherTest {
+    private Channel channel;
+    private List<byte[]> published;
+    private long nextPublishSeqNo;
+    private final List<InternalMessage> done = new ArrayList<>();
+    private final List<InternalMessage> failed = new ArrayList<>();
+    private final MessageHandlerEventListener listener = new MessageHandlerEventListener() {
+        @Override
+        public void onError(InternalMessage message, Throwable exception) {
+            failed.add(message);
+        }
+
+        @Override
+        public void onDone(InternalMessage message) {
+            done.add(message);
+        }
+    };
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        channel = mock(Channel.class);
+        published = new ArrayList<>();
+        nextPublishSeqNo = 1;
+        done.clear();
+        failed.clear();
+        stubPublish();
+    }
+
+    private void stubPublish() throws Exception {
+        // the sequence number only increases when a message is actually published
+        when(channel.getNextPublishSeqNo()).thenAnswer(new Answer<Long>() {
+            @Override
+            public Long answer(InvocationOnMock invocation) {
+                return nextPublishSeqNo;
+            }
+        });
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                published.add((byte[]) invocation.getArguments()[5]);
+                nextPublishSeqNo++;
+                return null;
+            }
+        }).when(channel).basicPublish(anyString(), anyString(), anyBoolean(), anyBoolean(), any(AMQP.BasicProperties.class), any(byte[].class));
+    }
+
+    @Test
+    public void testListenerIsCompletedOnConfirm() throws Exception {
+        ConfirmingPublisher publisher = createPublisher(100);
+        verify(channel).confirmSelect();
+        verify(channel).addConfirmListener(publisher);
+        List<InternalMessage> messages = publish(publisher, 10);
+
+        assertEquals(published.size(), 10);
+        assertTrue(done.isEmpty());
+        assertEquals(publisher.getUnconfirmedCount(), 10);
+
+        publisher.handleAck(3, false);
+        assertEquals(done, messages.subList(2, 3));
+
+        publisher.handleAck(5, true);
+        assertEquals(done.size(), 5);
+
+        publisher.handleNack(6, false);
+        assertEquals(failed, messages.subList(5, 6));
+
+        publisher.handleAck(10, true);
+        assertEquals(done.size(), 9);
+        assertEquals(publisher.getUnconfirmedCount(), 0);
+    }
+
+    @Test
+    public void testWindowLimitsUnconfirmedMessages() throws Exception {
+        ConfirmingPublisher publisher = createPublisher(10);
+        publish(publisher, 25);
+
+        assertEquals(published.size(), 10);
+        assertEquals(publisher.getBufferedCount(), 15);
+
+        // confirming part of the window makes room for the next burst
+        publisher.handleAck(4, true);
+        assertEquals(published.size(), 14);
+
+        publisher.handleAck(14, true);
+        assertEquals(published.size(), 24);
+
+        publisher.handleAck(24, true);
+        assertEquals(published.size(), 25);
+        assertEquals(publisher.getBufferedCount(), 0);
+    }
+
+    @Test
+    public void testUnconfirmedMessagesArePublishedAgainAfterRecovery() throws Exception {
+        ConfirmingPublisher publisher = createPublisher(100);
+        List<InternalMessage> messages = publish(publisher, 5);
+        publisher.handleAck(2, true);
+
+        // the channel is closed, the next publish fails
+        doThrow(new AlreadyClosedException(new ShutdownSignalException(false, false, null, channel)))
+                .when(channel).basicPublish(anyString(), anyString(), anyBoolean(), anyBoolean(), any(AMQP.BasicProperties.class), any(byte[].class));
+        messages.addAll(publish(publisher, 2));
+        assertTrue(publisher.isRecovering());
+        assertEquals(published.size(), 5);
+
+        // the recovered channel starts with sequence number 1 again
+        published.clear();
+        nextPublishSeqNo = 1;
+        stubPublish();
+        publisher.onRecoveryCompleted(channel);
+        assertFalse(publisher.isRecovering());
+
+        // 3 unconfirmed and 2 buffered, in the original order
+        assertEquals(published.size(), 5);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(published.get(i), messages.get(i + 2).toByteArray());
+        }
+        publisher.handleAck(5, true);
+        assertEquals(done, messages);
+        assertTrue(failed.isEmpty());
+    }
+
+    @Test
+    public void testListenerIsCompletedOnPublishWithoutConfirms() throws Exception {
+        ConfirmingPublisher publisher = new ConfirmingPublisher(channel, new DirectExecutor(), "test", false, 10, 1000L);
+        publisher.initialize();
+        verify(channel, never()).confirmSelect();
+        List<InternalMessage> messages = publish(publisher, 25);
+
+        // the window only applies to confirms
+        assertEquals(published.size(), 25);
+        assertEquals(done, messages);
+        assertEquals(publisher.getUnconfirmedCount(), 0);
+    }
+
+    @Test
+    public void testMessagesAreFailedWhenTheChannelDoesNotRecover() throws Exception {
+        ConfirmingPublisher publisher = createPublisher(100);
+        List<InternalMessage> messages = publish(publisher, 3);
+        publisher.handleAck(1, false);
+
+        doThrow(new AlreadyClosedException(new ShutdownSignalException(false, false, null, channel)))
+                .when(channel).basicPublish(anyString(), anyString(), anyBoolean(), anyBoolean(), any(AMQP.BasicProperties.class), any(byte[].class));
+        messages.addAll(publish(publisher, 2));
+        assertTrue(publisher.isRecovering());
+
+        // nothing has timed out yet
+        publisher.expireMessages(System.currentTimeMillis());
+        assertTrue(failed.isEmpty());
+
+        publisher.expireMessages(System.currentTimeMillis() + 1000L);
+        // 2 unconfirmed and 2 buffered messages
+        assertEquals(failed, messages.subList(1, 5));
+        assertEquals(publisher.getUnconfirmedCount(), 0);
+        assertEquals(publisher.getBufferedCount(), 0);
+        // a late confirm is ignored
+        publisher.handleAck(3, true);
+        assertEquals(done, messages.subList(0, 1));
+    }
+
+    private ConfirmingPublisher createPublisher(int windowSize) throws Exception {
+        ConfirmingPublisher publisher = new ConfirmingPublisher(channel, new DirectExecutor(), "test", true, windowSize, 1000L);
+        publisher.initialize();
+        return publisher;
+    }
+
+    private List<InternalMessage> publish(ConfirmingPublisher publisher, int count) {
+        List<InternalMessage> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            InternalMessage message = mock(InternalMessage.class);
+            when(message.isDurable()).thenReturn(true);
+            when(message.getTimeout()).thenReturn(-1);
+            when(message.toByteArray()).thenReturn(new byte[] { (byte) i });
+            messages.add(message);
+            publisher.publish("exchange", "queue", message, listener);
+        }
+        return messages;
+    }
+
+    private static final class DirectExecutor implements ThreadBoundExecutor<ThreadBoundEvent<?>> {
+        @Override
+        public void execute(ThreadBoundEvent<?> event) {
+            ((Runnable) event).run();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public int getThreadCount() {
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.rabbitmq.cpt;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.MessageProperties;
+import org.elasticsoftware.elasticactors.ActorRef;
+import org.elasticsoftware.elasticactors.PhysicalNode;
+import org.elasticsoftware.elasticactors.cluster.InternalActorSystem;
+import org.elasticsoftware.elasticactors.messaging.InternalMessage;
+import org.elasticsoftware.elasticactors.messaging.InternalMessageImpl;
+import org.elasticsoftware.elasticactors.messaging.MessageHandler;
+import org.elasticsoftware.elasticactors.messaging.MessageHandlerEventListener;
+import org.elasticsoftware.elasticactors.rabbitmq.MessageAcker;
+import org.elasticsoftware.elasticactors.rabbitmq.ack.DirectMessageAcker;
+import org.elasticsoftware.elasticactors.serialization.internal.ActorRefDeserializer;
+import org.elasticsoftware.elasticactors.serialization.internal.InternalMessageDeserializer;
+import org.elasticsoftware.elasticactors.util.concurrent.DaemonThreadFactory;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundExecutor;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundExecutorImpl;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Delivers messages for a number of shard queues through mocked consumer {@link Channel}s. Like the amqp client the
+ * deliveries of a channel are dispatched serially (with some cpu cost for reading the frames) and acks are written
+ * on the channel they were delivered on. With a single channel all shards share one dispatcher, spreading the
+ * queues over more channels allows the deliveries to be dispatched concurrently. One operation is a burst of
+ * {@link #BURST_SIZE} messages that are delivered and acked, the invocations that the channels record are cleared
+ * after every burst.
+ *
+ * @author Joost van de Wijgerd
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConsumerChannelsBenchmark {
+    private static final int BURST_SIZE = 1000;
+    private static final int SHARDS = 16;
+    private static final int QUEUE_THREADS = 4;
+
+    @Param({"1", "4"})
+    public int consumerChannels;
+
+    private ThreadBoundExecutor queueExecutor;
+    private final List<StubChannel> channels = new ArrayList<>();
+    private final List<Consumer> shardConsumers = new ArrayList<>();
+    private final List<StubChannel> shardChannels = new ArrayList<>();
+    private volatile CountDownLatch latch;
+    private byte[] body;
+
+    @Setup
+    public void setUp() throws Exception {
+        queueExecutor = new ThreadBoundExecutorImpl(new DaemonThreadFactory("BENCHMARK-QUEUE-WORKER"), QUEUE_THREADS);
+        final ActorRef receiver = mock(ActorRef.class);
+        when(receiver.toString()).thenReturn("actor://benchmark/benchmark/shards/0/receiver");
+        body = new InternalMessageImpl(null, receiver, ByteBuffer.wrap(new byte[256]), String.class.getName(), true).toByteArray();
+        final InternalMessageDeserializer deserializer = new InternalMessageDeserializer(
+                new ActorRefDeserializer(actorRef -> receiver), mock(InternalActorSystem.class));
+        final MessageHandler messageHandler = new MessageHandler() {
+            @Override
+            public PhysicalNode getPhysicalNode() {
+                return null;
+            }
+
+            @Override
+            public void handleMessage(InternalMessage message, MessageHandlerEventListener listener) {
+                // handling the message in the actor
+                Blackhole.consumeCPU(200);
+                listener.onDone(message);
+                latch.countDown();
+            }
+        };
+        for (int i = 0; i < consumerChannels; i++) {
+            channels.add(new StubChannel(i));
+        }
+        for (int i = 0; i < SHARDS; i++) {
+            // spread the shards over the consumer channels like the messaging service does
+            final String queueName = format("benchmark/shards/%d", i);
+            StubChannel channel = channels.get(Math.abs(queueName.hashCode()) % consumerChannels);
+            LocalMessageQueue messageQueue = new LocalMessageQueue(queueExecutor, channel.channel, null, "exchange",
+                    queueName, messageHandler, deserializer, channel.messageAcker);
+            messageQueue.initialize();
+            shardConsumers.add(channel.lastConsumer);
+            shardChannels.add(channel);
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void clearInvocations() throws Exception {
+        // all messages of the burst have been acked, so the channels are not used now
+        for (StubChannel channel : channels) {
+            channel.reset();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        queueExecutor.shutdown();
+        channels.forEach(channel -> channel.dispatcher.shutdownNow());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST_SIZE)
+    public void deliverBurst() throws InterruptedException {
+        latch = new CountDownLatch(BURST_SIZE);
+        for (int i = 0; i < BURST_SIZE; i++) {
+            shardChannels.get(i % SHARDS).deliver(shardConsumers.get(i % SHARDS), body);
+        }
+        latch.await();
+    }
+
+    /**
+     * Stubs the parts of a consumer {@link Channel} that are used by the {@link LocalMessageQueue}
+     */
+    private static final class StubChannel {
+        private final Channel channel;
+        private final MessageAcker messageAcker;
+        private final ExecutorService dispatcher;
+        private volatile Consumer lastConsumer;
+        private long deliveryTag;
+
+        private StubChannel(int index) throws IOException {
+            this.dispatcher = Executors.newSingleThreadExecutor(new DaemonThreadFactory("BENCHMARK-CHANNEL-" + index));
+            this.channel = mock(Channel.class);
+            stub();
+            this.messageAcker = new DirectMessageAcker(channel);
+        }
+
+        private void stub() throws IOException {
+            when(channel.basicConsume(anyString(), anyBoolean(), any(Consumer.class))).thenAnswer(invocation -> {
+                lastConsumer = (Consumer) invocation.getArguments()[2];
+                return "consumer";
+            });
+            doAnswer(invocation -> {
+                // writing the ack frame, a channel can only write one frame at a time
+                synchronized (this) {
+                    Blackhole.consumeCPU(100);
+                }
+                return null;
+            }).when(channel).basicAck(anyLong(), anyBoolean());
+        }
+
+        private void reset() throws IOException {
+            Mockito.reset(channel);
+            stub();
+        }
+
+        private void deliver(Consumer consumer, byte[] body) {
+            dispatcher.execute(() -> {
+                try {
+                    // reading the frames
+                    Blackhole.consumeCPU(300);
+                    consumer.handleDelivery("consumer", new Envelope(++deliveryTag, false, "exchange", "queue"),
+                            MessageProperties.PERSISTENT_BASIC, body);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ConsumerChannelsBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.rabbitmq.cpt;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import org.elasticsoftware.elasticactors.messaging.InternalMessage;
+import org.elasticsoftware.elasticactors.messaging.MessageHandlerEventListener;
+import org.elasticsoftware.elasticactors.util.concurrent.DaemonThreadFactory;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundExecutor;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundExecutorImpl;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundRunnable;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Publishes bursts of messages on a simulated producer {@link Channel}: a publish costs some cpu (writing the frames)
+ * and the broker confirms the published messages after a fixed latency. Compares the publish per message without
+ * confirms (the old path, which loses messages when the channel fails), a publish per message that waits for its
+ * confirm and the pipelined {@link ConfirmingPublisher}. One operation is a burst of {@link #BURST_SIZE} messages.
+ * The channel and message are mocks that record their invocations, these are cleared after every burst.
+ *
+ * @author Joost van de Wijgerd
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PublisherBenchmark {
+    private static final int BURST_SIZE = 1000;
+    private static final String QUEUE_NAME = "benchmark/queue";
+
+    @Param({"unconfirmed", "synchronous", "pipelined"})
+    public String publisher;
+
+    @Param({"100"})
+    public long confirmLatencyMicros;
+
+    private SimulatedBroker broker;
+    private Channel channel;
+    private ThreadBoundExecutor queueExecutor;
+    private ConfirmingPublisher confirmingPublisher;
+    private InternalMessage message;
+
+    @Setup
+    public void setUp() throws Exception {
+        broker = new SimulatedBroker(TimeUnit.MICROSECONDS.toNanos(confirmLatencyMicros));
+        channel = mock(Channel.class);
+        message = mock(InternalMessage.class);
+        stubMocks();
+        queueExecutor = new ThreadBoundExecutorImpl(new DaemonThreadFactory("BENCHMARK-QUEUE-WORKER"), 1);
+        confirmingPublisher = new ConfirmingPublisher(channel, queueExecutor, "benchmark", true, 1000, 30000L);
+        confirmingPublisher.initialize();
+    }
+
+    @TearDown(Level.Invocation)
+    public void clearInvocations() throws Exception {
+        // the whole burst has been confirmed, so the publisher doesn't use the channel now
+        reset(channel, message);
+        stubMocks();
+    }
+
+    /**
+     * Only the parts of the {@link Channel} that are used for publishing are stubbed
+     */
+    private void stubMocks() throws Exception {
+        doAnswer(invocation -> {
+            broker.confirmListener = (ConfirmListener) invocation.getArguments()[0];
+            return null;
+        }).when(channel).addConfirmListener(any(ConfirmListener.class));
+        when(channel.getNextPublishSeqNo()).thenAnswer(invocation -> broker.nextPublishSeqNo);
+        doAnswer(invocation -> {
+            broker.publish();
+            return null;
+        }).when(channel).basicPublish(anyString(), anyString(), anyBoolean(), anyBoolean(), any(AMQP.BasicProperties.class), any(byte[].class));
+        when(channel.waitForConfirms()).thenAnswer(invocation -> broker.waitForConfirms());
+        when(message.toByteArray()).thenReturn(new byte[256]);
+        when(message.isDurable()).thenReturn(true);
+        when(message.getTimeout()).thenReturn(-1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        queueExecutor.shutdown();
+        broker.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST_SIZE)
+    public void publishBurst() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(BURST_SIZE);
+        if ("pipelined".equals(publisher)) {
+            final MessageHandlerEventListener listener = new MessageHandlerEventListener() {
+                @Override
+                public void onError(InternalMessage message, Throwable exception) {
+                    latch.countDown();
+                }
+
+                @Override
+                public void onDone(InternalMessage message) {
+                    latch.countDown();
+                }
+            };
+            for (int i = 0; i < BURST_SIZE; i++) {
+                confirmingPublisher.publish("exchange", QUEUE_NAME, message, listener);
+            }
+        } else {
+            final boolean waitForConfirms = "synchronous".equals(publisher);
+            for (int i = 0; i < BURST_SIZE; i++) {
+                queueExecutor.execute(new MessageSender(latch, waitForConfirms));
+            }
+        }
+        latch.await();
+    }
+
+    private final class MessageSender implements ThreadBoundRunnable<String> {
+        private final CountDownLatch latch;
+        private final boolean waitForConfirms;
+
+        private MessageSender(CountDownLatch latch, boolean waitForConfirms) {
+            this.latch = latch;
+            this.waitForConfirms = waitForConfirms;
+        }
+
+        @Override
+        public String getKey() {
+            return QUEUE_NAME;
+        }
+
+        @Override
+        public void run() {
+            try {
+                channel.basicPublish("exchange", QUEUE_NAME, false, false,
+                        ConfirmingPublisher.createProps(message), message.toByteArray());
+                if (waitForConfirms) {
+                    channel.waitForConfirms();
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            } finally {
+                latch.countDown();
+            }
+        }
+    }
+
+    /**
+     * Confirms the published messages after the configured latency
+     */
+    private static final class SimulatedBroker {
+        private final long confirmLatencyNanos;
+        private final LinkedBlockingQueue<Long> published = new LinkedBlockingQueue<>();
+        private final Thread confirmer;
+        private volatile ConfirmListener confirmListener;
+        private volatile long confirmed;
+        private volatile boolean running = true;
+        private long nextPublishSeqNo = 1;
+
+        private SimulatedBroker(long confirmLatencyNanos) {
+            this.confirmLatencyNanos = confirmLatencyNanos;
+            this.confirmer = new Thread(this::confirm, "BENCHMARK-BROKER");
+            this.confirmer.setDaemon(true);
+            this.confirmer.start();
+        }
+
+        private void publish() {
+            // writing the frames to the socket
+            Blackhole.consumeCPU(500);
+            published.add(nextPublishSeqNo++);
+        }
+
+        private boolean waitForConfirms() {
+            final long last = nextPublishSeqNo - 1;
+            while (confirmed < last) {
+                LockSupport.parkNanos(1000L);
+            }
+            return true;
+        }
+
+        private void confirm() {
+            while (running) {
+                try {
+                    Long sequenceNumber = published.poll(100, TimeUnit.MILLISECONDS);
+                    if (sequenceNumber != null) {
+                        // everything that arrives within the latency is confirmed with one (multiple) ack
+                        LockSupport.parkNanos(confirmLatencyNanos);
+                        Long next;
+                        while ((next = published.poll()) != null) {
+                            sequenceNumber = next;
+                        }
+                        confirmed = sequenceNumber;
+                        if (confirmListener != null) {
+                            confirmListener.handleAck(sequenceNumber, true);
+                        }
+                    }
+                } catch (Exception e) {
+                    // keep confirming
+                }
+            }
+        }
+
+        private void stop() {
+            running = false;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(PublisherBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
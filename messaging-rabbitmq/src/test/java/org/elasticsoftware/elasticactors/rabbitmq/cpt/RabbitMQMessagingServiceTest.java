@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsoftware.elasticactors.rabbitmq.cpt;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Consumer;
+import org.elasticsoftware.elasticactors.messaging.MessageHandler;
+import org.elasticsoftware.elasticactors.rabbitmq.MessageAcker;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundExecutor;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Joost van de Wijgerd
+ */
+public class RabbitMQMessagingServiceTest {
+    private static final int CONSUMER_CHANNELS = 4;
+    private static final int PRODUCER_CHANNELS = 2;
+    private final List<Channel> channels = new ArrayList<>();
+    private Connection connection;
+    private ThreadBoundExecutor queueExecutor;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        channels.clear();
+        connection = mock(Connection.class);
+        when(connection.createChannel()).thenAnswer(invocation -> {
+            Channel channel = mock(Channel.class);
+            channels.add(channel);
+            return channel;
+        });
+        queueExecutor = mock(ThreadBoundExecutor.class);
+        when(queueExecutor.getThreadCount()).thenReturn(PRODUCER_CHANNELS);
+    }
+
+    @Test
+    public void testPrefetchCountIsAppliedToEveryConsumerChannel() throws Exception {
+        RabbitMQMessagingService messagingService = createMessagingService(1000);
+
+        messagingService.initializeChannels(connection);
+
+        assertEquals(channels.size(), CONSUMER_CHANNELS + PRODUCER_CHANNELS);
+        for (Channel consumerChannel : channels.subList(0, CONSUMER_CHANNELS)) {
+            // per consumer (queue), not for the whole channel
+            verify(consumerChannel).basicQos(1000, false);
+        }
+        for (Channel producerChannel : channels.subList(CONSUMER_CHANNELS, channels.size())) {
+            verify(producerChannel, never()).basicQos(anyInt(), anyBoolean());
+            verify(producerChannel).confirmSelect();
+        }
+    }
+
+    @Test
+    public void testQueuesAreSpreadOverTheConsumerChannels() throws Exception {
+        RabbitMQMessagingService messagingService = createMessagingService(100);
+        messagingService.initializeChannels(connection);
+
+        for (int i = 0; i < 64; i++) {
+            messagingService.getLocalMessageQueueFactory().create("default/shards/" + i, mock(MessageHandler.class));
+        }
+
+        // every queue is consumed from exactly one consumer channel, and every consumer channel is used
+        Set<String> queues = new HashSet<>();
+        for (Channel consumerChannel : channels.subList(0, CONSUMER_CHANNELS)) {
+            List<String> channelQueues = consumedQueues(consumerChannel);
+            assertFalse(channelQueues.isEmpty());
+            queues.addAll(channelQueues);
+        }
+        assertEquals(queues.size(), 64);
+        for (Channel producerChannel : channels.subList(CONSUMER_CHANNELS, channels.size())) {
+            assertTrue(consumedQueues(producerChannel).isEmpty());
+        }
+    }
+
+    @Test
+    public void testQueueIsAlwaysConsumedFromTheSameChannel() throws Exception {
+        RabbitMQMessagingService messagingService = createMessagingService(100);
+        messagingService.initializeChannels(connection);
+
+        messagingService.getLocalMessageQueueFactory().create("default/shards/1", mock(MessageHandler.class));
+        messagingService.getLocalMessageQueueFactory().create("default/shards/1", mock(MessageHandler.class));
+
+        int channelsWithConsumers = 0;
+        for (Channel consumerChannel : channels.subList(0, CONSUMER_CHANNELS)) {
+            List<String> channelQueues = consumedQueues(consumerChannel);
+            if (!channelQueues.isEmpty()) {
+                assertEquals(channelQueues, Arrays.asList("test.cluster/default/shards/1", "test.cluster/default/shards/1"));
+                channelsWithConsumers += 1;
+            }
+        }
+        assertEquals(channelsWithConsumers, 1);
+    }
+
+    private List<String> consumedQueues(Channel channel) throws IOException {
+        ArgumentCaptor<String> queueNames = ArgumentCaptor.forClass(String.class);
+        verify(channel, atLeast(0)).basicConsume(queueNames.capture(), eq(false), any(Consumer.class));
+        return queueNames.getAllValues();
+    }
+
+    private RabbitMQMessagingService createMessagingService(int prefetchCount) {
+        return new RabbitMQMessagingService("test.cluster", "localhost", 5672, "guest", "guest",
+                MessageAcker.Type.DIRECT, queueExecutor, null, prefetchCount, true, 1000, 30000L, CONSUMER_CHANNELS);
+    }
+}
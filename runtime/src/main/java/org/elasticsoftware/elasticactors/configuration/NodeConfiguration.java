@@ -22,11 +22,17 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import org.elasticsoftware.elasticactors.ActorRef;
 import org.elasticsoftware.elasticactors.InternalActorSystemConfiguration;
+import org.elasticsoftware.elasticactors.NodeKey;
+import org.elasticsoftware.elasticactors.ShardKey;
 import org.elasticsoftware.elasticactors.base.serialization.ObjectMapperBuilder;
+import org.elasticsoftware.elasticactors.cache.CaffeineCacheManager;
+import org.elasticsoftware.elasticactors.cache.GuavaCacheManager;
 import org.elasticsoftware.elasticactors.cache.NodeActorCacheManager;
+import org.elasticsoftware.elasticactors.cache.PersistentActorWeigher;
 import org.elasticsoftware.elasticactors.cache.ShardActorCacheManager;
 import org.elasticsoftware.elasticactors.cluster.*;
 import org.elasticsoftware.elasticactors.cluster.scheduler.ShardedScheduler;
+import org.elasticsoftware.elasticactors.cluster.tasks.MessageBatchingEventProcessor;
 import org.elasticsoftware.elasticactors.health.InternalActorSystemHealthCheck;
 import org.elasticsoftware.elasticactors.messaging.MessageQueueFactoryFactory;
 import org.elasticsoftware.elasticactors.runtime.DefaultConfiguration;
@@ -39,21 +45,29 @@ import org.elasticsoftware.elasticactors.state.DefaultActorStateUpdateProcessor;
 import org.elasticsoftware.elasticactors.state.NoopActorStateUpdateProcessor;
 import org.elasticsoftware.elasticactors.serialization.SystemSerializationFramework;
 import org.elasticsoftware.elasticactors.util.concurrent.DaemonThreadFactory;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundEventProcessor;
 import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundExecutor;
 import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundExecutorImpl;
+import org.elasticsoftware.elasticactors.util.concurrent.ThreadBoundRunnableEventProcessor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.DependsOn;
 import org.springframework.core.env.Environment;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.ResourceLoader;
+import org.springframework.core.type.AnnotatedTypeMetadata;
 
 import javax.annotation.PostConstruct;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * @author Joost van de Wijgerd
@@ -128,13 +142,43 @@ public class NodeConfiguration {
     @Bean(name = {"nodeActorCacheManager"})
     public NodeActorCacheManager createNodeActorCacheManager() {
         int maximumSize = env.getProperty("ea.nodeCache.maximumSize",Integer.class,10240);
-        return new NodeActorCacheManager(maximumSize);
+        final Boolean useCaffeine = env.getProperty("ea.nodeCache.useCaffeine",Boolean.class,Boolean.FALSE);
+        // when a weight budget is configured it replaces the maximumSize
+        final Long maximumWeightBytes = env.getProperty("ea.nodeCache.maximumWeightBytes",Long.class);
+        if(maximumWeightBytes != null) {
+            final int defaultStateSize = env.getProperty("ea.nodeCache.defaultStateSizeBytes",Integer.class,1024);
+            final PersistentActorWeigher<NodeKey> weigher = new PersistentActorWeigher<>(defaultStateSize);
+            if(useCaffeine) {
+                return new NodeActorCacheManager(new CaffeineCacheManager<>(maximumWeightBytes, weigher));
+            } else {
+                return new NodeActorCacheManager(new GuavaCacheManager<>(maximumWeightBytes, weigher));
+            }
+        } else if(useCaffeine) {
+            return new NodeActorCacheManager(new CaffeineCacheManager<>(maximumSize));
+        } else {
+            return new NodeActorCacheManager(maximumSize);
+        }
     }
 
     @Bean(name = {"shardActorCacheManager"})
     public ShardActorCacheManager createShardActorCacheManager() {
         int maximumSize = env.getProperty("ea.shardCache.maximumSize",Integer.class,10240);
-        return new ShardActorCacheManager(maximumSize);
+        final Boolean useCaffeine = env.getProperty("ea.shardCache.useCaffeine",Boolean.class,Boolean.FALSE);
+        // when a weight budget is configured it replaces the maximumSize
+        final Long maximumWeightBytes = env.getProperty("ea.shardCache.maximumWeightBytes",Long.class);
+        if(maximumWeightBytes != null) {
+            final int defaultStateSize = env.getProperty("ea.shardCache.defaultStateSizeBytes",Integer.class,1024);
+            final PersistentActorWeigher<ShardKey> weigher = new PersistentActorWeigher<>(defaultStateSize);
+            if(useCaffeine) {
+                return new ShardActorCacheManager(new CaffeineCacheManager<>(maximumWeightBytes, weigher));
+            } else {
+                return new ShardActorCacheManager(new GuavaCacheManager<>(maximumWeightBytes, weigher));
+            }
+        } else if(useCaffeine) {
+            return new ShardActorCacheManager(new CaffeineCacheManager<>(maximumSize));
+        } else {
+            return new ShardActorCacheManager(maximumSize);
+        }
     }
 
     @Bean(name = {"actorExecutor"}, destroyMethod = "shutdown")
@@ -142,18 +186,42 @@ public class NodeConfiguration {
     public ThreadBoundExecutor createActorExecutor() {
         final int workers = env.getProperty("ea.actorExecutor.workerCount",Integer.class,Runtime.getRuntime().availableProcessors() * 3);
         final Boolean useDisruptor = env.getProperty("ea.actorExecutor.useDisruptor",Boolean.class,Boolean.FALSE);
+        final Boolean useWorkStealing = env.getProperty("ea.actorExecutor.useWorkStealing",Boolean.class,Boolean.FALSE);
+        final Boolean useVirtualThreads = env.getProperty("ea.actorExecutor.useVirtualThreads",Boolean.class,Boolean.FALSE);
+        // messages are only handled together for actors with @PersistenceConfig(batchMessages = true) when enabled
+        final Boolean batchMessages = env.getProperty("ea.actorExecutor.batchMessages",Boolean.class,Boolean.FALSE);
+        // the maximum number of queued tasks handed to the processor in one go, this is also the upper bound for
+        // the number of messages that are handled together
+        final int maxBatchSize = batchMessages ? env.getProperty("ea.actorExecutor.maxBatchSize",Integer.class,20) : 1;
+        final ThreadBoundEventProcessor eventProcessor = batchMessages ? new MessageBatchingEventProcessor() : new ThreadBoundRunnableEventProcessor();
+        if(useWorkStealing && useVirtualThreads) {
+            throw new IllegalStateException("ea.actorExecutor.useWorkStealing and ea.actorExecutor.useVirtualThreads cannot both be enabled");
+        }
         if(useDisruptor) {
-            return new org.elasticsoftware.elasticactors.util.concurrent.disruptor.ThreadBoundExecutorImpl(new DaemonThreadFactory("ACTOR-WORKER"),workers);
+            return new org.elasticsoftware.elasticactors.util.concurrent.disruptor.ThreadBoundExecutorImpl(eventProcessor,1024,new DaemonThreadFactory("ACTOR-WORKER"),workers);
+        } else if(useWorkStealing) {
+            return new org.elasticsoftware.elasticactors.util.concurrent.workstealing.ThreadBoundExecutorImpl(eventProcessor, maxBatchSize, new DaemonThreadFactory("ACTOR-WORKER"), workers);
+        } else if(useVirtualThreads) {
+            // falls back to platform threads (and logs a warning) when the JVM doesn't support virtual threads
+            return new org.elasticsoftware.elasticactors.util.concurrent.virtualthreads.ThreadBoundExecutorImpl(eventProcessor, maxBatchSize, new DaemonThreadFactory("ACTOR-WORKER"), workers);
         } else {
-            return new ThreadBoundExecutorImpl(new DaemonThreadFactory("ACTOR-WORKER"), workers);
+            return new ThreadBoundExecutorImpl(eventProcessor, maxBatchSize, new DaemonThreadFactory("ACTOR-WORKER"), workers);
         }
     }
 
+    @Bean(name = {"actorActivationExecutor"}, destroyMethod = "shutdown")
+    @Conditional(AsyncActivationCondition.class)
+    public ExecutorService createActorActivationExecutor() {
+        final int workers = env.getProperty("ea.actorActivationExecutor.workerCount",Integer.class,Runtime.getRuntime().availableProcessors() * 3);
+        return Executors.newFixedThreadPool(workers, new DaemonThreadFactory("ACTIVATION-WORKER"));
+    }
+
     @Bean(name = {"queueExecutor"}, destroyMethod = "shutdown")
     @DependsOn("actorExecutor")
     public ThreadBoundExecutor createQueueExecutor() {
         final int workers = env.getProperty("ea.queueExecutor.workerCount",Integer.class,Runtime.getRuntime().availableProcessors() * 3);
         final Boolean useDisruptor = env.getProperty("ea.actorExecutor.useDisruptor",Boolean.class,Boolean.FALSE);
+        // the queue executor stays thread bound, the messaging layer keeps a channel per worker thread
         if(useDisruptor) {
             return new org.elasticsoftware.elasticactors.util.concurrent.disruptor.ThreadBoundExecutorImpl(new DaemonThreadFactory("QUEUE-WORKER"), workers);
         } else {
@@ -163,7 +231,11 @@ public class NodeConfiguration {
 
     @Bean(name = {"internalActorSystem"}, destroyMethod = "shutdown")
     public InternalActorSystem createLocalActorSystemInstance() {
-        return new LocalActorSystemInstance(node,node,configuration,nodeSelectorFactory);
+        // handle the responses to ask requests without creating a temp actor per request
+        final Boolean useReplyEndpoint = env.getProperty("ea.ask.useReplyEndpoint",Boolean.class,Boolean.FALSE);
+        final Long replyTimeoutMillis = env.getProperty("ea.ask.replyTimeoutMillis",Long.class,60000L);
+        return new LocalActorSystemInstance(node,node,configuration,nodeSelectorFactory,
+                useReplyEndpoint ? new ReplyEndpoint(replyTimeoutMillis) : null);
     }
 
     @Bean(name = {"remoteActorSystems"})
@@ -174,7 +246,10 @@ public class NodeConfiguration {
     @Bean(name = {"scheduler"})
     public ShardedScheduler createScheduler() {
         //@todo: maybe configure scheduler here with number of workers
-        return new ShardedScheduler();
+        final Boolean useTimingWheel = env.getProperty("ea.scheduler.useTimingWheel",Boolean.class,Boolean.FALSE);
+        final Long loadWindowMillis = env.getProperty("ea.scheduler.loadWindowMillis",Long.class,0L);
+        final Integer loadPageSize = env.getProperty("ea.scheduler.loadPageSize",Integer.class,1000);
+        return new ShardedScheduler(useTimingWheel, loadWindowMillis, loadPageSize);
     }
 
     @Bean(name = {"actorSystemEventListenerService"})
@@ -198,4 +273,15 @@ public class NodeConfiguration {
             return new DefaultActorStateUpdateProcessor(listeners.values(), workers, maxBatchSize);
         }
     }
+
+    /**
+     * The actorActivationExecutor is only needed (and its threads only started) when asynchronous actor activation
+     * is enabled on the shards
+     */
+    public static final class AsyncActivationCondition implements Condition {
+        @Override
+        public boolean matches(ConditionContext context, AnnotatedTypeMetadata metadata) {
+            return context.getEnvironment().getProperty("ea.actorShard.asyncActivation", Boolean.class, Boolean.FALSE);
+        }
+    }
 }
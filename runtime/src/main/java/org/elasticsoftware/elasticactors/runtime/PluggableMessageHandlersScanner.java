@@ -16,7 +16,7 @@
 
 package org.elasticsoftware.elasticactors.runtime;
 
-import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ListMultimap;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -42,8 +42,9 @@ public final class PluggableMessageHandlersScanner implements MessageHandlersReg
     private static final Logger logger = LogManager.getLogger(PluggableMessageHandlersScanner.class);
     @Inject
     private ApplicationContext applicationContext;
-    private final ListMultimap<Class<? extends MethodActor>,Class<?>> registry = LinkedListMultimap.create();
-    private final ListMultimap<Class<? extends ElasticActor>,ActorLifecycleListener<?>> lifecycleListeners = LinkedListMultimap.create();
+    // immutable once initialized, the lifecycle listeners are looked up for every lifecycle step
+    private ListMultimap<Class<? extends MethodActor>,Class<?>> registry = ImmutableListMultimap.of();
+    private ListMultimap<Class<? extends ElasticActor>,ActorLifecycleListener<?>> lifecycleListeners = ImmutableListMultimap.of();
 
 
     @PostConstruct
@@ -58,22 +59,27 @@ public final class PluggableMessageHandlersScanner implements MessageHandlersReg
         Reflections reflections = new Reflections(configurationBuilder);
 
         Set<Class<?>> handlerClasses = reflections.getTypesAnnotatedWith(PluggableMessageHandlers.class);
+        ImmutableListMultimap.Builder<Class<? extends MethodActor>,Class<?>> registryBuilder = ImmutableListMultimap.builder();
 
         for (Class<?> handlerClass : handlerClasses) {
             PluggableMessageHandlers handlerAnnotation = handlerClass.getAnnotation(PluggableMessageHandlers.class);
-            registry.put(handlerAnnotation.value(),handlerClass);
+            registryBuilder.put(handlerAnnotation.value(),handlerClass);
         }
 
+        this.registry = registryBuilder.build();
+
         Set<Class<? extends ActorLifecycleListener>> listenerClasses = reflections.getSubTypesOf(ActorLifecycleListener.class);
+        ImmutableListMultimap.Builder<Class<? extends ElasticActor>,ActorLifecycleListener<?>> listenersBuilder = ImmutableListMultimap.builder();
         for (Class<? extends ActorLifecycleListener> listenerClass : listenerClasses) {
             try {
                 ActorLifecycleListener lifeCycleListener = listenerClass.newInstance();
                 // ensure that the lifeCycle listener handles the correct state class
-                lifecycleListeners.put(lifeCycleListener.getActorClass(), lifeCycleListener);
+                listenersBuilder.put(lifeCycleListener.getActorClass(), lifeCycleListener);
             } catch(Exception e) {
                 logger.error("Exception while instantiating ActorLifeCycleListener",e);
             }
         }
+        this.lifecycleListeners = listenersBuilder.build();
     }
 
     @Override
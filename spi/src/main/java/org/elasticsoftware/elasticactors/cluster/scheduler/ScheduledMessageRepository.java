@@ -17,8 +17,13 @@
 package org.elasticsoftware.elasticactors.cluster.scheduler;
 
 import org.elasticsoftware.elasticactors.ShardKey;
+import org.elasticsoftware.elasticactors.messaging.InternalMessage;
+import org.elasticsoftware.elasticactors.messaging.MessageHandlerEventListener;
 
+import javax.annotation.Nullable;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * @author Joost van de Wijgerd
@@ -28,5 +33,73 @@ public interface ScheduledMessageRepository {
 
     void delete(ShardKey shardKey, ScheduledMessageKey scheduledMessage);
 
+    /**
+     * Creates the scheduled message in the background, the listener is called when the message has been written. The
+     * default implementation writes synchronously.
+     */
+    default void createAsync(ShardKey shardKey,
+                             ScheduledMessage scheduledMessage,
+                             @Nullable InternalMessage message,
+                             @Nullable MessageHandlerEventListener messageHandlerEventListener) {
+        try {
+            create(shardKey, scheduledMessage);
+        } catch (RuntimeException e) {
+            if (messageHandlerEventListener != null) {
+                messageHandlerEventListener.onError(message, e);
+                return;
+            }
+            throw e;
+        }
+        if (messageHandlerEventListener != null) {
+            messageHandlerEventListener.onDone(message);
+        }
+    }
+
+    /**
+     * Deletes the scheduled message in the background. The default implementation deletes synchronously.
+     */
+    default void deleteAsync(ShardKey shardKey, ScheduledMessageKey scheduledMessage) {
+        deleteAsync(shardKey, scheduledMessage, null);
+    }
+
+    /**
+     * Deletes the scheduled message in the background, the listener is called when the message has been deleted. The
+     * default implementation deletes synchronously.
+     */
+    default void deleteAsync(ShardKey shardKey,
+                             ScheduledMessageKey scheduledMessage,
+                             @Nullable MessageHandlerEventListener messageHandlerEventListener) {
+        try {
+            delete(shardKey, scheduledMessage);
+        } catch (RuntimeException e) {
+            if (messageHandlerEventListener != null) {
+                messageHandlerEventListener.onError(null, e);
+                return;
+            }
+            throw e;
+        }
+        if (messageHandlerEventListener != null) {
+            messageHandlerEventListener.onDone(null);
+        }
+    }
+
     List<ScheduledMessage> getAll(ShardKey shardKey);
+
+    /**
+     * Returns the scheduled messages of the shard that have a fire time between fromMillis (inclusive) and toMillis
+     * (exclusive), ordered by fire time. The messages are read from the backing store in pages of pageSize.
+     *
+     * <p/>
+     * The default implementation filters the result of {@link #getAll(ShardKey)}, implementations should override it
+     * to only read the requested range.
+     */
+    default List<ScheduledMessage> getRange(ShardKey shardKey, long fromMillis, long toMillis, int pageSize) {
+        return getAll(shardKey).stream()
+                .filter(message -> {
+                    long fireTime = message.getFireTime(TimeUnit.MILLISECONDS);
+                    return fireTime >= fromMillis && fireTime < toMillis;
+                })
+                .sorted((first, second) -> Long.compare(first.getFireTime(TimeUnit.MILLISECONDS), second.getFireTime(TimeUnit.MILLISECONDS)))
+                .collect(Collectors.toList());
+    }
 }
@@ -45,6 +45,14 @@ public final class PersistentActor<K> implements ActorContext, ProcessorContext
     @Nullable
     private final String affinityKey;
     private transient volatile byte[] serializedState;
+    // size of the last serialized state, retained after the serialized bytes have been released
+    private transient volatile int serializedStateSize;
+    // serialized state size the cache weight was computed with, -1 when the actor is not in a weighted cache
+    private transient volatile int weighedStateSize = -1;
+    // only used by repositories that write state deltas: the last persisted record and the delta sequence numbers
+    private transient volatile byte[] persistedRecord;
+    private transient volatile long snapshotSequence;
+    private transient volatile long deltaSequence;
     private volatile ActorState actorState;
     private HashMultimap<String, MessageSubscriber> messageSubscribers;
     private List<InternalPersistentSubscription> persistentSubscriptions;
@@ -108,6 +116,7 @@ public final class PersistentActor<K> implements ActorContext, ProcessorContext
         this.ref = ref;
         this.affinityKey = affinityKey;
         this.serializedState = serializedState;
+        this.serializedStateSize = (serializedState != null) ? serializedState.length : 0;
         this.actorState = actorState;
         this.messageSubscribers = messageSubscribers;
         this.persistentSubscriptions = persistentSubscriptions;
@@ -154,6 +163,65 @@ public final class PersistentActor<K> implements ActorContext, ProcessorContext
 
     public void setSerializedState(byte[] serializedState) {
         this.serializedState = serializedState;
+        if(serializedState != null) {
+            this.serializedStateSize = serializedState.length;
+        }
+    }
+
+    /**
+     * @return the size in bytes of the last known serialized state, or 0 when the state was never serialized
+     */
+    public int getSerializedStateSize() {
+        return serializedStateSize;
+    }
+
+    public int getWeighedStateSize() {
+        return weighedStateSize;
+    }
+
+    public void setWeighedStateSize(int weighedStateSize) {
+        this.weighedStateSize = weighedStateSize;
+    }
+
+    /**
+     * @return the last record that was written by a repository that persists state deltas, or null when the next
+     * update should be written as a full snapshot
+     */
+    @Nullable
+    public byte[] getPersistedRecord() {
+        return persistedRecord;
+    }
+
+    /**
+     * @return the sequence number of the last delta that is included in the persisted snapshot
+     */
+    public long getSnapshotSequence() {
+        return snapshotSequence;
+    }
+
+    /**
+     * @return the sequence number of the last persisted delta
+     */
+    public long getDeltaSequence() {
+        return deltaSequence;
+    }
+
+    public synchronized void setPersistedRecord(@Nullable byte[] persistedRecord, long snapshotSequence, long deltaSequence) {
+        this.persistedRecord = persistedRecord;
+        this.snapshotSequence = snapshotSequence;
+        this.deltaSequence = deltaSequence;
+    }
+
+    /**
+     * Makes the next update write a full snapshot that also removes all the deltas up to (and including) the given
+     * sequence. Used when a write failed, as it is then unknown what has actually been persisted.
+     *
+     * @param failedDeltaSequence the sequence number of the delta (or the last delta before the snapshot) that failed
+     */
+    public synchronized void resetPersistedRecord(long failedDeltaSequence) {
+        this.persistedRecord = null;
+        this.snapshotSequence = -1;
+        this.deltaSequence = Math.max(this.deltaSequence, failedDeltaSequence);
     }
 
     @Override
@@ -242,6 +310,7 @@ public final class PersistentActor<K> implements ActorContext, ProcessorContext
     public void serializeState() throws IOException {
         this.serializedState = actorSystem.getParent().getSerializationFramework(actorState.getSerializationFramework())
                 .getActorStateSerializer(this.actorState).serialize(this.actorState);
+        this.serializedStateSize = this.serializedState.length;
     }
 
 }
@@ -90,7 +90,10 @@ public class TestConfiguration {
 
     @DependsOn("configuration") @Bean(name = {"internalActorSystem"})
     public LocalActorSystemInstance createLocalActorSystemInstance(InternalActorSystems internalActorSystems) {
-        return new LocalActorSystemInstance(localNode,internalActorSystems,configuration,nodeSelectorFactory);
+        final Boolean useReplyEndpoint = env.getProperty("ea.ask.useReplyEndpoint",Boolean.class,Boolean.FALSE);
+        final Long replyTimeoutMillis = env.getProperty("ea.ask.replyTimeoutMillis",Long.class,60000L);
+        return new LocalActorSystemInstance(localNode,internalActorSystems,configuration,nodeSelectorFactory,
+                useReplyEndpoint ? new ReplyEndpoint(replyTimeoutMillis) : null);
     }
 
     @Bean(name = {"actorSystems,actorRefFactory"})
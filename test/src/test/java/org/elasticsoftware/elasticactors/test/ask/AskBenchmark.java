@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.test.ask;
+
+import org.elasticsoftware.elasticactors.ActorRef;
+import org.elasticsoftware.elasticactors.test.TestActorSystem;
+import org.elasticsoftware.elasticactors.test.common.EchoGreetingActor;
+import org.elasticsoftware.elasticactors.test.common.Greeting;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of an ask to a (local) echo actor, with a temp actor per request and with the pooled
+ * {@link org.elasticsoftware.elasticactors.cluster.ReplyEndpoint}. The allocations reported by the gc profiler are for
+ * the whole round trip, including the messaging of the test actor system. Run the main method to get the gc profiler
+ * output.
+ *
+ * @author Joost van de Wijgerd
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@org.openjdk.jmh.annotations.Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AskBenchmark {
+    @Param({"false", "true"})
+    public String useReplyEndpoint;
+
+    private TestActorSystem testActorSystem;
+    private ActorRef echo;
+    private final Greeting greeting = new Greeting("echo");
+
+    @Setup
+    public void setUp() throws Exception {
+        System.setProperty("ea.ask.useReplyEndpoint", useReplyEndpoint);
+        testActorSystem = new TestActorSystem();
+        testActorSystem.initialize();
+        echo = testActorSystem.getActorSystem().actorOf("echo", EchoGreetingActor.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.clearProperty("ea.ask.useReplyEndpoint");
+        testActorSystem.destroy();
+    }
+
+    @Benchmark
+    public Greeting ask() throws Exception {
+        return echo.ask(greeting, Greeting.class).toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(AskBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
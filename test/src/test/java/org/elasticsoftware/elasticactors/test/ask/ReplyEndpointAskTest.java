@@ -0,0 +1,110 @@
+/*
+ * Copyright 2013 - 2017 The Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsoftware.elasticactors.test.ask;
+
+import org.elasticsoftware.elasticactors.ActorNotFoundException;
+import org.elasticsoftware.elasticactors.ActorRef;
+import org.elasticsoftware.elasticactors.ActorSystem;
+import org.elasticsoftware.elasticactors.test.TestActorSystem;
+import org.elasticsoftware.elasticactors.test.common.EchoGreetingActor;
+import org.elasticsoftware.elasticactors.test.common.Greeting;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Runs the ask requests through the pooled {@link org.elasticsoftware.elasticactors.cluster.ReplyEndpoint} instead of
+ * a temp actor per request
+ *
+ * @author Joost van de Wijgerd
+ */
+@Test(singleThreaded = true)
+public class ReplyEndpointAskTest {
+    private TestActorSystem testActorSystem;
+
+    @BeforeMethod
+    public void setUp() {
+        System.setProperty("ea.ask.useReplyEndpoint", "true");
+        System.setProperty("ea.ask.replyTimeoutMillis", "500");
+        testActorSystem = new TestActorSystem();
+        testActorSystem.initialize();
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() {
+        System.clearProperty("ea.ask.useReplyEndpoint");
+        System.clearProperty("ea.ask.replyTimeoutMillis");
+        testActorSystem.destroy();
+    }
+
+    @Test
+    public void testAskGreeting() throws Exception {
+        ActorSystem actorSystem = testActorSystem.getActorSystem();
+        ActorRef echo = actorSystem.actorOf("e", EchoGreetingActor.class);
+
+        for (int i = 0; i < 100; i++) {
+            Greeting response = echo.ask(new Greeting("echo"), Greeting.class).toCompletableFuture().get(5, TimeUnit.SECONDS);
+            assertEquals(response.getWho(), "echo");
+        }
+    }
+
+    @Test
+    public void testAskGreetingViaActorWithPersistOnReponse() throws Exception {
+        ActorSystem actorSystem = testActorSystem.getActorSystem();
+        ActorRef echo = actorSystem.actorOf("ask", AskForGreetingActor.class);
+
+        // the reply is sent from the whenComplete callback of the inner ask, this needs an actor context
+        Greeting response = echo.ask(new AskForGreeting(true), Greeting.class).toCompletableFuture().get(5, TimeUnit.SECONDS);
+
+        assertEquals(response.getWho(), "echo");
+    }
+
+    @Test
+    public void testAskTimesOut() throws Exception {
+        ActorSystem actorSystem = testActorSystem.getActorSystem();
+        ActorRef echo = actorSystem.actorOf("e", EchoGreetingActor.class);
+
+        try {
+            // the echo actor doesn't handle this message
+            echo.ask(new AskForGreeting(), Greeting.class).toCompletableFuture().get(5, TimeUnit.SECONDS);
+            fail("expected the ask to time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException, e.getCause().toString());
+        }
+    }
+
+    @Test
+    public void testAskNonExistingActor() throws Exception {
+        ActorSystem actorSystem = testActorSystem.getActorSystem();
+        ActorRef missing = actorSystem.actorFor("missing");
+
+        try {
+            missing.ask(new Greeting("echo"), Greeting.class).toCompletableFuture().get(5, TimeUnit.SECONDS);
+            fail("expected the ask to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ActorNotFoundException, e.getCause().toString());
+        }
+    }
+}